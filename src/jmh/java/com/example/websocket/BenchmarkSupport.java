@@ -0,0 +1,27 @@
+// src/jmh/java/com/example/websocket/BenchmarkSupport.java
+package com.example.websocket;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.LoggerFactory;
+
+/** Shared setup for the relay benchmarks. */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /** The relay logs every routed request at INFO; benchmarks measure routing, not the console appender. */
+    static void quietLogging() {
+        ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(Level.WARN);
+    }
+
+    /** A JSON string literal body of exactly n ASCII characters, standing in for base64 file or screenshot data. */
+    static String payload(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('A' + i % 26));
+        }
+        return sb.toString();
+    }
+}
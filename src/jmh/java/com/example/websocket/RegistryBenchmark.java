@@ -0,0 +1,89 @@
+// src/jmh/java/com/example/websocket/RegistryBenchmark.java
+package com.example.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+
+/**
+ * NodeRegistry lookups done for every inbound frame and every dispatch, across fleet sizes.
+ * Lookups cycle through all registered nodes so the maps are not served from a single hot entry.
+ *
+ * Run with: mvn -Pjmh package && java -jar target/benchmarks.jar RegistryBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int nodes;
+
+    private NodeRegistry registry;
+    private StubConnection[] connections;
+    private String[] nodeIds;
+    private Set<String> selector;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.quietLogging();
+        registry = new NodeRegistry();
+        connections = new StubConnection[nodes];
+        nodeIds = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            connections[i] = new StubConnection(i);
+            nodeIds[i] = "node-" + i;
+            Set<String> capabilities = new HashSet<>();
+            capabilities.add("os=" + (i % 3 == 0 ? "linux" : "windows"));
+            capabilities.add("apps=excel");
+            registry.registerClientNode(nodeIds[i], connections[i], capabilities);
+        }
+        selector = Collections.singleton("os=linux");
+    }
+
+    private int next() {
+        int i = cursor + 1;
+        cursor = i == nodes ? 0 : i;
+        return cursor;
+    }
+
+    /** Done for every inbound frame, to find the sender. */
+    @Benchmark
+    public NodeInfo lookupByConnection() {
+        return registry.getNodeInfoByConnection(connections[next()]);
+    }
+
+    /** Done for every node_command addressed by nodeId. */
+    @Benchmark
+    public NodeInfo lookupByNodeId() {
+        return registry.getClientNodeInfo(nodeIds[next()]);
+    }
+
+    /** Selector dispatch: pick and count the least-loaded matching node, then release it as its response would. */
+    @Benchmark
+    public NodeInfo acquireLeastLoaded() {
+        NodeInfo node = registry.acquireLeastLoadedNode(selector, 0);
+        registry.releaseNode(node);
+        return node;
+    }
+}
@@ -0,0 +1,97 @@
+// src/jmh/java/com/example/websocket/RoutingBenchmark.java
+package com.example.websocket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The relay's per-request path, driven through Server.onMessage with stub connections:
+ * handleAuthenticatedMessage -> CommandOrchestrator.dispatchNodeCommand for the batch client's node_command,
+ * then handleAuthenticatedMessage -> NodeCommander.handleIncomingNodeMessage -> CommandOrchestrator.handleNodeResponse
+ * for the node's answer. payloadBytes is the size of the response data (read_file, screenshot).
+ *
+ * Run with: mvn -Pjmh package && java -jar target/benchmarks.jar RoutingBenchmark -prof gc
+ * (-prof gc adds gc.alloc.rate.norm, the bytes allocated per operation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RoutingBenchmark {
+
+    @Param({"100", "10000", "1000000", "5000000"})
+    int payloadBytes;
+
+    @Param({"10", "1000", "100000"})
+    int nodes;
+
+    private Server server;
+    private StubConnection client;
+    private StubConnection target;
+    private String commandFrame;
+    private String responseFrame;
+    private String statusFrame;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.quietLogging();
+        server = new Server(0, RelayConfig.load(), InboundDispatcher.Mode.INLINE); // handlers run on the benchmark thread
+        for (int i = 0; i < nodes; i++) {
+            StubConnection conn = new StubConnection(i);
+            server.onMessage(conn, "{\"type\":\"identify_rpa_node\",\"nodeId\":\"node-" + i + "\",\"capabilities\":{\"os\":\"windows\",\"apps\":[\"excel\"]}}");
+            if (i == nodes / 2) {
+                target = conn;
+            }
+        }
+        client = new StubConnection(nodes);
+        server.onMessage(client, "{\"type\":\"identify_batch_client\",\"clientId\":\"bench-client\"}");
+
+        String nodeId = "node-" + nodes / 2;
+        commandFrame = "{\"type\":\"node_command\",\"requestId\":\"bench-1\",\"nodeId\":\"" + nodeId
+                + "\",\"command\":{\"action\":\"read_file\",\"params\":{\"path\":\"C:/data/input.csv\"}}}";
+        responseFrame = "{\"type\":\"node_response\",\"requestId\":\"bench-1\",\"nodeId\":\"" + nodeId
+                + "\",\"response\":{\"status\":\"success\",\"data\":\"" + BenchmarkSupport.payload(payloadBytes) + "\"}}";
+        statusFrame = "{\"type\":\"status_update\",\"status\":\"active\"}";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    /** One request end to end: command in from the batch client, response in from the node, both relayed. */
+    @Benchmark
+    public long commandRoundTrip() {
+        server.onMessage(client, commandFrame);
+        server.onMessage(target, responseFrame);
+        return client.sentBytes;
+    }
+
+    /** Single-pass decode of a node_response, without routing. */
+    @Benchmark
+    public int decodeResponse() {
+        return FrameEnvelope.parse(responseFrame).responseEnd();
+    }
+
+    /** A node's status_update: decode, NodeCommander dispatch and a registry status change. */
+    @Benchmark
+    public long nodeStatusUpdate() {
+        server.onMessage(target, statusFrame);
+        return target.sentFrames;
+    }
+}
@@ -0,0 +1,83 @@
+// src/jmh/java/com/example/websocket/StubConnection.java
+package com.example.websocket;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A connection that is always open and swallows every write, counting it.
+ * Nothing is ever pending, so the outbound queues always write straight through.
+ */
+final class StubConnection implements RelayConnection {
+    private final InetSocketAddress address;
+    private Object attachment;
+    long sentFrames;
+    long sentBytes;
+
+    StubConnection(int id) {
+        this.address = InetSocketAddress.createUnresolved("10.0." + (id >>> 8 & 0xff) + "." + (id & 0xff), 40000 + (id & 0x3fff));
+    }
+
+    @Override
+    public boolean sendText(String text) {
+        sentFrames++;
+        sentBytes += text.length();
+        return true;
+    }
+
+    @Override
+    public boolean sendText(byte[] utf8) {
+        sentFrames++;
+        sentBytes += utf8.length;
+        return true;
+    }
+
+    @Override
+    public boolean sendBinary(ByteBuffer data) {
+        sentFrames++;
+        sentBytes += data.remaining();
+        return true;
+    }
+
+    @Override
+    public boolean sendBinary(byte[] data) {
+        sentFrames++;
+        sentBytes += data.length;
+        return true;
+    }
+
+    @Override
+    public boolean sendPing() {
+        return true;
+    }
+
+    @Override
+    public int pendingWrites() {
+        return 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close(int code, String reason) {
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return address;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+}
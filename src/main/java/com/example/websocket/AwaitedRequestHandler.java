@@ -0,0 +1,221 @@
+// src/main/java/com/example/websocket/AwaitedRequestHandler.java
+package com.example.websocket;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * POST /api/request/{nodeId}: sends the JSON body to the node as a node_command under a fresh requestId and
+ * answers with the node's node_response frame, or 504 once the request's deadline passes (?timeoutMs=, capped
+ * like any node_command). The servlet response is held open asynchronously, so a waiting request holds no
+ * Jetty thread; the answer is written from a Jetty thread, never from the relay's worker that routed it.
+ * Spark routes complete their response as soon as they return, so this runs as a plain Jetty handler in
+ * front of Spark's (see {@link #install}).
+ */
+public class AwaitedRequestHandler extends AbstractHandler {
+    private static final Logger logger = LoggerFactory.getLogger(AwaitedRequestHandler.class);
+    private static final Gson gson = new Gson();
+    private static final String PATH_PREFIX = "/api/request/";
+
+    private final CommandOrchestrator orchestrator;
+
+    public AwaitedRequestHandler(CommandOrchestrator orchestrator) {
+        this.orchestrator = orchestrator;
+    }
+
+    /** Makes Spark's embedded Jetty run this handler before Spark's own. Must be called before the first route. */
+    public void install() {
+        EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY, new EmbeddedJettyFactory(new FrontedServerFactory(this)));
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!"POST".equals(request.getMethod()) || !target.startsWith(PATH_PREFIX) || target.length() == PATH_PREFIX.length()) {
+            return; // Spark's turn
+        }
+        baseRequest.setHandled(true);
+        String nodeId = nodeIdOf(request.getRequestURI());
+        if (nodeId == null) {
+            respond(response, 404, error(null, "Expected /api/request/{nodeId} with the node id as one URL-encoded path segment."));
+            return;
+        }
+
+        long timeoutMs;
+        String timeoutParam = request.getParameter("timeoutMs");
+        try {
+            timeoutMs = timeoutParam != null ? Long.parseLong(timeoutParam) : -1;
+        } catch (NumberFormatException e) {
+            respond(response, 400, error(null, "Invalid timeoutMs: " + timeoutParam));
+            return;
+        }
+        String command = new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            if (!JsonParser.parseString(command).isJsonObject()) {
+                respond(response, 400, error(null, "The command must be a JSON object."));
+                return;
+            }
+        } catch (JsonParseException e) {
+            respond(response, 400, error(null, "Invalid JSON command: " + e.getMessage()));
+            return;
+        }
+
+        String requestId = "http-" + UUID.randomUUID();
+        FrameEnvelope envelope = FrameEnvelope.parse(FrameWriter.nodeCommand(requestId, nodeId, timeoutMs, command, 0, command.length()));
+        // No async timeout of its own: the pending request table always completes the answer by its deadline
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        NodeCommander.DispatchResult result = orchestrator.dispatchAwaitedCommand(envelope, answer);
+        if (result != NodeCommander.DispatchResult.SENT) {
+            logger.warn("AwaitedRequestHandler: Request {} for node {} not dispatched: {}.", requestId, nodeId, result);
+            complete(async, statusFor(result), error(requestId, messageFor(result, nodeId)));
+            return;
+        }
+        answer.whenComplete((frame, failure) -> async.start(() -> {
+            if (failure == null) {
+                complete(async, 200, frame);
+            } else {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                complete(async, statusFor(cause), error(requestId, cause.getMessage()));
+            }
+        }));
+    }
+
+    /**
+     * The node id of a raw (still URL-encoded) request URI, decoded; null unless the path is exactly
+     * /api/request/{nodeId}. An encoded slash (%2F) is part of the id, a literal one is an extra segment.
+     */
+    static String nodeIdOf(String requestUri) {
+        if (requestUri == null || !requestUri.startsWith(PATH_PREFIX)) {
+            return null;
+        }
+        String segment = requestUri.substring(PATH_PREFIX.length());
+        if (segment.isEmpty() || segment.indexOf('/') >= 0) {
+            return null;
+        }
+        try {
+            // URLDecoder is for form data; in a path '+' is a plus sign, not a space
+            String nodeId = URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8);
+            return nodeId.isEmpty() ? null : nodeId;
+        } catch (IllegalArgumentException e) {
+            return null; // a malformed %-escape
+        }
+    }
+
+    private static void complete(AsyncContext async, int status, String body) {
+        try {
+            respond((HttpServletResponse) async.getResponse(), status, body);
+        } catch (IOException e) {
+            logger.debug("AwaitedRequestHandler: HTTP caller went away before its answer was written: {}", e.getMessage());
+        } finally {
+            async.complete();
+        }
+    }
+
+    private static void respond(HttpServletResponse response, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    private static String error(String requestId, String message) {
+        return requestId == null
+                ? gson.toJson(Map.of("status", "error", "message", message))
+                : gson.toJson(Map.of("status", "error", "requestId", requestId, "message", message));
+    }
+
+    /** 504 once the request's deadline passed; 503 when the node went away or the relay gave the request up. */
+    static int statusFor(Throwable failure) {
+        return failure instanceof TimeoutException ? 504 : 503;
+    }
+
+    static int statusFor(NodeCommander.DispatchResult result) {
+        switch (result) {
+            case UNAVAILABLE:
+            case NO_MATCHING_NODE:
+                return 404;
+            case DUPLICATE_REQUEST:
+                return 409;
+            case RATE_LIMITED:
+                return 429;
+            default:
+                return 503;
+        }
+    }
+
+    static String messageFor(NodeCommander.DispatchResult result, String nodeId) {
+        switch (result) {
+            case BUSY:
+                return "Node " + nodeId + " is busy. Retry later.";
+            case RELAY_AT_CAPACITY:
+                return "Relay is at its pending request capacity. Retry later.";
+            case DUPLICATE_REQUEST:
+                return "Request is already pending.";
+            case RATE_LIMITED:
+                return "HTTP callers are over their rate limit. Retry later.";
+            case DRAINING:
+                return "Relay is restarting and takes no new commands. Retry later.";
+            default:
+                return "Node " + nodeId + " not found or not active.";
+        }
+    }
+
+    /** Spark's default Jetty server, except that whatever handler Spark installs runs after the given one. */
+    private static final class FrontedServerFactory implements JettyServerFactory {
+        private final Handler first;
+
+        FrontedServerFactory(Handler first) {
+            this.first = first;
+        }
+
+        @Override
+        public org.eclipse.jetty.server.Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+            if (maxThreads <= 0) {
+                return create(null);
+            }
+            return create(new QueuedThreadPool(maxThreads, minThreads > 0 ? minThreads : 8, threadTimeoutMillis > 0 ? threadTimeoutMillis : 60000));
+        }
+
+        @Override
+        public org.eclipse.jetty.server.Server create(ThreadPool threadPool) {
+            return new org.eclipse.jetty.server.Server(threadPool) {
+                @Override
+                public void setHandler(Handler handler) {
+                    if (handler == null) {
+                        super.setHandler(null);
+                        return;
+                    }
+                    HandlerList handlers = new HandlerList();
+                    handlers.setHandlers(new Handler[] {first, handler});
+                    super.setHandler(handlers);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// src/main/java/com/example/websocket/BroadcastRequest.java
+package com.example.websocket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+
+/**
+ * Scatter-gather state of one node_broadcast: the targets still outstanding and the per-node results
+ * and failures gathered so far. Results are appended to the aggregated node_broadcast_result as they
+ * arrive, as raw slices of the nodes' frames, so completing a broadcast is one final append.
+ *
+ * A broadcast completes once it is sealed (every target has been attempted) and nothing is outstanding,
+ * or when its deadline passes, whichever comes first.
+ *
+ * In the result, every target is counted once: 'succeeded' answered with a response that isn't an error,
+ * 'failed' could not be reached or answered with an error (see {@link ResultCache#isErrorResponse}), and
+ * 'timedOut' did not answer before the deadline. Failed and timed-out targets are both listed in 'failures',
+ * an error answer with its 'response'; 'complete' is true only if every target succeeded.
+ */
+public class BroadcastRequest {
+    public final String requestId;
+    public final String source;
+    // Targets are sent their command right after construction; their answers' latency counts from here
+    final long startedNanos = System.nanoTime();
+
+    private final Map<String, NodeInfo> outstanding = new HashMap<>();
+    private final StringBuilder results = new StringBuilder();
+    private final StringBuilder failures = new StringBuilder();
+    private int targeted;
+    private int succeeded;
+    private int failed;
+    private int timedOut;
+    private int failureEntries;
+    private boolean sealed;
+    private boolean completed;
+
+    public BroadcastRequest(String requestId, String source) {
+        this.requestId = requestId;
+        this.source = source;
+    }
+
+    /** Registers a target before its command is written, so an early response finds it. False if already targeted. */
+    synchronized boolean addTarget(NodeInfo node) {
+        if (outstanding.putIfAbsent(node.nodeId, node) != null) {
+            return false;
+        }
+        targeted++;
+        return true;
+    }
+
+    /** Records a target that could not be reached; it no longer counts as outstanding. */
+    synchronized void fail(String nodeId, String reason) {
+        if (outstanding.remove(nodeId) == null) {
+            targeted++;
+        }
+        failed++;
+        appendFailure(nodeId, reason);
+    }
+
+    /**
+     * Records a node's response and appends its 'response' slice to the results, or to the failures if it
+     * reports an error.
+     * @return false if the sender is not an outstanding target (late, duplicate or unsolicited).
+     */
+    synchronized boolean recordResponse(NodeInfo sender, FrameEnvelope envelope) {
+        if (completed || outstanding.remove(sender.nodeId) == null) {
+            return false;
+        }
+        if (!envelope.hasResponseObject()) {
+            failed++;
+            appendFailure(sender.nodeId, "Node response missing 'response' object.");
+        } else if (ResultCache.isErrorResponse(envelope.frame(), envelope.responseStart(), envelope.responseEnd())) {
+            failed++;
+            appendFailure(sender.nodeId, "Node reported an error.", envelope);
+        } else {
+            if (succeeded++ > 0) {
+                results.append(',');
+            }
+            results.append("{\"nodeId\":");
+            FrameWriter.appendQuoted(results, sender.nodeId);
+            results.append(",\"response\":").append(envelope.frame(), envelope.responseStart(), envelope.responseEnd()).append('}');
+        }
+        return true;
+    }
+
+    /** True once every target has been attempted and answered. */
+    synchronized boolean isAnswered() {
+        return sealed && !completed && outstanding.isEmpty();
+    }
+
+    /**
+     * Marks every target as attempted.
+     * @return true if nothing is outstanding, i.e. the broadcast is already complete.
+     */
+    synchronized boolean seal() {
+        sealed = true;
+        return outstanding.isEmpty();
+    }
+
+    /**
+     * Ends the broadcast; targets still outstanding are reported as timed out.
+     * @return the outstanding nodes, whose in-flight counts the caller releases.
+     */
+    synchronized List<NodeInfo> complete() {
+        completed = true;
+        List<NodeInfo> remaining = new ArrayList<>(outstanding.values());
+        for (NodeInfo node : remaining) {
+            timedOut++;
+            appendFailure(node.nodeId, "Timed out waiting for a response.");
+        }
+        outstanding.clear();
+        return remaining;
+    }
+
+    /** The aggregated node_broadcast_result frame. */
+    synchronized String resultFrame() {
+        StringBuilder frame = new StringBuilder(results.length() + failures.length() + 160);
+        frame.append("{\"type\":\"node_broadcast_result\",\"requestId\":");
+        FrameWriter.appendQuoted(frame, requestId);
+        frame.append(",\"targeted\":").append(targeted)
+             .append(",\"succeeded\":").append(succeeded)
+             .append(",\"failed\":").append(failed)
+             .append(",\"timedOut\":").append(timedOut)
+             .append(",\"complete\":").append(failed == 0 && timedOut == 0)
+             .append(",\"results\":[").append(results)
+             .append("],\"failures\":[").append(failures).append("]}");
+        return frame.toString();
+    }
+
+    synchronized int getTargeted() {
+        return targeted;
+    }
+
+    /** Lists a failed or timed-out target; the caller counts it. */
+    private void appendFailure(String nodeId, String reason) {
+        appendFailure(nodeId, reason, null);
+    }
+
+    /** Lists a failed target along with the 'response' slice of its error answer, if given. */
+    private void appendFailure(String nodeId, String reason, FrameEnvelope errorResponse) {
+        if (failureEntries++ > 0) {
+            failures.append(',');
+        }
+        failures.append("{\"nodeId\":");
+        FrameWriter.appendQuoted(failures, nodeId);
+        failures.append(",\"reason\":");
+        FrameWriter.appendQuoted(failures, reason);
+        if (errorResponse != null) {
+            failures.append(",\"response\":").append(errorResponse.frame(), errorResponse.responseStart(), errorResponse.responseEnd());
+        }
+        failures.append('}');
+    }
+}
@@ -0,0 +1,340 @@
+// src/main/java/com/example/websocket/CapabilityIndex.java
+package com.example.websocket;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+
+/**
+ * Inverted index from capability token (e.g. "os=windows", "apps=excel") to the RPA nodes advertising it.
+ *
+ * Each posting list is bucketed by the nodes' in-flight request count, so picking the least-loaded
+ * node for a selector walks buckets from the lowest load upwards and usually stops at the first entry,
+ * independent of fleet size. In-flight counts are only changed through {@link #acquire} and
+ * {@link #release}, which relink the node into the neighbouring bucket of every posting it belongs to.
+ * Nodes are appended at the tail of a bucket, so equally loaded nodes are picked round-robin.
+ *
+ * A node ejected for poor health (see {@link NodeHealth}) is parked: unlinked from every bucket until its
+ * ejection ends, so scans never walk past it. Parked nodes return to their buckets on the first lookup after
+ * the earliest of their ejections has run out.
+ */
+public class CapabilityIndex {
+
+    /** Token every indexed node carries; an empty selector matches it. */
+    public static final String ANY = "*";
+
+    /** A node's membership in one posting; linked into the bucket for its current load. */
+    static final class Link {
+        final NodeInfo node;
+        final Posting posting;
+        Link prev;
+        Link next;
+
+        Link(NodeInfo node, Posting posting) {
+            this.node = node;
+            this.posting = posting;
+        }
+    }
+
+    /** Buckets of intrusive doubly-linked lists, indexed by in-flight count; moves never hash. */
+    static final class Posting {
+        private final String token;
+        private Link[] heads = new Link[4];
+        private Link[] tails = new Link[4];
+        private int size;
+
+        Posting(String token) {
+            this.token = token;
+        }
+
+        void append(Link link, int load) {
+            if (load >= heads.length) {
+                int length = Math.max(load + 1, heads.length * 2);
+                heads = Arrays.copyOf(heads, length);
+                tails = Arrays.copyOf(tails, length);
+            }
+            link.prev = tails[load];
+            link.next = null;
+            if (tails[load] == null) {
+                heads[load] = link;
+            } else {
+                tails[load].next = link;
+            }
+            tails[load] = link;
+        }
+
+        void unlink(Link link, int load) {
+            if (link.prev == null) {
+                heads[load] = link.next;
+            } else {
+                link.prev.next = link.next;
+            }
+            if (link.next == null) {
+                tails[load] = link.prev;
+            } else {
+                link.next.prev = link.prev;
+            }
+            link.prev = null;
+            link.next = null;
+        }
+    }
+
+    private final Map<String, Posting> postings = new HashMap<>();
+    // Nodes out of the buckets until their parkedUntil; the earliest of those, or Long.MAX_VALUE
+    private final List<NodeInfo> parked = new ArrayList<>();
+    private long nextUnparkAt = Long.MAX_VALUE;
+
+    /** Indexes a node; one whose health record is still ejected starts out parked. */
+    public synchronized void add(NodeInfo node) {
+        if (node.indexLinks != null) {
+            return;
+        }
+        Link[] links = new Link[node.capabilities.size() + 1];
+        int i = 0;
+        links[i++] = new Link(node, postings.computeIfAbsent(ANY, Posting::new));
+        for (String token : node.capabilities) {
+            links[i++] = new Link(node, postings.computeIfAbsent(token, Posting::new));
+        }
+        long ejectedUntil = node.health != null ? node.health.getEjectedUntil() : 0;
+        boolean park = ejectedUntil > System.currentTimeMillis();
+        for (Link link : links) {
+            if (!park) {
+                link.posting.append(link, node.inFlight);
+            }
+            link.posting.size++;
+        }
+        node.indexLinks = links;
+        if (park) {
+            parkUntil(node, ejectedUntil);
+        }
+    }
+
+    public synchronized void remove(NodeInfo node) {
+        Link[] links = node.indexLinks;
+        if (links == null) {
+            return;
+        }
+        node.indexLinks = null;
+        boolean wasParked = node.parkedUntil != 0;
+        if (wasParked) {
+            parked.remove(node);
+            node.parkedUntil = 0;
+        }
+        for (Link link : links) {
+            if (!wasParked) {
+                link.posting.unlink(link, node.inFlight);
+            }
+            if (--link.posting.size == 0) {
+                postings.remove(link.posting.token);
+            }
+        }
+    }
+
+    /**
+     * Picks the dispatchable node with the fewest in-flight requests among those carrying every token of the
+     * selector and below maxInFlight (0 for no limit), and counts one more request against it.
+     * @return the chosen node, or null if no dispatchable node matches or every match is at the limit.
+     */
+    public synchronized NodeInfo acquireLeastLoaded(Set<String> selector, int maxInFlight) {
+        unparkDue();
+        Posting smallest = postings.get(ANY);
+        if (smallest == null) {
+            return null;
+        }
+        for (String token : selector) {
+            Posting posting = postings.get(token);
+            if (posting == null) {
+                return null;
+            }
+            if (posting.size < smallest.size) {
+                smallest = posting;
+            }
+        }
+        int loads = maxInFlight > 0 ? Math.min(maxInFlight, smallest.heads.length) : smallest.heads.length;
+        for (int load = 0; load < loads; load++) {
+            for (Link link = smallest.heads[load]; link != null; link = link.next) {
+                NodeInfo candidate = link.node;
+                if (isDispatchable(candidate) && (selector.isEmpty() || candidate.capabilities.containsAll(selector))) {
+                    acquire(candidate);
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Every dispatchable node carrying all tokens of the selector, least loaded first.
+     * Does not change any in-flight count.
+     */
+    public synchronized List<NodeInfo> matchAll(Set<String> selector) {
+        unparkDue();
+        Posting smallest = postings.get(ANY);
+        if (smallest == null) {
+            return Collections.emptyList();
+        }
+        for (String token : selector) {
+            Posting posting = postings.get(token);
+            if (posting == null) {
+                return Collections.emptyList();
+            }
+            if (posting.size < smallest.size) {
+                smallest = posting;
+            }
+        }
+        List<NodeInfo> matches = new ArrayList<>(smallest.size);
+        for (Link head : smallest.heads) {
+            for (Link link = head; link != null; link = link.next) {
+                NodeInfo candidate = link.node;
+                if (isDispatchable(candidate) && (selector.isEmpty() || candidate.capabilities.containsAll(selector))) {
+                    matches.add(candidate);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /** Counts one more in-flight request against a node. */
+    public synchronized void acquire(NodeInfo node) {
+        move(node, node.inFlight, node.inFlight + 1);
+    }
+
+    /** Counts one more in-flight request against a node unless it already has maxInFlight (0 for no limit). */
+    public synchronized boolean tryAcquire(NodeInfo node, int maxInFlight) {
+        if (maxInFlight > 0 && node.inFlight >= maxInFlight) {
+            return false;
+        }
+        acquire(node);
+        return true;
+    }
+
+    /** Counts one in-flight request of a node as finished. */
+    public synchronized void release(NodeInfo node) {
+        if (node.inFlight > 0) {
+            move(node, node.inFlight, node.inFlight - 1);
+        }
+    }
+
+    /**
+     * Takes a node out of every bucket until the given time, for an ejection; selectors and broadcasts
+     * don't see it meanwhile. Its in-flight count is still kept. Extends the parking of a parked node.
+     */
+    public synchronized void park(NodeInfo node, long until) {
+        if (node.indexLinks == null || until <= System.currentTimeMillis()) {
+            return;
+        }
+        if (node.parkedUntil == 0) {
+            for (Link link : node.indexLinks) {
+                link.posting.unlink(link, node.inFlight);
+            }
+        }
+        parkUntil(node, until);
+    }
+
+    public synchronized int getParkedCount() {
+        return parked.size();
+    }
+
+    private void parkUntil(NodeInfo node, long until) {
+        if (node.parkedUntil == 0) {
+            parked.add(node);
+        }
+        node.parkedUntil = until;
+        nextUnparkAt = Math.min(nextUnparkAt, until);
+    }
+
+    /** Puts parked nodes whose time is up back into their buckets. One comparison unless one is due. */
+    private void unparkDue() {
+        long now = System.currentTimeMillis();
+        if (now < nextUnparkAt) {
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (Iterator<NodeInfo> it = parked.iterator(); it.hasNext(); ) {
+            NodeInfo node = it.next();
+            if (node.parkedUntil <= now) {
+                it.remove();
+                node.parkedUntil = 0;
+                for (Link link : node.indexLinks) {
+                    link.posting.append(link, node.inFlight);
+                }
+            } else {
+                next = Math.min(next, node.parkedUntil);
+            }
+        }
+        nextUnparkAt = next;
+    }
+
+    private void move(NodeInfo node, int from, int to) {
+        node.inFlight = to;
+        Link[] links = node.indexLinks;
+        if (links == null || node.parkedUntil != 0) {
+            return;
+        }
+        for (Link link : links) {
+            link.posting.unlink(link, from);
+            link.posting.append(link, to);
+        }
+    }
+
+    /**
+     * Still connected. IDLE nodes count: they are only quiet and take commands like ACTIVE ones; ejected
+     * nodes are not in the buckets at all.
+     */
+    private static boolean isDispatchable(NodeInfo node) {
+        return node.conn != null && node.conn.isOpen();
+    }
+
+    /**
+     * Flattens an advertised capability object into lower-case tokens:
+     * {"os":"Windows","apps":["Excel","Chrome"],"screen":{"width":1920}} becomes
+     * os=windows, apps=excel, apps=chrome, screen.width=1920. A boolean true becomes the bare key.
+     */
+    public static Set<String> tokensOf(JsonObject capabilities) {
+        if (capabilities == null || capabilities.size() == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> tokens = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : capabilities.entrySet()) {
+            collect(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue(), tokens);
+        }
+        return Collections.unmodifiableSet(tokens);
+    }
+
+    private static void collect(String key, JsonElement value, Set<String> tokens) {
+        if (value == null || value.isJsonNull()) {
+            return;
+        }
+        if (value.isJsonArray()) {
+            JsonArray array = value.getAsJsonArray();
+            for (JsonElement element : array) {
+                collect(key, element, tokens);
+            }
+        } else if (value.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> entry : value.getAsJsonObject().entrySet()) {
+                collect(key + "." + entry.getKey().toLowerCase(Locale.ROOT), entry.getValue(), tokens);
+            }
+        } else {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                tokens.add(primitive.getAsBoolean() ? key : key + "=false");
+            } else {
+                tokens.add(key + "=" + primitive.getAsString().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+}
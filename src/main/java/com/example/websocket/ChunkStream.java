@@ -0,0 +1,129 @@
+// src/main/java/com/example/websocket/ChunkStream.java
+package com.example.websocket;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+
+/**
+ * A chunked payload streamed by a node for one pending request, e.g. a large read_file or screenshot.
+ *
+ * Instead of one giant node_response, the node sends stream_begin, then binary chunk frames, then
+ * stream_end. Each chunk frame is relayed to the originator unchanged, as soon as it arrives.
+ * Flow control is credit based: the node may only have windowChunks chunks unacknowledged, and credit
+ * is returned once chunks have been handed to the originator's socket. The relay therefore buffers at
+ * most windowChunks chunks per stream, however large the payload is.
+ *
+ * Chunk frame layout (binary; 0xC1 is never used by MessagePack, so it cannot be mistaken for an envelope):
+ * <pre>
+ *   0xC1 | seq (u32, from 0) | requestId length (u16) | requestId (UTF-8) | payload bytes
+ * </pre>
+ */
+public class ChunkStream {
+
+    public static final byte CHUNK_MAGIC = (byte) 0xC1;
+    private static final int FIXED_HEADER_BYTES = 1 + 4 + 2;
+
+    public final String requestId;
+    public final String source;
+    public final NodeInfo node;
+    public final RelayConnection destination;
+    private final int windowChunks;
+
+    private int credits;
+    private int deliveredSinceGrant;
+    private int nextSeq;
+    private long chunks;
+    private long bytes;
+
+    public ChunkStream(String requestId, String source, NodeInfo node, RelayConnection destination, int windowChunks) {
+        this.requestId = requestId;
+        this.source = source;
+        this.node = node;
+        this.destination = destination;
+        this.windowChunks = Math.max(1, windowChunks);
+        this.credits = this.windowChunks;
+    }
+
+    public int getWindowChunks() {
+        return windowChunks;
+    }
+
+    /**
+     * Counts an inbound chunk against the node's credit.
+     * @return null if accepted, otherwise the protocol violation.
+     */
+    synchronized String acceptChunk(int seq, int payloadBytes) {
+        if (seq != nextSeq) {
+            return "Chunk " + seq + " out of order; expected " + nextSeq + ".";
+        }
+        if (credits <= 0) {
+            return "Chunk " + seq + " sent without credit.";
+        }
+        credits--;
+        nextSeq++;
+        chunks++;
+        bytes += payloadBytes;
+        return null;
+    }
+
+    /**
+     * Records a chunk handed to the originator's socket.
+     * @return the credit to return to the node now, or 0 to keep accumulating.
+     */
+    synchronized int chunkDelivered() {
+        deliveredSinceGrant++;
+        if (deliveredSinceGrant < Math.max(1, windowChunks / 2)) {
+            return 0;
+        }
+        int grant = deliveredSinceGrant;
+        deliveredSinceGrant = 0;
+        credits += grant;
+        return grant;
+    }
+
+    public synchronized long getChunks() {
+        return chunks;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    // --- Chunk frame header ---
+
+    /** True if a binary frame is a stream chunk rather than a MessagePack envelope. */
+    public static boolean isChunk(ByteBuffer frame) {
+        return frame.remaining() > 0 && frame.get(frame.position()) == CHUNK_MAGIC;
+    }
+
+    /** Sequence number of a chunk frame. */
+    static int seqOf(ByteBuffer frame) {
+        return frame.getInt(frame.position() + 1);
+    }
+
+    /** requestId of a chunk frame, or null if the header is truncated. */
+    static String requestIdOf(ByteBuffer frame) {
+        if (frame.remaining() < FIXED_HEADER_BYTES) {
+            return null;
+        }
+        int p = frame.position();
+        int length = frame.getShort(p + 5) & 0xffff;
+        if (frame.remaining() < FIXED_HEADER_BYTES + length) {
+            return null;
+        }
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = frame.get(p + FIXED_HEADER_BYTES + i);
+        }
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /** Payload size of a chunk frame whose header has been validated by {@link #requestIdOf}. */
+    static int payloadBytesOf(ByteBuffer frame) {
+        int length = frame.getShort(frame.position() + 5) & 0xffff;
+        return frame.remaining() - FIXED_HEADER_BYTES - length;
+    }
+}
@@ -0,0 +1,254 @@
+// src/main/java/com/example/websocket/ClientSessions.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batch Server Client sessions, keyed by clientId, through which every response to a batch client is delivered.
+ * When a client's connection goes away its session is kept for RELAY_SESSION_GRACE_MS: responses arriving in
+ * the meantime are buffered, and a client identifying again with the same clientId within that window gets them
+ * first, in the order they arrived, before anything newer. Past the window the session and its buffer are dropped.
+ * <p>
+ * The buffer holds up to RELAY_SESSION_BUFFER_MAX_FRAMES frames / RELAY_SESSION_BUFFER_MAX_BYTES characters in
+ * memory. With RELAY_SESSION_SPILL_DIR set, what doesn't fit goes to an append-only memory-mapped file of
+ * RELAY_SESSION_SPILL_MAX_BYTES per session; once a session spills, later frames follow it there, keeping order.
+ * A frame that fits nowhere is dropped and counted. A grace window of 0 disables sessions.
+ */
+public class ClientSessions {
+    private static final Logger logger = LoggerFactory.getLogger(ClientSessions.class);
+
+    private final class Session {
+        final String clientId;
+        // All state below is guarded by the session
+        RelayConnection conn;
+        long detachedAt;
+        final ArrayDeque<String> buffered = new ArrayDeque<>();
+        long bufferedChars = 0;
+        SpillFile spill;
+        boolean spillFailed = false;
+
+        Session(String clientId) {
+            this.clientId = clientId;
+        }
+
+        /** Queues frame for the client; false if it had to be dropped. */
+        boolean buffer(String frame) {
+            if (spill == null && buffered.size() < maxFrames && bufferedChars + frame.length() <= maxChars) {
+                buffered.add(frame);
+                bufferedChars += frame.length();
+                bufferedFrames.increment();
+                return true;
+            }
+            if (spill == null && !openSpill()) {
+                return false;
+            }
+            if (!spill.append(frame)) {
+                return false;
+            }
+            bufferedFrames.increment();
+            return true;
+        }
+
+        private boolean openSpill() {
+            if (spillDirectory == null || spillFailed) {
+                return false;
+            }
+            try {
+                spill = SpillFile.create(spillDirectory, "session-", spillMaxBytes);
+                logger.info("ClientSessions: Spilling responses for Batch Server Client '{}' to {}.", clientId, spill);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                spillFailed = true; // don't retry for every frame of this session
+                logger.error("ClientSessions: Could not open a spill file for Batch Server Client '{}' in {}: {}", clientId, spillDirectory, e.getMessage());
+                return false;
+            }
+        }
+
+        /** Sends everything buffered to conn, oldest first. Returns the number of frames sent. */
+        int drainTo(RelayConnection target) {
+            int sent = 0;
+            for (String frame; (frame = buffered.poll()) != null; sent++) {
+                outbound.send(target, frame);
+            }
+            bufferedChars = 0;
+            if (spill != null) {
+                for (String frame; (frame = spill.next()) != null; sent++) {
+                    outbound.send(target, frame);
+                }
+                spill.delete();
+                spill = null;
+            }
+            bufferedFrames.add(-sent);
+            return sent;
+        }
+
+        int discard() {
+            int dropped = buffered.size() + (spill != null ? spill.frames() : 0);
+            buffered.clear();
+            bufferedChars = 0;
+            if (spill != null) {
+                spill.delete();
+                spill = null;
+            }
+            bufferedFrames.add(-dropped);
+            return dropped;
+        }
+    }
+
+    private final OutboundDispatcher outbound;
+    private final long graceMs;
+    private final int maxFrames;
+    private final long maxChars;
+    private final Path spillDirectory;
+    private final int spillMaxBytes;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final LongAdder bufferedFrames = new LongAdder();
+    private final LongAdder redelivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public ClientSessions(OutboundDispatcher outbound, RelayConfig config) {
+        this.outbound = outbound;
+        this.graceMs = config.sessionGraceMs;
+        this.maxFrames = config.sessionBufferMaxFrames;
+        this.maxChars = config.sessionBufferMaxBytes;
+        this.spillDirectory = config.sessionSpillDir != null ? Paths.get(config.sessionSpillDir) : null;
+        this.spillMaxBytes = config.sessionSpillMaxBytes;
+        if (isEnabled()) {
+            logger.info("ClientSessions: Initialized. Grace window {} ms, {} frames / {} chars buffered per client, spill {}.",
+                    graceMs, maxFrames, maxChars, spillDirectory != null ? "to " + spillDirectory : "disabled");
+        }
+    }
+
+    public boolean isEnabled() {
+        return graceMs > 0;
+    }
+
+    /**
+     * Binds clientId's session to conn, first sending conn whatever was buffered while the client was away.
+     * Call before the client becomes reachable through the registry, so nothing newer can overtake the backlog.
+     */
+    public void attach(String clientId, RelayConnection conn) {
+        Session session = sessions.computeIfAbsent(clientId, Session::new);
+        synchronized (session) {
+            boolean resumed = session.conn == null && session.detachedAt != 0;
+            int sent = session.drainTo(conn);
+            session.conn = conn;
+            session.detachedAt = 0;
+            if (sent > 0) {
+                redelivered.add(sent);
+                logger.info("ClientSessions: Batch Server Client '{}' resumed its session. Redelivered {} buffered responses.", clientId, sent);
+            } else if (resumed) {
+                logger.info("ClientSessions: Batch Server Client '{}' resumed its session. Nothing was buffered.", clientId);
+            }
+        }
+    }
+
+    /** Starts the grace window of clientId's session, unless conn has already been replaced by a newer connection. */
+    public void detach(String clientId, RelayConnection conn) {
+        Session session = sessions.get(clientId);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            if (session.conn != conn) {
+                return;
+            }
+            session.conn = null;
+            if (!isEnabled()) {
+                sessions.remove(clientId, session);
+                return;
+            }
+            session.detachedAt = System.currentTimeMillis();
+        }
+        logger.info("ClientSessions: Batch Server Client '{}' disconnected. Buffering its responses for up to {} ms.", clientId, graceMs);
+    }
+
+    /**
+     * Sends frame to clientId's connection, or buffers it while the client is within its grace window.
+     * False if the client has no session or the frame had to be dropped.
+     */
+    public boolean deliver(String clientId, String frame) {
+        Session session = sessions.get(clientId);
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            if (session.conn != null) {
+                if (session.conn.isOpen() && outbound.send(session.conn, frame) != OutboundQueue.SendResult.CLOSED) {
+                    return true;
+                }
+                if (!isEnabled()) {
+                    return false;
+                }
+                // Closing, or replaced by a connection that isn't attached yet; the grace window starts now
+                session.conn = null;
+                session.detachedAt = System.currentTimeMillis();
+            }
+            if (session.detachedAt == 0) {
+                return false; // attach is draining into a new connection
+            }
+            if (session.buffer(frame)) {
+                return true;
+            }
+        }
+        dropped.increment();
+        logger.warn("ClientSessions: Buffer for disconnected Batch Server Client '{}' is full. Dropped a response.", clientId);
+        return false;
+    }
+
+    /** Drops sessions whose grace window has passed, along with what they buffered. Called periodically. */
+    public void expire() {
+        long cutoff = System.currentTimeMillis() - graceMs;
+        for (Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+            Session session = it.next().getValue();
+            int discarded;
+            synchronized (session) {
+                if (session.conn != null || session.detachedAt == 0 || session.detachedAt > cutoff) {
+                    continue;
+                }
+                it.remove();
+                discarded = session.discard();
+            }
+            dropped.add(discarded);
+            if (discarded > 0) {
+                logger.warn("ClientSessions: Batch Server Client '{}' did not return within {} ms. Dropped {} buffered responses.", session.clientId, graceMs, discarded);
+            } else {
+                logger.info("ClientSessions: Batch Server Client '{}' did not return within {} ms. Session ended.", session.clientId, graceMs);
+            }
+        }
+    }
+
+    public int getDetachedSessionCount() {
+        int count = 0;
+        for (Session session : sessions.values()) {
+            synchronized (session) {
+                if (session.conn == null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public long getBufferedFrames() {
+        return bufferedFrames.sum();
+    }
+
+    public long getRedelivered() {
+        return redelivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
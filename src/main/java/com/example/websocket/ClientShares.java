@@ -0,0 +1,175 @@
+// src/main/java/com/example/websocket/ClientShares.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What each client of the relay is entitled to: a priority class, a weight and a token-bucket rate limit.
+ * Clients are keyed by their clientId; all members of the Incoming Test Master pool share "INCOMING_TEST", all
+ * HTTP callers share "http" and requests forwarded by a peer relay count as "relay:" + relayId.
+ * <p>
+ * A command queued for a busy node (see {@link NodeAdmission}) waits in its client's priority class:
+ * INTERACTIVE commands are admitted before any BULK one, and within a class each client gets a share of the
+ * node's freed slots proportional to its weight. By default the Incoming Test Master and HTTP callers are
+ * INTERACTIVE and batch clients BULK; RELAY_CLIENT_PRIORITIES and RELAY_CLIENT_WEIGHTS override that per client.
+ * RELAY_CLIENT_RATE_LIMITS ("clientId=rate[:burst]" commands per second) and RELAY_CLIENT_DEFAULT_RATE_LIMIT
+ * bound how fast a client may submit commands; forwarded relay traffic was limited where it entered the
+ * cluster and is only limited if configured by name.
+ */
+public class ClientShares {
+    private static final Logger logger = LoggerFactory.getLogger(ClientShares.class);
+    static final String HTTP_CLIENT = "http";
+    static final String MASTER_CLIENT = "INCOMING_TEST";
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    /** One client's entitlement and what happened to its commands. */
+    public static final class Share {
+        public final String clientId;
+        public final Priority priority;
+        public final int weight;
+        private final double ratePerSecond;
+        private final double burst;
+        // Token bucket; guarded by the share
+        private double tokens;
+        private long refilledAt;
+        final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder dispatched = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder queuedTotal = new LongAdder();
+
+        Share(String clientId, Priority priority, int weight, double ratePerSecond, double burst) {
+            this.clientId = clientId;
+            this.priority = priority;
+            this.weight = Math.max(1, weight);
+            this.ratePerSecond = ratePerSecond;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /** Takes a token for one command; false, and counted, if the client is over its rate. */
+        boolean tryAcquire() {
+            if (ratePerSecond <= 0) {
+                return true;
+            }
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerSecond / 1e9);
+                refilledAt = now;
+                if (tokens >= 1) {
+                    tokens--;
+                    return true;
+                }
+            }
+            rateLimited.increment();
+            return false;
+        }
+
+        public boolean isRateLimited() {
+            return ratePerSecond > 0;
+        }
+
+        public double getRatePerSecond() {
+            return ratePerSecond;
+        }
+
+        public int getQueued() {
+            return queued.get();
+        }
+
+        public long getDispatched() {
+            return dispatched.sum();
+        }
+
+        public long getRateLimited() {
+            return rateLimited.sum();
+        }
+
+        public long getQueuedTotal() {
+            return queuedTotal.sum();
+        }
+
+        void recordDispatched() {
+            dispatched.increment();
+        }
+
+        void recordQueued() {
+            queuedTotal.increment();
+        }
+    }
+
+    private final Map<String, String> priorities;
+    private final Map<String, String> weights;
+    private final Map<String, String> rateLimits;
+    private final String defaultRateLimit;
+    private final ConcurrentHashMap<String, Share> shares = new ConcurrentHashMap<>();
+
+    public ClientShares(RelayConfig config) {
+        this.priorities = config.clientPriorities;
+        this.weights = config.clientWeights;
+        this.rateLimits = config.clientRateLimits;
+        this.defaultRateLimit = config.clientDefaultRateLimit;
+    }
+
+    /** The share of the client behind a request source identifier. */
+    public Share of(String sourceIdentifier) {
+        String clientId = sourceIdentifier.startsWith(CommandOrchestrator.HTTP_SOURCE_PREFIX) ? HTTP_CLIENT
+                : CommandOrchestrator.isMasterSource(sourceIdentifier) ? MASTER_CLIENT : sourceIdentifier;
+        Share share = shares.get(clientId);
+        return share != null ? share : shares.computeIfAbsent(clientId, this::create);
+    }
+
+    public Collection<Share> all() {
+        return Collections.unmodifiableCollection(shares.values());
+    }
+
+    private Share create(String clientId) {
+        boolean forwarded = clientId.startsWith(CommandOrchestrator.RELAY_SOURCE_PREFIX);
+        Priority priority = MASTER_CLIENT.equals(clientId) || HTTP_CLIENT.equals(clientId) ? Priority.INTERACTIVE : Priority.BULK;
+        String configured = priorities.get(clientId);
+        if (configured != null) {
+            try {
+                priority = Priority.valueOf(configured.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                logger.warn("ClientShares: Invalid priority '{}' for client '{}'. Using {}.", configured, clientId, priority);
+            }
+        }
+        int weight = (int) parse(weights.get(clientId), 1, clientId, "weight");
+        String limit = rateLimits.containsKey(clientId) ? rateLimits.get(clientId) : forwarded ? null : defaultRateLimit;
+        double rate = 0;
+        double burst = 1;
+        if (limit != null) {
+            int colon = limit.indexOf(':');
+            rate = parse(colon < 0 ? limit : limit.substring(0, colon), 0, clientId, "rate limit");
+            burst = colon < 0 ? rate : parse(limit.substring(colon + 1), rate, clientId, "burst");
+        }
+        Share share = new Share(clientId, priority, weight, rate, burst);
+        logger.info("ClientShares: Client '{}' is {} with weight {}{}.", clientId, share.priority, share.weight,
+                share.isRateLimited() ? ", limited to " + rate + " commands/s (burst " + share.burst + ")" : "");
+        return share;
+    }
+
+    private static double parse(String value, double defaultValue, String clientId, String what) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("ClientShares: Invalid {} '{}' for client '{}'. Using {}.", what, value, clientId, defaultValue);
+            return defaultValue;
+        }
+    }
+}
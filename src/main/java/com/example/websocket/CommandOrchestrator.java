@@ -1,10 +1,15 @@
 package com.example.websocket;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.java_websocket.WebSocket;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.example.websocket.NodeRegistry.NodeInfo;
 import org.slf4j.Logger;
@@ -12,135 +17,1164 @@ import org.slf4j.LoggerFactory;
 
 public class CommandOrchestrator {
     private static final Logger logger = LoggerFactory.getLogger(CommandOrchestrator.class);
+    private static final String DEFAULT_STREAM_RESPONSE = "{\"status\":\"success\"}";
+    // Source identifier of requests issued by a member of the Incoming Test Master pool: prefix + sequence number
+    static final String MASTER_SOURCE_PREFIX = "INCOMING_TEST:";
+    // Source identifier of requests forwarded by a peer relay: prefix + relayId
+    static final String RELAY_SOURCE_PREFIX = "relay:";
+    // Source identifier of requests awaited by an HTTP caller: prefix + requestId
+    static final String HTTP_SOURCE_PREFIX = "http:";
 
     private final NodeRegistry nodeRegistry;
     // REMOVED: private final UpstreamMasterClient upstreamMasterClient; // THIS LINE IS NOW GONE
     private final NodeCommander nodeCommander;
     private final IncomingTestMasterSender incomingMasterSender;
+    private final OutboundDispatcher outbound;
+    private final RelayCluster cluster;
+    private final RelayMetrics metrics;
 
-    // Maps requestId to the source client's ID (Batch Server Client ID or "INCOMING_TEST")
-    private final ConcurrentHashMap<String, String> pendingRequestsSource = new ConcurrentHashMap<>();
+    private final RelayConfig config;
+
+    // Maps requestId to the source client's ID (Batch Server Client ID or Incoming Test Master member id), the target node and a deadline
+    private final PendingRequestTable<NodeInfo> pendingRequests;
+    // node_broadcast requests by requestId; one entry gathers the responses of all targets
+    private final PendingRequestTable<BroadcastRequest> broadcasts;
+    // Requests forwarded to the relay owning their node, by requestId; the target is the nodeId
+    private final PendingRequestTable<String> remoteRequests;
+    // Chunked responses in progress by requestId; the request itself stays in pendingRequests until stream_end
+    private final ConcurrentHashMap<String, ChunkStream> streams = new ConcurrentHashMap<>();
+    // Answers awaited by HTTP callers, by requestId; completed with the node_response frame
+    private final ConcurrentHashMap<String, CompletableFuture<String>> httpRequests = new ConcurrentHashMap<>();
+    // Further sources waiting on an in-flight request, by requestId: retries of it under the same requestId
+    private final ConcurrentHashMap<String, List<String>> waiters = new ConcurrentHashMap<>();
+    // Result cache keys of in-flight idempotent requests, by requestId; filled when the node answers
+    private final ConcurrentHashMap<String, String> cacheFills = new ConcurrentHashMap<>();
+    private final ResultCache resultCache;
+    // node_commands waiting for a free in-flight slot on their node, or for their node to reconnect
+    private final NodeAdmission admission;
+    private final ClientShares clientShares;
+    // Per-node latency, failure and ping record; ejects outliers from dispatch
+    private final NodeHealth nodeHealth;
+    // Batch Server Client sessions; every response to a batch client goes through its session
+    private final ClientSessions clientSessions;
+    private final LongAdder duplicatesAttached = new LongAdder();
+    // Set once the relay starts draining for a restart; new commands are refused from then on
+    private volatile boolean draining = false;
 
     // CORRECTED CONSTRUCTOR: Removed UpstreamMasterClient parameter
-    public CommandOrchestrator(NodeRegistry nodeRegistry, NodeCommander nodeCommander, IncomingTestMasterSender incomingMasterSender) {
+    public CommandOrchestrator(NodeRegistry nodeRegistry, NodeCommander nodeCommander, IncomingTestMasterSender incomingMasterSender,
+                               OutboundDispatcher outbound, RelayCluster cluster, RelayMetrics metrics, RelayConfig config) {
         this.nodeRegistry = nodeRegistry;
         this.nodeCommander = nodeCommander;
         this.incomingMasterSender = incomingMasterSender;
-        logger.info("CommandOrchestrator: Initialized.");
+        this.outbound = outbound;
+        this.cluster = cluster;
+        this.metrics = metrics;
+        this.config = config;
+        this.pendingRequests = new PendingRequestTable<>(config.pendingRequestCapacity, config.pendingOverflowPolicy, this::failExpiredRequest);
+        this.broadcasts = new PendingRequestTable<>(config.broadcastCapacity, PendingRequestTable.OverflowPolicy.REJECT_NEW, this::completeExpiredBroadcast);
+        this.remoteRequests = new PendingRequestTable<>(config.pendingRequestCapacity, config.pendingOverflowPolicy, this::failExpiredRemoteRequest);
+        this.resultCache = new ResultCache(config.idempotentActions, config.resultCacheTtlMs, config.resultCacheMaxEntries);
+        this.clientSessions = new ClientSessions(outbound, config);
+        this.admission = new NodeAdmission(config);
+        this.clientShares = new ClientShares(config);
+        this.nodeHealth = nodeRegistry.getNodeHealth();
+        logger.info("CommandOrchestrator: Initialized. Pending request capacity: {}, default timeout: {} ms.", config.pendingRequestCapacity, config.requestTimeoutMs);
     }
 
     /**
-     * Handles commands coming from the Incoming Test Master.
-     * Commands from the Batch Server Client are handled directly in Server.onMessage and routed via trackPendingRequest.
-     * @param masterType "INCOMING_TEST"
-     * @param message The raw JSON message string from the master.
+     * Handles commands coming from a member of the Incoming Test Master pool. The member's id is the source of
+     * what it issues, so responses and errors go back to the connection that sent the command.
+     * Commands from the Batch Server Client are validated in Server.onMessage and routed via dispatchNodeCommand.
+     * @param master The pool member that sent the frame.
+     * @param envelope The already decoded frame from the master.
      */
-    public void handleMasterCommand(String masterType, String message) {
-        // Since UPSTREAM is removed, this method should only be called for "INCOMING_TEST"
-        if (!"INCOMING_TEST".equals(masterType)) {
-            logger.warn("CommandOrchestrator: Received unexpected masterType '{}'. Ignoring message: {}", masterType, message);
-            return;
-        }
-
-        logger.info("CommandOrchestrator: Received command from {} Master: {}", masterType, message);
+    public void handleMasterCommand(NodeInfo master, FrameEnvelope envelope) {
+        String source = master.nodeId;
+        logger.info("CommandOrchestrator: Received command from Incoming Test Master {}: {}", source, envelope);
         try {
-            JsonObject command = JsonParser.parseString(message).getAsJsonObject();
-            String type = command.has("type") ? command.get("type").getAsString() : null;
+            String type = envelope.type();
 
             if ("node_command".equals(type)) {
-                String targetNodeId = command.has("nodeId") ? command.get("nodeId").getAsString() : null;
-                String requestId = command.has("requestId") ? command.get("requestId").getAsString() : null;
-                JsonObject nodeCommand = command.has("command") ? command.get("command").getAsJsonObject() : null;
+                String targetNodeId = envelope.nodeId();
+                String requestId = envelope.requestId();
 
-                if (targetNodeId == null || requestId == null || nodeCommand == null) {
-                    logger.error("CommandOrchestrator: Invalid 'node_command' from {} Master: Missing nodeId, requestId, or command payload. Message: {}", masterType, message);
-                    sendErrorToMaster(masterType, requestId, "Invalid 'node_command' format", targetNodeId);
+                if ((targetNodeId == null && !envelope.hasSelectorObject()) || requestId == null || !envelope.hasCommandObject()) {
+                    logger.error("CommandOrchestrator: Invalid 'node_command' from Incoming Test Master {}: Missing nodeId/selector, requestId, or command payload. Message: {}", source, envelope);
+                    sendErrorToMaster(source, requestId, "Invalid 'node_command' format", targetNodeId);
                     return;
                 }
 
-                // Track this request, mapping its requestId to its original master type
-                pendingRequestsSource.put(requestId, masterType);
-                logger.debug("CommandOrchestrator: Tracking request {} from {}.", requestId, masterType);
+                // A master that isn't draining its responses doesn't get to issue more work
+                if (outbound.isCongested(master.conn)) {
+                    logger.warn("CommandOrchestrator: Incoming Test Master {} outbound queue congested. Rejecting request {}.", source, requestId);
+                    sendErrorToMaster(source, requestId, "Relay is busy delivering earlier responses to you. Retry later.", targetNodeId);
+                    return;
+                }
 
-                boolean sent = nodeCommander.sendToNodeWithRequestId(targetNodeId, nodeCommand, requestId);
+                // Track this request, mapping its requestId to the pool member that issued it
+                NodeCommander.DispatchResult result = dispatchNodeCommand(source, envelope);
 
-                if (!sent) {
-                    pendingRequestsSource.remove(requestId); // Remove if not sent
-                    sendErrorToMaster(masterType, requestId, "Node " + targetNodeId + " not connected or idle.", targetNodeId);
+                if (result != NodeCommander.DispatchResult.SENT) {
+                    sendErrorToMaster(source, requestId, NodeCommander.describeFailure(result, describeTarget(envelope)), targetNodeId);
+                }
+            } else if ("node_command_batch".equals(type)) {
+                if (!envelope.hasCommandsArray()) {
+                    logger.error("CommandOrchestrator: Invalid 'node_command_batch' from Incoming Test Master {}: Missing 'commands' array. Message: {}", source, envelope);
+                    sendErrorToMaster(source, null, "Invalid 'node_command_batch' format. Missing 'commands' array.", null);
+                    return;
+                }
+                if (outbound.isCongested(master.conn)) {
+                    logger.warn("CommandOrchestrator: Incoming Test Master {} outbound queue congested. Rejecting batch {}.", source, envelope.batchId());
+                    sendErrorToMaster(source, null, "Relay is busy delivering earlier responses to you. Retry later.", null);
+                    return;
+                }
+                String ack = dispatchNodeCommandBatch(source, envelope);
+                outbound.send(master.conn, ack);
+            } else if ("node_broadcast".equals(type)) {
+                String requestId = envelope.requestId();
+                if (requestId == null || !envelope.hasCommandObject()) {
+                    logger.error("CommandOrchestrator: Invalid 'node_broadcast' from Incoming Test Master {}: Missing requestId or command payload. Message: {}", source, envelope);
+                    sendErrorToMaster(source, requestId, "Invalid 'node_broadcast' format", null);
+                    return;
+                }
+                if (outbound.isCongested(master.conn)) {
+                    logger.warn("CommandOrchestrator: Incoming Test Master {} outbound queue congested. Rejecting broadcast {}.", source, requestId);
+                    sendErrorToMaster(source, requestId, "Relay is busy delivering earlier responses to you. Retry later.", null);
+                    return;
+                }
+                NodeCommander.DispatchResult result = dispatchBroadcast(source, envelope);
+                if (result != NodeCommander.DispatchResult.SENT) {
+                    sendErrorToMaster(source, requestId, NodeCommander.describeFailure(result, describeBroadcastTargets(envelope)), null);
                 }
             } else {
-                logger.warn("CommandOrchestrator: {} Master sent unrecognized message type: {}. Message: {}", masterType, type, message);
-                sendErrorToMaster(masterType, null, "Unrecognized message type: " + type, null);
+                logger.warn("CommandOrchestrator: Incoming Test Master {} sent unrecognized message type: {}. Message: {}", source, type, envelope);
+                sendErrorToMaster(source, null, "Unrecognized message type: " + type, null);
             }
         } catch (Exception e) {
-            logger.error("CommandOrchestrator: Error processing message from {} Master: {}. Message: {}", masterType, e.getMessage(), message, e);
-            sendErrorToMaster(masterType, null, "Error processing command: " + e.getMessage(), null);
+            logger.error("CommandOrchestrator: Error processing message from Incoming Test Master {}: {}. Message: {}", source, e.getMessage(), envelope, e);
+            sendErrorToMaster(source, null, "Error processing command: " + e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Tracks and forwards a node_command. The target is the frame's nodeId or, when it carries a 'selector'
+     * object instead, the least-loaded connected node (ACTIVE or IDLE) advertising every capability in the
+     * selector that is not ejected for poor health (see {@link NodeHealth}).
+     * A nodeId connected to another relay of the cluster is forwarded to that relay; selectors only match
+     * local nodes.
+     * A command for a nodeId that already has RELAY_NODE_MAX_IN_FLIGHT commands outstanding, whose outbound
+     * queue is congested, that is ejected, or that disconnected within the reconnect hold, is queued for admission and
+     * counts as SENT; it is sent as the node frees up, or answered with an error at its admission deadline.
+     * A selector whose matching nodes are all at the limit is queued the same way, and resolved again whenever
+     * one of them frees a slot.
+     * Queued commands are admitted by their client's priority and weight, and a client over its rate limit
+     * is refused with RATE_LIMITED (see {@link ClientShares}).
+     * A requestId that is already in flight is not sent again; the source is attached to the original request
+     * and receives its response. An idempotent command to a nodeId may be answered from the result cache.
+     * While the relay is draining, any other command is refused with DRAINING.
+     * @param sourceIdentifier Batch Server Client ID or Incoming Test Master member id, used to route the response back.
+     * @return SENT, or why the command was not dispatched (nothing stays tracked in that case).
+     */
+    public NodeCommander.DispatchResult dispatchNodeCommand(String sourceIdentifier, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        NodeCommander.DispatchResult attached = attachDuplicate(sourceIdentifier, envelope);
+        if (attached != null) {
+            return attached;
+        }
+        if (draining) {
+            logger.warn("CommandOrchestrator: Relay is draining. Rejecting requestId {} from {}.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DRAINING;
+        }
+        ClientShares.Share share = clientShares.of(sourceIdentifier);
+        if (!share.tryAcquire()) {
+            logger.warn("CommandOrchestrator: Client '{}' is over its rate limit of {} commands/s. Rejecting requestId {}.", share.clientId, share.getRatePerSecond(), requestId);
+            return NodeCommander.DispatchResult.RATE_LIMITED;
+        }
+        if (envelope.nodeId() == null) {
+            Set<String> selector = envelope.selectorTokens();
+            // Commands already queued for the selector go first
+            NodeInfo target = admission.isHoldingSelector(selector) ? null : nodeRegistry.acquireLeastLoadedNode(selector, admission.getMaxInFlight());
+            if (target == null) {
+                if (nodeRegistry.findDispatchableNodes(selector).isEmpty()) {
+                    logger.warn("CommandOrchestrator: No connected, non-ejected node matches selector {} for requestId {}.", envelope.selectorText(), requestId);
+                    return NodeCommander.DispatchResult.NO_MATCHING_NODE;
+                }
+                NodeCommander.DispatchResult held = holdForSelector(requestId, sourceIdentifier, selector, envelope, share, "for a free slot on a matching node");
+                admitQueuedSelector(selector); // a slot may have freed up while this one queued
+                return held;
+            }
+            logger.info("CommandOrchestrator: Selector {} for requestId {} resolved to node {} ({} in flight).", envelope.selectorText(), requestId, target.nodeId, target.getInFlight());
+            NodeCommander.DispatchResult result = admit(requestId, sourceIdentifier, envelope, target, null, deadlineFor(envelope.timeoutMs()));
+            if (result == NodeCommander.DispatchResult.BUSY) {
+                NodeCommander.DispatchResult held = holdForSelector(requestId, sourceIdentifier, selector, envelope, share, "until a matching node's outbound queue drains");
+                admitQueuedSelector(selector);
+                return held;
+            }
+            return result;
+        }
+
+        String nodeId = envelope.nodeId();
+        NodeInfo target = nodeRegistry.getClientNodeInfo(nodeId);
+        if (target == null || target.role != NodeRegistry.Role.CLIENT_NODE) {
+            // Forwarded requests are never forwarded again, so a stale directory can't bounce them around
+            String owner = isRelaySource(sourceIdentifier) ? null : cluster.ownerOf(nodeId);
+            if (owner != null) {
+                return forwardToRelay(owner, sourceIdentifier, envelope);
+            }
+            if (target == null && admission.isAwaitingReconnect(nodeId)) {
+                return hold(requestId, sourceIdentifier, nodeId, envelope, resultCache.keyFor(nodeId, envelope), share, "until it reconnects");
+            }
+            logger.warn("CommandOrchestrator: Target node {} for requestId {} is not a registered RPA node.", nodeId, requestId);
+            return NodeCommander.DispatchResult.UNAVAILABLE;
+        }
+        String cacheKey = resultCache.keyFor(nodeId, envelope);
+        String cached = cacheKey != null ? resultCache.get(cacheKey) : null;
+        if (cached != null) {
+            logger.info("CommandOrchestrator: Answered requestId {} from {} with a cached result of node {}.", requestId, sourceIdentifier, nodeId);
+            deliverToSource(sourceIdentifier, requestId, FrameWriter.nodeResponse(requestId, nodeId, cached, 0, cached.length()));
+            return NodeCommander.DispatchResult.SENT;
+        }
+        if (target.health != null && target.health.isEjected()) {
+            return hold(requestId, sourceIdentifier, nodeId, envelope, cacheKey, share, "until it is re-admitted after its health ejection");
+        }
+        // Commands already queued for the node go first
+        if (admission.isHolding(nodeId) || !nodeRegistry.tryAcquireNode(target, admission.getMaxInFlight())) {
+            NodeCommander.DispatchResult held = hold(requestId, sourceIdentifier, nodeId, envelope, cacheKey, share, "for a free slot");
+            admitQueued(target); // a slot may have freed up while this one queued
+            return held;
+        }
+        NodeCommander.DispatchResult result = admit(requestId, sourceIdentifier, envelope, target, cacheKey, deadlineFor(envelope.timeoutMs()));
+        if (result == NodeCommander.DispatchResult.BUSY) {
+            NodeCommander.DispatchResult held = hold(requestId, sourceIdentifier, nodeId, envelope, cacheKey, share, "until its outbound queue drains");
+            admitQueued(target);
+            return held;
+        }
+        return result;
+    }
+
+    /**
+     * Tracks a command as pending against target, on which an in-flight slot has already been acquired, and
+     * sends it. The slot is given back if the command is not sent.
+     */
+    private NodeCommander.DispatchResult admit(String requestId, String sourceIdentifier, FrameEnvelope envelope, NodeInfo target, String cacheKey, long deadline) {
+        PendingRequestTable.Admission admission = broadcasts.contains(requestId) || remoteRequests.contains(requestId)
+                ? PendingRequestTable.Admission.DUPLICATE
+                : pendingRequests.put(requestId, sourceIdentifier, target, deadline, metrics.actionId(envelope.commandAction()));
+        if (admission != PendingRequestTable.Admission.ADMITTED) {
+            nodeRegistry.releaseNode(target);
+            if (admission == PendingRequestTable.Admission.DUPLICATE) {
+                logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is already pending.", requestId, sourceIdentifier);
+                return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+            }
+            logger.warn("CommandOrchestrator: Pending request table full ({}). Rejecting request {} from {}.", pendingRequests.capacity(), requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.RELAY_AT_CAPACITY;
+        }
+        logger.info("CommandOrchestrator: Tracking pending request {} for {} (target RPA Node: {}).", requestId, sourceIdentifier, target.nodeId);
+        if (cacheKey != null) {
+            cacheFills.put(requestId, cacheKey);
+        }
+
+        NodeCommander.DispatchResult result = nodeCommander.sendToNodeWithRequestId(target, envelope, requestId);
+        if (result == NodeCommander.DispatchResult.SENT) {
+            clientShares.of(sourceIdentifier).recordDispatched();
+        } else {
+            cacheFills.remove(requestId);
+            PendingRequestTable.Entry<NodeInfo> entry = pendingRequests.remove(requestId); // Remove if not sent
+            if (entry != null) {
+                nodeRegistry.releaseNode(entry.target);
+            }
+        }
+        return result;
+    }
+
+    /** Queues a command for its node; see {@link NodeAdmission}. */
+    private NodeCommander.DispatchResult hold(String requestId, String sourceIdentifier, String nodeId, FrameEnvelope envelope, String cacheKey,
+                                              ClientShares.Share share, String waitingFor) {
+        if (isPending(requestId)) {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is already pending.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        }
+        NodeCommander.DispatchResult result = admission.hold(requestId, sourceIdentifier, nodeId, envelope, cacheKey, share, deadlineFor(envelope.timeoutMs()));
+        logHold(result, requestId, sourceIdentifier, share, "node " + nodeId, waitingFor);
+        return result;
+    }
+
+    /** Queues a command for whichever node matching its selector frees up first; see {@link NodeAdmission}. */
+    private NodeCommander.DispatchResult holdForSelector(String requestId, String sourceIdentifier, Set<String> selector, FrameEnvelope envelope,
+                                                         ClientShares.Share share, String waitingFor) {
+        if (isPending(requestId)) {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is already pending.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
         }
+        NodeCommander.DispatchResult result = admission.holdForSelector(requestId, sourceIdentifier, selector, envelope, share, deadlineFor(envelope.timeoutMs()));
+        logHold(result, requestId, sourceIdentifier, share, "selector " + envelope.selectorText(), waitingFor);
+        return result;
     }
 
-    public void trackPendingRequest(String requestId, String sourceClientId, String targetNodeId) {
-        // Store the requestId mapping to the sourceClientId to route response back
-        pendingRequestsSource.put(requestId, sourceClientId);
-        logger.info("CommandOrchestrator: Tracking pending request {} for Batch Server Client {} (target RPA Node: {}).", requestId, sourceClientId, targetNodeId);
+    private boolean isPending(String requestId) {
+        return pendingRequests.contains(requestId) || broadcasts.contains(requestId) || remoteRequests.contains(requestId);
+    }
+
+    private static void logHold(NodeCommander.DispatchResult result, String requestId, String sourceIdentifier, ClientShares.Share share,
+                                String target, String waitingFor) {
+        if (result == NodeCommander.DispatchResult.SENT) {
+            logger.info("CommandOrchestrator: Queued requestId {} from {} ({}) for {} {}.", requestId, sourceIdentifier, share.priority, target, waitingFor);
+        } else if (result == NodeCommander.DispatchResult.BUSY) {
+            logger.warn("CommandOrchestrator: Admission queue of {} is full. Rejecting requestId {} from {}.", target, requestId, sourceIdentifier);
+        } else {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is already queued.", requestId, sourceIdentifier);
+        }
     }
-    public void handleNodeResponse(NodeInfo sender, JsonObject responseJson) {
-        String requestId = responseJson.has("requestId") ? responseJson.get("requestId").getAsString() : null;
+
+    /**
+     * Sends node the commands queued for it, oldest first, while it has free in-flight slots. Stops early
+     * if the node's outbound queue is congested; the command is put back and retried on the next sweep.
+     * Nothing is sent while the node is ejected; the sweep retries once it is re-admitted.
+     */
+    private void admitQueued(NodeInfo node) {
+        if (node.health != null && node.health.isEjected()) {
+            return;
+        }
+        while (admission.isHolding(node.nodeId) && nodeRegistry.getClientNodeInfo(node.nodeId) == node
+                && nodeRegistry.tryAcquireNode(node, admission.getMaxInFlight())) {
+            NodeAdmission.Held held = admission.next(node.nodeId);
+            if (held == null) {
+                nodeRegistry.releaseNode(node);
+                return;
+            }
+            NodeCommander.DispatchResult result = admit(held.requestId, held.source, held.envelope, node, held.cacheKey, held.deadline);
+            if (result == NodeCommander.DispatchResult.BUSY) {
+                admission.requeue(held);
+                return;
+            }
+            admission.admitted(held);
+            if (result != NodeCommander.DispatchResult.SENT) {
+                failHeld(held, NodeCommander.describeFailure(result, node.nodeId), false);
+            }
+        }
+    }
+
+    /**
+     * Sends the commands queued with selector to the least-loaded matching nodes with a free slot, resolving
+     * the selector afresh for each. Stops once no matching node has room, or one's outbound queue is congested.
+     */
+    private void admitQueuedSelector(Set<String> selector) {
+        while (admission.isHoldingSelector(selector)) {
+            NodeInfo target = nodeRegistry.acquireLeastLoadedNode(selector, admission.getMaxInFlight());
+            if (target == null) {
+                return;
+            }
+            NodeAdmission.Held held = admission.nextForSelector(selector);
+            if (held == null) {
+                nodeRegistry.releaseNode(target);
+                return;
+            }
+            NodeCommander.DispatchResult result = admit(held.requestId, held.source, held.envelope, target, null, held.deadline);
+            if (result == NodeCommander.DispatchResult.BUSY) {
+                admission.requeue(held);
+                return;
+            }
+            admission.admitted(held);
+            if (result != NodeCommander.DispatchResult.SENT) {
+                failHeld(held, NodeCommander.describeFailure(result, target.nodeId), false);
+            } else {
+                logger.info("CommandOrchestrator: Queued requestId {} for selector {} admitted to node {}.", held.requestId, held.envelope.selectorText(), target.nodeId);
+            }
+        }
+    }
+
+    /** Lets node's own queue, then the queued selectors it matches, have a slot it may have free. */
+    private void admitQueuedFor(NodeInfo node) {
+        admitQueued(node);
+        for (Set<String> selector : admission.getWaitingSelectors()) {
+            if (node.capabilities.containsAll(selector)) {
+                admitQueuedSelector(selector);
+            }
+        }
+    }
+
+    /** Ends one of node's in-flight requests and lets the next queued command have the slot. */
+    private void release(NodeInfo node) {
+        nodeRegistry.releaseNode(node);
+        admitQueuedFor(node);
+    }
+
+    /** Answers a queued command that will not be sent. */
+    private void failHeld(NodeAdmission.Held held, String message, boolean overdue) {
+        if (overdue) {
+            metrics.recordTimeout(metrics.actionId(held.envelope.commandAction()));
+        }
+        logger.warn("CommandOrchestrator: Queued requestId {} from {} for {} failed: {}", held.requestId, held.source, held.describeTarget(), message);
+        String errorFrame = FrameWriter.nodeErrorResponse(held.requestId, held.nodeId, message);
+        if (!failHttpRequest(held.source, held.requestId, message, overdue)) {
+            deliverToSource(held.source, held.requestId, errorFrame);
+        }
+        deliverToWaiters(held.requestId, errorFrame);
+    }
+
+    /** An RPA node identified itself; commands held for its return can go. */
+    public void nodeConnected(NodeInfo node) {
+        admission.nodeBack(node.nodeId);
+        admitQueuedFor(node);
+    }
+
+    /** An RPA node's connection closed without a replacement; its queued commands wait for it to reconnect. */
+    public void nodeDisconnected(String nodeId) {
+        for (NodeAdmission.Held held : admission.nodeGone(nodeId)) {
+            failHeld(held, "Node " + nodeId + " disconnected.", false);
+        }
+    }
+
+    /**
+     * Attaches a node_command whose requestId is already in flight to that request, e.g. a batch client
+     * retrying after a timeout, so the node doesn't run the command twice. Only the client that issued the
+     * request may attach: the same source, or another member of the Incoming Test Master pool, which is one
+     * client spread over several connections. The attached source then receives the original request's
+     * response; a retry from the original source itself just keeps waiting. A requestId that collides with
+     * another client's request is refused, so one client never receives another's results.
+     * @return SENT if attached, DUPLICATE_REQUEST if the requestId is in flight for another client or another
+     *         node or is being streamed, or null if it is not in flight.
+     */
+    private NodeCommander.DispatchResult attachDuplicate(String sourceIdentifier, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        String pendingSource;
+        String pendingNodeId;
+        PendingRequestTable.Entry<NodeInfo> local = pendingRequests.get(requestId);
+        if (local != null) {
+            pendingSource = local.source;
+            pendingNodeId = local.target.nodeId;
+        } else {
+            PendingRequestTable.Entry<String> remote = remoteRequests.get(requestId);
+            NodeAdmission.Held held = remote == null ? admission.find(requestId) : null;
+            if (remote != null) {
+                pendingSource = remote.source;
+                pendingNodeId = remote.target;
+            } else if (held != null) {
+                pendingSource = held.source;
+                pendingNodeId = held.describeTarget();
+            } else {
+                return null;
+            }
+        }
+        if ((envelope.nodeId() != null && !envelope.nodeId().equals(pendingNodeId)) || streams.containsKey(requestId)) {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is in flight to node {}{}.",
+                    requestId, sourceIdentifier, pendingNodeId, streams.containsKey(requestId) ? " as a stream" : "");
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        }
+        if (!isSameClient(pendingSource, sourceIdentifier)) {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is in flight to node {} for another client.",
+                    requestId, sourceIdentifier, pendingNodeId);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        }
+        if (!pendingSource.equals(sourceIdentifier)) {
+            waiters.compute(requestId, (id, attached) -> {
+                List<String> list = attached != null ? attached : new ArrayList<>(2);
+                if (!list.contains(sourceIdentifier)) {
+                    list.add(sourceIdentifier);
+                }
+                return list;
+            });
+            if (!pendingRequests.contains(requestId) && !remoteRequests.contains(requestId) && !admission.isQueued(requestId)) {
+                // Answered while attaching; its waiters have already been served, so this one is dispatched afresh
+                waiters.computeIfPresent(requestId, (id, attached) -> {
+                    attached.remove(sourceIdentifier);
+                    return attached.isEmpty() ? null : attached;
+                });
+                return null;
+            }
+        }
+        duplicatesAttached.increment();
+        logger.info("CommandOrchestrator: Duplicate requestId {} from {} attached to the request in flight to node {} for {}.",
+                requestId, sourceIdentifier, pendingNodeId, pendingSource);
+        return NodeCommander.DispatchResult.SENT;
+    }
+
+    /**
+     * Dispatches a node_command on behalf of an HTTP caller, who holds no connection to route the answer to.
+     * answer completes with the node_response frame, or exceptionally with a {@link TimeoutException} once
+     * the deadline passes, or a {@link RejectedExecutionException} if the request is evicted. Nothing completes
+     * it unless SENT is returned.
+     */
+    public NodeCommander.DispatchResult dispatchAwaitedCommand(FrameEnvelope envelope, CompletableFuture<String> answer) {
+        String requestId = envelope.requestId();
+        if (httpRequests.putIfAbsent(requestId, answer) != null) {
+            logger.warn("CommandOrchestrator: Duplicate HTTP requestId {} rejected; it is already pending.", requestId);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        }
+        NodeCommander.DispatchResult result = dispatchNodeCommand(HTTP_SOURCE_PREFIX + requestId, envelope);
+        if (result != NodeCommander.DispatchResult.SENT) {
+            httpRequests.remove(requestId, answer);
+        }
+        return result;
+    }
+
+    /** Tracks a node_command whose node is connected to the peer relay owner and forwards it there. */
+    private NodeCommander.DispatchResult forwardToRelay(String owner, String sourceIdentifier, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        String nodeId = envelope.nodeId();
+        long timeout = timeoutFor(envelope.timeoutMs());
+        PendingRequestTable.Admission admission = pendingRequests.contains(requestId) || broadcasts.contains(requestId) || this.admission.isQueued(requestId)
+                ? PendingRequestTable.Admission.DUPLICATE
+                : remoteRequests.put(requestId, sourceIdentifier, nodeId, System.currentTimeMillis() + timeout, metrics.actionId(envelope.commandAction()));
+        if (admission == PendingRequestTable.Admission.DUPLICATE) {
+            logger.warn("CommandOrchestrator: Duplicate requestId {} from {} rejected; it is already pending.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        } else if (admission == PendingRequestTable.Admission.REJECTED_FULL) {
+            logger.warn("CommandOrchestrator: Remote request table full ({}). Rejecting request {} from {}.", remoteRequests.capacity(), requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.RELAY_AT_CAPACITY;
+        }
+
+        OutboundQueue.SendResult sent = cluster.trySend(owner,
+                FrameWriter.relayCommand(requestId, nodeId, timeout, envelope.frame(), envelope.commandStart(), envelope.commandEnd()));
+        if (sent == OutboundQueue.SendResult.BUSY || sent == OutboundQueue.SendResult.CLOSED) {
+            remoteRequests.remove(requestId);
+            logger.warn("CommandOrchestrator: Could not forward requestId {} to relay '{}' for node {}: link {}.", requestId, owner, nodeId, sent);
+            return sent == OutboundQueue.SendResult.BUSY ? NodeCommander.DispatchResult.BUSY : NodeCommander.DispatchResult.UNAVAILABLE;
+        }
+        logger.info("CommandOrchestrator: Forwarded requestId {} from {} to relay '{}' (node {}).", requestId, sourceIdentifier, owner, nodeId);
+        return NodeCommander.DispatchResult.SENT;
+    }
+
+    /**
+     * Handles a frame from a peer relay: a relay_command for one of this relay's nodes, or the node_response
+     * to a request this relay forwarded. The response frame is already in its final form and goes out verbatim.
+     */
+    public void handleRelayFrame(NodeInfo peer, FrameEnvelope envelope) {
+        String type = envelope.type();
+        String requestId = envelope.requestId();
+        if ("relay_command".equals(type)) {
+            if (requestId == null || envelope.nodeId() == null || !envelope.hasCommandObject()) {
+                logger.error("CommandOrchestrator: Invalid 'relay_command' from relay '{}': Missing requestId, nodeId or command payload. Message: {}", peer.nodeId, envelope);
+                return;
+            }
+            NodeCommander.DispatchResult result = dispatchNodeCommand(RELAY_SOURCE_PREFIX + peer.nodeId, envelope);
+            if (result != NodeCommander.DispatchResult.SENT) {
+                cluster.send(peer.nodeId, FrameWriter.nodeErrorResponse(requestId, envelope.nodeId(), NodeCommander.describeFailure(result, envelope.nodeId())));
+            }
+        } else if ("node_response".equals(type) && requestId != null) {
+            PendingRequestTable.Entry<String> pending = remoteRequests.remove(requestId);
+            if (pending != null) {
+                metrics.recordLatency(pending.label, System.nanoTime() - pending.admittedNanos);
+                deliverToSource(pending.source, requestId, envelope.frame());
+                deliverToWaiters(requestId, envelope.frame());
+            } else {
+                logger.warn("CommandOrchestrator: Relay '{}' returned a response for unknown or already handled requestId: {}.", peer.nodeId, requestId);
+            }
+        } else {
+            logger.warn("CommandOrchestrator: Unrecognized message type '{}' from relay '{}': {}", type, peer.nodeId, envelope);
+        }
+    }
+
+    /**
+     * Validates and dispatches every entry of a node_command_batch in a single pass over the frame.
+     * Each entry is a node_command body ({requestId, nodeId or selector, command, optional timeoutMs})
+     * and is dispatched exactly like a standalone node_command; node responses still arrive one by one.
+     * @return the node_command_batch_ack frame listing accepted requestIds and per-entry rejections.
+     */
+    public String dispatchNodeCommandBatch(String sourceIdentifier, FrameEnvelope batch) {
+        StringBuilder accepted = new StringBuilder();
+        StringBuilder rejected = new StringBuilder();
+        int acceptedCount = 0;
+        int rejectedCount = 0;
+
+        FrameScanner scanner = batch.commandsScanner();
+        scanner.beginArray();
+        for (int index = 0; scanner.nextElement(); index++) {
+            String requestId = null;
+            String reason;
+            if (index >= config.maxBatchCommands) {
+                scanner.skipValue();
+                reason = "Batch exceeds the maximum of " + config.maxBatchCommands + " commands.";
+            } else if (scanner.peek() != '{') {
+                scanner.skipValue();
+                reason = "Entry is not a JSON object.";
+            } else {
+                FrameEnvelope entry = FrameEnvelope.read(scanner);
+                requestId = entry.requestId();
+                if ((entry.nodeId() == null && !entry.hasSelectorObject()) || requestId == null || !entry.hasCommandObject()) {
+                    reason = "Missing nodeId or selector, requestId, or command payload.";
+                } else {
+                    NodeCommander.DispatchResult result = dispatchNodeCommand(sourceIdentifier, entry);
+                    reason = result == NodeCommander.DispatchResult.SENT ? null : NodeCommander.describeFailure(result, describeTarget(entry));
+                }
+            }
+
+            if (reason == null) {
+                if (acceptedCount++ > 0) {
+                    accepted.append(',');
+                }
+                FrameWriter.appendQuoted(accepted, requestId);
+            } else {
+                if (rejectedCount++ > 0) {
+                    rejected.append(',');
+                }
+                rejected.append("{\"index\":").append(index).append(",\"requestId\":");
+                FrameWriter.appendQuoted(rejected, requestId);
+                rejected.append(",\"reason\":");
+                FrameWriter.appendQuoted(rejected, reason);
+                rejected.append('}');
+            }
+        }
+
+        logger.info("CommandOrchestrator: Batch {} from {}: {} command(s) accepted, {} rejected.", batch.batchId(), sourceIdentifier, acceptedCount, rejectedCount);
+
+        StringBuilder ack = new StringBuilder(accepted.length() + rejected.length() + 96);
+        ack.append("{\"type\":\"node_command_batch_ack\",\"batchId\":");
+        FrameWriter.appendQuoted(ack, batch.batchId());
+        ack.append(",\"acceptedCount\":").append(acceptedCount)
+           .append(",\"rejectedCount\":").append(rejectedCount)
+           .append(",\"accepted\":[").append(accepted)
+           .append("],\"rejected\":[").append(rejected).append("]}");
+        return ack.toString();
+    }
+
+    /**
+     * Scatter-gather: sends one command to many nodes and answers with a single node_broadcast_result.
+     * Targets are the frame's 'nodeIds' array, else every connected node (ACTIVE or IDLE, not ejected) matching
+     * its 'selector', else every such node. The command frame is serialized and UTF-8 encoded once; all targets share its bytes and
+     * its requestId. A target at RELAY_NODE_MAX_IN_FLIGHT, or with commands queued for admission, is not queued
+     * behind them: it is reported as busy in the result. Responses are gathered until every reached target has answered or the deadline
+     * (timeoutMs, or the default request timeout) passes; missing answers are reported as timed out.
+     * @return SENT once the broadcast is tracked (even if some targets failed), or why it was not started.
+     */
+    public NodeCommander.DispatchResult dispatchBroadcast(String sourceIdentifier, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        if (draining) {
+            logger.warn("CommandOrchestrator: Relay is draining. Rejecting broadcast {} from {}.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DRAINING;
+        }
+        ClientShares.Share share = clientShares.of(sourceIdentifier);
+        if (!share.tryAcquire()) {
+            logger.warn("CommandOrchestrator: Client '{}' is over its rate limit of {} commands/s. Rejecting broadcast {}.", share.clientId, share.getRatePerSecond(), requestId);
+            return NodeCommander.DispatchResult.RATE_LIMITED;
+        }
+        List<NodeInfo> targets;
+        List<String> unknownNodeIds = new ArrayList<>();
+        if (envelope.hasNodeIdsArray()) {
+            targets = new ArrayList<>();
+            for (String nodeId : envelope.nodeIds()) {
+                NodeInfo node = nodeRegistry.getClientNodeInfo(nodeId);
+                if (node != null && node.role == NodeRegistry.Role.CLIENT_NODE) {
+                    targets.add(node);
+                } else {
+                    unknownNodeIds.add(nodeId);
+                }
+            }
+        } else {
+            targets = nodeRegistry.findDispatchableNodes(envelope.selectorTokens());
+        }
+        if (targets.isEmpty() && unknownNodeIds.isEmpty()) {
+            logger.warn("CommandOrchestrator: No connected, non-ejected node matches {} for broadcast {}.", describeBroadcastTargets(envelope), requestId);
+            return NodeCommander.DispatchResult.NO_MATCHING_NODE;
+        }
+
+        BroadcastRequest broadcast = new BroadcastRequest(requestId, sourceIdentifier);
+        PendingRequestTable.Admission admission = pendingRequests.contains(requestId) || remoteRequests.contains(requestId) || this.admission.isQueued(requestId)
+                ? PendingRequestTable.Admission.DUPLICATE
+                : broadcasts.put(requestId, sourceIdentifier, broadcast, deadlineFor(envelope.timeoutMs()));
+        if (admission == PendingRequestTable.Admission.DUPLICATE) {
+            logger.warn("CommandOrchestrator: Duplicate broadcast requestId {} from {} rejected; it is already pending.", requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+        } else if (admission == PendingRequestTable.Admission.REJECTED_FULL) {
+            logger.warn("CommandOrchestrator: Broadcast table full ({}). Rejecting broadcast {} from {}.", broadcasts.capacity(), requestId, sourceIdentifier);
+            return NodeCommander.DispatchResult.RELAY_AT_CAPACITY;
+        }
+
+        for (String nodeId : unknownNodeIds) {
+            broadcast.fail(nodeId, "Not a registered RPA node.");
+        }
+        EncodedFrame frame = new EncodedFrame(FrameWriter.command(requestId, envelope.frame(), envelope.commandStart(), envelope.commandEnd()));
+        int sent = 0;
+        for (NodeInfo node : targets) {
+            if (!broadcast.addTarget(node)) {
+                continue; // listed twice
+            }
+            if (node.health != null && node.health.isEjected()) {
+                broadcast.fail(node.nodeId, "Node " + node.nodeId + " is ejected from dispatch for poor health. Retry later.");
+                continue;
+            }
+            // Same admission as a node_command: queued commands go first and the in-flight limit holds
+            if (this.admission.isHolding(node.nodeId) || !nodeRegistry.tryAcquireNode(node, this.admission.getMaxInFlight())) {
+                broadcast.fail(node.nodeId, NodeCommander.describeFailure(NodeCommander.DispatchResult.BUSY, node.nodeId));
+                continue;
+            }
+            NodeCommander.DispatchResult result = nodeCommander.sendBroadcastToNode(node, frame, requestId);
+            if (result == NodeCommander.DispatchResult.SENT) {
+                sent++;
+            } else {
+                nodeRegistry.releaseNode(node);
+                broadcast.fail(node.nodeId, NodeCommander.describeFailure(result, node.nodeId));
+            }
+        }
+        logger.info("CommandOrchestrator: Broadcast {} from {} sent to {} of {} target node(s) ({} bytes per node).",
+                requestId, sourceIdentifier, sent, broadcast.getTargeted(), frame.length());
+
+        if (broadcast.seal()) {
+            finishBroadcast(requestId);
+        }
+        return NodeCommander.DispatchResult.SENT;
+    }
+
+    /** The targets of a node_broadcast for messages. */
+    public static String describeBroadcastTargets(FrameEnvelope envelope) {
+        if (envelope.hasNodeIdsArray()) {
+            return "nodeIds " + envelope.nodeIds();
+        }
+        return envelope.hasSelectorObject() ? "selector " + envelope.selectorText() : "any node";
+    }
+
+    /** The target of a node_command for messages: its nodeId, or its selector. */
+    public static String describeTarget(FrameEnvelope envelope) {
+        return envelope.nodeId() != null ? envelope.nodeId() : "selector " + envelope.selectorText();
+    }
+
+    /**
+     * Refuses every new command from now on, while requests already pending, queued for admission or
+     * streaming run to their answer or deadline. There is no way back; the relay is about to stop.
+     */
+    public void startDraining() {
+        draining = true;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /** Requests this relay still owes an answer: pending, queued for admission, broadcast, forwarded or streaming. */
+    public int getInFlightCount() {
+        return pendingRequests.size() + admission.getQueuedCount() + broadcasts.size() + remoteRequests.size() + streams.size();
+    }
+
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    public int getPendingBroadcastCount() {
+        return broadcasts.size();
+    }
+
+    public int getRemoteRequestCount() {
+        return remoteRequests.size();
+    }
+
+    public int getActiveStreamCount() {
+        return streams.size();
+    }
+
+    public int getAwaitingHttpRequestCount() {
+        return httpRequests.size();
+    }
+
+    public long getDuplicatesAttached() {
+        return duplicatesAttached.sum();
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public ClientSessions getClientSessions() {
+        return clientSessions;
+    }
+
+    public NodeAdmission getAdmission() {
+        return admission;
+    }
+
+    public ClientShares getClientShares() {
+        return clientShares;
+    }
+
+    /** Forgets the cached results of a node that disconnected. */
+    public void invalidateCachedResults(String nodeId) {
+        resultCache.invalidateNode(nodeId);
+    }
+
+    /** Fails every request whose deadline has passed. Scheduled by the Server. */
+    public void expirePendingRequests() {
+        long now = System.currentTimeMillis();
+        int expired = pendingRequests.expire(now);
+        if (expired > 0) {
+            logger.info("CommandOrchestrator: Expired {} pending request(s). Still pending: {}.", expired, pendingRequests.size());
+        }
+        broadcasts.expire(now);
+        remoteRequests.expire(now);
+        for (NodeAdmission.Held held : admission.expire(now)) {
+            if (held.nodeId == null) {
+                failHeld(held, "Timed out waiting for a node matching " + held.describeTarget() + " to accept the command.", true);
+                continue;
+            }
+            NodeInfo node = nodeRegistry.getClientNodeInfo(held.nodeId);
+            failHeld(held, node == null
+                    ? "Node " + held.nodeId + " did not reconnect in time."
+                    : "Timed out waiting for node " + held.nodeId + " to accept the command (" + node.getInFlight() + " in flight).", true);
+        }
+        for (String nodeId : admission.getWaitingNodeIds()) {
+            NodeInfo node = nodeRegistry.getClientNodeInfo(nodeId);
+            if (node != null) {
+                admitQueued(node);
+            }
+        }
+        for (Set<String> selector : admission.getWaitingSelectors()) {
+            admitQueuedSelector(selector);
+        }
+    }
+
+    private long deadlineFor(long timeoutMs) {
+        return System.currentTimeMillis() + timeoutFor(timeoutMs);
+    }
+
+    private long timeoutFor(long timeoutMs) {
+        return timeoutMs > 0 ? Math.min(timeoutMs, config.maxRequestTimeoutMs) : config.requestTimeoutMs;
+    }
+
+    /** A node_response without a 'response' object counts as an error, like one reporting "status":"error". */
+    private static boolean isErrorResponse(FrameEnvelope envelope) {
+        return !envelope.hasResponseObject() || ResultCache.isErrorResponse(envelope.frame(), envelope.responseStart(), envelope.responseEnd());
+    }
+
+    static boolean isMasterSource(String sourceIdentifier) {
+        return sourceIdentifier.startsWith(MASTER_SOURCE_PREFIX);
+    }
+
+    /** Whether two sources belong to the same client; the Incoming Test Master pool counts as one. */
+    private static boolean isSameClient(String source, String other) {
+        return source.equals(other) || (isMasterSource(source) && isMasterSource(other));
+    }
+
+    private static boolean isRelaySource(String sourceIdentifier) {
+        return sourceIdentifier.startsWith(RELAY_SOURCE_PREFIX);
+    }
+
+    private static boolean isHttpSource(String sourceIdentifier) {
+        return sourceIdentifier.startsWith(HTTP_SOURCE_PREFIX);
+    }
+
+    /** Fails the answer an HTTP caller is waiting for; true if the source was an HTTP caller. */
+    private boolean failHttpRequest(String sourceIdentifier, String requestId, String message, boolean overdue) {
+        if (!isHttpSource(sourceIdentifier)) {
+            return false;
+        }
+        CompletableFuture<String> answer = httpRequests.remove(requestId);
+        if (answer != null) {
+            answer.completeExceptionally(overdue ? new TimeoutException(message) : new RejectedExecutionException(message));
+        }
+        return true;
+    }
+
+    private void failExpiredRemoteRequest(PendingRequestTable.Entry<String> entry) {
+        boolean overdue = entry.deadline <= System.currentTimeMillis();
+        if (overdue) {
+            metrics.recordTimeout(entry.label);
+        }
+        String message = overdue
+                ? "Request timed out waiting for a response from node " + entry.target + " on a peer relay."
+                : "Request evicted: relay pending request capacity exceeded.";
+        logger.warn("CommandOrchestrator: {} forwarded requestId {} from {} (target node {}).", overdue ? "Timed out" : "Evicted", entry.requestId, entry.source, entry.target);
+        String errorFrame = FrameWriter.nodeErrorResponse(entry.requestId, entry.target, message);
+        if (!failHttpRequest(entry.source, entry.requestId, message, overdue)) {
+            deliverToSource(entry.source, entry.requestId, errorFrame);
+        }
+        deliverToWaiters(entry.requestId, errorFrame);
+    }
+
+    private void failExpiredRequest(PendingRequestTable.Entry<NodeInfo> entry) {
+        release(entry.target);
+        cacheFills.remove(entry.requestId);
+        String nodeId = entry.target.nodeId;
+        boolean overdue = entry.deadline <= System.currentTimeMillis();
+        if (overdue) {
+            metrics.recordTimeout(entry.label);
+            nodeHealth.recordTimeout(entry.target);
+        }
+        ChunkStream stream = streams.remove(entry.requestId);
+        if (stream != null) {
+            String message = overdue
+                    ? "Stream stalled: no chunk from node " + nodeId + " within " + config.streamIdleTimeoutMs + " ms."
+                    : "Stream evicted: relay pending request capacity exceeded.";
+            logger.warn("CommandOrchestrator: {} stream {} from node {} after {} chunk(s).", overdue ? "Timed out" : "Evicted", entry.requestId, nodeId, stream.getChunks());
+            cancelStream(stream, message);
+            return;
+        }
+        String message = overdue
+                ? "Request timed out waiting for a response from node " + nodeId + "."
+                : "Request evicted: relay pending request capacity exceeded.";
+        logger.warn("CommandOrchestrator: {} requestId {} from {} (target node {}).", overdue ? "Timed out" : "Evicted", entry.requestId, entry.source, nodeId);
+        String errorFrame = FrameWriter.nodeErrorResponse(entry.requestId, nodeId, message);
+        if (!failHttpRequest(entry.source, entry.requestId, message, overdue)) {
+            deliverToSource(entry.source, entry.requestId, errorFrame);
+        }
+        deliverToWaiters(entry.requestId, errorFrame);
+    }
+
+    private void completeExpiredBroadcast(PendingRequestTable.Entry<BroadcastRequest> entry) {
+        BroadcastRequest broadcast = entry.target;
+        List<NodeInfo> unanswered = broadcast.complete();
+        for (NodeInfo node : unanswered) {
+            release(node);
+            nodeHealth.recordTimeout(node);
+        }
+        logger.warn("CommandOrchestrator: Broadcast {} from {} timed out with {} of {} target node(s) unanswered.",
+                entry.requestId, entry.source, unanswered.size(), broadcast.getTargeted());
+        deliverToSource(broadcast.source, broadcast.requestId, broadcast.resultFrame());
+    }
+
+    /** Sends the aggregated result of a broadcast that has every answer, unless it already expired. */
+    private void finishBroadcast(String requestId) {
+        PendingRequestTable.Entry<BroadcastRequest> entry = broadcasts.remove(requestId);
+        if (entry != null) {
+            BroadcastRequest broadcast = entry.target;
+            broadcast.complete();
+            logger.info("CommandOrchestrator: Broadcast {} complete; sending aggregated result to {}.", requestId, broadcast.source);
+            deliverToSource(broadcast.source, requestId, broadcast.resultFrame());
+        }
+    }
+
+    /**
+     * Routes a node_response back to whoever issued the request.
+     * The outbound frame is assembled once around the untouched 'response' slice of the node's frame.
+     */
+    public void handleNodeResponse(NodeInfo sender, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
 
         if (requestId != null) {
-            String sourceIdentifier = pendingRequestsSource.remove(requestId); // Attempt to remove and get original source
-
-            if (sourceIdentifier != null) {
-                // Determine the original source type and route the response
-                if ("INCOMING_TEST".equals(sourceIdentifier)) {
-                    if (nodeRegistry.getIncomingTestMasterWebSocket() != null && nodeRegistry.getIncomingTestMasterWebSocket().isOpen()) {
-                        incomingMasterSender.forwardResponseToIncomingTestMaster(sender.nodeId, responseJson, requestId);
-                        logger.info("CommandOrchestrator: Routed response for requestId {} to INCOMING Test Master.", requestId);
-                    } else {
-                        logger.warn("CommandOrchestrator: INCOMING Test Master not connected. Cannot route response for requestId {}.", requestId);
-                    }
+            PendingRequestTable.Entry<NodeInfo> pending = pendingRequests.remove(requestId); // Attempt to remove and get original source
+
+            if (pending != null) {
+                release(pending.target);
+                long latencyNanos = System.nanoTime() - pending.admittedNanos;
+                metrics.recordLatency(pending.label, latencyNanos);
+                nodeHealth.recordResponse(pending.target, latencyNanos, isErrorResponse(envelope));
+                streams.remove(requestId); // a plain node_response also ends a stream the node had begun
+                String cacheKey = cacheFills.remove(requestId);
+                if (cacheKey != null && envelope.hasResponseObject()) {
+                    resultCache.put(cacheKey, sender.nodeId, envelope.frame(), envelope.responseStart(), envelope.responseEnd());
+                }
+                String sourceIdentifier = pending.source;
+                String responseFrame;
+                if (envelope.hasResponseObject()) {
+                    responseFrame = FrameWriter.nodeResponse(requestId, sender.nodeId, envelope.frame(), envelope.responseStart(), envelope.responseEnd());
                 } else {
-                    // This must be a Batch Server Client's request (sourceIdentifier is clientId here)
-                    WebSocket batchServerClientConn = nodeRegistry.getBatchServerClientWebSocket(sourceIdentifier);
-                    if (batchServerClientConn != null && batchServerClientConn.isOpen()) {
-                        // Reconstruct the full response message as expected by the Batch Server Client
-                        JsonObject fullResponse = new JsonObject();
-                        fullResponse.addProperty("type", "node_response");
-                        fullResponse.addProperty("requestId", requestId);
-                        fullResponse.addProperty("nodeId", sender.nodeId);
-
-                        JsonObject actualResponse = responseJson.getAsJsonObject("response");
-
-                        if (actualResponse != null) {
-                            fullResponse.add("response", actualResponse);
-                        } else {
-                            actualResponse = new JsonObject();
-                            actualResponse.addProperty("status", "error");
-                            actualResponse.addProperty("message", "Node response missing 'response' object from RPA Node.");
-                            fullResponse.add("response", actualResponse);
-                            logger.warn("CommandOrchestrator: RPA Node {} response for requestId {} missing 'response' object. Sending error back to Batch Server Client {}.", sender.nodeId, requestId, sourceIdentifier);
+                    responseFrame = FrameWriter.nodeErrorResponse(requestId, sender.nodeId, "Node response missing 'response' object from RPA Node.");
+                    logger.warn("CommandOrchestrator: RPA Node {} response for requestId {} missing 'response' object. Sending error back to {}.", sender.nodeId, requestId, sourceIdentifier);
+                }
+
+                deliverToSource(sourceIdentifier, requestId, responseFrame);
+                deliverToWaiters(requestId, responseFrame);
+            } else {
+                PendingRequestTable.Entry<BroadcastRequest> broadcastEntry = broadcasts.get(requestId);
+                if (broadcastEntry != null) {
+                    BroadcastRequest broadcast = broadcastEntry.target;
+                    if (broadcast.recordResponse(sender, envelope)) {
+                        release(sender);
+                        nodeHealth.recordResponse(sender, System.nanoTime() - broadcast.startedNanos, isErrorResponse(envelope));
+                        if (broadcast.isAnswered()) {
+                            finishBroadcast(requestId);
                         }
-                        batchServerClientConn.send(fullResponse.toString());
-                        logger.info("CommandOrchestrator: Routed response for requestId {} to Batch Server Client {}.", requestId, sourceIdentifier);
                     } else {
-                        logger.warn("CommandOrchestrator: Batch Server Client {} (for request {}) not found or disconnected. Cannot route response.", sourceIdentifier, requestId);
+                        logger.warn("CommandOrchestrator: Node {} answered broadcast {} but is not an outstanding target.", sender.nodeId, requestId);
                     }
+                } else {
+                    logger.warn("CommandOrchestrator: Received node response from {} for unknown or already handled requestId: {}.", sender.nodeId, requestId);
                 }
-            } else {
-                logger.warn("CommandOrchestrator: Received node response for unknown or already handled requestId: {}. Response: {}", requestId, responseJson);
             }
         } else {
-            logger.warn("CommandOrchestrator: Received node response without requestId: {}", responseJson);
+            logger.warn("CommandOrchestrator: Received node response without requestId from {}: {}", sender.nodeId, envelope);
         }
     }
 
-    private void sendErrorToMaster(String masterType, String requestId, String errorMessage, String nodeId) {
-        if ("INCOMING_TEST".equals(masterType)) {
-            if (nodeRegistry.getIncomingTestMasterWebSocket() != null && nodeRegistry.getIncomingTestMasterWebSocket().isOpen()) {
-                incomingMasterSender.sendErrorToIncomingTestMaster(requestId, nodeId, errorMessage);
-                logger.info("CommandOrchestrator: Sent error to INCOMING Test Master for request {}: {}", requestId, errorMessage);
+    /**
+     * Opens a chunked response for a pending request: the node announced it will send its payload as
+     * binary chunk frames (see {@link ChunkStream}). The originator receives stream_begin with the optional
+     * 'meta' slice and the node receives its initial credit. From here on the request's deadline is an idle
+     * timeout, pushed forward by every chunk.
+     */
+    public void handleStreamBegin(NodeInfo sender, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        if (requestId == null) {
+            logger.warn("CommandOrchestrator: Received stream_begin without requestId from {}: {}", sender.nodeId, envelope);
+            return;
+        }
+        PendingRequestTable.Entry<NodeInfo> pending = pendingRequests.get(requestId);
+        if (pending == null || pending.target != sender) {
+            logger.warn("CommandOrchestrator: Node {} began a stream for unknown, foreign or broadcast requestId {}. Cancelling it.", sender.nodeId, requestId);
+            outbound.send(sender.conn, FrameWriter.streamCancel(requestId, "No pending request " + requestId + " for this node."));
+            return;
+        }
+        RelayConnection destination = connectionOf(pending.source);
+        if (destination == null) {
+            logger.warn("CommandOrchestrator: Originator {} of stream {} is gone or remote. Cancelling it.", pending.source, requestId);
+            failStream(requestId, sender, isRelaySource(pending.source)
+                    ? "Chunked streams are not relayed between relays. Send a node_response instead."
+                    : isHttpSource(pending.source)
+                    ? "Chunked streams are not relayed to HTTP callers. Send a node_response instead."
+                    : "Originator disconnected.");
+            return;
+        }
+        ChunkStream stream = new ChunkStream(requestId, pending.source, sender, destination, config.streamWindowChunks);
+        if (streams.putIfAbsent(requestId, stream) != null) {
+            logger.warn("CommandOrchestrator: Node {} began stream {} twice. Ignoring the second stream_begin.", sender.nodeId, requestId);
+            return;
+        }
+        pendingRequests.extend(requestId, System.currentTimeMillis() + config.streamIdleTimeoutMs);
+        cacheFills.remove(requestId);
+        deliverToWaiters(requestId, FrameWriter.nodeErrorResponse(requestId, sender.nodeId,
+                "The response is being streamed to the original requester " + pending.source + "."));
+
+        int metaStart = envelope.hasMetaObject() ? envelope.metaStart() : -1;
+        outbound.send(destination, FrameWriter.streamBegin(requestId, sender.nodeId, stream.getWindowChunks(), envelope.frame(), metaStart, envelope.metaEnd()));
+        outbound.send(sender.conn, FrameWriter.streamCredit(requestId, stream.getWindowChunks()));
+        logger.info("CommandOrchestrator: Node {} began stream {} to {} (window {} chunks).", sender.nodeId, requestId, pending.source, stream.getWindowChunks());
+    }
+
+    /**
+     * Relays one binary chunk frame to the stream's originator as-is. The node's credit is returned once
+     * the chunk has been handed to the originator's socket, so a slow originator throttles the node.
+     */
+    public void handleStreamChunk(NodeInfo sender, ByteBuffer frame) {
+        String requestId = ChunkStream.requestIdOf(frame);
+        if (requestId == null) {
+            logger.warn("CommandOrchestrator: Node {} sent a truncated chunk frame ({} bytes). Dropped.", sender.nodeId, frame.remaining());
+            return;
+        }
+        ChunkStream stream = streams.get(requestId);
+        if (stream == null || stream.node != sender) {
+            logger.warn("CommandOrchestrator: Node {} sent a chunk for unknown or foreign stream {}. Cancelling it.", sender.nodeId, requestId);
+            outbound.send(sender.conn, FrameWriter.streamCancel(requestId, "No open stream " + requestId + " for this node."));
+            return;
+        }
+        int payloadBytes = ChunkStream.payloadBytesOf(frame);
+        String violation = payloadBytes > config.streamMaxChunkBytes
+                ? "Chunk of " + payloadBytes + " bytes exceeds the maximum of " + config.streamMaxChunkBytes + "."
+                : stream.acceptChunk(ChunkStream.seqOf(frame), payloadBytes);
+        if (violation != null) {
+            logger.warn("CommandOrchestrator: Stream {} from node {} aborted: {}", requestId, sender.nodeId, violation);
+            failStream(requestId, sender, violation);
+            return;
+        }
+        pendingRequests.extend(requestId, System.currentTimeMillis() + config.streamIdleTimeoutMs);
+
+        OutboundQueue.SendResult result = outbound.send(stream.destination, new OutboundQueue.RelayedBinary(frame, () -> chunkWritten(stream)));
+        if (result == OutboundQueue.SendResult.CLOSED) {
+            logger.warn("CommandOrchestrator: Originator {} of stream {} disconnected. Cancelling it.", stream.source, requestId);
+            failStream(requestId, sender, "Originator disconnected.");
+        }
+    }
+
+    /** Closes a stream: the originator receives stream_end with the chunk totals and the node's final 'response'. */
+    public void handleStreamEnd(NodeInfo sender, FrameEnvelope envelope) {
+        String requestId = envelope.requestId();
+        ChunkStream stream = requestId != null ? streams.get(requestId) : null;
+        if (stream == null || stream.node != sender) {
+            logger.warn("CommandOrchestrator: Node {} ended unknown or foreign stream {}.", sender.nodeId, requestId);
+            return;
+        }
+        streams.remove(requestId, stream);
+        PendingRequestTable.Entry<NodeInfo> pending = pendingRequests.remove(requestId);
+        if (pending == null) {
+            return; // expired concurrently; the originator has already been told
+        }
+        release(pending.target);
+        long latencyNanos = System.nanoTime() - pending.admittedNanos;
+        metrics.recordLatency(pending.label, latencyNanos);
+        nodeHealth.recordResponse(pending.target, latencyNanos, envelope.hasResponseObject()
+                && ResultCache.isErrorResponse(envelope.frame(), envelope.responseStart(), envelope.responseEnd()));
+        String endFrame = envelope.hasResponseObject()
+                ? FrameWriter.streamEnd(requestId, sender.nodeId, stream.getChunks(), stream.getBytes(), envelope.frame(), envelope.responseStart(), envelope.responseEnd())
+                : FrameWriter.streamEnd(requestId, sender.nodeId, stream.getChunks(), stream.getBytes(), DEFAULT_STREAM_RESPONSE, 0, DEFAULT_STREAM_RESPONSE.length());
+        outbound.send(stream.destination, endFrame);
+        logger.info("CommandOrchestrator: Stream {} from node {} complete ({} chunk(s), {} bytes) and relayed to {}.",
+                requestId, sender.nodeId, stream.getChunks(), stream.getBytes(), stream.source);
+    }
+
+    private void chunkWritten(ChunkStream stream) {
+        int grant = stream.chunkDelivered();
+        if (grant > 0 && streams.get(stream.requestId) == stream) {
+            outbound.send(stream.node.conn, FrameWriter.streamCredit(stream.requestId, grant));
+        }
+    }
+
+    /** Aborts an open stream on a protocol violation or a vanished originator and fails its request. */
+    private void failStream(String requestId, NodeInfo node, String reason) {
+        ChunkStream stream = streams.remove(requestId);
+        PendingRequestTable.Entry<NodeInfo> pending = pendingRequests.remove(requestId);
+        if (pending != null) {
+            release(pending.target);
+            cacheFills.remove(requestId);
+        }
+        if (stream != null) {
+            cancelStream(stream, reason);
+        } else {
+            outbound.send(node.conn, FrameWriter.streamCancel(requestId, reason));
+            if (pending != null) {
+                String errorFrame = FrameWriter.nodeErrorResponse(requestId, node.nodeId, reason);
+                deliverToSource(pending.source, requestId, errorFrame);
+                deliverToWaiters(requestId, errorFrame);
+            }
+        }
+    }
+
+    /** Tells the node to stop sending and the originator that the stream failed. */
+    private void cancelStream(ChunkStream stream, String reason) {
+        outbound.send(stream.node.conn, FrameWriter.streamCancel(stream.requestId, reason));
+        outbound.send(stream.destination, FrameWriter.streamError(stream.requestId, stream.node.nodeId, stream.getChunks(), stream.getBytes(), reason));
+    }
+
+    /** The open connection of a request's originator, or null if it has gone, is a peer relay or an HTTP caller. */
+    private RelayConnection connectionOf(String sourceIdentifier) {
+        if (isRelaySource(sourceIdentifier) || isHttpSource(sourceIdentifier)) {
+            return null;
+        }
+        RelayConnection conn = isMasterSource(sourceIdentifier)
+                ? incomingMasterSender.incomingTestMasterFor(sourceIdentifier)
+                : nodeRegistry.getBatchServerClientWebSocket(sourceIdentifier);
+        return conn != null && conn.isOpen() ? conn : null;
+    }
+
+    /** Sends a request's final frame to every duplicate attached to it. */
+    private void deliverToWaiters(String requestId, String frame) {
+        List<String> attached = waiters.remove(requestId);
+        if (attached != null) {
+            for (String waiter : attached) {
+                deliverToSource(waiter, requestId, frame);
+            }
+        }
+    }
+
+    /** Sends a node_response frame back to the client that issued requestId. */
+    private void deliverToSource(String sourceIdentifier, String requestId, String responseFrame) {
+        // Determine the original source type and route the response
+        if (isMasterSource(sourceIdentifier)) {
+            // The issuing member, or any live member of the pool if it has gone
+            incomingMasterSender.forwardResponseToIncomingTestMaster(sourceIdentifier, requestId, responseFrame);
+        } else if (isHttpSource(sourceIdentifier)) {
+            CompletableFuture<String> answer = httpRequests.remove(requestId);
+            if (answer != null) {
+                answer.complete(responseFrame);
+                logger.info("CommandOrchestrator: Completed HTTP request {}.", requestId);
             } else {
-                logger.warn("CommandOrchestrator: Failed to send error to INCOMING Test Master, not connected.");
+                logger.warn("CommandOrchestrator: HTTP request {} is no longer awaited. Cannot route response.", requestId);
+            }
+        } else if (isRelaySource(sourceIdentifier)) {
+            String peerRelayId = sourceIdentifier.substring(RELAY_SOURCE_PREFIX.length());
+            if (cluster.send(peerRelayId, responseFrame) != OutboundQueue.SendResult.CLOSED) {
+                logger.info("CommandOrchestrator: Routed response for requestId {} back to relay '{}'.", requestId, peerRelayId);
+            } else {
+                logger.warn("CommandOrchestrator: No link to relay '{}' (for request {}). Cannot route response.", peerRelayId, requestId);
+            }
+        } else {
+            // This must be a Batch Server Client's request (sourceIdentifier is clientId here)
+            // Sent, or buffered for redelivery while the client is within its session's grace window
+            if (clientSessions.deliver(sourceIdentifier, responseFrame)) {
+                logger.info("CommandOrchestrator: Routed response for requestId {} to Batch Server Client {}.", requestId, sourceIdentifier);
+            } else {
+                logger.warn("CommandOrchestrator: Batch Server Client {} (for request {}) not found or disconnected. Cannot route response.", sourceIdentifier, requestId);
             }
         }
     }
+
+    private void sendErrorToMaster(String source, String requestId, String errorMessage, String nodeId) {
+        incomingMasterSender.sendErrorToIncomingTestMaster(source, requestId, nodeId, errorMessage);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+// src/main/java/com/example/websocket/EncodedFrame.java
+package com.example.websocket;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A text frame encoded to UTF-8 once and written to many connections, e.g. the command of a node_broadcast.
+ * The transport still adds the frame header per connection, but every connection wraps the same payload
+ * bytes instead of re-encoding the string. The MessagePack form is likewise encoded once, on first use.
+ */
+public final class EncodedFrame {
+    private final String text;
+    private final byte[] payload;
+    private volatile byte[] msgpackPayload;
+
+    public EncodedFrame(String text) {
+        this.text = text;
+        this.payload = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int length() {
+        return payload.length;
+    }
+
+    /** Bytes of the payload as written: the UTF-8 text, or once encoded, its MessagePack form. */
+    int wireLength(boolean msgpack) {
+        byte[] packed = msgpackPayload;
+        return msgpack && packed != null ? packed.length : payload.length;
+    }
+
+    /** The MessagePack form, encoded on the first call. */
+    byte[] msgpackPayload() {
+        byte[] packed = msgpackPayload;
+        if (packed == null) {
+            packed = MessagePackCodec.fromJson(text);
+            msgpackPayload = packed;
+        }
+        return packed;
+    }
+
+    /** Writes the shared payload as a text frame, or its MessagePack form as a binary frame. */
+    boolean writeTo(RelayConnection conn, boolean msgpack) {
+        return msgpack ? conn.sendBinary(msgpackPayload()) : conn.sendText(payload);
+    }
+}
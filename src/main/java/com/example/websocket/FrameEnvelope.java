@@ -0,0 +1,258 @@
+// src/main/java/com/example/websocket/FrameEnvelope.java
+package com.example.websocket;
+
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Routing view of an inbound text frame, decoded in a single pass by {@link FrameScanner}.
+ * Only the top-level routing fields are materialized; the 'response', 'command' and 'selector' payloads
+ * are kept as [start, end) offsets into the original frame so they can be relayed without re-serialization.
+ */
+public final class FrameEnvelope {
+
+    private final String frame;
+    private String type;
+    private String requestId;
+    private String nodeId;
+    private String status;
+    private long timeoutMs = -1;
+    private int responseStart = -1;
+    private int responseEnd = -1;
+    private int commandStart = -1;
+    private int commandEnd = -1;
+    private int selectorStart = -1;
+    private int selectorEnd = -1;
+    private String batchId;
+    private int commandsStart = -1;
+    private int commandsEnd = -1;
+    private int nodeIdsStart = -1;
+    private int nodeIdsEnd = -1;
+    private int metaStart = -1;
+    private int metaEnd = -1;
+
+    private FrameEnvelope(String frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Decodes the routing fields of a frame.
+     * @throws JsonSyntaxException if the frame is not a well-formed JSON object.
+     */
+    public static FrameEnvelope parse(String frame) {
+        FrameScanner scanner = new FrameScanner(frame);
+        FrameEnvelope envelope = read(scanner);
+        scanner.finish();
+        return envelope;
+    }
+
+    /**
+     * Decodes the object under the scanner's cursor, e.g. one entry of a node_command_batch.
+     * Slice offsets of the result refer to the scanner's source frame.
+     */
+    static FrameEnvelope read(FrameScanner scanner) {
+        FrameEnvelope envelope = new FrameEnvelope(scanner.source());
+        scanner.beginObject();
+        while (scanner.nextMember()) {
+            if (scanner.keyIs("type")) {
+                envelope.type = scanner.readString();
+            } else if (scanner.keyIs("requestId")) {
+                envelope.requestId = scanner.readString();
+            } else if (scanner.keyIs("nodeId")) {
+                envelope.nodeId = scanner.readString();
+            } else if (scanner.keyIs("status") && scanner.peek() == '"') {
+                envelope.status = scanner.readString();
+            } else if (scanner.keyIs("timeoutMs")) {
+                envelope.timeoutMs = parseTimeout(scanner.readString());
+            } else if (scanner.keyIs("response")) {
+                scanner.skipValue();
+                envelope.responseStart = scanner.valueStart();
+                envelope.responseEnd = scanner.valueEnd();
+            } else if (scanner.keyIs("selector")) {
+                scanner.skipValue();
+                envelope.selectorStart = scanner.valueStart();
+                envelope.selectorEnd = scanner.valueEnd();
+            } else if (scanner.keyIs("command")) {
+                scanner.skipValue();
+                envelope.commandStart = scanner.valueStart();
+                envelope.commandEnd = scanner.valueEnd();
+            } else if (scanner.keyIs("batchId")) {
+                envelope.batchId = scanner.readString();
+            } else if (scanner.keyIs("commands")) {
+                scanner.skipValue();
+                envelope.commandsStart = scanner.valueStart();
+                envelope.commandsEnd = scanner.valueEnd();
+            } else if (scanner.keyIs("meta")) {
+                scanner.skipValue();
+                envelope.metaStart = scanner.valueStart();
+                envelope.metaEnd = scanner.valueEnd();
+            } else if (scanner.keyIs("nodeIds")) {
+                scanner.skipValue();
+                envelope.nodeIdsStart = scanner.valueStart();
+                envelope.nodeIdsEnd = scanner.valueEnd();
+            } else {
+                scanner.skipValue();
+            }
+        }
+        return envelope;
+    }
+
+    private static long parseTimeout(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException("Invalid 'timeoutMs' value: " + value);
+        }
+    }
+
+    public String frame() {
+        return frame;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    public String requestId() {
+        return requestId;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public String status() {
+        return status;
+    }
+
+    /** Per-request timeout in milliseconds, or -1 if the frame does not specify one. */
+    public long timeoutMs() {
+        return timeoutMs;
+    }
+
+    /** True if the frame carries a 'response' member that is a JSON object. */
+    public boolean hasResponseObject() {
+        return responseStart >= 0 && frame.charAt(responseStart) == '{';
+    }
+
+    public int responseStart() {
+        return responseStart;
+    }
+
+    public int responseEnd() {
+        return responseEnd;
+    }
+
+    /** True if the frame carries a 'command' member that is a JSON object. */
+    public boolean hasCommandObject() {
+        return commandStart >= 0 && frame.charAt(commandStart) == '{';
+    }
+
+    public int commandStart() {
+        return commandStart;
+    }
+
+    public int commandEnd() {
+        return commandEnd;
+    }
+
+    /** The 'action' member of the 'command' object, or null. Scanning stops at the action, so put it first. */
+    public String commandAction() {
+        if (!hasCommandObject()) {
+            return null;
+        }
+        FrameScanner scanner = new FrameScanner(frame, commandStart, commandEnd);
+        scanner.beginObject();
+        while (scanner.nextMember()) {
+            if (scanner.keyIs("action") && scanner.peek() == '"') {
+                return scanner.readString();
+            }
+            scanner.skipValue();
+        }
+        return null;
+    }
+
+    /** True if the frame carries a 'selector' member that is a JSON object. */
+    public boolean hasSelectorObject() {
+        return selectorStart >= 0 && frame.charAt(selectorStart) == '{';
+    }
+
+    /** Capability tokens of the 'selector' object (see {@link CapabilityIndex#tokensOf}); empty if there is none. */
+    public Set<String> selectorTokens() {
+        if (!hasSelectorObject()) {
+            return Collections.emptySet();
+        }
+        return CapabilityIndex.tokensOf(JsonParser.parseString(frame.substring(selectorStart, selectorEnd)).getAsJsonObject());
+    }
+
+    /** The raw 'selector' object, for log and error messages. */
+    public String selectorText() {
+        return hasSelectorObject() ? frame.substring(selectorStart, selectorEnd) : null;
+    }
+
+    public String batchId() {
+        return batchId;
+    }
+
+    /** True if the frame carries a 'commands' member that is a JSON array (node_command_batch). */
+    public boolean hasCommandsArray() {
+        return commandsStart >= 0 && frame.charAt(commandsStart) == '[';
+    }
+
+    /** Scanner positioned on the 'commands' array; call beginArray() to iterate its entries. */
+    FrameScanner commandsScanner() {
+        return new FrameScanner(frame, commandsStart, commandsEnd);
+    }
+
+    /** True if the frame carries a 'meta' member that is a JSON object (stream_begin). */
+    public boolean hasMetaObject() {
+        return metaStart >= 0 && frame.charAt(metaStart) == '{';
+    }
+
+    public int metaStart() {
+        return metaStart;
+    }
+
+    public int metaEnd() {
+        return metaEnd;
+    }
+
+    /** True if the frame carries a 'nodeIds' member that is a JSON array (node_broadcast). */
+    public boolean hasNodeIdsArray() {
+        return nodeIdsStart >= 0 && frame.charAt(nodeIdsStart) == '[';
+    }
+
+    /** The entries of the 'nodeIds' array in order, without nulls; empty if there is none. */
+    public List<String> nodeIds() {
+        if (!hasNodeIdsArray()) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>();
+        FrameScanner scanner = new FrameScanner(frame, nodeIdsStart, nodeIdsEnd);
+        scanner.beginArray();
+        while (scanner.nextElement()) {
+            if (scanner.peek() == '{' || scanner.peek() == '[') {
+                scanner.skipValue();
+            } else {
+                String id = scanner.readString();
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameEnvelope{type=" + type + ", requestId=" + requestId + ", nodeId=" + nodeId + ", length=" + frame.length() + "}";
+    }
+}
@@ -0,0 +1,303 @@
+// src/main/java/com/example/websocket/FrameScanner.java
+package com.example.websocket;
+
+import com.google.gson.JsonSyntaxException;
+
+import java.util.Arrays;
+
+/**
+ * Forward-only JSON cursor over a frame String.
+ * It walks object members and array elements and records value boundaries without building a tree,
+ * so large values (screenshots, file contents) can be relayed as untouched slices of the original frame.
+ * Structure is validated while skipping; scalar literals are only checked for legal characters.
+ */
+final class FrameScanner {
+
+    private final String src;
+    private final int limit;
+    private int pos;
+
+    // One flag per open container: true until its first member/element has been consumed
+    private boolean[] firstInContainer = new boolean[16];
+    private int depth = 0;
+
+    private int keyStart = -1;
+    private int keyEnd = -1;
+    private int valueStart = -1;
+    private int valueEnd = -1;
+
+    FrameScanner(String src) {
+        this(src, 0, src.length());
+    }
+
+    FrameScanner(String src, int start, int end) {
+        this.src = src;
+        this.pos = start;
+        this.limit = end;
+    }
+
+    String source() {
+        return src;
+    }
+
+    void beginObject() {
+        skipWhitespace();
+        expect('{');
+        push();
+    }
+
+    void beginArray() {
+        skipWhitespace();
+        expect('[');
+        push();
+    }
+
+    /**
+     * Advances to the next member of the current object and positions the cursor on its value.
+     * @return false once the closing brace has been consumed.
+     */
+    boolean nextMember() {
+        if (!advanceInContainer('}')) {
+            return false;
+        }
+        if (pos >= limit || src.charAt(pos) != '"') {
+            throw syntaxError("Expected member name");
+        }
+        keyStart = pos + 1;
+        pos = skipString(pos);
+        keyEnd = pos - 1;
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        return true;
+    }
+
+    /**
+     * Advances to the next element of the current array.
+     * @return false once the closing bracket has been consumed.
+     */
+    boolean nextElement() {
+        return advanceInContainer(']');
+    }
+
+    /** Compares the current member name without allocating. Escaped names never match. */
+    boolean keyIs(String name) {
+        int len = keyEnd - keyStart;
+        return len == name.length() && src.regionMatches(keyStart, name, 0, len);
+    }
+
+    /** First character of the value under the cursor, or 0 at end of input. */
+    char peek() {
+        skipWhitespace();
+        return pos < limit ? src.charAt(pos) : 0;
+    }
+
+    /**
+     * Reads the value under the cursor as a string. Numbers and booleans are returned as their literal
+     * text (mirroring JsonElement.getAsString()), JSON null as null.
+     */
+    String readString() {
+        skipWhitespace();
+        char c = peek();
+        if (c == '"') {
+            int start = pos + 1;
+            pos = skipString(pos);
+            valueStart = start - 1;
+            valueEnd = pos;
+            int end = pos - 1;
+            for (int i = start; i < end; i++) {
+                if (src.charAt(i) == '\\') {
+                    return unescape(start, end);
+                }
+            }
+            return src.substring(start, end);
+        }
+        if (c == '{' || c == '[') {
+            throw syntaxError("Expected a string value but found a " + (c == '{' ? "object" : "array"));
+        }
+        skipValue();
+        String literal = src.substring(valueStart, valueEnd);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    /** Skips the value under the cursor, recording its [start, end) bounds. */
+    void skipValue() {
+        skipWhitespace();
+        if (pos >= limit) {
+            throw syntaxError("Unexpected end of frame");
+        }
+        valueStart = pos;
+        char c = src.charAt(pos);
+        if (c == '"') {
+            pos = skipString(pos);
+        } else if (c == '{' || c == '[') {
+            pos = skipContainer(pos);
+        } else {
+            pos = skipLiteral(pos);
+        }
+        valueEnd = pos;
+    }
+
+    int valueStart() {
+        return valueStart;
+    }
+
+    int valueEnd() {
+        return valueEnd;
+    }
+
+    /** Verifies nothing but whitespace follows the top-level value. */
+    void finish() {
+        skipWhitespace();
+        if (pos != limit) {
+            throw syntaxError("Trailing characters after JSON value");
+        }
+    }
+
+    private boolean advanceInContainer(char close) {
+        skipWhitespace();
+        if (pos >= limit) {
+            throw syntaxError("Unterminated container");
+        }
+        if (src.charAt(pos) == close) {
+            pos++;
+            depth--;
+            return false;
+        }
+        if (!firstInContainer[depth - 1]) {
+            expect(',');
+            skipWhitespace();
+        }
+        firstInContainer[depth - 1] = false;
+        return true;
+    }
+
+    private void push() {
+        if (depth == firstInContainer.length) {
+            firstInContainer = Arrays.copyOf(firstInContainer, depth * 2);
+        }
+        firstInContainer[depth++] = true;
+    }
+
+    private int skipString(int at) {
+        int i = at + 1;
+        while (true) {
+            int quote = src.indexOf('"', i);
+            if (quote < 0 || quote >= limit) {
+                throw syntaxError("Unterminated string");
+            }
+            int backslashes = 0;
+            for (int j = quote - 1; j >= i && src.charAt(j) == '\\'; j--) {
+                backslashes++;
+            }
+            if ((backslashes & 1) == 0) {
+                return quote + 1;
+            }
+            i = quote + 1;
+        }
+    }
+
+    private int skipContainer(int at) {
+        char[] stack = new char[16];
+        int top = 0;
+        int i = at;
+        while (i < limit) {
+            char c = src.charAt(i);
+            switch (c) {
+                case '"':
+                    i = skipString(i);
+                    continue;
+                case '{':
+                case '[':
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = c == '{' ? '}' : ']';
+                    break;
+                case '}':
+                case ']':
+                    if (top == 0 || stack[--top] != c) {
+                        throw syntaxError("Mismatched '" + c + "'");
+                    }
+                    if (top == 0) {
+                        return i + 1;
+                    }
+                    break;
+                default:
+                    if (c > ' ' && c != ',' && c != ':' && !isLiteralChar(c)) {
+                        throw syntaxError("Unexpected character '" + c + "'");
+                    }
+            }
+            i++;
+        }
+        throw syntaxError("Unterminated container");
+    }
+
+    private int skipLiteral(int at) {
+        int i = at;
+        while (i < limit && isLiteralChar(src.charAt(i))) {
+            i++;
+        }
+        if (i == at) {
+            throw syntaxError("Unexpected character '" + src.charAt(at) + "'");
+        }
+        return i;
+    }
+
+    private static boolean isLiteralChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '+' || c == '.';
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit) {
+            char c = src.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void expect(char c) {
+        if (pos >= limit || src.charAt(pos) != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = src.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = src.charAt(++i);
+            switch (e) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end) {
+                        throw syntaxError("Truncated unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(src.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException ex) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    i += 4;
+                    break;
+                default: sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private JsonSyntaxException syntaxError(String message) {
+        return new JsonSyntaxException(message + " at offset " + pos);
+    }
+}
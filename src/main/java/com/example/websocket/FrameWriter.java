@@ -0,0 +1,189 @@
+// src/main/java/com/example/websocket/FrameWriter.java
+package com.example.websocket;
+
+/**
+ * Builds outbound relay frames with a StringBuilder, splicing payload slices from inbound frames
+ * in verbatim instead of round-tripping them through a JsonObject.
+ */
+public final class FrameWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private FrameWriter() {
+    }
+
+    /** {"type":"command","requestId":...,"command":<slice>} */
+    public static String command(String requestId, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start + 64);
+        sb.append("{\"type\":\"command\"");
+        if (requestId != null) {
+            sb.append(",\"requestId\":");
+            appendQuoted(sb, requestId);
+        }
+        sb.append(",\"command\":").append(source, start, end).append('}');
+        return sb.toString();
+    }
+
+    /** {"type":"node_response","requestId":...,"nodeId":...,"response":<slice>} */
+    public static String nodeResponse(String requestId, String nodeId, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start + 96);
+        sb.append("{\"type\":\"node_response\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        sb.append(",\"response\":").append(source, start, end).append('}');
+        return sb.toString();
+    }
+
+    /** A node_response whose body is {"status":"error","message":...}. */
+    public static String nodeErrorResponse(String requestId, String nodeId, String message) {
+        StringBuilder body = new StringBuilder(64 + message.length());
+        body.append("{\"status\":\"error\",\"message\":");
+        appendQuoted(body, message);
+        body.append('}');
+        String response = body.toString();
+        return nodeResponse(requestId, nodeId, response, 0, response.length());
+    }
+
+    /** {"type":"stream_begin","requestId":...,"nodeId":...,"windowChunks":n,"meta":<slice or null>} */
+    public static String streamBegin(String requestId, String nodeId, int windowChunks, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(Math.max(0, end - start) + 128);
+        sb.append("{\"type\":\"stream_begin\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        sb.append(",\"windowChunks\":").append(windowChunks).append(",\"meta\":");
+        if (start >= 0) {
+            sb.append(source, start, end);
+        } else {
+            sb.append("null");
+        }
+        return sb.append('}').toString();
+    }
+
+    /** {"type":"stream_end","requestId":...,"nodeId":...,"chunks":n,"bytes":n,"response":<slice>} */
+    public static String streamEnd(String requestId, String nodeId, long chunks, long bytes, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start + 128);
+        sb.append("{\"type\":\"stream_end\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        sb.append(",\"chunks\":").append(chunks).append(",\"bytes\":").append(bytes)
+          .append(",\"response\":").append(source, start, end).append('}');
+        return sb.toString();
+    }
+
+    /** A stream_end whose response is {"status":"error","message":...}. */
+    public static String streamError(String requestId, String nodeId, long chunks, long bytes, String message) {
+        StringBuilder body = new StringBuilder(64 + message.length());
+        body.append("{\"status\":\"error\",\"message\":");
+        appendQuoted(body, message);
+        body.append('}');
+        String response = body.toString();
+        return streamEnd(requestId, nodeId, chunks, bytes, response, 0, response.length());
+    }
+
+    /** {"type":"stream_credit","requestId":...,"chunks":n}, sent to the streaming node. */
+    public static String streamCredit(String requestId, int chunks) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"type\":\"stream_credit\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        return sb.append(",\"chunks\":").append(chunks).append('}').toString();
+    }
+
+    /** {"type":"stream_cancel","requestId":...,"reason":...}, sent to the streaming node. */
+    public static String streamCancel(String requestId, String reason) {
+        StringBuilder sb = new StringBuilder(64 + reason.length());
+        sb.append("{\"type\":\"stream_cancel\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"reason\":");
+        appendQuoted(sb, reason);
+        return sb.append('}').toString();
+    }
+
+    /** {"type":"identify_relay","relayId":...}, the first frame on an inter-relay link, sent by both ends. */
+    public static String identifyRelay(String relayId) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"type\":\"identify_relay\",\"relayId\":");
+        appendQuoted(sb, relayId);
+        return sb.append('}').toString();
+    }
+
+    /** {"type":"relay_directory","nodeIds":[...]}, every RPA node connected to the sending relay. */
+    public static String relayDirectory(Iterable<String> nodeIds) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"type\":\"relay_directory\",\"nodeIds\":[");
+        boolean first = true;
+        for (String nodeId : nodeIds) {
+            if (!first) {
+                sb.append(',');
+            }
+            appendQuoted(sb, nodeId);
+            first = false;
+        }
+        return sb.append("]}").toString();
+    }
+
+    /** {"type":"relay_node_up"|"relay_node_down","nodeId":...}, a directory change on the sending relay. */
+    public static String relayNodeChange(String nodeId, boolean up) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(up ? "{\"type\":\"relay_node_up\",\"nodeId\":" : "{\"type\":\"relay_node_down\",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        return sb.append('}').toString();
+    }
+
+    /** {"type":"relay_command","requestId":...,"nodeId":...,"timeoutMs":n,"command":<slice>}, sent to the node's relay. */
+    public static String relayCommand(String requestId, String nodeId, long timeoutMs, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start + 128);
+        sb.append("{\"type\":\"relay_command\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        sb.append(",\"timeoutMs\":").append(timeoutMs)
+          .append(",\"command\":").append(source, start, end).append('}');
+        return sb.toString();
+    }
+
+    /** {"type":"node_command","requestId":...,"nodeId":...,"timeoutMs":n,"command":<slice>}; timeoutMs is left out unless positive. */
+    public static String nodeCommand(String requestId, String nodeId, long timeoutMs, String source, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start + 128);
+        sb.append("{\"type\":\"node_command\",\"requestId\":");
+        appendQuoted(sb, requestId);
+        sb.append(",\"nodeId\":");
+        appendQuoted(sb, nodeId);
+        if (timeoutMs > 0) {
+            sb.append(",\"timeoutMs\":").append(timeoutMs);
+        }
+        sb.append(",\"command\":").append(source, start, end).append('}');
+        return sb.toString();
+    }
+
+    /** Appends a JSON string literal (null becomes JSON null). */
+    public static void appendQuoted(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        int runStart = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            sb.append(value, runStart, i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    sb.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                      .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+            runStart = i + 1;
+        }
+        sb.append(value, runStart, value.length()).append('"');
+    }
+}
@@ -9,12 +9,14 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonParseException;
 import java.util.Map;
 
-import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.NodeStatus;
+import com.example.websocket.NodeRegistry.Role;
 
 public class HTTPServer {
     private final int port;
     private final Server wsServer; 
     private static final Gson gson = new Gson();
+    private static final int DEFAULT_NODE_PAGE = 100;
 
     public HTTPServer(int port, Server wsServer) {
         this.port = port;
@@ -23,26 +25,70 @@ public class HTTPServer {
     }
 
     public void start() {
+        // POST /api/request/:nodeId holds its response open until the node answers; see AwaitedRequestHandler
+        new AwaitedRequestHandler(wsServer.getCommandOrchestrator()).install();
         port(port);
         staticFiles.location("/public");
 
-        // API endpoint to get a list of active nodes
+        // Prometheus scrape endpoint
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return wsServer.renderMetrics();
+        });
+
+        // Identified nodes and batch clients, one page at a time: ?role=&status=&offset=&limit=
+        // Served from a cached snapshot; pollers sending back its ETag get a bodiless 304 until it changes
         get("/api/nodes", (req, res) -> {
             res.type("application/json");
-            // Assuming Server has a public method getNodes() that returns Map<String, NodeInfo>
-            Map<String, NodeInfo> activeNodes = wsServer.getNodes();
-            return gson.toJson(activeNodes.values()); // Return values as a list
+            Role role;
+            NodeStatus status;
+            int offset;
+            int limit;
+            try {
+                role = req.queryParams("role") != null ? Role.valueOf(req.queryParams("role").trim().toUpperCase()) : null;
+                status = req.queryParams("status") != null ? NodeStatus.valueOf(req.queryParams("status").trim().toUpperCase()) : null;
+                offset = req.queryParams("offset") != null ? Integer.parseInt(req.queryParams("offset").trim()) : 0;
+                limit = req.queryParams("limit") != null ? Integer.parseInt(req.queryParams("limit").trim()) : DEFAULT_NODE_PAGE;
+                if (offset < 0 || limit < 0) {
+                    throw new IllegalArgumentException("offset and limit must not be negative");
+                }
+            } catch (IllegalArgumentException e) {
+                res.status(400);
+                return gson.toJson(Map.of("status", "error", "message", "Invalid node listing query: " + e.getMessage()));
+            }
+            NodeListing.Snapshot snapshot = wsServer.getNodeListing().current();
+            res.header("ETag", snapshot.etag());
+            res.header("Cache-Control", "no-cache");
+            if (matchesETag(req.headers("If-None-Match"), snapshot.etag())) {
+                res.status(304);
+                return "";
+            }
+            return snapshot.renderPage(role, status, offset, Math.min(limit, wsServer.getNodeListingMaxPage()));
         });
 
-        // API endpoint to send a command to a specific node by ID
+        // Rolling latency, failure rate and ping round trip of every RPA node, with its score and ejection state
+        get("/api/nodes/health", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(wsServer.getNodeHealth());
+        });
+
+        // API endpoint to send a command to a specific node by ID, without waiting for its response
         post("/api/send/:nodeId", (req, res) -> {
             res.type("application/json");
             String nodeId = req.params(":nodeId");
 
+            if (wsServer.isDraining()) {
+                res.status(503);
+                return gson.toJson(Map.of("status", "error", "message", NodeCommander.describeFailure(NodeCommander.DispatchResult.DRAINING, nodeId)));
+            }
             try {
                 JsonObject command = JsonParser.parseString(req.body()).getAsJsonObject();
-                if (wsServer.getNodeCommander().sendToNode(nodeId, command)) {
+                NodeCommander.DispatchResult result = wsServer.getNodeCommander().sendToNode(nodeId, command);
+                if (result == NodeCommander.DispatchResult.SENT) {
                     return gson.toJson(Map.of("status", "success", "message", "Command sent to node " + nodeId));
+                } else if (result == NodeCommander.DispatchResult.BUSY) {
+                    res.status(503);
+                    return gson.toJson(Map.of("status", "error", "message", "Node " + nodeId + " is busy. Retry later."));
                 } else {
                     res.status(404);
                     return gson.toJson(Map.of("status", "error", "message", "Node " + nodeId + " not found or not active."));
@@ -55,6 +101,18 @@ public class HTTPServer {
                 return gson.toJson(Map.of("status", "error", "message", "Server error: " + e.getMessage()));
             }
         });
+        // Outbound queue depth per connection, slowest consumers first
+        get("/api/queues", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(wsServer.getOutboundQueueStats());
+        });
+
+        // This relay's id, linked peer relays and how many nodes each of them owns
+        get("/api/cluster", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(wsServer.getClusterStats());
+        });
+
         post("/api/disconnect/:nodeId", (req, res) -> {
             res.type("application/json");
             String nodeId = req.params(":nodeId");
@@ -69,6 +127,23 @@ public class HTTPServer {
         System.out.println("HTTP Server: Routes configured.");
     }
 
+    /** If-None-Match holds etag (weak or strong) or is "*". */
+    static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void stop() {
         System.out.println("HTTP Server: Stopping...");
         stop(); // Spark stop method
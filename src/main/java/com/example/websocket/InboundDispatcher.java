@@ -0,0 +1,204 @@
+// src/main/java/com/example/websocket/InboundDispatcher.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves message handling off the transport's I/O threads, keeping per-connection order.
+ *
+ * STRIPED hashes each connection onto one of a fixed set of worker threads, each draining its own
+ * bounded queue, so a connection's events run one at a time and in arrival order while different
+ * connections run on all cores. A full stripe blocks the I/O thread that feeds it, which pushes
+ * back on the sockets instead of buffering without limit.
+ *
+ * VIRTUAL gives every connection a mailbox that is drained on a virtual thread while it has work
+ * (JDK 21+, looked up reflectively so the relay still builds for Java 11); older JDKs fall back to STRIPED.
+ *
+ * INLINE runs everything on the I/O thread, as before.
+ *
+ * Once shut down the dispatcher drops new events rather than running them on the caller, which
+ * would let them overtake events still queued for the same connection.
+ */
+public class InboundDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(InboundDispatcher.class);
+
+    public enum Mode {
+        INLINE, STRIPED, VIRTUAL
+    }
+
+    private final Mode mode;
+    private final List<BlockingQueue<Runnable>> stripes;
+    private final Thread[] workers;
+    private final ExecutorService virtualThreads;
+    private final ConcurrentHashMap<RelayConnection, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger droppedAfterShutdown = new AtomicInteger();
+    private volatile boolean stopped;
+
+    public InboundDispatcher(Mode requested, int workerThreads, int queueCapacity) {
+        ExecutorService virtual = null;
+        if (requested == Mode.VIRTUAL) {
+            virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual == null) {
+                logger.warn("InboundDispatcher: Virtual threads need JDK 21 or newer (running {}). Using STRIPED workers.", System.getProperty("java.version"));
+                requested = Mode.STRIPED;
+            }
+        }
+        this.mode = requested;
+        this.virtualThreads = virtual;
+
+        int threads = mode == Mode.STRIPED ? Math.max(1, workerThreads) : 0;
+        this.stripes = new ArrayList<>(threads);
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            BlockingQueue<Runnable> stripe = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+            stripes.add(stripe);
+            workers[i] = new Thread(() -> drain(stripe), "relay-worker-" + i);
+            workers[i].start();
+        }
+        logger.info("InboundDispatcher: Initialized in {} mode{}.", mode,
+                mode == Mode.STRIPED ? " with " + threads + " workers, " + queueCapacity + " queued events each" : "");
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Runs an event of a connection after every event submitted before it for the same connection. */
+    public void execute(RelayConnection conn, Runnable task) {
+        if (stopped) {
+            if (droppedAfterShutdown.getAndIncrement() == 0) {
+                logger.warn("InboundDispatcher: Event from {} arrived after shutdown and was dropped. Later ones are dropped quietly.", conn.getRemoteSocketAddress());
+            }
+        } else if (mode == Mode.INLINE) {
+            task.run();
+        } else if (mode == Mode.VIRTUAL) {
+            mailboxes.computeIfAbsent(conn, c -> new Mailbox()).add(task);
+        } else {
+            BlockingQueue<Runnable> stripe = stripes.get(stripeOf(conn));
+            try {
+                stripe.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("InboundDispatcher: Interrupted while queueing an event for {}. Event dropped.", conn.getRemoteSocketAddress());
+            }
+        }
+    }
+
+    /** Forgets a closed connection's mailbox. Call from its last event. */
+    public void release(RelayConnection conn) {
+        if (mode == Mode.VIRTUAL) {
+            mailboxes.remove(conn);
+        }
+    }
+
+    /** Events accepted but not yet run, across all stripes (STRIPED mode only). */
+    public int getQueuedEvents() {
+        int queued = 0;
+        for (BlockingQueue<Runnable> stripe : stripes) {
+            queued += stripe.size();
+        }
+        return queued;
+    }
+
+    /** Stops accepting events and waits briefly for the queued ones to finish. */
+    public void shutdown() {
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+            if (virtualThreads != null) {
+                virtualThreads.shutdown();
+                virtualThreads.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (droppedAfterShutdown.get() > 0) {
+            logger.info("InboundDispatcher: Dropped {} events that arrived after shutdown.", droppedAfterShutdown.get());
+        }
+    }
+
+    private int stripeOf(RelayConnection conn) {
+        int h = System.identityHashCode(conn) * 0x9E3779B1;
+        return (h >>> 1) % stripes.size();
+    }
+
+    private void drain(BlockingQueue<Runnable> stripe) {
+        while (!stopped || !stripe.isEmpty()) {
+            Runnable task;
+            try {
+                task = stripe.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    task = stripe.poll();
+                    if (task == null) {
+                        return;
+                    }
+                } else {
+                    continue;
+                }
+            }
+            if (task != null) {
+                runSafely(task);
+            }
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            logger.error("InboundDispatcher: Unhandled error in connection event: {}", e.getMessage(), e);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** A connection's events, run in order on one virtual thread at a time. */
+    private final class Mailbox {
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        void add(Runnable task) {
+            tasks.add(task);
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    virtualThreads.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // shutdown() raced with this event
+                    droppedAfterShutdown.incrementAndGet();
+                }
+            }
+        }
+
+        private void drain() {
+            do {
+                runSafely(tasks.poll());
+            } while (pending.decrementAndGet() > 0);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 // src/main/java/com/example/websocket/IncomingTestMasterSender.java
 package com.example.websocket;
 
-import com.google.gson.JsonObject;
-
+/**
+ * Delivery to the Incoming Test Master pool. source is the id of the member that issued the request; if that
+ * connection has gone, the frame goes to another live member instead.
+ */
 public interface IncomingTestMasterSender {
-    void sendErrorToIncomingTestMaster(String requestId, String nodeId, String errorMessage);
-    void forwardResponseToIncomingTestMaster(String nodeId, JsonObject response, String requestId);
-}
\ No newline at end of file
+    void sendErrorToIncomingTestMaster(String source, String requestId, String nodeId, String errorMessage);
+    void forwardResponseToIncomingTestMaster(String source, String requestId, String responseFrame);
+    /** The connection frames for source currently go to, or null if no member of the pool is connected. */
+    RelayConnection incomingTestMasterFor(String source);
+}
@@ -0,0 +1,134 @@
+// src/main/java/com/example/websocket/JavaWebSocketConnection.java
+package com.example.websocket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.TextFrame;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A Java-WebSocket connection, accepted by {@link JavaWebSocketEngine} or dialed as a {@link WebSocketClient},
+ * seen as a {@link RelayConnection}. The wrapper is stored as the library connection's attachment, so each
+ * connection has exactly one and looking it up on every event costs no map access.
+ */
+final class JavaWebSocketConnection implements RelayConnection {
+    private final WebSocket ws;
+    private volatile Object attachment;
+
+    private JavaWebSocketConnection(WebSocket ws) {
+        this.ws = ws;
+    }
+
+    static JavaWebSocketConnection of(WebSocket ws) {
+        JavaWebSocketConnection conn = ws.getAttachment();
+        if (conn == null) {
+            synchronized (ws) {
+                conn = ws.getAttachment();
+                if (conn == null) {
+                    conn = new JavaWebSocketConnection(ws);
+                    ws.setAttachment(conn);
+                }
+            }
+        }
+        return conn;
+    }
+
+    WebSocket unwrap() {
+        return ws;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ws.isOpen();
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return ws.getRemoteSocketAddress();
+    }
+
+    @Override
+    public void close(int code, String reason) {
+        ws.close(code, reason);
+    }
+
+    @Override
+    public boolean sendText(String text) {
+        try {
+            ws.send(text);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendText(byte[] utf8) {
+        // Framed around the caller's bytes; Java-WebSocket would otherwise re-encode a String per connection
+        TextFrame frame = new TextFrame();
+        frame.setPayload(ByteBuffer.wrap(utf8));
+        try {
+            ws.sendFrame(frame);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendBinary(ByteBuffer data) {
+        try {
+            ws.send(data.duplicate());
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendBinary(byte[] data) {
+        try {
+            ws.send(data);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendPing() {
+        try {
+            ws.sendPing();
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;
+        }
+    }
+
+    /** Buffers in Java-WebSocket's own (unbounded) socket queue. */
+    @Override
+    public int pendingWrites() {
+        WebSocket impl = ws instanceof WebSocketClient ? ((WebSocketClient) ws).getConnection() : ws;
+        return impl instanceof WebSocketImpl ? ((WebSocketImpl) impl).outQueue.size() : 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(ws.getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,109 @@
+// src/main/java/com/example/websocket/JavaWebSocketEngine.java
+package com.example.websocket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Java-WebSocket server as a {@link TransportEngine}: one selector thread plus RELAY_DECODER_THREADS
+ * decoder threads, offering permessage-deflate unless it is disabled. Messages larger than RELAY_MAX_FRAME_BYTES
+ * are refused with close code 1009, as on the NIO transport.
+ * Java-WebSocket binds its own listening socket and cannot set SO_REUSEPORT on it, so a replacement relay
+ * can't take over the port until this one has stopped; while draining, new handshakes are refused instead.
+ * Asking for RELAY_REUSE_PORT on this transport is therefore a startup error rather than a silent downgrade.
+ */
+public class JavaWebSocketEngine extends WebSocketServer implements TransportEngine {
+    private static final Logger logger = LoggerFactory.getLogger(JavaWebSocketEngine.class);
+
+    private final TransportListener listener;
+    private final int connectionLostTimeoutSec;
+    private volatile boolean accepting = true;
+
+    public JavaWebSocketEngine(int port, RelayConfig config, TransportListener listener) {
+        super(new InetSocketAddress(port), config.decoderThreads, draftsFor(config));
+        if (config.reusePort) {
+            throw new IllegalStateException("JavaWebSocketEngine: RELAY_REUSE_PORT is not supported by this transport. "
+                    + "Use RELAY_TRANSPORT=NIO to share port " + port + " with a replacement relay.");
+        }
+        this.listener = listener;
+        this.connectionLostTimeoutSec = config.connectionLostTimeoutSec;
+        setReuseAddr(true);
+        logger.info("JavaWebSocketEngine: Port {} with {} decoder thread(s) (permessage-deflate {}).", port, config.decoderThreads,
+                config.deflateEnabled ? "offered above " + config.deflateThresholdBytes + " bytes" : "disabled");
+    }
+
+    /** RFC 6455 capped at RELAY_MAX_FRAME_BYTES, offering permessage-deflate to clients that ask for it unless disabled. */
+    private static List<Draft> draftsFor(RelayConfig config) {
+        List<IExtension> extensions = config.deflateEnabled
+                ? Collections.singletonList(new RelayDeflateExtension(config.deflateThresholdBytes, config.deflateLevel))
+                : Collections.emptyList();
+        List<IProtocol> protocols = Collections.singletonList(new Protocol(""));
+        return Collections.singletonList(new Draft_6455(extensions, protocols, Math.max(125, config.maxFrameBytes)));
+    }
+
+    @Override
+    public void stopAccepting() {
+        accepting = false;
+        logger.info("JavaWebSocketEngine: Refusing new connections on port {}.", getPort());
+    }
+
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft, ClientHandshake request) throws InvalidDataException {
+        if (!accepting) {
+            throw new InvalidDataException(1013, "Relay is restarting. Retry later.");
+        }
+        return super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        listener.onOpen(JavaWebSocketConnection.of(conn), handshake.getResourceDescriptor());
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        listener.onMessage(JavaWebSocketConnection.of(conn), message);
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        listener.onMessage(JavaWebSocketConnection.of(conn), message);
+    }
+
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        listener.onPong(JavaWebSocketConnection.of(conn));
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        listener.onClose(JavaWebSocketConnection.of(conn), code, reason, remote);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        listener.onError(conn != null ? JavaWebSocketConnection.of(conn) : null, ex);
+    }
+
+    @Override
+    public void onStart() {
+        setConnectionLostTimeout(connectionLostTimeoutSec);
+        listener.onStart();
+    }
+}
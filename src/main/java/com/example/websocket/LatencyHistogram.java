@@ -0,0 +1,60 @@
+// src/main/java/com/example/websocket/LatencyHistogram.java
+package com.example.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram in Prometheus' cumulative "le" form.
+ * Recording is one bucket search over a long[] plus two atomic adds: no locks and no allocation,
+ * so it can run on the WebSocket I/O threads for every node_response.
+ */
+public final class LatencyHistogram {
+
+    /** Upper bounds in seconds, from 1 ms (local tools) to 5 min (the default request timeout). */
+    static final double[] BOUNDS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300
+    };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * 1_000_000_000L);
+        }
+    }
+
+    // One cell per bound plus +Inf; not cumulative, summed when rendered
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_NANOS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    public void record(long nanos) {
+        int lo = 0;
+        int hi = BOUNDS_NANOS.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (BOUNDS_NANOS[mid] < nanos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        buckets.incrementAndGet(lo);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Appends the _bucket, _sum and _count series of this histogram.
+     * @param labels rendered label pairs without braces, e.g. action="screenshot".
+     */
+    void appendTo(StringBuilder sb, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i <= BOUNDS_NANOS.length; i++) {
+            cumulative += buckets.get(i);
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"")
+              .append(i < BOUNDS_NANOS.length ? Double.toString(BOUNDS_SECONDS[i]) : "+Inf")
+              .append("\"} ").append(cumulative).append('\n');
+        }
+        sb.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,129 @@
+// src/main/java/com/example/websocket/LifecycleWheel.java
+package com.example.websocket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+
+/**
+ * Hashed timer wheel for connection deadlines (idle checks and lifespan expiry).
+ *
+ * Time is cut into ticks of tickMs; a timer due at tick t hangs in the intrusive list of slot t mod slots.
+ * Scheduling and cancelling are O(1) and {@link #advance} only visits the slots of the ticks that have
+ * passed, so a quiet fleet costs nothing per tick. Timers further out than one revolution simply stay in
+ * their slot until their own tick comes round. A timer is linked at most once; scheduling it again moves it.
+ *
+ * All methods are synchronized on the wheel. Due timers are returned, not called back, so the registry
+ * acts on them without the monitor held.
+ */
+public class LifecycleWheel {
+
+    public enum Kind {
+        IDLE, LIFESPAN
+    }
+
+    /** One deadline of one connection. */
+    static final class Timer {
+        final NodeInfo node;
+        final Kind kind;
+        long tick = -1; // -1 while unlinked
+        Timer prev;
+        Timer next;
+
+        Timer(NodeInfo node, Kind kind) {
+            this.node = node;
+            this.kind = kind;
+        }
+    }
+
+    private final long tickMs;
+    private final Timer[] slots;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param slotCount rounded up to a power of two; one revolution spans slotCount * tickMs.
+     */
+    public LifecycleWheel(long tickMs, int slotCount, long nowMs) {
+        this.tickMs = Math.max(1, tickMs);
+        int length = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.slots = new Timer[length];
+        this.mask = length - 1;
+        this.currentTick = nowMs / this.tickMs;
+    }
+
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /** Links the timer to fire on the first tick at or after deadlineMs (and never on a tick already passed). */
+    public synchronized void schedule(Timer timer, long deadlineMs) {
+        if (timer.tick >= 0) {
+            unlink(timer);
+        }
+        long tick = Math.max(currentTick + 1, (deadlineMs + tickMs - 1) / tickMs);
+        int slot = (int) (tick & mask);
+        timer.tick = tick;
+        timer.prev = null;
+        timer.next = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].prev = timer;
+        }
+        slots[slot] = timer;
+        size++;
+    }
+
+    public synchronized void cancel(Timer timer) {
+        if (timer != null && timer.tick >= 0) {
+            unlink(timer);
+        }
+    }
+
+    /** Unlinks and returns every timer due at or before nowMs. */
+    public List<Timer> advance(long nowMs) {
+        List<Timer> due = null;
+        synchronized (this) {
+            long targetTick = nowMs / tickMs;
+            long ticks = Math.min(targetTick - currentTick, slots.length);
+            for (long t = currentTick + 1; t <= currentTick + ticks; t++) {
+                Timer timer = slots[(int) (t & mask)];
+                while (timer != null) {
+                    Timer next = timer.next;
+                    if (timer.tick <= targetTick) {
+                        unlink(timer);
+                        if (due == null) {
+                            due = new ArrayList<>();
+                        }
+                        due.add(timer);
+                    }
+                    timer = next;
+                }
+            }
+            currentTick = Math.max(currentTick, targetTick);
+        }
+        return due != null ? due : Collections.emptyList();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink(Timer timer) {
+        int slot = (int) (timer.tick & mask);
+        if (timer.prev == null) {
+            slots[slot] = timer.next;
+        } else {
+            timer.prev.next = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.tick = -1;
+        size--;
+    }
+}
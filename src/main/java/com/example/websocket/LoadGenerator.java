@@ -0,0 +1,569 @@
+// src/main/java/com/example/websocket/LoadGenerator.java
+package com.example.websocket;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Synthetic fleet for capacity planning: thousands of simulated RPA nodes and a few batch-client drivers
+ * against one relay. Reports sustained commands/sec, round-trip latency percentiles and the relay's heap
+ * and CPU, scraped from its /metrics, over the run.
+ *
+ * Simulated nodes identify with identify_rpa_node and answer every command after a delay drawn from
+ * --latency, with a 'data' payload whose size is drawn from --payload. Drivers identify with
+ * identify_batch_client and each keep --inflight node_commands outstanding (closed loop), addressed to
+ * random nodes and cycling through --actions, so the reported rate is what the relay sustains at that
+ * concurrency. Round trips are only recorded after --warmup seconds.
+ *
+ * <pre>
+ *   java -cp target/websocket-bot-server-1.0-SNAPSHOT-jar-with-dependencies.jar com.example.websocket.LoadGenerator \
+ *        --nodes=2000 --drivers=4 --inflight=256 --duration=60 --latency=lognormal:20:0.6 --payload=lognormal:2048:1.5
+ * </pre>
+ *
+ * Distributions are fixed:V, uniform:MIN:MAX, exp:MEAN or lognormal:MEDIAN:SIGMA, in milliseconds or bytes.
+ * All simulated connections share one java.net.http client, whose callbacks run on --client-threads threads,
+ * so the fleet costs file descriptors rather than threads; large fleets may need a higher ulimit.
+ * Connection errors are counted by kind and only the first of each kind is printed.
+ * --embedded=true starts a relay in this JVM on --ws-port instead of using --url; its heap and CPU figures
+ * then include the generator itself.
+ */
+public class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+    private static final int MAX_ERROR_KINDS = 20;
+
+    static {
+        DEFAULTS.put("url", "ws://localhost:8080");
+        DEFAULTS.put("metrics-url", "http://localhost:4567/metrics");
+        DEFAULTS.put("embedded", "false");
+        DEFAULTS.put("ws-port", "8080");
+        DEFAULTS.put("nodes", "1000");
+        DEFAULTS.put("drivers", "2");
+        DEFAULTS.put("inflight", "128");
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("warmup", "5");
+        DEFAULTS.put("report", "5");
+        DEFAULTS.put("ramp", "500");
+        DEFAULTS.put("latency", "lognormal:20:0.5");
+        DEFAULTS.put("payload", "lognormal:1024:1.0");
+        DEFAULTS.put("max-payload", String.valueOf(4 * 1024 * 1024));
+        DEFAULTS.put("responder-threads", "4");
+        DEFAULTS.put("client-threads", "4");
+        DEFAULTS.put("actions", "screenshot,type_text,key_press,run_shell_command,read_file,write_file,open_url,activate_window");
+    }
+
+    /** A sampled value distribution, parsed from fixed:V, uniform:MIN:MAX, exp:MEAN or lognormal:MEDIAN:SIGMA. */
+    static final class Distribution {
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private Distribution(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static Distribution parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                switch (parts[0].toLowerCase(Locale.ROOT)) {
+                    case "fixed":
+                        return new Distribution("fixed", Double.parseDouble(parts[1]), 0);
+                    case "uniform":
+                        return new Distribution("uniform", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    case "exp":
+                        return new Distribution("exp", Double.parseDouble(parts[1]), 0);
+                    case "lognormal":
+                        return new Distribution("lognormal", Math.log(Double.parseDouble(parts[1])), Double.parseDouble(parts[2]));
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // falls through to the error below
+            }
+            throw new IllegalArgumentException("Invalid distribution '" + spec + "'. Use fixed:V, uniform:MIN:MAX, exp:MEAN or lognormal:MEDIAN:SIGMA.");
+        }
+
+        long sample(ThreadLocalRandom random) {
+            double value;
+            switch (kind) {
+                case "uniform":
+                    value = a + random.nextDouble() * (b - a);
+                    break;
+                case "exp":
+                    value = -a * Math.log(1 - random.nextDouble());
+                    break;
+                case "lognormal":
+                    value = Math.exp(a + b * random.nextGaussian());
+                    break;
+                default:
+                    value = a;
+            }
+            return Math.max(0, Math.round(value));
+        }
+    }
+
+    /** Round-trip times in microseconds; sorted once at the end of the run. */
+    static final class LatencyLog {
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        synchronized void add(long micros) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = micros;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        static long percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    private final Map<String, String> options;
+    private final URI relayUri;
+    private final int nodeCount;
+    private final int inflight;
+    private final Distribution latency;
+    private final Distribution payload;
+    private final String[] actions;
+    private final String payloadPool;
+    private final ScheduledExecutorService responder;
+    private final ExecutorService clientThreads;
+    private final HttpClient http;
+
+    private final List<SimulatedConnection> clients = new ArrayList<>();
+    private final AtomicInteger identifiedNodes = new AtomicInteger();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder connectionErrors = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> errorKinds = new ConcurrentHashMap<>();
+    private final LatencyLog latencies = new LatencyLog();
+    private volatile boolean running = true;
+    private volatile boolean measuring = false;
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.relayUri = URI.create(options.get("url"));
+        this.nodeCount = intOption("nodes");
+        this.inflight = intOption("inflight");
+        this.latency = Distribution.parse(options.get("latency"));
+        this.payload = Distribution.parse(options.get("payload"));
+        this.actions = options.get("actions").split(",");
+        this.payloadPool = BenchmarkPayload.of(intOption("max-payload"));
+        this.responder = Executors.newScheduledThreadPool(intOption("responder-threads"));
+        this.clientThreads = Executors.newFixedThreadPool(Math.max(1, intOption("client-threads")));
+        this.http = HttpClient.newBuilder().executor(clientThreads).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Usage: LoadGenerator [--option=value ...]. Options and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            if (!DEFAULTS.containsKey(key)) {
+                System.err.println("LoadGenerator: Unknown option --" + key + ". Options and defaults: " + DEFAULTS);
+                System.exit(2);
+            }
+            options.put(key, arg.substring(arg.indexOf('=') + 1));
+        }
+
+        Supplier<String> metricsSource;
+        if (Boolean.parseBoolean(options.get("embedded"))) {
+            int port = Integer.parseInt(options.get("ws-port"));
+            Server relay = new Server(port, RelayConfig.load());
+            relay.start();
+            Thread.sleep(500);
+            options.put("url", "ws://localhost:" + port);
+            metricsSource = relay::renderMetrics;
+        } else {
+            metricsSource = scraper(options.get("metrics-url"));
+        }
+        new LoadGenerator(options).run(metricsSource);
+        System.exit(0);
+    }
+
+    void run(Supplier<String> metricsSource) throws InterruptedException {
+        int ramp = Math.max(1, intOption("ramp"));
+        System.out.printf("LoadGenerator: Connecting %d simulated nodes to %s at %d/s...%n", nodeCount, relayUri, ramp);
+        long rampStart = System.nanoTime();
+        for (int i = 0; i < nodeCount; i++) {
+            SimulatedNode node = new SimulatedNode("sim-node-" + i);
+            clients.add(node);
+            node.connect();
+            long due = rampStart + (i + 1) * 1_000_000_000L / ramp;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (identifiedNodes.get() < nodeCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        System.out.printf("LoadGenerator: %d of %d nodes identified.%n", identifiedNodes.get(), nodeCount);
+
+        int drivers = intOption("drivers");
+        for (int i = 0; i < drivers; i++) {
+            SimulatedDriver driver = new SimulatedDriver("sim-driver-" + i);
+            clients.add(driver);
+            driver.connect();
+        }
+
+        int warmup = intOption("warmup");
+        int duration = intOption("duration");
+        int reportEvery = Math.max(1, intOption("report"));
+        Thread.sleep(warmup * 1000L);
+        measuring = true;
+        System.out.printf("LoadGenerator: Warmed up for %d s. Measuring for %d s with %d driver(s) x %d in flight.%n",
+                warmup, duration, drivers, inflight);
+        System.out.println("  elapsed   cmds/s   errors   relay heap MB   relay CPU %");
+
+        long start = System.nanoTime();
+        long measuredCompleted = completed.sum();
+        long measuredErrors = errors.sum();
+        long lastCompleted = measuredCompleted;
+        long lastErrors = measuredErrors;
+        long lastTime = start;
+        double[] lastCpu = {Double.NaN};
+        double peakHeapMb = 0;
+        double cpuPercentSum = 0;
+        int cpuSamples = 0;
+        for (int elapsed = reportEvery; elapsed <= duration; elapsed += reportEvery) {
+            Thread.sleep(reportEvery * 1000L);
+            long now = System.nanoTime();
+            long done = completed.sum();
+            long failed = errors.sum();
+            double seconds = (now - lastTime) / 1e9;
+
+            Map<String, Double> relay = parseMetrics(metricsSource.get());
+            Double heap = relay.get("relay_jvm_heap_used_bytes");
+            Double cpu = relay.get("process_cpu_seconds_total");
+            double heapMb = heap != null ? heap / (1024 * 1024) : Double.NaN;
+            double cpuPercent = cpu != null && !Double.isNaN(lastCpu[0]) ? (cpu - lastCpu[0]) / seconds * 100 : Double.NaN;
+            lastCpu[0] = cpu != null ? cpu : Double.NaN;
+            if (!Double.isNaN(heapMb)) {
+                peakHeapMb = Math.max(peakHeapMb, heapMb);
+            }
+            if (!Double.isNaN(cpuPercent)) {
+                cpuPercentSum += cpuPercent;
+                cpuSamples++;
+            }
+            System.out.printf("  %5d s %8.0f %8d %15.1f %13.1f%n", elapsed, (done - lastCompleted) / seconds, failed - lastErrors, heapMb, cpuPercent);
+            lastCompleted = done;
+            lastErrors = failed;
+            lastTime = now;
+        }
+
+        measuring = false;
+        running = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = completed.sum() - measuredCompleted;
+        long[] sorted = latencies.sorted();
+        System.out.println();
+        System.out.printf("LoadGenerator: %d commands in %.1f s = %.0f commands/s sustained, %d errors, %d disconnects.%n",
+                total, seconds, total / seconds, errors.sum() - measuredErrors, disconnects.get());
+        System.out.printf("  round trip ms: p50 %.2f   p99 %.2f   p999 %.2f   max %.2f%n",
+                LatencyLog.percentile(sorted, 50) / 1000.0, LatencyLog.percentile(sorted, 99) / 1000.0,
+                LatencyLog.percentile(sorted, 99.9) / 1000.0, sorted.length > 0 ? sorted[sorted.length - 1] / 1000.0 : 0);
+        System.out.printf("  relay: peak heap %.1f MB, mean CPU %.1f %%%n", peakHeapMb, cpuSamples > 0 ? cpuPercentSum / cpuSamples : Double.NaN);
+        if (connectionErrors.sum() > 0) {
+            System.out.printf("  connection errors: %d%n", connectionErrors.sum());
+            errorKinds.forEach((kind, count) -> System.out.printf("    %6d  %s%n", count.sum(), kind));
+        }
+
+        responder.shutdownNow();
+        for (SimulatedConnection client : clients) {
+            client.close();
+        }
+        clientThreads.shutdown();
+    }
+
+    private int intOption(String key) {
+        return Integer.parseInt(options.get(key).trim());
+    }
+
+    /** Fetches the relay's /metrics text, or null if it can't be reached. */
+    private static Supplier<String> scraper(String url) {
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(2)).build();
+        return () -> {
+            try {
+                return http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            } catch (Exception e) {
+                return null;
+            }
+        };
+    }
+
+    /** Unlabelled samples of a Prometheus text page. */
+    static Map<String, Double> parseMetrics(String text) {
+        Map<String, Double> samples = new HashMap<>();
+        if (text == null) {
+            return samples;
+        }
+        for (String line : text.split("\n")) {
+            int space = line.indexOf(' ');
+            if (line.isEmpty() || line.charAt(0) == '#' || space < 0 || line.indexOf('{') >= 0) {
+                continue;
+            }
+            try {
+                samples.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1).trim()));
+            } catch (NumberFormatException e) {
+                // not a sample line
+            }
+        }
+        return samples;
+    }
+
+    /** Counts a connection error; only the first of each kind is printed, so a failing fleet doesn't flood stderr. */
+    private void reportError(String who, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String kind = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        LongAdder count = errorKinds.get(kind);
+        if (count == null && errorKinds.size() < MAX_ERROR_KINDS) {
+            count = errorKinds.computeIfAbsent(kind, k -> {
+                System.err.println("LoadGenerator: " + who + " error: " + kind + " (further errors of this kind are counted, not printed)");
+                return new LongAdder();
+            });
+        }
+        if (count != null) {
+            count.increment();
+        }
+        connectionErrors.increment();
+    }
+
+    /**
+     * One simulated connection on the shared HttpClient. java.net.http.WebSocket allows one outstanding send
+     * at a time, so sends are chained onto the previous one; received fragments are joined into whole messages.
+     */
+    abstract class SimulatedConnection implements WebSocket.Listener {
+        final String name;
+        private final StringBuilder partial = new StringBuilder();
+        private CompletableFuture<WebSocket> lastSend;
+        private volatile WebSocket socket;
+
+        SimulatedConnection(String name) {
+            this.name = name;
+        }
+
+        synchronized void connect() {
+            lastSend = http.newWebSocketBuilder().connectTimeout(Duration.ofSeconds(30)).buildAsync(relayUri, this);
+            lastSend.exceptionally(error -> {
+                reportError(name, error);
+                return null;
+            });
+        }
+
+        boolean isOpen() {
+            WebSocket ws = socket;
+            return ws != null && !ws.isOutputClosed() && !ws.isInputClosed();
+        }
+
+        synchronized void send(String text) {
+            lastSend = lastSend.thenCompose(ws -> ws.sendText(text, true));
+        }
+
+        synchronized void close() {
+            lastSend.thenCompose(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+        }
+
+        abstract void onConnected();
+
+        abstract void onMessage(String message);
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            socket = webSocket;
+            webSocket.request(1);
+            onConnected();
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            String message = null;
+            if (!last) {
+                partial.append(data);
+            } else if (partial.length() > 0) {
+                message = partial.append(data).toString();
+                partial.setLength(0);
+            } else {
+                message = data.toString();
+            }
+            webSocket.request(1);
+            if (message != null) {
+                onMessage(message);
+            }
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            if (running) {
+                disconnects.incrementAndGet();
+            }
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            reportError(name, error);
+        }
+    }
+
+    /** An RPA node that answers every command after a sampled delay with a sampled payload. */
+    final class SimulatedNode extends SimulatedConnection {
+        private final String nodeId;
+
+        SimulatedNode(String nodeId) {
+            super("Node " + nodeId);
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        void onConnected() {
+            send("{\"type\":\"identify_rpa_node\",\"nodeId\":\"" + nodeId + "\",\"capabilities\":{\"os\":\"windows\",\"simulated\":true}}");
+        }
+
+        @Override
+        void onMessage(String message) {
+            FrameEnvelope envelope = FrameEnvelope.parse(message);
+            if ("command".equals(envelope.type()) && envelope.requestId() != null) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long delayMs = latency.sample(random);
+                int size = (int) Math.min(payloadPool.length(), payload.sample(random));
+                String requestId = envelope.requestId();
+                String action = envelope.commandAction();
+                responder.schedule(() -> respond(requestId, action, size), delayMs, TimeUnit.MILLISECONDS);
+            } else if ("acknowledgement".equals(envelope.type())) {
+                identifiedNodes.incrementAndGet();
+            }
+        }
+
+        private void respond(String requestId, String action, int size) {
+            if (!isOpen()) {
+                return;
+            }
+            StringBuilder body = new StringBuilder(size + 64);
+            body.append("{\"status\":\"success\",\"action\":");
+            FrameWriter.appendQuoted(body, action);
+            body.append(",\"data\":\"").append(payloadPool, 0, size).append("\"}");
+            String response = body.toString();
+            send(FrameWriter.nodeResponse(requestId, nodeId, response, 0, response.length()));
+        }
+    }
+
+    /** A batch client keeping a fixed number of node_commands outstanding. */
+    final class SimulatedDriver extends SimulatedConnection {
+        private final String clientId;
+        private final ConcurrentHashMap<String, Long> outstanding = new ConcurrentHashMap<>();
+        private final AtomicLong sequence = new AtomicLong();
+
+        SimulatedDriver(String clientId) {
+            super("Driver " + clientId);
+            this.clientId = clientId;
+        }
+
+        @Override
+        void onConnected() {
+            send("{\"type\":\"identify_batch_client\",\"clientId\":\"" + clientId + "\"}");
+        }
+
+        @Override
+        void onMessage(String message) {
+            FrameEnvelope envelope = FrameEnvelope.parse(message);
+            String type = envelope.type();
+            if ("acknowledgement".equals(type)) {
+                for (int i = 0; i < inflight; i++) {
+                    sendNext();
+                }
+            } else if ("node_response".equals(type)) {
+                Long sentAt = envelope.requestId() != null ? outstanding.remove(envelope.requestId()) : null;
+                if (sentAt == null) {
+                    return;
+                }
+                boolean failed = envelope.hasResponseObject() && message.startsWith("{\"status\":\"error\"", envelope.responseStart());
+                if (failed) {
+                    errors.increment();
+                } else {
+                    completed.increment();
+                    if (measuring) {
+                        latencies.add((System.nanoTime() - sentAt) / 1000);
+                    }
+                }
+                sendNext();
+            } else if ("error".equals(type)) {
+                // Rejected (busy, at capacity); back off briefly and keep the window full
+                if (envelope.requestId() == null || outstanding.remove(envelope.requestId()) != null) {
+                    errors.increment();
+                    responder.schedule(this::sendNext, 10, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        private void sendNext() {
+            if (!running || !isOpen()) {
+                return;
+            }
+            long seq = sequence.incrementAndGet();
+            String requestId = clientId + "-" + seq;
+            String nodeId = "sim-node-" + ThreadLocalRandom.current().nextInt(nodeCount);
+            String action = actions[(int) (seq % actions.length)];
+            outstanding.put(requestId, System.nanoTime());
+            send("{\"type\":\"node_command\",\"requestId\":\"" + requestId + "\",\"nodeId\":\"" + nodeId
+                    + "\",\"command\":{\"action\":\"" + action + "\",\"params\":{}}}");
+        }
+    }
+
+    /** A long ASCII string whose prefixes stand in for base64 file and screenshot data. */
+    static final class BenchmarkPayload {
+        private BenchmarkPayload() {
+        }
+
+        static String of(int length) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) ('A' + i % 26);
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -2,9 +2,11 @@ package com.example.websocket;
 
 public class MainServer {
     public static void main(String[] args) {
-        int wsPort = 8080;
-        int httpPort = 4567;
-        Server wsServer = new Server(wsPort);
+        // Ports and cluster membership come from RELAY_* settings, so several relays can run on one host
+        RelayConfig config = RelayConfig.load();
+        int wsPort = config.wsPort;
+        int httpPort = config.httpPort;
+        Server wsServer = new Server(wsPort, config);
         HTTPServer httpServer = new HTTPServer(httpPort, wsServer);
 
         Thread wsThread = new Thread(() -> {
@@ -26,6 +28,9 @@ public class MainServer {
             }
         });
 
+        // SIGTERM drains the relay (see Server.drain) before it stops, so a replacement can take over its nodes
+        Runtime.getRuntime().addShutdownHook(new Thread(wsServer::shutdown, "relay-shutdown"));
+
         wsThread.start();
         httpThread.start();
 
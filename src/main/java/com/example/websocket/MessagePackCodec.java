@@ -0,0 +1,378 @@
+// src/main/java/com/example/websocket/MessagePackCodec.java
+package com.example.websocket;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Transcodes between JSON text frames and MessagePack binary frames, for connections that opted into
+ * "encoding":"msgpack" at identification. The relay itself keeps routing JSON text; only the wire form
+ * of such a connection changes.
+ *
+ * JSON integers that fit a long become MessagePack ints, other numbers float64. MessagePack bin values
+ * (e.g. a raw screenshot) become base64 strings on the JSON side. ext values and non-finite floats have
+ * no JSON form and are rejected.
+ */
+public final class MessagePackCodec {
+
+    private static final int MAX_DEPTH = 256;
+
+    private MessagePackCodec() {
+    }
+
+    // --- JSON -> MessagePack ---
+
+    /**
+     * @throws JsonSyntaxException if the frame is not well-formed JSON.
+     */
+    public static byte[] fromJson(String json) {
+        Packer packer = new Packer(json.length() + 16);
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            packer.value(reader, 0);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Trailing data after JSON value");
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e.getMessage(), e);
+        }
+        return packer.toByteArray();
+    }
+
+    private static final class Packer {
+        private byte[] buf;
+        private int len;
+
+        Packer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void value(JsonReader reader, int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw new JsonSyntaxException("JSON nested deeper than " + MAX_DEPTH);
+            }
+            switch (reader.peek()) {
+                case BEGIN_OBJECT: {
+                    reader.beginObject();
+                    int header = reserveHeader();
+                    int count = 0;
+                    while (reader.hasNext()) {
+                        string(reader.nextName());
+                        value(reader, depth + 1);
+                        count++;
+                    }
+                    reader.endObject();
+                    patchHeader(header, count, 0x80, 0xde, 0xdf);
+                    break;
+                }
+                case BEGIN_ARRAY: {
+                    reader.beginArray();
+                    int header = reserveHeader();
+                    int count = 0;
+                    while (reader.hasNext()) {
+                        value(reader, depth + 1);
+                        count++;
+                    }
+                    reader.endArray();
+                    patchHeader(header, count, 0x90, 0xdc, 0xdd);
+                    break;
+                }
+                case STRING:
+                    string(reader.nextString());
+                    break;
+                case NUMBER:
+                    number(reader.nextString());
+                    break;
+                case BOOLEAN:
+                    put(reader.nextBoolean() ? 0xc3 : 0xc2);
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    put(0xc0);
+                    break;
+                default:
+                    throw new JsonSyntaxException("Unexpected JSON token " + reader.peek());
+            }
+        }
+
+        /** Containers get a one-byte fix header; the rare large one is widened afterwards. */
+        private int reserveHeader() {
+            ensure(1);
+            return len++;
+        }
+
+        private void patchHeader(int at, int count, int fix, int marker16, int marker32) {
+            if (count < 16) {
+                buf[at] = (byte) (fix | count);
+                return;
+            }
+            int extra = count < 0x10000 ? 2 : 4;
+            ensure(extra);
+            System.arraycopy(buf, at + 1, buf, at + 1 + extra, len - at - 1);
+            len += extra;
+            if (extra == 2) {
+                buf[at] = (byte) marker16;
+                buf[at + 1] = (byte) (count >>> 8);
+                buf[at + 2] = (byte) count;
+            } else {
+                buf[at] = (byte) marker32;
+                buf[at + 1] = (byte) (count >>> 24);
+                buf[at + 2] = (byte) (count >>> 16);
+                buf[at + 3] = (byte) (count >>> 8);
+                buf[at + 4] = (byte) count;
+            }
+        }
+
+        private void string(String s) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            int n = utf8.length;
+            if (n < 32) {
+                put(0xa0 | n);
+            } else if (n < 0x100) {
+                put(0xd9);
+                put(n);
+            } else if (n < 0x10000) {
+                put(0xda);
+                putShort(n);
+            } else {
+                put(0xdb);
+                putInt(n);
+            }
+            ensure(n);
+            System.arraycopy(utf8, 0, buf, len, n);
+            len += n;
+        }
+
+        private void number(String literal) {
+            boolean integral = true;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = literal.charAt(i);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                    break;
+                }
+            }
+            if (integral) {
+                try {
+                    integer(Long.parseLong(literal));
+                    return;
+                } catch (NumberFormatException e) {
+                    // beyond long range
+                }
+            }
+            float64(Double.parseDouble(literal));
+        }
+
+        private void integer(long v) {
+            if (v >= 0) {
+                if (v < 0x80) {
+                    put((int) v);
+                } else if (v < 0x100) {
+                    put(0xcc);
+                    put((int) v);
+                } else if (v < 0x10000) {
+                    put(0xcd);
+                    putShort((int) v);
+                } else if (v < 0x100000000L) {
+                    put(0xce);
+                    putInt((int) v);
+                } else {
+                    put(0xcf);
+                    putLong(v);
+                }
+            } else if (v >= -32) {
+                put((int) v & 0xff);
+            } else if (v >= Byte.MIN_VALUE) {
+                put(0xd0);
+                put((int) v);
+            } else if (v >= Short.MIN_VALUE) {
+                put(0xd1);
+                putShort((int) v);
+            } else if (v >= Integer.MIN_VALUE) {
+                put(0xd2);
+                putInt((int) v);
+            } else {
+                put(0xd3);
+                putLong(v);
+            }
+        }
+
+        private void float64(double v) {
+            put(0xcb);
+            putLong(Double.doubleToLongBits(v));
+        }
+
+        private void put(int b) {
+            ensure(1);
+            buf[len++] = (byte) b;
+        }
+
+        private void putShort(int v) {
+            ensure(2);
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) v;
+        }
+
+        private void putInt(int v) {
+            ensure(4);
+            buf[len++] = (byte) (v >>> 24);
+            buf[len++] = (byte) (v >>> 16);
+            buf[len++] = (byte) (v >>> 8);
+            buf[len++] = (byte) v;
+        }
+
+        private void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(len + n, buf.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return len == buf.length ? buf : Arrays.copyOf(buf, len);
+        }
+    }
+
+    // --- MessagePack -> JSON ---
+
+    /**
+     * Decodes one MessagePack value spanning the whole buffer into JSON text.
+     * @throws JsonSyntaxException if the buffer is not a single well-formed MessagePack value with a JSON form.
+     */
+    public static String toJson(ByteBuffer message) {
+        ByteBuffer in = message.slice();
+        StringBuilder out = new StringBuilder(in.remaining() + 16);
+        try {
+            writeValue(in, out, 0);
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new JsonSyntaxException("Truncated MessagePack value");
+        }
+        if (in.hasRemaining()) {
+            throw new JsonSyntaxException("Trailing data after MessagePack value at offset " + in.position());
+        }
+        return out.toString();
+    }
+
+    private static void writeValue(ByteBuffer in, StringBuilder out, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new JsonSyntaxException("MessagePack nested deeper than " + MAX_DEPTH);
+        }
+        int b = in.get() & 0xff;
+        if (b <= 0x7f) {
+            out.append(b);
+        } else if (b >= 0xe0) {
+            out.append((byte) b);
+        } else if (b <= 0x8f) {
+            writeMap(in, out, b & 0x0f, depth);
+        } else if (b <= 0x9f) {
+            writeArray(in, out, b & 0x0f, depth);
+        } else if (b <= 0xbf) {
+            writeString(in, out, b & 0x1f);
+        } else {
+            switch (b) {
+                case 0xc0: out.append("null"); break;
+                case 0xc2: out.append("false"); break;
+                case 0xc3: out.append("true"); break;
+                case 0xc4: writeBinary(in, out, in.get() & 0xff); break;
+                case 0xc5: writeBinary(in, out, in.getShort() & 0xffff); break;
+                case 0xc6: writeBinary(in, out, length32(in)); break;
+                case 0xca: writeFloat(out, in.getFloat()); break;
+                case 0xcb: writeFloat(out, in.getDouble()); break;
+                case 0xcc: out.append(in.get() & 0xff); break;
+                case 0xcd: out.append(in.getShort() & 0xffff); break;
+                case 0xce: out.append(in.getInt() & 0xffffffffL); break;
+                case 0xcf: out.append(Long.toUnsignedString(in.getLong())); break;
+                case 0xd0: out.append(in.get()); break;
+                case 0xd1: out.append(in.getShort()); break;
+                case 0xd2: out.append(in.getInt()); break;
+                case 0xd3: out.append(in.getLong()); break;
+                case 0xd9: writeString(in, out, in.get() & 0xff); break;
+                case 0xda: writeString(in, out, in.getShort() & 0xffff); break;
+                case 0xdb: writeString(in, out, length32(in)); break;
+                case 0xdc: writeArray(in, out, in.getShort() & 0xffff, depth); break;
+                case 0xdd: writeArray(in, out, length32(in), depth); break;
+                case 0xde: writeMap(in, out, in.getShort() & 0xffff, depth); break;
+                case 0xdf: writeMap(in, out, length32(in), depth); break;
+                default:
+                    throw new JsonSyntaxException("Unsupported MessagePack type 0x" + Integer.toHexString(b) + " at offset " + (in.position() - 1));
+            }
+        }
+    }
+
+    private static void writeMap(ByteBuffer in, StringBuilder out, int count, int depth) {
+        out.append('{');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            int b = in.get(in.position()) & 0xff;
+            if ((b >= 0xa0 && b <= 0xbf) || b == 0xd9 || b == 0xda || b == 0xdb) {
+                writeValue(in, out, depth + 1);
+            } else if (b <= 0x7f || b >= 0xe0 || (b >= 0xcc && b <= 0xd3)) {
+                // Integer keys are stringified, as JSON object keys must be strings
+                out.append('"');
+                writeValue(in, out, depth + 1);
+                out.append('"');
+            } else {
+                throw new JsonSyntaxException("MessagePack map key at offset " + in.position() + " is not a string or integer");
+            }
+            out.append(':');
+            writeValue(in, out, depth + 1);
+        }
+        out.append('}');
+    }
+
+    private static void writeArray(ByteBuffer in, StringBuilder out, int count, int depth) {
+        out.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            writeValue(in, out, depth + 1);
+        }
+        out.append(']');
+    }
+
+    private static void writeString(ByteBuffer in, StringBuilder out, int length) {
+        FrameWriter.appendQuoted(out, new String(take(in, length), StandardCharsets.UTF_8));
+    }
+
+    private static void writeBinary(ByteBuffer in, StringBuilder out, int length) {
+        out.append('"').append(Base64.getEncoder().encodeToString(take(in, length))).append('"');
+    }
+
+    private static void writeFloat(StringBuilder out, double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            throw new JsonSyntaxException("MessagePack float " + v + " has no JSON representation");
+        }
+        out.append(v);
+    }
+
+    private static int length32(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new JsonSyntaxException("MessagePack length " + (length & 0xffffffffL) + " exceeds the frame");
+        }
+        return length;
+    }
+
+    private static byte[] take(ByteBuffer in, int length) {
+        if (length > in.remaining()) {
+            throw new JsonSyntaxException("Truncated MessagePack value");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+}
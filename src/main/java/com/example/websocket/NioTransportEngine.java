@@ -0,0 +1,908 @@
+// src/main/java/com/example/websocket/NioTransportEngine.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A WebSocket server (RFC 6455, no extensions) on plain java.nio, for large connection counts.
+ *
+ * An acceptor thread hands each new socket to one of RELAY_NIO_EVENT_LOOPS event loops, round-robin; the
+ * loop's selector thread then does every read, write and protocol step of that connection. A loop reads
+ * into one pooled direct buffer shared by all of its connections, so an idle connection holds no I/O
+ * buffer at all; bytes are only copied out for frames that are still incomplete. Outgoing frames that fit
+ * a pool buffer are encoded straight into one and returned to the pool once written; larger frames are
+ * written as header + payload with a gathering write, without copying the payload.
+ *
+ * With RELAY_REUSE_PORT the listening socket is bound with SO_REUSEPORT, so a replacement relay can bind the
+ * same port and take new connections while this one drains; {@link #stopAccepting} then closes this one's.
+ *
+ * permessage-deflate is not offered on this engine; clients that ask for it fall back to plain frames.
+ * Messages larger than RELAY_MAX_FRAME_BYTES are refused with close code 1009, and text messages that are not
+ * valid UTF-8 with 1007.
+ */
+public class NioTransportEngine implements TransportEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioTransportEngine.class);
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_BYTES = 16 * 1024;
+    private static final long HANDSHAKE_TIMEOUT_MS = 10_000;
+    private static final long CLOSE_TIMEOUT_MS = 5_000;
+    private static final long HOUSEKEEPING_INTERVAL_MS = 1_000;
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int port;
+    private final TransportListener listener;
+    private final int maxFrameBytes;
+    private final long connectionLostTimeoutMs;
+    private final boolean reusePort;
+    private final BufferPool pool;
+    private final EventLoop[] loops;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private Thread acceptor;
+
+    public NioTransportEngine(int port, RelayConfig config, TransportListener listener) {
+        this.port = port;
+        this.listener = listener;
+        this.maxFrameBytes = Math.max(125, config.maxFrameBytes);
+        this.connectionLostTimeoutMs = Math.max(0, config.connectionLostTimeoutSec) * 1000L;
+        this.reusePort = config.reusePort;
+        this.pool = new BufferPool(Math.max(1024, config.nioBufferBytes), Math.max(0, config.nioMaxPooledBuffers));
+        this.loops = new EventLoop[Math.max(1, config.nioEventLoops)];
+        logger.info("NioTransportEngine: Port {} with {} event loop(s), {} byte pooled buffers (at most {}), max message {} bytes.",
+                port, loops.length, pool.bufferBytes, pool.maxPooled, maxFrameBytes);
+    }
+
+    @Override
+    public void start() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                if (serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                } else {
+                    logger.warn("NioTransportEngine: SO_REUSEPORT is not supported on this platform. Port {} cannot be shared with a replacement relay.", port);
+                }
+            }
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(i);
+                loops[i].thread.start();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("NioTransportEngine: Could not listen on port " + port + ": " + e.getMessage(), e);
+        }
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "relay-nio-acceptor");
+        acceptor.start();
+        listener.onStart();
+    }
+
+    @Override
+    public void stopAccepting() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                int boundPort = getPort();
+                serverChannel.close();
+                logger.info("NioTransportEngine: Stopped accepting connections on port {}.", boundPort);
+            }
+        } catch (IOException e) {
+            logger.warn("NioTransportEngine: Error closing the listening socket: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop(int timeoutMs) throws InterruptedException {
+        running = false;
+        stopAccepting();
+        long deadline = System.currentTimeMillis() + Math.max(0, timeoutMs);
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown(deadline);
+            }
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.thread.join(Math.max(1, deadline - System.currentTimeMillis() + 1000));
+            }
+        }
+        if (acceptor != null) {
+            acceptor.join(1000);
+        }
+    }
+
+    @Override
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null && channel.socket().getLocalPort() > 0) {
+            return channel.socket().getLocalPort();
+        }
+        return port;
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].adopt(channel);
+                next = next + 1 == loops.length ? 0 : next + 1;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("NioTransportEngine: Accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Fixed-size direct buffers, allocated on demand up to maxPooled. Beyond that, callers get a heap buffer of
+     * just the size they asked for, which is not pooled.
+     */
+    static final class BufferPool {
+        final int bufferBytes;
+        final int maxPooled;
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger allocated = new AtomicInteger();
+
+        BufferPool(int bufferBytes, int maxPooled) {
+            this.bufferBytes = bufferBytes;
+            this.maxPooled = maxPooled;
+        }
+
+        /** @param bytes at most bufferBytes */
+        ByteBuffer acquire(int bytes) {
+            ByteBuffer buffer = free.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            if (allocated.incrementAndGet() <= maxPooled) {
+                return ByteBuffer.allocateDirect(bufferBytes);
+            }
+            allocated.decrementAndGet();
+            return ByteBuffer.allocate(bytes);
+        }
+
+        void release(ByteBuffer buffer) {
+            if (buffer.isDirect()) {
+                buffer.clear();
+                free.offer(buffer);
+            }
+        }
+    }
+
+    /** A client broke the protocol; the connection is closed with this code. */
+    private static final class ProtocolError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ProtocolError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    /** One selector thread and the connections registered with it. */
+    final class EventLoop implements Runnable {
+        final Thread thread;
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<NioConnection> connections = new HashSet<>(); // loop thread only
+        private final ByteBuffer readBuffer;
+        final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder(); // loop thread only
+        private volatile long shutdownDeadline;
+        private long nextHousekeeping;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.readBuffer = pool.acquire(pool.bufferBytes);
+            this.thread = new Thread(this, "relay-nio-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void adopt(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    NioConnection conn = new NioConnection(channel, this);
+                    conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                    connections.add(conn);
+                } catch (IOException e) {
+                    logger.warn("NioTransportEngine: Could not register a new connection: {}", e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /** Sends every connection a going-away close; the loop exits once they are gone or at the deadline. */
+        void shutdown(long deadline) {
+            execute(() -> {
+                for (NioConnection conn : connections.toArray(new NioConnection[0])) {
+                    conn.startClose(1001, "Relay shutting down");
+                }
+                shutdownDeadline = deadline;
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(250);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Set<SelectionKey> selected = selector.selectedKeys();
+                    for (SelectionKey key : selected) {
+                        NioConnection conn = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            conn.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.flush();
+                        }
+                    }
+                    selected.clear();
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextHousekeeping) {
+                        housekeeping(now);
+                        nextHousekeeping = now + HOUSEKEEPING_INTERVAL_MS;
+                    }
+                    long deadline = shutdownDeadline;
+                    if (deadline != 0 && (connections.isEmpty() || now >= deadline)) {
+                        break;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("NioTransportEngine: Error in event loop {}: {}", thread.getName(), e.getMessage(), e);
+                }
+            }
+            for (NioConnection conn : connections.toArray(new NioConnection[0])) {
+                conn.closeChannel(1001, "Relay shutting down", false);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("NioTransportEngine: Error closing selector: {}", e.getMessage());
+            }
+        }
+
+        /** Handshake and close timeouts, and the ping / lost-connection check for quiet connections. */
+        private void housekeeping(long now) {
+            for (NioConnection conn : connections.toArray(new NioConnection[0])) {
+                conn.checkTimeouts(now);
+            }
+        }
+    }
+
+    /** A frame waiting to be written: a pooled buffer holding all of it, or a header and the caller's payload. */
+    private static final class OutFrame {
+        final ByteBuffer[] parts;
+        final boolean pooled;
+
+        OutFrame(ByteBuffer[] parts, boolean pooled) {
+            this.parts = parts;
+            this.pooled = pooled;
+        }
+
+        boolean hasRemaining() {
+            return parts[parts.length - 1].hasRemaining();
+        }
+    }
+
+    /** One accepted socket. Reads, writes and protocol state are confined to its event loop. */
+    final class NioConnection implements RelayConnection {
+        private static final int HANDSHAKE = 0;
+        private static final int OPEN = 1;
+        private static final int CLOSING = 2;
+        private static final int CLOSED = 3;
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final InetSocketAddress remoteAddress;
+        private final long acceptedAt = System.currentTimeMillis();
+        SelectionKey key;
+        private volatile int state = HANDSHAKE;
+        private boolean opened; // onOpen was delivered, so onClose is owed
+        private volatile Object attachment;
+
+        private final ConcurrentLinkedQueue<OutFrame> outQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private boolean writeInterest;
+
+        // Handshake request, until its blank line
+        private byte[] handshake = new byte[512];
+        private int handshakeLength;
+
+        // Frame being read
+        private final byte[] header = new byte[14];
+        private int headerLength;
+        private int headerNeeded = 2;
+        private boolean inPayload;
+        private byte[] payload;
+        private int payloadLength;
+        private int payloadPosition;
+        // Fragmented message being assembled
+        private int messageOpcode;
+        private byte[] fragments;
+        private int fragmentsLength;
+
+        private long lastReadAt = acceptedAt;
+        private boolean pingSent;
+        private long closingSince;
+        private int closeCode = 1006;
+        private String closeReason = "";
+        private boolean remoteClose;
+        private boolean closeAfterFlush;
+
+        NioConnection(SocketChannel channel, EventLoop loop) throws IOException {
+            this.channel = channel;
+            this.loop = loop;
+            this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        // --- RelayConnection ---
+
+        @Override
+        public boolean isOpen() {
+            return state == OPEN;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteSocketAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void close(int code, String reason) {
+            loop.execute(() -> startClose(code, reason));
+        }
+
+        @Override
+        public boolean sendText(String text) {
+            return sendText(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean sendText(byte[] utf8) {
+            return state == OPEN && enqueue(OP_TEXT, ByteBuffer.wrap(utf8));
+        }
+
+        @Override
+        public boolean sendBinary(ByteBuffer data) {
+            return state == OPEN && enqueue(OP_BINARY, data.duplicate());
+        }
+
+        @Override
+        public boolean sendBinary(byte[] data) {
+            return state == OPEN && enqueue(OP_BINARY, ByteBuffer.wrap(data));
+        }
+
+        @Override
+        public boolean sendPing() {
+            return state == OPEN && enqueue(OP_PING, ByteBuffer.allocate(0));
+        }
+
+        @Override
+        public int pendingWrites() {
+            return pending.get();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getAttachment() {
+            return (T) attachment;
+        }
+
+        @Override
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(remoteAddress);
+        }
+
+        // --- Reading ---
+
+        void onReadable(ByteBuffer buffer) {
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                closeChannel(closingCode(), e.getMessage() != null ? e.getMessage() : "Connection reset", true);
+                return;
+            }
+            if (read < 0) {
+                closeChannel(closingCode(), state == CLOSING ? closeReason : "Connection closed by peer", state != CLOSING);
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            lastReadAt = System.currentTimeMillis();
+            pingSent = false;
+            buffer.flip();
+            try {
+                if (state == HANDSHAKE && !readHandshake(buffer)) {
+                    return;
+                }
+                while (buffer.hasRemaining() && (state == OPEN || state == CLOSING)) {
+                    readFrame(buffer);
+                }
+            } catch (ProtocolError e) {
+                logger.warn("NioTransportEngine: Protocol error from {}: {}. Closing with {}.", remoteAddress, e.getMessage(), e.code);
+                // The rest of the input can't be framed; send the close and drop the socket without waiting for a reply
+                startClose(e.code, e.getMessage());
+                closeAfterFlush = true;
+                flush();
+            }
+        }
+
+        private int closingCode() {
+            return state == CLOSING ? closeCode : 1006;
+        }
+
+        /** @return true once the upgrade is complete and the connection is open. */
+        private boolean readHandshake(ByteBuffer buffer) {
+            while (buffer.hasRemaining()) {
+                if (handshakeLength == handshake.length) {
+                    if (handshake.length >= MAX_HANDSHAKE_BYTES) {
+                        reject("431 Request Header Fields Too Large", "");
+                        return false;
+                    }
+                    handshake = Arrays.copyOf(handshake, handshake.length * 2);
+                }
+                byte b = buffer.get();
+                handshake[handshakeLength++] = b;
+                if (b == '\n' && handshakeLength >= 4 && handshake[handshakeLength - 2] == '\r'
+                        && handshake[handshakeLength - 3] == '\n' && handshake[handshakeLength - 4] == '\r') {
+                    completeHandshake(new String(handshake, 0, handshakeLength, StandardCharsets.ISO_8859_1));
+                    handshake = null;
+                    return state == OPEN;
+                }
+            }
+            return false;
+        }
+
+        private void completeHandshake(String request) {
+            String[] lines = request.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT), lines[i].substring(colon + 1).trim());
+                }
+            }
+            String key = headers.get("sec-websocket-key");
+            if (requestLine.length < 3 || !"GET".equals(requestLine[0])
+                    || !"websocket".equalsIgnoreCase(headers.get("upgrade")) || key == null || key.isEmpty()) {
+                reject("400 Bad Request", "");
+                return;
+            }
+            if (!"13".equals(headers.get("sec-websocket-version"))) {
+                reject("426 Upgrade Required", "Sec-WebSocket-Version: 13\r\n");
+                return;
+            }
+            String response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+            enqueueRaw(response.getBytes(StandardCharsets.ISO_8859_1));
+            state = OPEN;
+            opened = true;
+            try {
+                listener.onOpen(this, requestLine[1]);
+            } catch (RuntimeException e) {
+                listener.onError(this, e);
+            }
+        }
+
+        private void reject(String status, String extraHeaders) {
+            logger.warn("NioTransportEngine: Refused handshake from {}: {}.", remoteAddress, status);
+            String response = "HTTP/1.1 " + status + "\r\n" + extraHeaders + "Connection: close\r\nContent-Length: 0\r\n\r\n";
+            state = CLOSING;
+            closingSince = System.currentTimeMillis();
+            closeAfterFlush = true;
+            enqueueRaw(response.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private void readFrame(ByteBuffer buffer) throws ProtocolError {
+            if (!inPayload) {
+                if (!readHeader(buffer)) {
+                    return;
+                }
+            }
+            int n = Math.min(buffer.remaining(), payloadLength - payloadPosition);
+            if (payloadPosition + n > payload.length) {
+                // Sized by what has arrived, not by the declared length, so a bare header pins no memory
+                payload = Arrays.copyOf(payload, Math.min(payloadLength, Math.max(payloadPosition + n, payload.length * 2)));
+            }
+            buffer.get(payload, payloadPosition, n);
+            payloadPosition += n;
+            if (payloadPosition < payloadLength) {
+                return;
+            }
+            int maskAt = headerNeeded - 4;
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= header[maskAt + (i & 3)];
+            }
+            int opcode = header[0] & 0x0f;
+            boolean fin = (header[0] & 0x80) != 0;
+            byte[] data = payload;
+            inPayload = false;
+            payload = null;
+            headerLength = 0;
+            headerNeeded = 2;
+            onFrame(opcode, fin, data);
+        }
+
+        /** @return true once the whole header is read and the payload can be read. */
+        private boolean readHeader(ByteBuffer buffer) throws ProtocolError {
+            while (headerLength < headerNeeded) {
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+                header[headerLength++] = buffer.get();
+                if (headerLength == 2) {
+                    if ((header[0] & 0x70) != 0) {
+                        throw new ProtocolError(1002, "Reserved bits set without a negotiated extension");
+                    }
+                    if ((header[1] & 0x80) == 0) {
+                        throw new ProtocolError(1002, "Client frames must be masked");
+                    }
+                    int length7 = header[1] & 0x7f;
+                    headerNeeded = 2 + (length7 == 126 ? 2 : length7 == 127 ? 8 : 0) + 4;
+                }
+            }
+            int length7 = header[1] & 0x7f;
+            long length = length7;
+            if (length7 == 126) {
+                length = (header[2] & 0xffL) << 8 | header[3] & 0xffL;
+            } else if (length7 == 127) {
+                length = 0;
+                for (int i = 2; i < 10; i++) {
+                    length = length << 8 | header[i] & 0xffL;
+                }
+            }
+            int opcode = header[0] & 0x0f;
+            boolean fin = (header[0] & 0x80) != 0;
+            if (opcode >= OP_CLOSE) {
+                if (opcode > OP_PONG) {
+                    throw new ProtocolError(1002, "Unknown control opcode " + opcode);
+                }
+                if (!fin || length < 0 || length > 125) {
+                    throw new ProtocolError(1002, "Control frames must be final and at most 125 bytes");
+                }
+            } else {
+                if (opcode == OP_CONTINUATION) {
+                    if (messageOpcode == 0) {
+                        throw new ProtocolError(1002, "Continuation frame without a message to continue");
+                    }
+                } else if (opcode == OP_TEXT || opcode == OP_BINARY) {
+                    if (messageOpcode != 0) {
+                        throw new ProtocolError(1002, "New message before the previous one was finished");
+                    }
+                } else {
+                    throw new ProtocolError(1002, "Unknown data opcode " + opcode);
+                }
+                // Control frames may come between fragments; only data frames count toward the message
+                if (length < 0 || length + fragmentsLength > maxFrameBytes) {
+                    throw new ProtocolError(1009, "Message larger than " + maxFrameBytes + " bytes");
+                }
+            }
+            payload = EMPTY;
+            payloadLength = (int) length;
+            payloadPosition = 0;
+            inPayload = true;
+            return true;
+        }
+
+        private void onFrame(int opcode, boolean fin, byte[] data) throws ProtocolError {
+            switch (opcode) {
+                case OP_CLOSE:
+                    int code = data.length >= 2 ? (data[0] & 0xff) << 8 | data[1] & 0xff : 1005;
+                    String reason = data.length > 2 ? new String(data, 2, data.length - 2, StandardCharsets.UTF_8) : "";
+                    if (state == OPEN) {
+                        // Echo the close and drop the socket once it is written
+                        state = CLOSING;
+                        closingSince = System.currentTimeMillis();
+                        closeCode = code;
+                        closeReason = reason;
+                        remoteClose = true;
+                        closeAfterFlush = true;
+                        enqueue(OP_CLOSE, ByteBuffer.wrap(data.length >= 2 ? Arrays.copyOf(data, 2) : data));
+                    } else {
+                        closeChannel(closeCode, closeReason, remoteClose);
+                    }
+                    return;
+                case OP_PING:
+                    if (state == OPEN) {
+                        enqueue(OP_PONG, ByteBuffer.wrap(data));
+                    }
+                    return;
+                case OP_PONG:
+                    if (state == OPEN) {
+                        try {
+                            listener.onPong(this);
+                        } catch (RuntimeException e) {
+                            listener.onError(this, e);
+                        }
+                    }
+                    return;
+                case OP_CONTINUATION:
+                    appendFragment(data);
+                    if (fin) {
+                        byte[] message = fragmentsLength == fragments.length ? fragments : Arrays.copyOf(fragments, fragmentsLength);
+                        int messageType = messageOpcode;
+                        messageOpcode = 0;
+                        fragments = null;
+                        fragmentsLength = 0;
+                        deliver(messageType, message);
+                    }
+                    return;
+                default:
+                    if (fin) {
+                        deliver(opcode, data);
+                    } else {
+                        messageOpcode = opcode;
+                        fragments = data;
+                        fragmentsLength = data.length;
+                    }
+            }
+        }
+
+        private void appendFragment(byte[] data) {
+            if (fragmentsLength + data.length > fragments.length) {
+                fragments = Arrays.copyOf(fragments, Math.max(fragmentsLength + data.length, fragments.length * 2));
+            }
+            System.arraycopy(data, 0, fragments, fragmentsLength, data.length);
+            fragmentsLength += data.length;
+        }
+
+        private void deliver(int opcode, byte[] message) throws ProtocolError {
+            if (state != OPEN) {
+                return;
+            }
+            String text = null;
+            if (opcode == OP_TEXT) {
+                try {
+                    text = loop.utf8.decode(ByteBuffer.wrap(message)).toString();
+                } catch (CharacterCodingException e) {
+                    throw new ProtocolError(1007, "Text message is not valid UTF-8");
+                }
+            }
+            try {
+                if (text != null) {
+                    listener.onMessage(this, text);
+                } else {
+                    listener.onMessage(this, ByteBuffer.wrap(message));
+                }
+            } catch (RuntimeException e) {
+                listener.onError(this, e);
+            }
+        }
+
+        // --- Writing ---
+
+        private boolean enqueue(int opcode, ByteBuffer data) {
+            int length = data.remaining();
+            int headerSize = length < 126 ? 2 : length < 65536 ? 4 : 10;
+            OutFrame frame;
+            if (headerSize + length <= pool.bufferBytes) {
+                ByteBuffer buffer = pool.acquire(headerSize + length);
+                putHeader(buffer, opcode, length);
+                buffer.put(data);
+                buffer.flip();
+                frame = new OutFrame(new ByteBuffer[]{buffer}, true);
+            } else {
+                ByteBuffer head = ByteBuffer.allocate(headerSize);
+                putHeader(head, opcode, length);
+                head.flip();
+                frame = new OutFrame(new ByteBuffer[]{head, data}, false);
+            }
+            pending.incrementAndGet();
+            outQueue.add(frame);
+            scheduleFlush();
+            return true;
+        }
+
+        private void enqueueRaw(byte[] bytes) {
+            pending.incrementAndGet();
+            outQueue.add(new OutFrame(new ByteBuffer[]{ByteBuffer.wrap(bytes)}, false));
+            scheduleFlush();
+        }
+
+        private void putHeader(ByteBuffer buffer, int opcode, int length) {
+            buffer.put((byte) (0x80 | opcode));
+            if (length < 126) {
+                buffer.put((byte) length);
+            } else if (length < 65536) {
+                buffer.put((byte) 126).putShort((short) length);
+            } else {
+                buffer.put((byte) 127).putLong(length);
+            }
+        }
+
+        private void scheduleFlush() {
+            if (Thread.currentThread() == loop.thread) {
+                flush();
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+        }
+
+        void flush() {
+            flushScheduled.set(false);
+            if (state == CLOSED) {
+                discardQueued();
+                return;
+            }
+            try {
+                OutFrame frame;
+                while ((frame = outQueue.peek()) != null) {
+                    while (frame.hasRemaining()) {
+                        if (channel.write(frame.parts) == 0) {
+                            setWriteInterest(true);
+                            return;
+                        }
+                    }
+                    outQueue.poll();
+                    pending.decrementAndGet();
+                    if (frame.pooled) {
+                        pool.release(frame.parts[0]);
+                    }
+                }
+                setWriteInterest(false);
+                if (closeAfterFlush) {
+                    closeChannel(closeCode, closeReason, remoteClose);
+                }
+            } catch (IOException e) {
+                closeChannel(closingCode(), e.getMessage() != null ? e.getMessage() : "Write failed", true);
+            }
+        }
+
+        private void setWriteInterest(boolean interested) {
+            if (writeInterest != interested && key != null && key.isValid()) {
+                key.interestOps(interested ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                writeInterest = interested;
+            }
+        }
+
+        private void discardQueued() {
+            OutFrame frame;
+            while ((frame = outQueue.poll()) != null) {
+                pending.decrementAndGet();
+                if (frame.pooled) {
+                    pool.release(frame.parts[0]);
+                }
+            }
+        }
+
+        // --- Closing ---
+
+        /** Sends a close frame and waits (up to CLOSE_TIMEOUT_MS) for the peer's. Loop thread only. */
+        void startClose(int code, String reason) {
+            if (state == HANDSHAKE) {
+                closeChannel(code, reason, false);
+                return;
+            }
+            if (state != OPEN) {
+                return;
+            }
+            state = CLOSING;
+            closingSince = System.currentTimeMillis();
+            closeCode = code;
+            closeReason = reason != null ? reason : "";
+            remoteClose = false;
+            byte[] reasonBytes = closeReason.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer body = ByteBuffer.allocate(2 + Math.min(reasonBytes.length, 123));
+            body.putShort((short) code).put(reasonBytes, 0, body.remaining()).flip();
+            enqueue(OP_CLOSE, body);
+        }
+
+        void checkTimeouts(long now) {
+            if (state == HANDSHAKE && now - acceptedAt > HANDSHAKE_TIMEOUT_MS) {
+                logger.debug("NioTransportEngine: Handshake from {} timed out.", remoteAddress);
+                closeChannel(1006, "Handshake timed out", false);
+            } else if (state == CLOSING && now - closingSince > CLOSE_TIMEOUT_MS) {
+                closeChannel(closeCode, closeReason, remoteClose);
+            } else if (state == OPEN && connectionLostTimeoutMs > 0) {
+                long quiet = now - lastReadAt;
+                if (quiet > connectionLostTimeoutMs) {
+                    logger.debug("NioTransportEngine: No data or pong from {} for {} ms. Dropping connection.", remoteAddress, quiet);
+                    closeChannel(1006, "The connection was lost: no pong in time", false);
+                } else if (quiet > connectionLostTimeoutMs / 2 && !pingSent) {
+                    pingSent = true;
+                    enqueue(OP_PING, ByteBuffer.allocate(0));
+                }
+            }
+        }
+
+        /** Drops the socket and reports onClose if the connection had opened. Loop thread only. */
+        void closeChannel(int code, String reason, boolean remote) {
+            if (state == CLOSED) {
+                return;
+            }
+            state = CLOSED;
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            loop.connections.remove(this);
+            discardQueued();
+            if (opened) {
+                try {
+                    listener.onClose(this, code, reason, remote);
+                } catch (RuntimeException e) {
+                    logger.error("NioTransportEngine: Error in close handler for {}: {}", remoteAddress, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("NioTransportEngine: Error closing socket: {}", e.getMessage());
+        }
+    }
+}
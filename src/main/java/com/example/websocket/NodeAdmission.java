@@ -0,0 +1,418 @@
+// src/main/java/com/example/websocket/NodeAdmission.java
+package com.example.websocket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-node queues of node_commands that could not be sent yet: their node already had
+ * RELAY_NODE_MAX_IN_FLIGHT commands outstanding, its outbound queue was congested, or it had just disconnected
+ * and may reconnect within RELAY_ADMISSION_RECONNECT_HOLD_MS. Commands leave their node's queue as slots free
+ * up (see CommandOrchestrator#admitQueued), or give up at their admission deadline: RELAY_ADMISSION_QUEUE_TIMEOUT_MS
+ * after queueing, or the request's own deadline if that is sooner. Each node queues at most RELAY_ADMISSION_QUEUE_MAX.
+ * <p>
+ * node_commands with a selector instead of a nodeId queue the same way, in a queue per distinct selector, when
+ * every matching node is at its limit. They are not tied to a node: whenever a matching node frees a slot the
+ * selector is resolved again (see CommandOrchestrator#admitQueuedSelector).
+ * <p>
+ * The order is their clients' {@link ClientShares}: every INTERACTIVE command before any BULK one, and within a
+ * class start-time fair queueing by client weight. A command's virtual start is the later of the class's virtual
+ * time and its client's previous finish, its finish is start + 1/weight, and the smallest start goes first; so a
+ * client of weight 2 gets two slots for every one of a weight 1 client while both have commands waiting, and one
+ * that queued a thousand commands doesn't delay another's first by a thousand.
+ */
+public class NodeAdmission {
+
+    /** A node_command waiting for its node, or for any node matching its selector. */
+    static final class Held {
+        final String requestId;
+        final String source;
+        // Exactly one of nodeId and selector is set
+        final String nodeId;
+        final Set<String> selector;
+        final FrameEnvelope envelope;
+        final String cacheKey;
+        final ClientShares.Share share;
+        // The request's own deadline; time spent queued counts against it
+        final long deadline;
+        final long admitBy;
+        // Virtual start time and arrival order within the node's queue; set when queued
+        double start;
+        long seq;
+
+        Held(String requestId, String source, String nodeId, Set<String> selector, FrameEnvelope envelope, String cacheKey,
+             ClientShares.Share share, long deadline, long admitBy) {
+            this.requestId = requestId;
+            this.source = source;
+            this.nodeId = nodeId;
+            this.selector = selector;
+            this.envelope = envelope;
+            this.cacheKey = cacheKey;
+            this.share = share;
+            this.deadline = deadline;
+            this.admitBy = admitBy;
+        }
+
+        /** The nodeId, or "selector {...}", for messages. */
+        String describeTarget() {
+            return nodeId != null ? nodeId : "selector " + envelope.selectorText();
+        }
+    }
+
+    private static final Comparator<Held> BY_VIRTUAL_START = Comparator.<Held>comparingDouble(h -> h.start).thenComparingLong(h -> h.seq);
+
+    private static final class NodeQueue {
+        // All state guarded by the queue. Per priority class, by ordinal
+        final List<PriorityQueue<Held>> classes = new ArrayList<>();
+        final double[] virtualTime = new double[ClientShares.Priority.values().length];
+        // Virtual finish of each client's latest queued command
+        final Map<String, Double> lastFinish = new HashMap<>();
+        long seq = 0;
+        int size = 0;
+        // When its node disconnected; 0 while it is connected
+        long goneSince = 0;
+        // Set once the queue is out of the map; a command racing its removal retries with a fresh one
+        boolean removed = false;
+
+        NodeQueue() {
+            for (int i = 0; i < virtualTime.length; i++) {
+                classes.add(new PriorityQueue<>(BY_VIRTUAL_START));
+            }
+        }
+
+        void add(Held held) {
+            int c = held.share.priority.ordinal();
+            held.start = Math.max(virtualTime[c], lastFinish.getOrDefault(held.share.clientId, 0.0));
+            held.seq = seq++;
+            lastFinish.put(held.share.clientId, held.start + 1.0 / held.share.weight);
+            reinsert(held);
+        }
+
+        /** Puts a command back with the tags it was queued with. */
+        void reinsert(Held held) {
+            classes.get(held.share.priority.ordinal()).add(held);
+            held.share.queued.incrementAndGet();
+            size++;
+        }
+
+        Held poll() {
+            for (int c = 0; c < classes.size(); c++) {
+                Held held = classes.get(c).poll();
+                if (held != null) {
+                    virtualTime[c] = held.start;
+                    held.share.queued.decrementAndGet();
+                    size--;
+                    return held;
+                }
+            }
+            return null;
+        }
+
+        List<Held> drain() {
+            List<Held> all = new ArrayList<>(size);
+            for (PriorityQueue<Held> queue : classes) {
+                for (Held held : queue) {
+                    held.share.queued.decrementAndGet();
+                    all.add(held);
+                }
+                queue.clear();
+            }
+            size = 0;
+            return all;
+        }
+
+        void removeOverdue(long now, List<Held> overdue) {
+            for (PriorityQueue<Held> queue : classes) {
+                for (Iterator<Held> it = queue.iterator(); it.hasNext(); ) {
+                    Held held = it.next();
+                    if (held.admitBy <= now) {
+                        it.remove();
+                        held.share.queued.decrementAndGet();
+                        size--;
+                        overdue.add(held);
+                    }
+                }
+            }
+        }
+    }
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long queueTimeoutMs;
+    private final long reconnectHoldMs;
+    private final ConcurrentHashMap<String, NodeQueue> queues = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Set<String>, NodeQueue> selectorQueues = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Held> heldByRequestId = new ConcurrentHashMap<>();
+    private final LongAdder expired = new LongAdder();
+
+    public NodeAdmission(RelayConfig config) {
+        this.maxInFlight = config.nodeMaxInFlight;
+        this.maxQueued = config.admissionQueueMax;
+        this.queueTimeoutMs = config.admissionQueueTimeoutMs;
+        this.reconnectHoldMs = config.admissionReconnectHoldMs;
+    }
+
+    /** Commands a node may have outstanding before further ones queue; 0 for no limit. */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getReconnectHoldMs() {
+        return reconnectHoldMs;
+    }
+
+    /** True if commands are queued for nodeId, so a new one has to queue behind them. */
+    public boolean isHolding(String nodeId) {
+        NodeQueue queue = queues.get(nodeId);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            return queue.size > 0;
+        }
+    }
+
+    /** True if commands with this selector are queued, so a new one has to queue behind them. */
+    public boolean isHoldingSelector(Set<String> selector) {
+        NodeQueue queue = selectorQueues.get(selector);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            return queue.size > 0;
+        }
+    }
+
+    /** True if nodeId disconnected recently enough that commands for it are held for its return. */
+    public boolean isAwaitingReconnect(String nodeId) {
+        NodeQueue queue = queues.get(nodeId);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            return queue.goneSince != 0 && System.currentTimeMillis() - queue.goneSince <= reconnectHoldMs;
+        }
+    }
+
+    /** The queued command with this requestId, or null. */
+    public Held find(String requestId) {
+        return heldByRequestId.get(requestId);
+    }
+
+    public boolean isQueued(String requestId) {
+        return heldByRequestId.containsKey(requestId);
+    }
+
+    /**
+     * Queues a command for nodeId.
+     * @return SENT once queued, DUPLICATE_REQUEST if its requestId is already queued, or BUSY if the node's queue is full.
+     */
+    public NodeCommander.DispatchResult hold(String requestId, String source, String nodeId, FrameEnvelope envelope, String cacheKey,
+                                             ClientShares.Share share, long deadline) {
+        Held held = new Held(requestId, source, nodeId, null, envelope, cacheKey, share, deadline,
+                Math.min(deadline, System.currentTimeMillis() + queueTimeoutMs));
+        return hold(queues, nodeId, held);
+    }
+
+    /**
+     * Queues a command for whichever node matching selector frees a slot first.
+     * @return SENT once queued, DUPLICATE_REQUEST if its requestId is already queued, or BUSY if the selector's queue is full.
+     */
+    public NodeCommander.DispatchResult holdForSelector(String requestId, String source, Set<String> selector, FrameEnvelope envelope,
+                                                        ClientShares.Share share, long deadline) {
+        Held held = new Held(requestId, source, null, selector, envelope, null, share, deadline,
+                Math.min(deadline, System.currentTimeMillis() + queueTimeoutMs));
+        return hold(selectorQueues, selector, held);
+    }
+
+    private <K> NodeCommander.DispatchResult hold(ConcurrentHashMap<K, NodeQueue> queues, K key, Held held) {
+        while (true) {
+            NodeQueue queue = queues.computeIfAbsent(key, k -> new NodeQueue());
+            synchronized (queue) {
+                if (queue.removed) {
+                    continue;
+                }
+                if (queue.size >= maxQueued) {
+                    return NodeCommander.DispatchResult.BUSY;
+                }
+                if (heldByRequestId.putIfAbsent(held.requestId, held) != null) {
+                    return NodeCommander.DispatchResult.DUPLICATE_REQUEST;
+                }
+                queue.add(held);
+                held.share.recordQueued();
+                return NodeCommander.DispatchResult.SENT;
+            }
+        }
+    }
+
+    /**
+     * Takes the command queued for nodeId that goes next, or null. It stays findable by requestId until
+     * {@link #admitted} or {@link #requeue}, so it is never absent from both the queue and the pending table.
+     */
+    public Held next(String nodeId) {
+        return poll(queues.get(nodeId));
+    }
+
+    /** Like {@link #next}, for the commands queued with this selector. */
+    public Held nextForSelector(Set<String> selector) {
+        return poll(selectorQueues.get(selector));
+    }
+
+    private static Held poll(NodeQueue queue) {
+        if (queue == null) {
+            return null;
+        }
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    /** Forgets a command taken by {@link #next}, which is now pending or has been failed. */
+    public void admitted(Held held) {
+        heldByRequestId.remove(held.requestId, held);
+    }
+
+    /** Puts a command taken by {@link #next} back; it goes next again unless something more urgent arrived. */
+    public void requeue(Held held) {
+        while (true) {
+            NodeQueue queue = held.nodeId != null
+                    ? queues.computeIfAbsent(held.nodeId, id -> new NodeQueue())
+                    : selectorQueues.computeIfAbsent(held.selector, selector -> new NodeQueue());
+            synchronized (queue) {
+                if (!queue.removed) {
+                    queue.reinsert(held);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Notes that nodeId's connection closed without a replacement. Within the reconnect hold its queue
+     * waits for it; without one, everything queued for it is returned for the caller to fail.
+     */
+    public List<Held> nodeGone(String nodeId) {
+        if (reconnectHoldMs <= 0) {
+            NodeQueue queue = queues.get(nodeId);
+            return queue != null ? removeQueue(queues, nodeId, queue) : new ArrayList<>();
+        }
+        while (true) {
+            NodeQueue queue = queues.computeIfAbsent(nodeId, id -> new NodeQueue());
+            synchronized (queue) {
+                if (!queue.removed) {
+                    queue.goneSince = System.currentTimeMillis();
+                    return new ArrayList<>();
+                }
+            }
+        }
+    }
+
+    /** Notes that nodeId is connected (again); its queue, if any, can drain. */
+    public void nodeBack(String nodeId) {
+        NodeQueue queue = queues.get(nodeId);
+        if (queue != null) {
+            synchronized (queue) {
+                queue.goneSince = 0;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns every command past its admission deadline, and everything queued for a node
+     * that did not reconnect within the hold. Drops queues that are empty and whose node is connected or gone,
+     * and empty selector queues.
+     */
+    public List<Held> expire(long now) {
+        List<Held> overdue = new ArrayList<>();
+        for (Map.Entry<String, NodeQueue> entry : queues.entrySet()) {
+            NodeQueue queue = entry.getValue();
+            synchronized (queue) {
+                if (queue.goneSince != 0 && now - queue.goneSince > reconnectHoldMs) {
+                    overdue.addAll(removeQueue(queues, entry.getKey(), queue));
+                    continue;
+                }
+                removeOverdue(queue, now, overdue);
+                if (queue.size == 0 && queue.goneSince == 0) {
+                    removeQueue(queues, entry.getKey(), queue);
+                }
+            }
+        }
+        for (Map.Entry<Set<String>, NodeQueue> entry : selectorQueues.entrySet()) {
+            NodeQueue queue = entry.getValue();
+            synchronized (queue) {
+                removeOverdue(queue, now, overdue);
+                if (queue.size == 0) {
+                    removeQueue(selectorQueues, entry.getKey(), queue);
+                }
+            }
+        }
+        expired.add(overdue.size());
+        return overdue;
+    }
+
+    private void removeOverdue(NodeQueue queue, long now, List<Held> overdue) {
+        int before = overdue.size();
+        queue.removeOverdue(now, overdue);
+        for (Held held : overdue.subList(before, overdue.size())) {
+            heldByRequestId.remove(held.requestId, held);
+        }
+    }
+
+    /** Nodes with commands queued, e.g. to retry draining those whose outbound queue was congested. */
+    public List<String> getWaitingNodeIds() {
+        List<String> nodeIds = new ArrayList<>();
+        for (Map.Entry<String, NodeQueue> entry : queues.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().size > 0) {
+                    nodeIds.add(entry.getKey());
+                }
+            }
+        }
+        return nodeIds;
+    }
+
+    /** Selectors with commands queued. */
+    public List<Set<String>> getWaitingSelectors() {
+        if (selectorQueues.isEmpty()) {
+            return Collections.emptyList(); // the common case, checked on every release
+        }
+        List<Set<String>> selectors = new ArrayList<>();
+        for (Map.Entry<Set<String>, NodeQueue> entry : selectorQueues.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().size > 0) {
+                    selectors.add(entry.getKey());
+                }
+            }
+        }
+        return selectors;
+    }
+
+    public int getQueuedCount() {
+        return heldByRequestId.size();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    private <K> List<Held> removeQueue(ConcurrentHashMap<K, NodeQueue> queues, K key, NodeQueue queue) {
+        synchronized (queue) {
+            queue.removed = true;
+            queues.remove(key, queue);
+            List<Held> held = queue.drain();
+            for (Held h : held) {
+                heldByRequestId.remove(h.requestId, h);
+            }
+            return held;
+        }
+    }
+}
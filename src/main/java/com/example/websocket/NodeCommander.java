@@ -3,73 +3,151 @@ package com.example.websocket;
 
 import com.google.gson.JsonObject;
 import com.example.websocket.NodeRegistry.NodeInfo; 
-import com.example.websocket.NodeRegistry.NodeStatus; 
-import com.google.gson.JsonParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.JsonSyntaxException;
 import java.util.function.BiConsumer; 
 
 public class NodeCommander {
 
     private static final Logger logger = LoggerFactory.getLogger(NodeCommander.class);
 
+    public enum DispatchResult {
+        SENT,
+        /** Node not found or not open. */
+        UNAVAILABLE,
+        /** Node's outbound queue is above its high water mark, or its admission queue is full. */
+        BUSY,
+        /** No connected, non-ejected node advertises every capability of the selector. */
+        NO_MATCHING_NODE,
+        /** The requestId is already pending. */
+        DUPLICATE_REQUEST,
+        /** The pending request table is full. */
+        RELAY_AT_CAPACITY,
+        /** The originating client is over its rate limit. */
+        RATE_LIMITED,
+        /** The relay is draining for a restart and takes no new commands. */
+        DRAINING
+    }
+
     private final NodeRegistry nodeRegistry;
+    private final OutboundDispatcher outbound;
 
-    private final BiConsumer<NodeInfo, JsonObject> nodeResponseHandler;
-    public NodeCommander(NodeRegistry nodeRegistry, BiConsumer<NodeInfo, JsonObject> nodeResponseHandler) {
+    private final BiConsumer<NodeInfo, FrameEnvelope> nodeResponseHandler;
+    public NodeCommander(NodeRegistry nodeRegistry, OutboundDispatcher outbound, BiConsumer<NodeInfo, FrameEnvelope> nodeResponseHandler) {
         this.nodeRegistry = nodeRegistry;
+        this.outbound = outbound;
         this.nodeResponseHandler = nodeResponseHandler; // Assign the handler
         logger.info("NodeCommander: Initialized.");
     }
 
 
-    public boolean sendToNode(String nodeId, JsonObject command) {
+    public DispatchResult sendToNode(String nodeId, JsonObject command) {
         NodeInfo info = nodeRegistry.getClientNodeInfo(nodeId);
-        if (info != null && info.conn != null && info.conn.isOpen() && info.status == NodeStatus.ACTIVE) {
+        if (info != null && info.conn != null && info.conn.isOpen()) {
             JsonObject wrapper = new JsonObject();
             wrapper.addProperty("type", "command");
             wrapper.add("command", command);
-            info.conn.send(wrapper.toString());
+            if (outbound.trySend(info.conn, wrapper.toString()) == OutboundQueue.SendResult.BUSY) {
+                logger.warn("NodeCommander: Node {} is busy (outbound queue congested). Direct command rejected.", nodeId);
+                return DispatchResult.BUSY;
+            }
             logger.info("NodeCommander: Sent direct command to node {}: {}", nodeId, command.toString());
-            return true;
+            return DispatchResult.SENT;
+        }
+        logger.warn("NodeCommander: Failed to send command to node {}: Node not found or not open.", nodeId);
+        return DispatchResult.UNAVAILABLE;
+    }
+    public DispatchResult sendToNodeWithRequestId(String nodeId, JsonObject command, String requestId) {
+        String commandJson = command.toString();
+        return forwardCommand(nodeId, FrameWriter.command(requestId, commandJson, 0, commandJson.length()), requestId);
+    }
+
+    /**
+     * Forwards the 'command' object of an inbound node_command frame as-is, without re-serializing it.
+     */
+    public DispatchResult sendToNodeWithRequestId(NodeInfo node, FrameEnvelope commandFrame, String requestId) {
+        return forwardCommand(node, FrameWriter.command(requestId, commandFrame.frame(), commandFrame.commandStart(), commandFrame.commandEnd()), requestId);
+    }
+
+    /**
+     * Writes one broadcast command frame, encoded once by the caller, to a node.
+     * Logged at debug level only; the broadcast as a whole is logged by the caller.
+     */
+    public DispatchResult sendBroadcastToNode(NodeInfo node, EncodedFrame frame, String requestId) {
+        if (node.conn == null || !node.conn.isOpen()) {
+            logger.debug("NodeCommander: Broadcast {} skipped node {}: Node not open.", requestId, node.nodeId);
+            return DispatchResult.UNAVAILABLE;
+        }
+        if (outbound.trySend(node.conn, frame) == OutboundQueue.SendResult.BUSY) {
+            logger.debug("NodeCommander: Broadcast {} skipped node {}: outbound queue congested.", requestId, node.nodeId);
+            return DispatchResult.BUSY;
         }
-        logger.warn("NodeCommander: Failed to send command to node {}: Node not found, not open, or idle.", nodeId);
-        return false;
+        return DispatchResult.SENT;
     }
-    public boolean sendToNodeWithRequestId(String nodeId, JsonObject command, String requestId) {
+
+    private DispatchResult forwardCommand(String nodeId, String frame, String requestId) {
         NodeInfo info = nodeRegistry.getClientNodeInfo(nodeId);
-        if (info != null && info.conn != null && info.conn.isOpen() && info.status == NodeStatus.ACTIVE) {
-            JsonObject wrapper = new JsonObject();
-            wrapper.addProperty("type", "command");
-            wrapper.addProperty("requestId", requestId);
-            wrapper.add("command", command);
+        if (info == null) {
+            logger.warn("NodeCommander: Failed to forward command to node {}: Node not found or not open.", nodeId);
+            return DispatchResult.UNAVAILABLE;
+        }
+        return forwardCommand(info, frame, requestId);
+    }
 
-            info.conn.send(wrapper.toString());
+    /**
+     * An IDLE node is only one that has been quiet for a while; it is still connected and takes commands.
+     */
+    private DispatchResult forwardCommand(NodeInfo info, String frame, String requestId) {
+        String nodeId = info.nodeId;
+        if (info.conn != null && info.conn.isOpen()) {
+            if (outbound.trySend(info.conn, frame) == OutboundQueue.SendResult.BUSY) {
+                logger.warn("NodeCommander: Node {} is busy (outbound queue congested). Rejected requestId: {}", nodeId, requestId);
+                return DispatchResult.BUSY;
+            }
             logger.info("NodeCommander: Forwarded command to node {} with requestId: {}", nodeId, requestId);
-            return true;
+            return DispatchResult.SENT;
+        }
+        logger.warn("NodeCommander: Failed to forward command to node {}: Node not open.", nodeId);
+        return DispatchResult.UNAVAILABLE;
+    }
+
+    /**
+     * Error text for a failed dispatch, as reported back to the originator.
+     * @param target the requested nodeId, or a description of the selector.
+     */
+    public static String describeFailure(DispatchResult result, String target) {
+        switch (result) {
+            case BUSY:
+                return "Node " + target + " is busy (outbound or admission queue full). Retry later.";
+            case NO_MATCHING_NODE:
+                return "No connected node that isn't ejected for poor health matches " + target + ".";
+            case DUPLICATE_REQUEST:
+                return "A request with this requestId is already pending.";
+            case RELAY_AT_CAPACITY:
+                return "Relay is at its pending request capacity. Retry later.";
+            case RATE_LIMITED:
+                return "Rate limit exceeded. Retry later.";
+            case DRAINING:
+                return "Relay is restarting and takes no new commands. Reconnect and retry.";
+            default:
+                return "Node " + target + " not connected.";
         }
-        logger.warn("NodeCommander: Failed to forward command to node {}: Node not found, not open, or idle.", nodeId);
-        return false;
     }
 
-    public void handleIncomingNodeMessage(NodeInfo sender, String message) {
+    public void handleIncomingNodeMessage(NodeInfo sender, FrameEnvelope envelope) {
         try {
-            JsonObject jsonMessage = JsonParser.parseString(message).getAsJsonObject();
-            String type = jsonMessage.has("type") ? jsonMessage.get("type").getAsString() : null;
+            String type = envelope.type();
 
-            if ("node_response".equals(type)) {
+            if ("node_response".equals(type) || "stream_begin".equals(type) || "stream_end".equals(type)) {
                 // Delegate the handling of the node response to the provided handler
                 if (nodeResponseHandler != null) {
-                    nodeResponseHandler.accept(sender, jsonMessage);
+                    nodeResponseHandler.accept(sender, envelope);
                 } else {
-                    logger.warn("NodeCommander: nodeResponseHandler is null. Cannot process node response for node {}: {}", sender.nodeId, message);
+                    logger.warn("NodeCommander: nodeResponseHandler is null. Cannot process node response for node {}: {}", sender.nodeId, envelope);
                 }
-            } else {
-                logger.warn("NodeCommander: Received unrecognized message type '{}' from node {}: {}", type, sender.nodeId, message);
+            } else if (!"status_update".equals(type)) {
+                logger.warn("NodeCommander: Received unrecognized message type '{}' from node {}: {}", type, sender.nodeId, envelope);
             }
-        } catch (JsonSyntaxException e) {
-            logger.warn("NodeCommander: Invalid JSON received from node {}: {}", sender.nodeId, message, e);
         } catch (Exception e) {
             logger.error("NodeCommander: Error processing message from node {}: {}", sender.nodeId, e.getMessage(), e);
         }
@@ -0,0 +1,102 @@
+// src/main/java/com/example/websocket/NodeEventStream.java
+package com.example.websocket;
+
+import com.example.websocket.NodeRegistry.Change;
+import com.example.websocket.NodeRegistry.NodeInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pushes registry changes to connections opened on /ws/node_events. A subscriber first receives
+ * {"type":"node_snapshot","seq":n,"nodes":[...]} and then, per change, {"type":"node_event","seq":n+1,
+ * "event":"connected"|"disconnected"|"status","node":{...}}, seq counting up by one. Nodes are projected like
+ * /api/nodes and an event carries the whole row, so one the snapshot already reflects can be applied again.
+ * <p>
+ * Events are encoded once and fanned out through each subscriber's outbound queue, which is its buffer.
+ * A subscriber more than RELAY_NODE_EVENTS_MAX_BACKLOG frames behind is disconnected (1013) rather than
+ * buffered for, so the registry thread raising the change never waits; it resubscribes for a new snapshot.
+ */
+public class NodeEventStream implements NodeRegistry.ChangeListener {
+    private static final Logger logger = LoggerFactory.getLogger(NodeEventStream.class);
+
+    private final NodeRegistry registry;
+    private final OutboundDispatcher outbound;
+    private final int maxSubscribers;
+    private final int maxBacklog;
+    private final CopyOnWriteArrayList<RelayConnection> subscribers = new CopyOnWriteArrayList<>();
+    // Sequence number of the last change; guarded by this, which also orders snapshots against events
+    private long seq = 0;
+
+    public NodeEventStream(NodeRegistry registry, OutboundDispatcher outbound, RelayConfig config) {
+        this.registry = registry;
+        this.outbound = outbound;
+        this.maxSubscribers = config.nodeEventsMaxSubscribers;
+        this.maxBacklog = config.nodeEventsMaxBacklog;
+        registry.setChangeListener(this);
+        logger.info("NodeEventStream: Initialized. At most {} subscribers, {} frames behind each.", maxSubscribers, maxBacklog);
+    }
+
+    /** Sends the snapshot and starts streaming changes to conn. False if the subscriber limit is reached. */
+    public synchronized boolean subscribe(RelayConnection conn) {
+        if (subscribers.size() >= maxSubscribers) {
+            logger.warn("NodeEventStream: Subscriber limit of {} reached. Rejecting {}.", maxSubscribers, conn.getRemoteSocketAddress());
+            return false;
+        }
+        StringBuilder sb = new StringBuilder(64 + registry.getAllClientNodeInfo().size() * 128);
+        sb.append("{\"type\":\"node_snapshot\",\"seq\":").append(seq).append(",\"nodes\":[");
+        boolean first = true;
+        for (NodeInfo info : registry.getAllClientNodeInfo().values()) {
+            if (!first) {
+                sb.append(',');
+            }
+            NodeListing.project(sb, info, info.status);
+            first = false;
+        }
+        outbound.send(conn, sb.append("]}").toString());
+        subscribers.add(conn);
+        logger.info("NodeEventStream: {} subscribed at seq {}. Subscribers: {}.", conn.getRemoteSocketAddress(), seq, subscribers.size());
+        return true;
+    }
+
+    public void unsubscribe(RelayConnection conn) {
+        if (subscribers.remove(conn)) {
+            logger.info("NodeEventStream: {} unsubscribed. Subscribers: {}.", conn.getRemoteSocketAddress(), subscribers.size());
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public synchronized void nodeChanged(NodeInfo info, Change change) {
+        seq++;
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("{\"type\":\"node_event\",\"seq\":").append(seq)
+          .append(",\"event\":\"").append(change.name().toLowerCase()).append("\",\"node\":");
+        EncodedFrame frame = new EncodedFrame(NodeListing.project(sb, info, info.status).append('}').toString());
+        for (RelayConnection conn : subscribers) {
+            if (outbound.queueFor(conn).getQueuedFrames() >= maxBacklog) {
+                drop(conn, "Node event subscriber fell " + maxBacklog + " events behind. Resubscribe.");
+                continue;
+            }
+            OutboundQueue.SendResult result = outbound.trySend(conn, frame);
+            if (result == OutboundQueue.SendResult.BUSY) {
+                drop(conn, "Node event subscriber is congested. Resubscribe.");
+            } else if (result == OutboundQueue.SendResult.CLOSED) {
+                subscribers.remove(conn);
+            }
+        }
+    }
+
+    private void drop(RelayConnection conn, String reason) {
+        subscribers.remove(conn);
+        logger.warn("NodeEventStream: Dropping subscriber {}: {}", conn.getRemoteSocketAddress(), reason);
+        conn.close(1013, reason);
+    }
+}
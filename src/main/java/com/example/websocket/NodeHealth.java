@@ -0,0 +1,405 @@
+// src/main/java/com/example/websocket/NodeHealth.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.Role;
+
+/**
+ * Rolling health of every RPA node, keyed by nodeId so it survives reconnects: exponentially weighted
+ * averages of response latency, of the share of commands that failed (an error response or a timeout),
+ * and of WebSocket ping/pong round trips, which the relay measures every RELAY_HEALTH_PING_INTERVAL_MS.
+ * <p>
+ * Nodes that stand out are ejected from dispatch like an open circuit breaker: selectors and broadcasts
+ * skip them and commands addressed to them by nodeId queue (see {@link NodeAdmission}). A node is ejected
+ * after RELAY_HEALTH_CONSECUTIVE_FAILURES failures in a row, or, when {@link #evaluate} runs every
+ * RELAY_HEALTH_INTERVAL_MS, once it has RELAY_HEALTH_MIN_SAMPLES outcomes and fails more than
+ * RELAY_HEALTH_MAX_FAILURE_PERCENT of them, or its latency or ping round trip is above
+ * RELAY_HEALTH_OUTLIER_FACTOR times the median of at least three peers (and above RELAY_HEALTH_OUTLIER_FLOOR_MS).
+ * It is re-admitted after RELAY_HEALTH_EJECTION_BASE_MS, doubled for every ejection in a row up to
+ * RELAY_HEALTH_EJECTION_MAX_MS, with fresh averages and on probation: one failure ejects it again, and
+ * RELAY_HEALTH_MIN_SAMPLES clean outcomes end the streak. At most RELAY_HEALTH_MAX_EJECTED_PERCENT of the
+ * connected nodes are ejected at a time, so a fleet-wide problem never ejects everything.
+ */
+public class NodeHealth {
+    private static final Logger logger = LoggerFactory.getLogger(NodeHealth.class);
+    // Weight of the newest sample in the averages
+    private static final double ALPHA = 0.2;
+    private static final int MIN_PEERS = 3;
+
+    /** One node's rolling record. */
+    public static final class Record {
+        public final String nodeId;
+        // All state below is guarded by the record
+        private double latencyMs = -1;
+        private double failureRate = 0;
+        private double pingRttMs = -1;
+        private int samples = 0;
+        private int consecutiveFailures = 0;
+        private long responses = 0;
+        private long errors = 0;
+        private long timeouts = 0;
+        private double score = 1;
+        private int ejectionStreak = 0;
+        private boolean probation = false;
+        private String reason = null;
+        private volatile long ejectedUntil = 0;
+        // When the unanswered ping to the node was sent; 0 if none is outstanding
+        volatile long pingSentNanos = 0;
+
+        Record(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil > System.currentTimeMillis();
+        }
+
+        /** When the current or last ejection ends; 0 once a re-admission has been noted. */
+        long getEjectedUntil() {
+            return ejectedUntil;
+        }
+
+        /** Rolling averages start over, e.g. on re-admission; ping round trips keep being measured meanwhile. */
+        private void reset() {
+            latencyMs = -1;
+            failureRate = 0;
+            samples = 0;
+            consecutiveFailures = 0;
+        }
+
+        private void outcome(boolean failed) {
+            failureRate += ALPHA * ((failed ? 1 : 0) - failureRate);
+            samples++;
+            consecutiveFailures = failed ? consecutiveFailures + 1 : 0;
+        }
+    }
+
+    /** A node's health as reported by /api/nodes/health. */
+    public static final class Snapshot {
+        public final String nodeId;
+        public final boolean connected;
+        public final double score;
+        public final double latencyMs;
+        public final double failureRate;
+        public final double pingRttMs;
+        public final int samples;
+        public final long responses;
+        public final long errors;
+        public final long timeouts;
+        public final boolean ejected;
+        public final long ejectedForMs;
+        public final int ejectionStreak;
+        public final boolean probation;
+        public final String reason;
+
+        Snapshot(Record record, boolean connected, long now) {
+            this.nodeId = record.nodeId;
+            this.connected = connected;
+            this.score = record.score;
+            this.latencyMs = record.latencyMs;
+            this.failureRate = record.failureRate;
+            this.pingRttMs = record.pingRttMs;
+            this.samples = record.samples;
+            this.responses = record.responses;
+            this.errors = record.errors;
+            this.timeouts = record.timeouts;
+            this.ejectedForMs = Math.max(0, record.ejectedUntil - now);
+            this.ejected = ejectedForMs > 0;
+            this.ejectionStreak = record.ejectionStreak;
+            this.probation = record.probation;
+            this.reason = record.reason;
+        }
+    }
+
+    private final NodeRegistry nodeRegistry;
+    private final int consecutiveFailures;
+    private final int minSamples;
+    private final double maxFailureRate;
+    private final double outlierFactor;
+    private final double outlierFloorMs;
+    private final long ejectionBaseMs;
+    private final long ejectionMaxMs;
+    private final int maxEjectedPercent;
+    private final ConcurrentHashMap<String, Record> records = new ConcurrentHashMap<>();
+    private final LongAdder ejections = new LongAdder();
+
+    public NodeHealth(NodeRegistry nodeRegistry, RelayConfig config) {
+        this.nodeRegistry = nodeRegistry;
+        this.consecutiveFailures = config.healthConsecutiveFailures;
+        this.minSamples = Math.max(1, config.healthMinSamples);
+        this.maxFailureRate = config.healthMaxFailurePercent / 100.0;
+        this.outlierFactor = config.healthOutlierFactor;
+        this.outlierFloorMs = config.healthOutlierFloorMs;
+        this.ejectionBaseMs = config.healthEjectionBaseMs;
+        this.ejectionMaxMs = Math.max(config.healthEjectionBaseMs, config.healthEjectionMaxMs);
+        this.maxEjectedPercent = config.healthMaxEjectedPercent;
+    }
+
+    /** Ejection needs a back-off to re-admit nodes after; with RELAY_HEALTH_EJECTION_BASE_MS 0 scores are only reported. */
+    public boolean isEjectionEnabled() {
+        return ejectionBaseMs > 0;
+    }
+
+    /** The record of nodeId, created on first use. */
+    public Record of(String nodeId) {
+        Record record = records.get(nodeId);
+        return record != null ? record : records.computeIfAbsent(nodeId, Record::new);
+    }
+
+    /** A node answered a command after latencyNanos; error if its response reported one or was malformed. */
+    public void recordResponse(NodeInfo node, long latencyNanos, boolean error) {
+        Record record = node.health;
+        if (record == null) {
+            return;
+        }
+        String ejectFor = null;
+        synchronized (record) {
+            record.responses++;
+            if (error) {
+                record.errors++;
+            }
+            if (record.isEjected()) {
+                return; // answers to commands sent before the ejection don't count against the next admission
+            }
+            double ms = latencyNanos / 1e6;
+            record.latencyMs = record.latencyMs < 0 ? ms : record.latencyMs + ALPHA * (ms - record.latencyMs);
+            record.outcome(error);
+            if (error) {
+                ejectFor = failureReason(record, "error response");
+            } else {
+                recovered(record);
+            }
+        }
+        if (ejectFor != null) {
+            eject(record, ejectFor);
+        }
+    }
+
+    /** A command to the node got no answer before its deadline. */
+    public void recordTimeout(NodeInfo node) {
+        Record record = node.health;
+        if (record == null) {
+            return;
+        }
+        String ejectFor;
+        synchronized (record) {
+            record.timeouts++;
+            if (record.isEjected()) {
+                return;
+            }
+            record.outcome(true);
+            ejectFor = failureReason(record, "timeout");
+        }
+        if (ejectFor != null) {
+            eject(record, ejectFor);
+        }
+    }
+
+    /** Pings every connected RPA node that has no ping outstanding. Scheduled by the Server. */
+    public void pingNodes() {
+        for (NodeInfo node : nodeRegistry.getAllClientNodeInfo().values()) {
+            Record record = node.health;
+            if (record == null || record.pingSentNanos != 0 || node.conn == null || !node.conn.isOpen()) {
+                continue;
+            }
+            record.pingSentNanos = System.nanoTime(); // before sending; the pong may beat the return
+            if (!node.conn.sendPing()) {
+                record.pingSentNanos = 0;
+            }
+        }
+    }
+
+    /** A pong arrived from node; completes the round trip of its outstanding ping, if any. */
+    public void pongReceived(NodeInfo node) {
+        Record record = node.health;
+        long sent = record != null ? record.pingSentNanos : 0;
+        if (sent == 0) {
+            return; // answer to the engine's own keep-alive ping
+        }
+        record.pingSentNanos = 0;
+        double ms = (System.nanoTime() - sent) / 1e6;
+        synchronized (record) {
+            record.pingRttMs = record.pingRttMs < 0 ? ms : record.pingRttMs + ALPHA * (ms - record.pingRttMs);
+        }
+    }
+
+    /**
+     * Scores every node against its peers and ejects the outliers. A score is 1 for a node that never
+     * fails and is no slower than the median, and is scaled down by its failure rate and by how many times
+     * slower than the median its latency and ping round trip are. Also forgets records of nodes that are
+     * gone and not ejected. Scheduled by the Server.
+     */
+    public void evaluate() {
+        Map<String, NodeInfo> connected = nodeRegistry.getAllClientNodeInfo();
+        List<Record> live = new ArrayList<>();
+        List<Double> latencies = new ArrayList<>();
+        List<Double> pingRtts = new ArrayList<>();
+        for (Iterator<Record> it = records.values().iterator(); it.hasNext(); ) {
+            Record record = it.next();
+            NodeInfo node = connected.get(record.nodeId);
+            if (node == null || node.role != Role.CLIENT_NODE) {
+                if (!record.isEjected()) {
+                    it.remove();
+                }
+                continue;
+            }
+            synchronized (record) {
+                if (record.isEjected()) {
+                    continue;
+                }
+                if (record.ejectedUntil != 0) {
+                    record.ejectedUntil = 0;
+                    logger.info("NodeHealth: Node {} is back in dispatch on probation after its ejection ({}).", record.nodeId, record.reason);
+                }
+                live.add(record);
+                if (record.samples >= minSamples && record.latencyMs >= 0) {
+                    latencies.add(record.latencyMs);
+                }
+                if (record.pingRttMs >= 0) {
+                    pingRtts.add(record.pingRttMs);
+                }
+            }
+        }
+        double medianLatency = latencies.size() >= MIN_PEERS ? median(latencies) : 0;
+        double medianPingRtt = pingRtts.size() >= MIN_PEERS ? median(pingRtts) : 0;
+
+        List<Record> outliers = new ArrayList<>();
+        Map<Record, String> reasons = new HashMap<>();
+        for (Record record : live) {
+            synchronized (record) {
+                boolean sampled = record.samples >= minSamples;
+                double latencyRatio = sampled && medianLatency > 0 ? record.latencyMs / medianLatency : 0;
+                double pingRatio = record.pingRttMs >= 0 && medianPingRtt > 0 ? record.pingRttMs / medianPingRtt : 0;
+                record.score = (1 - record.failureRate) / Math.max(1, latencyRatio) / Math.max(1, pingRatio);
+                String reason = null;
+                if (sampled && record.failureRate > maxFailureRate) {
+                    reason = String.format("%.0f%% of recent commands failed", record.failureRate * 100);
+                } else if (latencyRatio > outlierFactor && record.latencyMs > outlierFloorMs) {
+                    reason = String.format("latency of %.0f ms is %.1fx the median", record.latencyMs, latencyRatio);
+                } else if (pingRatio > outlierFactor && record.pingRttMs > outlierFloorMs) {
+                    reason = String.format("ping round trip of %.0f ms is %.1fx the median", record.pingRttMs, pingRatio);
+                }
+                if (reason != null) {
+                    outliers.add(record);
+                    reasons.put(record, reason);
+                }
+            }
+        }
+        // Worst first, in case the ejection limit only lets some of them go
+        outliers.sort(Comparator.comparingDouble(record -> record.score));
+        for (Record record : outliers) {
+            eject(record, reasons.get(record));
+        }
+    }
+
+    /** Every node's health, lowest score first; ejected nodes lead. */
+    public List<Snapshot> snapshot() {
+        Map<String, NodeInfo> connected = nodeRegistry.getAllClientNodeInfo();
+        long now = System.currentTimeMillis();
+        List<Snapshot> snapshots = new ArrayList<>(records.size());
+        for (Record record : records.values()) {
+            NodeInfo node = connected.get(record.nodeId);
+            synchronized (record) {
+                snapshots.add(new Snapshot(record, node != null && node.health == record, now));
+            }
+        }
+        snapshots.sort(Comparator.comparing((Snapshot s) -> !s.ejected).thenComparingDouble(s -> s.score));
+        return snapshots;
+    }
+
+    public int getEjectedCount() {
+        int count = 0;
+        for (Record record : records.values()) {
+            if (record.isEjected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getEjections() {
+        return ejections.sum();
+    }
+
+    /** Why record has to be ejected after a failure, or null. Called with the record locked. */
+    private String failureReason(Record record, String failure) {
+        if (record.probation) {
+            return failure + " on probation";
+        }
+        if (consecutiveFailures > 0 && record.consecutiveFailures >= consecutiveFailures) {
+            return record.consecutiveFailures + " failures in a row (last: " + failure + ")";
+        }
+        return null;
+    }
+
+    /** Ends the ejection streak of a node on probation once it has answered cleanly enough times. Record locked. */
+    private void recovered(Record record) {
+        if (record.probation && record.samples >= minSamples && record.consecutiveFailures == 0) {
+            record.probation = false;
+            record.ejectionStreak = 0;
+            logger.info("NodeHealth: Node {} is healthy again after {} clean outcomes.", record.nodeId, record.samples);
+        }
+    }
+
+    private void eject(Record record, String reason) {
+        if (!isEjectionEnabled()) {
+            return;
+        }
+        int nodes = 0;
+        for (NodeInfo node : nodeRegistry.getAllClientNodeInfo().values()) {
+            if (node.role == Role.CLIENT_NODE) {
+                nodes++;
+            }
+        }
+        int allowed = nodes * maxEjectedPercent / 100;
+        long until;
+        // Serialized so concurrent ejections can't both squeeze under the limit
+        synchronized (this) {
+            if (record.isEjected()) {
+                return;
+            }
+            int ejected = getEjectedCount();
+            if (ejected >= allowed) {
+                logger.warn("NodeHealth: Node {} should be ejected ({}), but {} of {} node(s) already are. Keeping it.", record.nodeId, reason, ejected, nodes);
+                return;
+            }
+            synchronized (record) {
+                int streak = Math.min(record.ejectionStreak, 30);
+                long backoff = Math.min(ejectionMaxMs, ejectionBaseMs << streak);
+                record.ejectionStreak++;
+                record.probation = true; // from re-admission until a clean run of outcomes
+                record.reason = reason;
+                record.score = 0;
+                record.reset();
+                until = System.currentTimeMillis() + backoff;
+                record.ejectedUntil = until;
+            }
+        }
+        nodeRegistry.parkNode(record.nodeId, until);
+        ejections.increment();
+        logger.warn("NodeHealth: Ejected node {} from dispatch for {} ms ({} ejection(s) in a row): {}.",
+                record.nodeId, until - System.currentTimeMillis(), record.ejectionStreak, reason);
+    }
+
+    private static double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(values);
+        int mid = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get(mid) : (values.get(mid - 1) + values.get(mid)) / 2;
+    }
+}
@@ -0,0 +1,151 @@
+// src/main/java/com/example/websocket/NodeListing.java
+package com.example.websocket;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.NodeStatus;
+import com.example.websocket.NodeRegistry.Role;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The /api/nodes view of the registry: a snapshot of every identified client projected to id, role, status,
+ * connectedAt, lastActivity and inFlight, sorted by id, with each row's JSON rendered once per snapshot.
+ * A snapshot is rebuilt when the registry's membership version moves, or, for the fields that change with
+ * every frame (lastActivity, inFlight), once it is older than RELAY_NODE_LISTING_MAX_AGE_MS and asked for again.
+ * A rebuild that projects to the same rows keeps the generation, and so the ETag, of the one it replaces.
+ */
+public class NodeListing {
+
+    /** One projected registry entry. */
+    static final class Row {
+        final String id;
+        final Role role;
+        final NodeStatus status;
+        final String json;
+
+        Row(NodeInfo info) {
+            this.id = info.nodeId;
+            this.role = info.role;
+            this.status = info.status;
+            this.json = project(new StringBuilder(128), info, status).toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Row && json.equals(((Row) o).json);
+        }
+
+        @Override
+        public int hashCode() {
+            return json.hashCode();
+        }
+    }
+
+    /** An immutable listing; its ETag names its content. */
+    public static final class Snapshot {
+        private final Row[] rows;
+        private final long generation;
+        private final long membershipVersion;
+        private final long builtAt;
+        private final String etag;
+
+        private Snapshot(Row[] rows, long generation, long membershipVersion, long builtAt, String etagPrefix) {
+            this.rows = rows;
+            this.generation = generation;
+            this.membershipVersion = membershipVersion;
+            this.builtAt = builtAt;
+            this.etag = "\"" + etagPrefix + "-" + generation + "\"";
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        public int size() {
+            return rows.length;
+        }
+
+        /**
+         * {"generation":g,"nodes":[...],"total":n,"offset":o,"limit":l} for the rows matching both filters
+         * (null matches anything); total counts every matching row, not just the page.
+         */
+        public String renderPage(Role role, NodeStatus status, int offset, int limit) {
+            StringBuilder sb = new StringBuilder(64 + Math.min(limit, rows.length) * 128);
+            sb.append("{\"generation\":").append(generation).append(",\"nodes\":[");
+            int matched = 0;
+            int written = 0;
+            for (Row row : rows) {
+                if ((role != null && row.role != role) || (status != null && row.status != status)) {
+                    continue;
+                }
+                if (matched++ >= offset && written < limit) {
+                    if (written++ > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(row.json);
+                }
+            }
+            sb.append("],\"total\":").append(matched)
+              .append(",\"offset\":").append(offset)
+              .append(",\"limit\":").append(limit).append('}');
+            return sb.toString();
+        }
+    }
+
+    /** Appends {"id","role","status","connectedAt","lastActivity","inFlight"} of a node, with status as read by the caller. */
+    static StringBuilder project(StringBuilder sb, NodeInfo info, NodeStatus status) {
+        sb.append("{\"id\":");
+        FrameWriter.appendQuoted(sb, info.nodeId);
+        sb.append(",\"role\":\"").append(info.role.name())
+          .append("\",\"status\":\"").append(status.name())
+          .append("\",\"connectedAt\":").append(info.connectedAt)
+          .append(",\"lastActivity\":").append(info.lastActivity)
+          .append(",\"inFlight\":").append(info.getInFlight()).append('}');
+        return sb;
+    }
+
+    private final NodeRegistry registry;
+    private final long maxAgeMs;
+    // Distinguishes this process's generations from a previous run's, so a restart can't revalidate a stale copy
+    private final String etagPrefix = Long.toHexString(System.currentTimeMillis());
+    private volatile Snapshot snapshot;
+
+    public NodeListing(NodeRegistry registry, RelayConfig config) {
+        this.registry = registry;
+        this.maxAgeMs = config.nodeListingMaxAgeMs;
+        this.snapshot = new Snapshot(new Row[0], 0, -1, 0, etagPrefix);
+    }
+
+    /** The current snapshot, rebuilt first if the registry changed or the snapshot is past its maximum age. */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (isFresh(current, System.currentTimeMillis())) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            long now = System.currentTimeMillis();
+            if (isFresh(current, now)) {
+                return current; // another poller rebuilt it
+            }
+            // Read the version first: a change racing the copy then forces another rebuild instead of being missed
+            long version = registry.getMembershipVersion();
+            List<Row> rows = new ArrayList<>();
+            for (NodeInfo info : registry.getAllClientNodeInfo().values()) {
+                rows.add(new Row(info));
+            }
+            Row[] sorted = rows.toArray(new Row[0]);
+            Arrays.sort(sorted, Comparator.comparing((Row row) -> row.id));
+            long generation = Arrays.equals(sorted, current.rows) ? current.generation : current.generation + 1;
+            snapshot = new Snapshot(sorted, generation, version, now, etagPrefix);
+            return snapshot;
+        }
+    }
+
+    private boolean isFresh(Snapshot s, long now) {
+        return s.membershipVersion == registry.getMembershipVersion() && now - s.builtAt < maxAgeMs;
+    }
+}
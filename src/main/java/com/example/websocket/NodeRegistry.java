@@ -1,17 +1,22 @@
 // src/main/java/com/example/websocket/NodeRegistry.java
 package com.example.websocket;
 
-import org.java_websocket.WebSocket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NodeRegistry {
     private static final Logger logger = LoggerFactory.getLogger(NodeRegistry.class);
@@ -22,25 +27,43 @@ public class NodeRegistry {
     }
 
     public static class NodeInfo {
-        public final WebSocket conn;
+        public final RelayConnection conn;
         public volatile long lastActivity;
         public volatile NodeStatus status;
         public final long connectedAt;
         public final String nodeId;
         public volatile boolean authenticated = false;
         public final Role role;
+        public final Set<String> capabilities;
+        // Requests dispatched to this node and not yet answered; maintained by CapabilityIndex
+        volatile int inFlight = 0;
+        transient CapabilityIndex.Link[] indexLinks = null;
+        // While ejected, when the index puts the node back in its buckets; 0 if it isn't parked. Guarded by the index
+        transient long parkedUntil = 0;
+        // Rolling health of an RPA node, shared by its connections; set by the registry before the node is indexed
+        transient NodeHealth.Record health = null;
+        // Lifecycle deadlines; set by the registry when it starts tracking the connection
+        volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+        volatile long disconnectAt = Long.MAX_VALUE;
+        transient LifecycleWheel.Timer idleTimer = null;
+        transient LifecycleWheel.Timer lifespanTimer = null;
+
+        private static final long DEFAULT_IDLE_TIMEOUT_MS = 30000; // 30 seconds
+
+        public NodeInfo(String nodeId, RelayConnection conn, Role role) {
+            this(nodeId, conn, role, Collections.emptySet());
+        }
 
-        private static final long IDLE_TIMEOUT_MS = 30000; // 30 seconds
-        private static final long CONNECTION_LIFESPAN_MS = 30 * 60 * 1000; // 30 minutes
-
-        public NodeInfo(String nodeId, WebSocket conn, Role role) {
+        public NodeInfo(String nodeId, RelayConnection conn, Role role, Set<String> capabilities) {
             this.conn = conn;
+            this.capabilities = capabilities;
             this.lastActivity = System.currentTimeMillis();
             this.connectedAt = this.lastActivity;
             this.status = NodeStatus.ACTIVE;
             this.nodeId = nodeId;
             this.role = role;
-            if (role == Role.CLIENT_NODE || role == Role.BATCH_SERVER_CLIENT) {
+            if (role == Role.CLIENT_NODE || role == Role.BATCH_SERVER_CLIENT || role == Role.INCOMING_TEST_MASTER
+                    || role == Role.RELAY_PEER || role == Role.NODE_EVENT_SUBSCRIBER) {
                 this.authenticated = true;
             }
         }
@@ -53,35 +76,91 @@ public class NodeRegistry {
             this.status = NodeStatus.ACTIVE;
         }
 
+        public int getInFlight() {
+            return inFlight;
+        }
+
         public boolean isIdle() {
-            return System.currentTimeMillis() - lastActivity > IDLE_TIMEOUT_MS;
+            return System.currentTimeMillis() - lastActivity > idleTimeoutMs;
         }
 
         public boolean shouldDisconnect() {
-            return System.currentTimeMillis() - connectedAt >= CONNECTION_LIFESPAN_MS;
+            return System.currentTimeMillis() >= disconnectAt;
         }
     }
 
     public enum Role {
         CLIENT_NODE,
         INCOMING_TEST_MASTER,
-        BATCH_SERVER_CLIENT
+        BATCH_SERVER_CLIENT,
+        /** Another relay of the cluster; nodeId is its relayId. */
+        RELAY_PEER,
+        /** A dashboard or batch server watching registry changes on /ws/node_events. */
+        NODE_EVENT_SUBSCRIBER
+    }
+
+    /** What happened to an identified client. */
+    public enum Change {
+        CONNECTED,
+        DISCONNECTED,
+        /** ACTIVE/IDLE transition or a reported status. */
+        STATUS
+    }
+
+    /** Told about every change that moves the membership version, on the thread that made it. Must not block. */
+    public interface ChangeListener {
+        void nodeChanged(NodeInfo info, Change change);
     }
 
     private final ConcurrentHashMap<String, NodeInfo> identifiedClientsById;
-    private final ConcurrentHashMap<WebSocket, NodeInfo> allConnectionsByWebSocket;
-    private volatile WebSocket incomingTestMasterWebSocket = null;
+    private final ConcurrentHashMap<RelayConnection, NodeInfo> allConnectionsByWebSocket;
+    // Pool of Incoming Test Master connections by member id; see registerIncomingTestMaster
+    private final ConcurrentHashMap<String, NodeInfo> incomingTestMasters = new ConcurrentHashMap<>();
+    private final AtomicLong incomingTestMasterSequence = new AtomicLong();
+    private final int incomingTestMasterPoolMax;
     private final ScheduledExecutorService scheduler;
+    private final CapabilityIndex capabilityIndex = new CapabilityIndex();
+    private final NodeHealth health;
+    // Bumped when an identified client joins, leaves or changes status; not on plain traffic or load changes
+    private final AtomicLong membershipVersion = new AtomicLong();
+    private volatile ChangeListener changeListener = null;
+
+    // Idle and lifespan deadlines of client nodes and batch clients; see advanceLifecycle()
+    private final LifecycleWheel lifecycle;
+    private final long idleTimeoutMs;
+    private final long connectionLifespanMs;
+    private final long lifespanJitterMs;
+    private final int maxLifespanDisconnectsPerSecond;
+    // Connections past their lifespan, closed at no more than maxLifespanDisconnectsPerSecond; tick thread only
+    private final ArrayDeque<NodeInfo> lifespanDisconnects = new ArrayDeque<>();
+    private double disconnectTokens;
 
     public NodeRegistry() {
+        this(RelayConfig.load());
+    }
+
+    public NodeRegistry(RelayConfig config) {
         this.identifiedClientsById = new ConcurrentHashMap<>();
         this.allConnectionsByWebSocket = new ConcurrentHashMap<>();
+        this.idleTimeoutMs = Math.max(1, config.idleTimeoutMs);
+        this.connectionLifespanMs = config.connectionLifespanMs;
+        this.lifespanJitterMs = Math.max(0, config.lifespanJitterMs);
+        this.maxLifespanDisconnectsPerSecond = Math.max(1, config.maxLifespanDisconnectsPerSecond);
+        this.incomingTestMasterPoolMax = Math.max(1, config.testMasterPoolMax);
+        // 512 slots: one revolution covers the idle timeout at the default 1 s tick
+        this.health = new NodeHealth(this, config);
+        this.lifecycle = new LifecycleWheel(config.lifecycleTickMs, 512, System.currentTimeMillis());
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(this::checkNodeStates, 10, 10, TimeUnit.SECONDS);
-        logger.info("NodeRegistry: Initialized. Node state monitoring started.");
+        scheduler.scheduleAtFixedRate(this::advanceLifecycle, lifecycle.getTickMs(), lifecycle.getTickMs(), TimeUnit.MILLISECONDS);
+        logger.info("NodeRegistry: Initialized. Idle timeout {} ms, connection lifespan {} ms (+ up to {} ms jitter, at most {} lifespan disconnects/s).",
+                idleTimeoutMs, connectionLifespanMs, lifespanJitterMs, maxLifespanDisconnectsPerSecond);
     }
 
-    public NodeInfo registerClientNode(String nodeId, WebSocket conn) {
+    public NodeInfo registerClientNode(String nodeId, RelayConnection conn) {
+        return registerClientNode(nodeId, conn, Collections.emptySet());
+    }
+
+    public NodeInfo registerClientNode(String nodeId, RelayConnection conn, Set<String> capabilities) {
         if (identifiedClientsById.containsKey(nodeId)) {
             NodeInfo existingInfo = identifiedClientsById.get(nodeId);
             if (existingInfo.conn != conn && existingInfo.conn.isOpen()) {
@@ -89,30 +168,49 @@ public class NodeRegistry {
                 existingInfo.conn.close(1000, "Replaced by new connection for same ID");
             }
             allConnectionsByWebSocket.remove(existingInfo.conn);
+            capabilityIndex.remove(existingInfo);
+            untrackLifecycle(existingInfo);
         }
 
-        NodeInfo newNodeInfo = new NodeInfo(nodeId, conn, Role.CLIENT_NODE);
+        NodeInfo newNodeInfo = new NodeInfo(nodeId, conn, Role.CLIENT_NODE, capabilities);
+        newNodeInfo.health = health.of(nodeId);
         identifiedClientsById.put(nodeId, newNodeInfo);
         allConnectionsByWebSocket.put(conn, newNodeInfo);
+        capabilityIndex.add(newNodeInfo);
+        trackLifecycle(newNodeInfo);
+        changed(newNodeInfo, Change.CONNECTED);
 
-        logger.info("NodeRegistry: RPA CLIENT_NODE '{}' registered. Total Identified Clients: {}", nodeId, identifiedClientsById.size());
+        logger.info("NodeRegistry: RPA CLIENT_NODE '{}' registered with capabilities {}. Total Identified Clients: {}", nodeId, capabilities, identifiedClientsById.size());
         return newNodeInfo;
     }
 
-    public boolean registerIncomingTestMaster(WebSocket conn) {
-        if (incomingTestMasterWebSocket == null || !incomingTestMasterWebSocket.isOpen()) {
-            incomingTestMasterWebSocket = conn;
-            allConnectionsByWebSocket.put(conn, new NodeInfo("INCOMING_TEST_MASTER", conn, Role.INCOMING_TEST_MASTER));
-            logger.info("NodeRegistry: INCOMING Test Master Server registered from {}", conn.getRemoteSocketAddress().getAddress().getHostAddress());
-            return true;
-        } else {
-            logger.warn("NodeRegistry: Another INCOMING Test Master tried to connect from {}. Only one test master allowed. Closing connection.", conn.getRemoteSocketAddress().getAddress().getHostAddress());
-            conn.close(1008, "Only one test master is allowed.");
-            return false;
+    /**
+     * Adds a connection to the pool of Incoming Test Masters, which holds up to RELAY_TEST_MASTER_POOL_MAX
+     * connections. Each member is identified as "INCOMING_TEST:" + a sequence number; that id is the source
+     * of the requests it issues, so their responses find their way back to it.
+     * @return the new member, or null if the pool is full and the connection was closed.
+     */
+    public NodeInfo registerIncomingTestMaster(RelayConnection conn) {
+        NodeInfo masterInfo;
+        int members;
+        synchronized (incomingTestMasters) {
+            if (incomingTestMasters.size() >= incomingTestMasterPoolMax) {
+                logger.warn("NodeRegistry: INCOMING Test Master pool is full ({} connections). Closing connection from {}.",
+                        incomingTestMasterPoolMax, conn.getRemoteSocketAddress().getAddress().getHostAddress());
+                conn.close(1013, "Incoming Test Master pool is full. Retry later.");
+                return null;
+            }
+            masterInfo = new NodeInfo(CommandOrchestrator.MASTER_SOURCE_PREFIX + incomingTestMasterSequence.incrementAndGet(), conn, Role.INCOMING_TEST_MASTER);
+            incomingTestMasters.put(masterInfo.nodeId, masterInfo);
+            allConnectionsByWebSocket.put(conn, masterInfo);
+            members = incomingTestMasters.size();
         }
+        logger.info("NodeRegistry: INCOMING Test Master Server '{}' registered from {}. Pool size: {}",
+                masterInfo.nodeId, conn.getRemoteSocketAddress().getAddress().getHostAddress(), members);
+        return masterInfo;
     }
 
-    public NodeInfo registerBatchServerClient(String clientId, WebSocket conn) {
+    public NodeInfo registerBatchServerClient(String clientId, RelayConnection conn) {
         if (identifiedClientsById.containsKey(clientId)) {
             NodeInfo existingInfo = identifiedClientsById.get(clientId);
             if (existingInfo.conn != conn && existingInfo.conn.isOpen()) {
@@ -120,17 +218,39 @@ public class NodeRegistry {
                 existingInfo.conn.close(1000, "Replaced by new connection for same ID");
             }
             allConnectionsByWebSocket.remove(existingInfo.conn);
+            untrackLifecycle(existingInfo);
         }
 
         NodeInfo newClientInfo = new NodeInfo(clientId, conn, Role.BATCH_SERVER_CLIENT);
         identifiedClientsById.put(clientId, newClientInfo);
         allConnectionsByWebSocket.put(conn, newClientInfo);
+        trackLifecycle(newClientInfo);
+        changed(newClientInfo, Change.CONNECTED);
 
         logger.info("NodeRegistry: Registered Batch Server Client: {}. Total Identified Clients: {}", clientId, identifiedClientsById.size());
         return newClientInfo;
     }
 
-    public WebSocket getBatchServerClientWebSocket(String clientId) {
+    /**
+     * Registers one link to a peer relay. Peers are tracked by connection only; a relay may hold several
+     * links to the same peer, and relayIds never collide with node or client IDs.
+     */
+    public NodeInfo registerRelayPeer(String relayId, RelayConnection conn) {
+        NodeInfo peerInfo = new NodeInfo(relayId, conn, Role.RELAY_PEER);
+        allConnectionsByWebSocket.put(conn, peerInfo);
+        logger.info("NodeRegistry: Registered link to peer relay '{}'.", relayId);
+        return peerInfo;
+    }
+
+    /** A connection watching registry changes; tracked by connection only, like relay peers. */
+    public NodeInfo registerNodeEventSubscriber(RelayConnection conn) {
+        NodeInfo subscriberInfo = new NodeInfo("subscriber@" + conn.getRemoteSocketAddress(), conn, Role.NODE_EVENT_SUBSCRIBER);
+        allConnectionsByWebSocket.put(conn, subscriberInfo);
+        logger.info("NodeRegistry: Registered node event subscriber {}.", subscriberInfo.nodeId);
+        return subscriberInfo;
+    }
+
+    public RelayConnection getBatchServerClientWebSocket(String clientId) {
         NodeInfo info = identifiedClientsById.get(clientId);
         if (info != null && info.role == Role.BATCH_SERVER_CLIENT && info.conn != null && info.conn.isOpen()) {
             return info.conn;
@@ -138,15 +258,24 @@ public class NodeRegistry {
         return null;
     }
 
-    public NodeInfo unregisterConnection(WebSocket conn) {
+    public NodeInfo unregisterConnection(RelayConnection conn) {
         NodeInfo info = allConnectionsByWebSocket.remove(conn);
         if (info != null) {
             if (info.role == Role.CLIENT_NODE || info.role == Role.BATCH_SERVER_CLIENT) {
-                identifiedClientsById.remove(info.nodeId);
+                boolean current = identifiedClientsById.remove(info.nodeId, info);
+                capabilityIndex.remove(info);
+                untrackLifecycle(info);
+                if (current) {
+                    changed(info, Change.DISCONNECTED);
+                }
                 logger.warn("NodeRegistry: {} '{}' disconnected. Total Identified Clients: {}", info.role, info.nodeId, identifiedClientsById.size());
             } else if (info.role == Role.INCOMING_TEST_MASTER) {
-                logger.warn("NodeRegistry: INCOMING Test Master Server disconnected.");
-                incomingTestMasterWebSocket = null;
+                incomingTestMasters.remove(info.nodeId, info);
+                logger.warn("NodeRegistry: INCOMING Test Master Server '{}' disconnected. Pool size: {}", info.nodeId, incomingTestMasters.size());
+            } else if (info.role == Role.RELAY_PEER) {
+                logger.warn("NodeRegistry: Link to peer relay '{}' disconnected.", info.nodeId);
+            } else if (info.role == Role.NODE_EVENT_SUBSCRIBER) {
+                logger.info("NodeRegistry: Node event subscriber {} disconnected.", info.nodeId);
             }
         } else {
             logger.warn("NodeRegistry: Attempted to unregister an unknown connection.");
@@ -158,16 +287,21 @@ public class NodeRegistry {
         return identifiedClientsById.get(id);
     }
 
-    public NodeInfo getNodeInfoByConnection(WebSocket conn) {
+    public NodeInfo getNodeInfoByConnection(RelayConnection conn) {
         return allConnectionsByWebSocket.get(conn);
     }
 
-    public boolean isIncomingTestMaster(WebSocket conn) {
-        return conn.equals(incomingTestMasterWebSocket);
+    /** The open connection of the Incoming Test Master pool member with this id, or null. */
+    public RelayConnection getIncomingTestMasterWebSocket(String memberId) {
+        NodeInfo info = incomingTestMasters.get(memberId);
+        if (info != null && info.conn != null && info.conn.isOpen()) {
+            return info.conn;
+        }
+        return null;
     }
 
-    public WebSocket getIncomingTestMasterWebSocket() {
-        return incomingTestMasterWebSocket;
+    public Collection<NodeInfo> getIncomingTestMasters() {
+        return Collections.unmodifiableCollection(incomingTestMasters.values());
     }
 
     public Map<String, NodeInfo> getActiveClientNodes() {
@@ -181,10 +315,45 @@ public class NodeRegistry {
         return Collections.unmodifiableMap(activeNodes);
     }
 
+    /** Every connection the registry knows about, including the test master. */
+    public Collection<NodeInfo> getAllConnectionInfo() {
+        return Collections.unmodifiableCollection(allConnectionsByWebSocket.values());
+    }
+
     public Map<String, NodeInfo> getAllClientNodeInfo() {
         return Collections.unmodifiableMap(identifiedClientsById);
     }
 
+    public NodeHealth getNodeHealth() {
+        return health;
+    }
+
+    /** Changes whenever getAllClientNodeInfo() gains or loses an entry or one changes status. */
+    public long getMembershipVersion() {
+        return membershipVersion.get();
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    private void changed(NodeInfo info, Change change) {
+        membershipVersion.incrementAndGet();
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.nodeChanged(info, change);
+        }
+    }
+
+    /** Notes traffic from a connection; an IDLE client becomes ACTIVE again. */
+    public void recordActivity(NodeInfo info) {
+        boolean wasIdle = info.status == NodeStatus.IDLE;
+        info.updateActivity();
+        if (wasIdle && identifiedClientsById.get(info.nodeId) == info) {
+            changed(info, Change.STATUS);
+        }
+    }
+
     public boolean disconnectClientNode(String id) {
         NodeInfo info = identifiedClientsById.get(id); // Get info first, don't remove yet
         if (info != null && info.conn != null && info.conn.isOpen()) {
@@ -197,12 +366,56 @@ public class NodeRegistry {
         return false;
     }
 
+    /**
+     * Chooses the least-loaded connected, non-ejected RPA node advertising every selector token and counts the request against it.
+     * An empty selector matches any node; nodes with maxInFlight requests (0 for no limit) are passed over.
+     * @return the chosen node, or null if none matches or every match is at the limit.
+     */
+    public NodeInfo acquireLeastLoadedNode(Set<String> selector, int maxInFlight) {
+        return capabilityIndex.acquireLeastLoaded(selector, maxInFlight);
+    }
+
+    /**
+     * Every connected, non-ejected RPA node advertising all selector tokens, least loaded first, ACTIVE or IDLE.
+     * An empty selector matches all nodes.
+     */
+    public List<NodeInfo> findDispatchableNodes(Set<String> selector) {
+        return capabilityIndex.matchAll(selector);
+    }
+
+    /** Keeps nodeId's current connection out of selectors and broadcasts until the given time; see {@link NodeHealth}. */
+    void parkNode(String nodeId, long until) {
+        NodeInfo info = identifiedClientsById.get(nodeId);
+        if (info != null && info.role == Role.CLIENT_NODE) {
+            capabilityIndex.park(info, until);
+        }
+    }
+
+    /** Counts a request dispatched to a specific node against its load. */
+    public void acquireNode(NodeInfo info) {
+        capabilityIndex.acquire(info);
+    }
+
+    /** Counts a request against a specific node unless it has maxInFlight requests already (0 for no limit). */
+    public boolean tryAcquireNode(NodeInfo info, int maxInFlight) {
+        return capabilityIndex.tryAcquire(info, maxInFlight);
+    }
+
+    /** Marks one of the node's requests as finished (answered, timed out or not sent). */
+    public void releaseNode(NodeInfo info) {
+        capabilityIndex.release(info);
+    }
+
     public void updateNodeStatus(String nodeId, String newStatus) {
         NodeInfo info = identifiedClientsById.get(nodeId);
         if (info != null && info.role == Role.CLIENT_NODE) { // Only update status for actual RPA nodes
             try {
+                NodeStatus previous = info.status;
                 info.status = NodeStatus.valueOf(newStatus.toUpperCase());
                 info.updateActivity();
+                if (info.status != previous) {
+                    changed(info, Change.STATUS);
+                }
                 logger.info("NodeRegistry: RPA Node '{}' status updated to: {}", nodeId, newStatus);
             } catch (IllegalArgumentException e) {
                 logger.warn("NodeRegistry: Invalid status '{}' received for RPA Node '{}'.", newStatus, nodeId);
@@ -212,30 +425,98 @@ public class NodeRegistry {
         }
     }
 
-    private void checkNodeStates() {
-        new HashSet<>(allConnectionsByWebSocket.keySet()).forEach(conn -> {
-            NodeInfo info = allConnectionsByWebSocket.get(conn);
-            if (info == null || !conn.isOpen()) {
-                if (info != null) {
-                    logger.debug("NodeRegistry: Found closed/null connection for {}. Unregistering.", info.nodeId);
-                }
-                unregisterConnection(conn);
-                return;
-            }
+    /** Connections past their lifespan that are still waiting for a disconnect slot. */
+    public synchronized int getPendingLifespanDisconnects() {
+        return lifespanDisconnects.size();
+    }
 
-            if (info.role == Role.CLIENT_NODE || info.role == Role.BATCH_SERVER_CLIENT) {
-                if (info.status == NodeStatus.ACTIVE && info.isIdle()) {
-                    info.status = NodeStatus.IDLE;
-                    logger.info("NodeRegistry: {} '{}' marked as IDLE.", info.role, info.nodeId);
-                }
+    // --- Lifecycle tracking ---
+
+    /**
+     * Arms the idle check and the lifespan deadline of a client node or batch client. The lifespan is
+     * spread by a random jitter so connections made together (e.g. after a deploy) are not all dropped
+     * on the same tick.
+     */
+    private void trackLifecycle(NodeInfo info) {
+        info.idleTimeoutMs = idleTimeoutMs;
+        info.idleTimer = new LifecycleWheel.Timer(info, LifecycleWheel.Kind.IDLE);
+        lifecycle.schedule(info.idleTimer, info.lastActivity + idleTimeoutMs);
+        if (connectionLifespanMs > 0) {
+            long jitter = lifespanJitterMs > 0 ? ThreadLocalRandom.current().nextLong(lifespanJitterMs + 1) : 0;
+            info.disconnectAt = info.connectedAt + connectionLifespanMs + jitter;
+            info.lifespanTimer = new LifecycleWheel.Timer(info, LifecycleWheel.Kind.LIFESPAN);
+            lifecycle.schedule(info.lifespanTimer, info.disconnectAt);
+        }
+    }
 
-                if (info.shouldDisconnect()) {
-                    logger.warn("NodeRegistry: {} '{}' has exceeded its connection lifespan ({} mins). Disconnecting.",
-                                 info.role, info.nodeId, NodeInfo.CONNECTION_LIFESPAN_MS / (60 * 1000));
-                    disconnectClientNode(info.nodeId); // Call disconnectClientNode here
+    private void untrackLifecycle(NodeInfo info) {
+        lifecycle.cancel(info.idleTimer);
+        lifecycle.cancel(info.lifespanTimer);
+    }
+
+    /**
+     * Runs every lifecycle tick: handles only the timers that are due, then closes queued lifespan
+     * disconnects within the per-second budget. Activity does not touch the wheel; an idle timer that
+     * fires for a connection seen since is re-armed from its last activity instead.
+     */
+    private void advanceLifecycle() {
+        try {
+            long now = System.currentTimeMillis();
+            for (LifecycleWheel.Timer timer : lifecycle.advance(now)) {
+                NodeInfo info = timer.node;
+                if (allConnectionsByWebSocket.get(info.conn) != info) {
+                    continue; // replaced or unregistered concurrently
                 }
+                if (!info.conn.isOpen()) {
+                    logger.debug("NodeRegistry: Found closed connection for {}. Unregistering.", info.nodeId);
+                    unregisterConnection(info.conn);
+                } else if (timer.kind == LifecycleWheel.Kind.LIFESPAN) {
+                    synchronized (this) {
+                        lifespanDisconnects.add(info);
+                    }
+                } else if (now - info.lastActivity > idleTimeoutMs) {
+                    if (info.status == NodeStatus.ACTIVE) {
+                        info.status = NodeStatus.IDLE;
+                        changed(info, Change.STATUS);
+                        logger.info("NodeRegistry: {} '{}' marked as IDLE.", info.role, info.nodeId);
+                    }
+                    // Keep checking idle connections at the idle interval so closed sockets are still noticed
+                    lifecycle.schedule(timer, now + idleTimeoutMs);
+                } else {
+                    lifecycle.schedule(timer, info.lastActivity + idleTimeoutMs);
+                }
+            }
+            drainLifespanDisconnects();
+        } catch (RuntimeException e) {
+            logger.error("NodeRegistry: Lifecycle tick failed.", e);
+        }
+    }
+
+    private void drainLifespanDisconnects() {
+        List<NodeInfo> closing;
+        synchronized (this) {
+            if (lifespanDisconnects.isEmpty()) {
+                disconnectTokens = 0;
+                return;
+            }
+            disconnectTokens = Math.min(maxLifespanDisconnectsPerSecond,
+                    disconnectTokens + maxLifespanDisconnectsPerSecond * lifecycle.getTickMs() / 1000.0);
+            closing = new ArrayList<>();
+            while (disconnectTokens >= 1 && !lifespanDisconnects.isEmpty()) {
+                closing.add(lifespanDisconnects.poll());
+                disconnectTokens--;
             }
-        });
+            if (!lifespanDisconnects.isEmpty()) {
+                logger.debug("NodeRegistry: {} connection(s) past their lifespan are waiting to be disconnected.", lifespanDisconnects.size());
+            }
+        }
+        for (NodeInfo info : closing) {
+            if (allConnectionsByWebSocket.get(info.conn) == info && info.conn.isOpen()) {
+                logger.warn("NodeRegistry: {} '{}' has exceeded its connection lifespan ({} mins). Disconnecting.",
+                        info.role, info.nodeId, (info.disconnectAt - info.connectedAt) / (60 * 1000));
+                info.conn.close(1000, "Connection lifespan exceeded");
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
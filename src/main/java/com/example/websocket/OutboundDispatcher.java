@@ -0,0 +1,128 @@
+// src/main/java/com/example/websocket/OutboundDispatcher.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.websocket.OutboundQueue.SendResult;
+
+/**
+ * Owns the per-connection {@link OutboundQueue}s. Every frame the relay writes goes through here
+ * instead of writing to the RelayConnection directly. Queues are stored as the connection's attachment;
+ * the ones holding a backlog are pumped on the scheduler until they drain.
+ */
+public class OutboundDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundDispatcher.class);
+
+    final long highWaterBytes;
+    final long lowWaterBytes;
+    final int highWaterFrames;
+    final int lowWaterFrames;
+    final int socketWindowFrames;
+
+    private final Set<OutboundQueue> backlogged = ConcurrentHashMap.newKeySet();
+    // Totals across every connection, including closed ones
+    private final LongAdder sentFrames = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+
+    public OutboundDispatcher(RelayConfig config, ScheduledExecutorService scheduler) {
+        this.highWaterBytes = config.outboundHighWaterBytes;
+        this.lowWaterBytes = Math.min(config.outboundLowWaterBytes, config.outboundHighWaterBytes);
+        this.highWaterFrames = config.outboundHighWaterFrames;
+        this.lowWaterFrames = Math.min(config.outboundLowWaterFrames, config.outboundHighWaterFrames);
+        this.socketWindowFrames = Math.max(1, config.outboundSocketWindowFrames);
+        scheduler.scheduleWithFixedDelay(this::pumpBacklogged, config.outboundPumpIntervalMs, config.outboundPumpIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("OutboundDispatcher: Initialized. High water {} bytes / {} frames, low water {} bytes / {} frames.",
+                highWaterBytes, highWaterFrames, lowWaterBytes, lowWaterFrames);
+    }
+
+    /** Creates and attaches the queue for a newly opened connection. */
+    public OutboundQueue attach(RelayConnection conn) {
+        OutboundQueue queue = new OutboundQueue(conn, this);
+        conn.setAttachment(queue);
+        return queue;
+    }
+
+    /** Discards the queue of a closed connection. */
+    public void detach(RelayConnection conn) {
+        OutboundQueue queue = conn.getAttachment();
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    public OutboundQueue queueFor(RelayConnection conn) {
+        OutboundQueue queue = conn.getAttachment();
+        if (queue == null) {
+            synchronized (conn) {
+                queue = conn.getAttachment();
+                if (queue == null) {
+                    queue = attach(conn);
+                }
+            }
+        }
+        return queue;
+    }
+
+    public SendResult send(RelayConnection conn, String frame) {
+        return queueFor(conn).send(frame);
+    }
+
+    public SendResult trySend(RelayConnection conn, String frame) {
+        return queueFor(conn).trySend(frame);
+    }
+
+    public SendResult send(RelayConnection conn, OutboundQueue.RelayedBinary frame) {
+        return queueFor(conn).send(frame);
+    }
+
+    public SendResult trySend(RelayConnection conn, EncodedFrame frame) {
+        return queueFor(conn).trySend(frame);
+    }
+
+    public boolean isCongested(RelayConnection conn) {
+        return queueFor(conn).isCongested();
+    }
+
+    public int getBackloggedCount() {
+        return backlogged.size();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.sum();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    void recordSent(int bytes) {
+        sentFrames.increment();
+        sentBytes.add(bytes);
+    }
+
+    // Both are called with the queue's monitor held, so a queue can't be dropped from the set while a frame is being added
+    void markBacklogged(OutboundQueue queue) {
+        backlogged.add(queue);
+    }
+
+    void markDrained(OutboundQueue queue) {
+        backlogged.remove(queue);
+    }
+
+    private void pumpBacklogged() {
+        try {
+            for (OutboundQueue queue : backlogged) {
+                queue.pump();
+            }
+        } catch (Exception e) {
+            logger.error("OutboundDispatcher: Error while pumping outbound queues: {}", e.getMessage(), e);
+        }
+    }
+}
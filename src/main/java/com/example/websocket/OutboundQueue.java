@@ -0,0 +1,314 @@
+// src/main/java/com/example/websocket/OutboundQueue.java
+package com.example.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Relay-side send queue for one connection.
+ *
+ * Frames are handed to the transport only while its own (unbounded) socket queue holds fewer than
+ * socketWindowFrames frames; everything beyond that waits here, where it is counted in frames and
+ * (approximate, one byte per char for strings) bytes. Queued frames are Strings, MessagePack byte arrays,
+ * shared {@link EncodedFrame}s or {@link RelayedBinary} stream chunks. Crossing the high water mark marks the
+ * connection congested until the backlog drains below the low water mark; while congested, {@link #trySend}
+ * refuses frames.
+ *
+ * Transcoding to MessagePack happens in the offering thread before the queue's monitor is taken, and the
+ * {@link RelayedBinary#onWritten} hooks run after it is released, so neither holds up other senders.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    public enum SendResult {
+        /** Handed to the socket immediately. */
+        SENT,
+        /** Accepted and waiting in the relay-side queue. */
+        QUEUED,
+        /** Refused because the connection is congested. */
+        BUSY,
+        /** The connection is closed; the frame was dropped. */
+        CLOSED
+    }
+
+    /** Wire form of the frames written to this connection; chosen by the peer at identification. */
+    public enum Encoding {
+        JSON,
+        MSGPACK
+    }
+
+    /**
+     * A binary frame relayed as-is (a stream chunk), with a hook run once it has been handed to the socket.
+     * The hook runs outside this queue's monitor, so it may take other queues' locks.
+     */
+    public static final class RelayedBinary {
+        final ByteBuffer data;
+        final Runnable onWritten;
+
+        public RelayedBinary(ByteBuffer data, Runnable onWritten) {
+            this.data = data;
+            this.onWritten = onWritten;
+        }
+    }
+
+    /** Point-in-time view of a queue, for the API. */
+    public static final class Stats {
+        public final String id;
+        public final String role;
+        public final String remoteAddress;
+        public final String encoding;
+        public final int queuedFrames;
+        public final long queuedBytes;
+        public final int socketFrames;
+        public final boolean congested;
+        public final long sentFrames;
+        public final long sentBytes;
+        public final long rejectedFrames;
+        public final long congestionEvents;
+
+        Stats(String id, String role, OutboundQueue q) {
+            this.id = id;
+            this.role = role;
+            this.remoteAddress = String.valueOf(q.conn.getRemoteSocketAddress());
+            this.encoding = q.encoding.name();
+            this.queuedFrames = q.backlog.size();
+            this.queuedBytes = q.queuedBytes;
+            this.socketFrames = q.socketFrames();
+            this.congested = q.congested;
+            this.sentFrames = q.sentFrames;
+            this.sentBytes = q.sentBytes;
+            this.rejectedFrames = q.rejectedFrames;
+            this.congestionEvents = q.congestionEvents;
+        }
+    }
+
+    private final RelayConnection conn;
+    private final OutboundDispatcher dispatcher;
+    private final ArrayDeque<Object> backlog = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean congested;
+    private boolean closed;
+    private volatile Encoding encoding = Encoding.JSON;
+
+    private long sentFrames;
+    private long sentBytes;
+    private long rejectedFrames;
+    private long congestionEvents;
+
+    OutboundQueue(RelayConnection conn, OutboundDispatcher dispatcher) {
+        this.conn = conn;
+        this.dispatcher = dispatcher;
+    }
+
+    public RelayConnection getConnection() {
+        return conn;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /** Frames offered from now on are transcoded to this encoding. */
+    public void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    /** Queues a frame regardless of congestion. Used for responses, errors and acknowledgements. */
+    public SendResult send(String frame) {
+        return offer(frame, false);
+    }
+
+    /** Queues a frame unless the connection is congested. Used for new work such as node commands. */
+    public SendResult trySend(String frame) {
+        return offer(frame, true);
+    }
+
+    /** Queues a relayed binary frame regardless of congestion; stream credit bounds how many there can be. */
+    public SendResult send(RelayedBinary frame) {
+        return offer(frame, false);
+    }
+
+    /** Queues a pre-encoded frame unless the connection is congested. Used for broadcast commands. */
+    public SendResult trySend(EncodedFrame frame) {
+        return offer(frame, true);
+    }
+
+    private SendResult offer(Object frame, boolean rejectWhenCongested) {
+        Object queued = frame;
+        if (encoding == Encoding.MSGPACK) {
+            if (frame instanceof String) {
+                queued = MessagePackCodec.fromJson((String) frame);
+            } else if (frame instanceof EncodedFrame) {
+                ((EncodedFrame) frame).msgpackPayload();
+            }
+        }
+        SendResult result;
+        synchronized (this) {
+            result = offerLocked(queued, rejectWhenCongested);
+        }
+        if (result == SendResult.SENT && frame instanceof RelayedBinary) {
+            ((RelayedBinary) frame).onWritten.run();
+        }
+        return result;
+    }
+
+    private SendResult offerLocked(Object frame, boolean rejectWhenCongested) {
+        if (closed || !conn.isOpen()) {
+            return SendResult.CLOSED;
+        }
+        if (rejectWhenCongested && congested) {
+            rejectedFrames++;
+            return SendResult.BUSY;
+        }
+        if (backlog.isEmpty() && socketFrames() < dispatcher.socketWindowFrames) {
+            return write(frame) ? SendResult.SENT : SendResult.CLOSED;
+        }
+        backlog.addLast(frame);
+        queuedBytes += sizeOf(frame);
+        if (!congested && (queuedBytes >= dispatcher.highWaterBytes || backlog.size() >= dispatcher.highWaterFrames)) {
+            congested = true;
+            congestionEvents++;
+            logger.warn("OutboundQueue: Connection {} congested ({} frames, {} bytes queued). Rejecting new work until it drains.",
+                    conn.getRemoteSocketAddress(), backlog.size(), queuedBytes);
+        }
+        dispatcher.markBacklogged(this);
+        return SendResult.QUEUED;
+    }
+
+    /** Moves queued frames into the socket while its window has room. */
+    void pump() {
+        List<RelayedBinary> written = pumpLocked();
+        for (RelayedBinary binary : written) {
+            binary.onWritten.run();
+        }
+    }
+
+    /** @return the stream chunks written, whose hooks are still to run */
+    private synchronized List<RelayedBinary> pumpLocked() {
+        List<RelayedBinary> relayed = Collections.emptyList();
+        while (!backlog.isEmpty() && !closed && socketFrames() < dispatcher.socketWindowFrames) {
+            Object frame = backlog.pollFirst();
+            queuedBytes -= sizeOf(frame);
+            if (!write(frame)) {
+                break;
+            }
+            if (frame instanceof RelayedBinary) {
+                if (relayed.isEmpty()) {
+                    relayed = new ArrayList<>();
+                }
+                relayed.add((RelayedBinary) frame);
+            }
+        }
+        if (congested && queuedBytes <= dispatcher.lowWaterBytes && backlog.size() <= dispatcher.lowWaterFrames) {
+            congested = false;
+            logger.info("OutboundQueue: Connection {} drained below low water mark ({} frames, {} bytes queued).",
+                    conn.getRemoteSocketAddress(), backlog.size(), queuedBytes);
+        }
+        if (backlog.isEmpty() || closed) {
+            dispatcher.markDrained(this);
+        }
+        return relayed;
+    }
+
+    /** Drops anything still queued. Called once the connection has closed. */
+    synchronized void close() {
+        closed = true;
+        if (!backlog.isEmpty()) {
+            logger.info("OutboundQueue: Dropping {} undelivered frame(s) ({} bytes) for closed connection {}.",
+                    backlog.size(), queuedBytes, conn.getRemoteSocketAddress());
+        }
+        backlog.clear();
+        queuedBytes = 0;
+        congested = false;
+        dispatcher.markDrained(this);
+    }
+
+    public synchronized Stats snapshot(String id, String role) {
+        return new Stats(id, role, this);
+    }
+
+    public synchronized boolean isCongested() {
+        return congested;
+    }
+
+    public synchronized int getQueuedFrames() {
+        return backlog.size();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized long getSentFrames() {
+        return sentFrames;
+    }
+
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    public synchronized long getRejectedFrames() {
+        return rejectedFrames;
+    }
+
+    public synchronized long getCongestionEvents() {
+        return congestionEvents;
+    }
+
+    /** Frames already handed to the transport but not yet written to the socket. */
+    public int socketFrames() {
+        return conn.pendingWrites();
+    }
+
+    private static int sizeOf(Object frame) {
+        if (frame instanceof EncodedFrame) {
+            return ((EncodedFrame) frame).length();
+        }
+        if (frame instanceof RelayedBinary) {
+            return ((RelayedBinary) frame).data.remaining();
+        }
+        if (frame instanceof byte[]) {
+            return ((byte[]) frame).length;
+        }
+        return ((String) frame).length();
+    }
+
+    /**
+     * Writes a frame to the transport; what it counts as sent is its encoded payload, not its queued size.
+     * A RelayedBinary's hook is left to the caller, to run once the monitor is released.
+     */
+    private boolean write(Object frame) {
+        boolean msgpack = encoding == Encoding.MSGPACK;
+        boolean written;
+        int wireBytes;
+        if (frame instanceof RelayedBinary) {
+            RelayedBinary binary = (RelayedBinary) frame;
+            wireBytes = binary.data.remaining();
+            written = conn.sendBinary(binary.data);
+        } else if (frame instanceof EncodedFrame) {
+            written = ((EncodedFrame) frame).writeTo(conn, msgpack);
+            wireBytes = ((EncodedFrame) frame).wireLength(msgpack);
+        } else if (frame instanceof byte[]) {
+            byte[] packed = (byte[]) frame;
+            wireBytes = packed.length;
+            written = conn.sendBinary(packed);
+        } else {
+            wireBytes = RelayMetrics.utf8Length((String) frame);
+            written = conn.sendText((String) frame);
+        }
+        if (!written) {
+            close();
+            return false;
+        }
+        sentFrames++;
+        sentBytes += wireBytes;
+        dispatcher.recordSent(wireBytes);
+        return true;
+    }
+}
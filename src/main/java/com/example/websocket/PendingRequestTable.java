@@ -0,0 +1,352 @@
+// src/main/java/com/example/websocket/PendingRequestTable.java
+package com.example.websocket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Correlation table for in-flight requests: requestId -> (source, target, deadline, label, admission time).
+ * A requestId can be pending at most once. The int label is opaque to the table; the relay uses it for
+ * the metrics id of the command's action, so latency can be recorded without a lookup on response.
+ *
+ * Entries live in parallel arrays indexed by slot, with an open-addressing index (linear probing,
+ * backward-shift deletion, no tombstones) for lookup and a binary min-heap of slots ordered by deadline
+ * for expiry. Per entry that is a few array cells instead of a map node plus boxed values, and
+ * expiring N requests costs O(N log size) rather than a scan of the table.
+ *
+ * All mutations are serialized on the table's monitor. The expiry handler is never invoked
+ * while the monitor is held.
+ */
+public class PendingRequestTable<T> {
+
+    public enum Admission {
+        ADMITTED,
+        /** A request with the same requestId is already pending; the table is unchanged. */
+        DUPLICATE,
+        /** The table is full and the overflow policy is {@link OverflowPolicy#REJECT_NEW}. */
+        REJECTED_FULL
+    }
+
+    public enum OverflowPolicy {
+        /** Refuse the new request when the table is full. */
+        REJECT_NEW,
+        /** Fail the request closest to its deadline back to its originator and admit the new one. */
+        EVICT_EARLIEST_DEADLINE
+    }
+
+    /** Detached copy of an entry, handed out when it leaves the table. */
+    public static final class Entry<T> {
+        public final String requestId;
+        public final String source;
+        public final T target;
+        public final long deadline;
+        public final int label;
+        /** System.nanoTime() when the request was admitted. */
+        public final long admittedNanos;
+
+        Entry(String requestId, String source, T target, long deadline, int label, long admittedNanos) {
+            this.requestId = requestId;
+            this.source = source;
+            this.target = target;
+            this.deadline = deadline;
+            this.label = label;
+            this.admittedNanos = admittedNanos;
+        }
+    }
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<Entry<T>> expiryHandler;
+
+    // Slot storage
+    private String[] requestIds;
+    private String[] sources;
+    private Object[] targets;
+    private long[] deadlines;
+    private int[] labels;
+    private long[] admittedNanos;
+    private int[] heapPositions;
+    private int[] freeSlots;
+    private int freeCount;
+    private int slotsInUse; // high-water mark of slots ever handed out
+
+    // requestId -> slot, open addressing
+    private int[] index;
+    private int indexMask;
+
+    // Min-heap of slots by deadline
+    private int[] heap;
+    private int size;
+
+    public PendingRequestTable(int capacity, OverflowPolicy overflowPolicy, Consumer<Entry<T>> expiryHandler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.expiryHandler = expiryHandler;
+        int slots = Math.min(capacity, INITIAL_SLOTS);
+        allocateSlots(slots);
+        this.index = new int[tableSizeFor(slots * 2)];
+        Arrays.fill(index, EMPTY);
+        this.indexMask = index.length - 1;
+    }
+
+    /** Tracks a request unless one with the same requestId is already pending. */
+    public Admission put(String requestId, String source, T target, long deadline) {
+        return put(requestId, source, target, deadline, 0);
+    }
+
+    /** Tracks a labelled request unless one with the same requestId is already pending. */
+    public Admission put(String requestId, String source, T target, long deadline, int label) {
+        Entry<T> evicted = null;
+        synchronized (this) {
+            if (find(requestId) != EMPTY) {
+                return Admission.DUPLICATE;
+            }
+            if (size >= capacity) {
+                if (overflowPolicy == OverflowPolicy.REJECT_NEW) {
+                    return Admission.REJECTED_FULL;
+                }
+                evicted = removeSlot(heap[0]);
+            }
+            int slot = allocateSlot();
+            requestIds[slot] = requestId;
+            sources[slot] = source;
+            targets[slot] = target;
+            deadlines[slot] = deadline;
+            labels[slot] = label;
+            admittedNanos[slot] = System.nanoTime();
+            insertIndex(slot);
+            heap[size] = slot;
+            heapPositions[slot] = size;
+            size++;
+            siftUp(size - 1);
+        }
+        if (evicted != null) {
+            expiryHandler.accept(evicted);
+        }
+        return Admission.ADMITTED;
+    }
+
+    /** Removes and returns the entry for requestId, or null if it is not (or no longer) pending. */
+    public synchronized Entry<T> remove(String requestId) {
+        int slot = find(requestId);
+        return slot == EMPTY ? null : removeSlot(slot);
+    }
+
+    /** A copy of a pending entry, left in the table; null if requestId is not pending. */
+    @SuppressWarnings("unchecked")
+    public synchronized Entry<T> get(String requestId) {
+        int slot = find(requestId);
+        return slot == EMPTY ? null : new Entry<>(requestIds[slot], sources[slot], (T) targets[slot], deadlines[slot], labels[slot], admittedNanos[slot]);
+    }
+
+    /**
+     * Moves the deadline of a pending request, e.g. while it is still making progress.
+     * @return false if requestId is not pending.
+     */
+    public synchronized boolean extend(String requestId, long deadline) {
+        int slot = find(requestId);
+        if (slot == EMPTY) {
+            return false;
+        }
+        deadlines[slot] = deadline;
+        siftUp(heapPositions[slot]);
+        siftDown(heapPositions[slot]);
+        return true;
+    }
+
+    public synchronized boolean contains(String requestId) {
+        return find(requestId) != EMPTY;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes every entry whose deadline is at or before now and passes each to the expiry handler.
+     * @return the number of entries expired.
+     */
+    public int expire(long now) {
+        List<Entry<T>> expired = null;
+        synchronized (this) {
+            while (size > 0 && deadlines[heap[0]] <= now) {
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+                expired.add(removeSlot(heap[0]));
+            }
+        }
+        if (expired == null) {
+            return 0;
+        }
+        expired.forEach(expiryHandler);
+        return expired.size();
+    }
+
+    // --- Slot management ---
+
+    private void allocateSlots(int slots) {
+        requestIds = new String[slots];
+        sources = new String[slots];
+        targets = new Object[slots];
+        deadlines = new long[slots];
+        labels = new int[slots];
+        admittedNanos = new long[slots];
+        heapPositions = new int[slots];
+        heap = new int[slots];
+        freeSlots = new int[slots];
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotsInUse == requestIds.length) {
+            int grown = (int) Math.min(capacity, (long) requestIds.length * 2);
+            requestIds = Arrays.copyOf(requestIds, grown);
+            sources = Arrays.copyOf(sources, grown);
+            targets = Arrays.copyOf(targets, grown);
+            deadlines = Arrays.copyOf(deadlines, grown);
+            labels = Arrays.copyOf(labels, grown);
+            admittedNanos = Arrays.copyOf(admittedNanos, grown);
+            heapPositions = Arrays.copyOf(heapPositions, grown);
+            heap = Arrays.copyOf(heap, grown);
+            freeSlots = Arrays.copyOf(freeSlots, grown);
+        }
+        int slot = slotsInUse++;
+        if (slotsInUse * 2 > index.length) {
+            rehash(index.length * 2);
+        }
+        return slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<T> removeSlot(int slot) {
+        Entry<T> entry = new Entry<>(requestIds[slot], sources[slot], (T) targets[slot], deadlines[slot], labels[slot], admittedNanos[slot]);
+        removeIndex(slot);
+        int position = heapPositions[slot];
+        int last = heap[--size];
+        if (position != size) {
+            heap[position] = last;
+            heapPositions[last] = position;
+            siftUp(position);
+            siftDown(heapPositions[last]);
+        }
+        requestIds[slot] = null;
+        sources[slot] = null;
+        targets[slot] = null;
+        freeSlots[freeCount++] = slot;
+        return entry;
+    }
+
+    // --- Open-addressing index ---
+
+    private int home(String requestId) {
+        int h = requestId.hashCode();
+        return (h ^ (h >>> 16)) * 0x9E3779B1 & indexMask;
+    }
+
+    private int find(String requestId) {
+        for (int i = home(requestId); ; i = (i + 1) & indexMask) {
+            int slot = index[i];
+            if (slot == EMPTY) {
+                return EMPTY;
+            }
+            if (requestIds[slot].equals(requestId)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insertIndex(int slot) {
+        int i = home(requestIds[slot]);
+        while (index[i] != EMPTY) {
+            i = (i + 1) & indexMask;
+        }
+        index[i] = slot;
+    }
+
+    private void removeIndex(int slot) {
+        int i = home(requestIds[slot]);
+        while (index[i] != slot) {
+            i = (i + 1) & indexMask;
+        }
+        // Backward-shift deletion keeps probe sequences intact without tombstones
+        int hole = i;
+        for (int j = (hole + 1) & indexMask; index[j] != EMPTY; j = (j + 1) & indexMask) {
+            int h = home(requestIds[index[j]]);
+            boolean movable = hole <= j ? (h <= hole || h > j) : (h <= hole && h > j);
+            if (movable) {
+                index[hole] = index[j];
+                hole = j;
+            }
+        }
+        index[hole] = EMPTY;
+    }
+
+    private void rehash(int newLength) {
+        index = new int[newLength];
+        Arrays.fill(index, EMPTY);
+        indexMask = newLength - 1;
+        for (int i = 0; i < size; i++) {
+            insertIndex(heap[i]);
+        }
+    }
+
+    private static int tableSizeFor(int n) {
+        return Integer.highestOneBit(Math.max(2, n - 1)) << 1;
+    }
+
+    // --- Deadline heap ---
+
+    private void siftUp(int position) {
+        int slot = heap[position];
+        long deadline = deadlines[slot];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentSlot = heap[parent];
+            if (deadlines[parentSlot] <= deadline) {
+                break;
+            }
+            heap[position] = parentSlot;
+            heapPositions[parentSlot] = position;
+            position = parent;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    private void siftDown(int position) {
+        int slot = heap[position];
+        long deadline = deadlines[slot];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < size && deadlines[heap[right]] < deadlines[heap[child]]) {
+                child = right;
+            }
+            int childSlot = heap[child];
+            if (deadline <= deadlines[childSlot]) {
+                break;
+            }
+            heap[position] = childSlot;
+            heapPositions[childSlot] = position;
+            position = child;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+}
@@ -0,0 +1,254 @@
+// src/main/java/com/example/websocket/RelayCluster.java
+package com.example.websocket;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.Role;
+import com.example.websocket.OutboundQueue.SendResult;
+
+/**
+ * Links this relay to its peers and keeps the cluster's routing directory (nodeId -> owning relayId).
+ *
+ * Every relay dials the peer URLs in RELAY_CLUSTER_PEERS (e.g. ws://localhost:8081/ws/relay) and accepts
+ * links from relays that dial it. Both ends of a link send identify_relay, after which the link is a
+ * RELAY_PEER connection like any other: dialed links are Java-WebSocket clients whatever the transport
+ * engine, wrapped as {@link RelayConnection}s whose frames are fed to the {@link Server} as if the
+ * connection had been accepted, and writes go through the {@link OutboundDispatcher}. Traffic may flow
+ * over any open link to a relay, so two relays listing each other simply end up with two links.
+ *
+ * The directory is replicated, not shared: each relay sends its full node list when a link comes up and
+ * relay_node_up / relay_node_down as its own nodes come and go. Entries of a relay are dropped once its
+ * last link closes. Nodes connected to this relay are never in the directory; the NodeRegistry is
+ * consulted first.
+ */
+public class RelayCluster {
+    private static final Logger logger = LoggerFactory.getLogger(RelayCluster.class);
+
+    /** Point-in-time view of the cluster, for the API. */
+    public static final class Stats {
+        public final String relayId;
+        public final List<String> connectedPeers;
+        public final Map<String, Integer> remoteNodesByRelay;
+
+        Stats(String relayId, List<String> connectedPeers, Map<String, Integer> remoteNodesByRelay) {
+            this.relayId = relayId;
+            this.connectedPeers = connectedPeers;
+            this.remoteNodesByRelay = remoteNodesByRelay;
+        }
+    }
+
+    private final String relayId;
+    private final Server server;
+    private final NodeRegistry nodeRegistry;
+    private final OutboundDispatcher outbound;
+    private final List<String> peerUrls;
+    private final long reconnectMs;
+    private final List<PeerLink> dialed = new ArrayList<>();
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean stopped;
+
+    // relayId -> open links to that relay, dialed or accepted
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<RelayConnection>> peers = new ConcurrentHashMap<>();
+    // nodeId -> relayId, for nodes connected to other relays
+    private final ConcurrentHashMap<String, String> directory = new ConcurrentHashMap<>();
+
+    public RelayCluster(RelayConfig config, Server server, NodeRegistry nodeRegistry, OutboundDispatcher outbound) {
+        this.relayId = config.relayId;
+        this.server = server;
+        this.nodeRegistry = nodeRegistry;
+        this.outbound = outbound;
+        this.peerUrls = config.clusterPeers;
+        this.reconnectMs = Math.max(100, config.clusterReconnectMs);
+        logger.info("RelayCluster: Initialized as relay '{}' with {} configured peer(s).", relayId, peerUrls.size());
+    }
+
+    public String getRelayId() {
+        return relayId;
+    }
+
+    /** Dials every configured peer; links that drop are redialed every reconnectMs. Called once the server listens. */
+    public void start() {
+        for (String url : peerUrls) {
+            try {
+                PeerLink link = new PeerLink(new URI(url));
+                dialed.add(link);
+                link.connect();
+                logger.info("RelayCluster: Dialing peer relay at {}.", url);
+            } catch (URISyntaxException e) {
+                logger.error("RelayCluster: Invalid peer URL '{}' in RELAY_CLUSTER_PEERS: {}", url, e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        reconnector.shutdownNow();
+        for (PeerLink link : dialed) {
+            link.close(1001, "Relay shutting down");
+        }
+    }
+
+    /** Registers an identified link and sends it this relay's directory. Called for both ends of a link. */
+    void peerIdentified(String peerRelayId, RelayConnection conn) {
+        peers.computeIfAbsent(peerRelayId, id -> new CopyOnWriteArrayList<>()).addIfAbsent(conn);
+        List<String> nodeIds = new ArrayList<>();
+        for (NodeInfo info : nodeRegistry.getAllClientNodeInfo().values()) {
+            if (info.role == Role.CLIENT_NODE) {
+                nodeIds.add(info.nodeId);
+            }
+        }
+        outbound.send(conn, FrameWriter.relayDirectory(nodeIds));
+        logger.info("RelayCluster: Linked to relay '{}' via {}. Sent directory of {} node(s).", peerRelayId, conn.getRemoteSocketAddress(), nodeIds.size());
+    }
+
+    /** Forgets a closed link; once a relay has no link left, its nodes leave the directory. */
+    void peerClosed(String peerRelayId, RelayConnection conn) {
+        CopyOnWriteArrayList<RelayConnection> links = peers.get(peerRelayId);
+        if (links == null) {
+            return;
+        }
+        links.remove(conn);
+        if (links.isEmpty() && peers.remove(peerRelayId, links)) {
+            directory.values().removeIf(peerRelayId::equals);
+            logger.warn("RelayCluster: Lost every link to relay '{}'. Its nodes are unreachable until it reconnects.", peerRelayId);
+        }
+    }
+
+    /** Applies relay_directory, relay_node_up or relay_node_down from a peer. */
+    public void handleDirectoryFrame(String peerRelayId, FrameEnvelope envelope) {
+        String type = envelope.type();
+        if ("relay_directory".equals(type)) {
+            directory.values().removeIf(peerRelayId::equals);
+            List<String> nodeIds = envelope.nodeIds();
+            for (String nodeId : nodeIds) {
+                directory.put(nodeId, peerRelayId);
+            }
+            logger.info("RelayCluster: Relay '{}' owns {} node(s).", peerRelayId, nodeIds.size());
+        } else if ("relay_node_up".equals(type) && envelope.nodeId() != null) {
+            directory.put(envelope.nodeId(), peerRelayId);
+            logger.debug("RelayCluster: Node {} is now on relay '{}'.", envelope.nodeId(), peerRelayId);
+        } else if ("relay_node_down".equals(type) && envelope.nodeId() != null) {
+            directory.remove(envelope.nodeId(), peerRelayId);
+            logger.debug("RelayCluster: Node {} left relay '{}'.", envelope.nodeId(), peerRelayId);
+        } else {
+            logger.warn("RelayCluster: Unrecognized directory frame from relay '{}': {}", peerRelayId, envelope);
+        }
+    }
+
+    /** The relay owning a node that is not connected here, or null if no peer has announced it. */
+    public String ownerOf(String nodeId) {
+        return directory.get(nodeId);
+    }
+
+    public void announceNodeUp(String nodeId) {
+        broadcast(FrameWriter.relayNodeChange(nodeId, true));
+    }
+
+    public void announceNodeDown(String nodeId) {
+        broadcast(FrameWriter.relayNodeChange(nodeId, false));
+    }
+
+    /** Queues a frame to a peer regardless of congestion. Used for responses. */
+    public SendResult send(String peerRelayId, String frame) {
+        RelayConnection conn = linkTo(peerRelayId);
+        return conn != null ? outbound.send(conn, frame) : SendResult.CLOSED;
+    }
+
+    /** Queues a frame to a peer unless its link is congested. Used for forwarded commands. */
+    public SendResult trySend(String peerRelayId, String frame) {
+        RelayConnection conn = linkTo(peerRelayId);
+        return conn != null ? outbound.trySend(conn, frame) : SendResult.CLOSED;
+    }
+
+    /** Whether conn is a link this relay dialed (as opposed to one a peer dialed). */
+    boolean isDialedLink(RelayConnection conn) {
+        return conn instanceof JavaWebSocketConnection && ((JavaWebSocketConnection) conn).unwrap() instanceof PeerLink;
+    }
+
+    public Stats snapshot() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String owner : directory.values()) {
+            counts.merge(owner, 1, Integer::sum);
+        }
+        return new Stats(relayId, new ArrayList<>(peers.keySet()), counts);
+    }
+
+    private RelayConnection linkTo(String peerRelayId) {
+        CopyOnWriteArrayList<RelayConnection> links = peers.get(peerRelayId);
+        if (links != null) {
+            for (RelayConnection conn : links) {
+                if (conn.isOpen()) {
+                    return conn;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void broadcast(String frame) {
+        for (String peerRelayId : peers.keySet()) {
+            send(peerRelayId, frame);
+        }
+    }
+
+    /** A link this relay dialed. Its events are handed to the Server like those of an accepted connection. */
+    final class PeerLink extends WebSocketClient {
+
+        private final RelayConnection conn = JavaWebSocketConnection.of(this);
+
+        PeerLink(URI uri) {
+            super(uri);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            outbound.attach(conn);
+            outbound.send(conn, FrameWriter.identifyRelay(relayId));
+        }
+
+        @Override
+        public void onMessage(String message) {
+            server.onMessage(conn, message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            server.onMessage(conn, message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (nodeRegistry.getNodeInfoByConnection(conn) != null) {
+                server.onClose(conn, code, reason, remote);
+            } else {
+                outbound.detach(conn);
+            }
+            if (!stopped) {
+                logger.debug("RelayCluster: Link to {} closed ({}). Redialing in {} ms.", getURI(), code, reconnectMs);
+                reconnector.schedule(this::reconnect, reconnectMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.warn("RelayCluster: Link to {} failed: {}", getURI(), ex.getMessage());
+        }
+    }
+}
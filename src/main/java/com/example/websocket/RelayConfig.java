@@ -0,0 +1,312 @@
+// src/main/java/com/example/websocket/RelayConfig.java
+package com.example.websocket;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Relay tuning knobs. Values come from the process environment or an optional .env file
+ * in the working directory; anything missing or malformed falls back to its default.
+ */
+public class RelayConfig {
+    private static final Logger logger = LoggerFactory.getLogger(RelayConfig.class);
+
+    // --- Listeners ---
+    public final int wsPort;
+    public final int httpPort;
+    public final boolean reusePort;
+
+    // --- Draining for a restart ---
+    public final long drainTimeoutMs;
+    public final long drainReconnectDelayMs;
+    public final long drainReconnectJitterMs;
+
+    // --- Incoming Test Master pool ---
+    public final int testMasterPoolMax;
+
+    // --- HTTP API and node event subscriptions ---
+    public final long nodeListingMaxAgeMs;
+    public final int nodeListingMaxPage;
+    public final int nodeEventsMaxSubscribers;
+    public final int nodeEventsMaxBacklog;
+
+    // --- Transport ---
+    public final TransportEngine.Kind transport;
+    public final int connectionLostTimeoutSec;
+    public final int maxFrameBytes;
+    public final int nioEventLoops;
+    public final int nioBufferBytes;
+    public final int nioMaxPooledBuffers;
+
+    // --- Inbound threading ---
+    public final int decoderThreads;
+    public final InboundDispatcher.Mode workerMode;
+    public final int workerThreads;
+    public final int workerQueueCapacity;
+
+    // --- Cluster ---
+    public final String relayId;
+    public final List<String> clusterPeers;
+    public final long clusterReconnectMs;
+
+    // --- Connection lifecycle ---
+    public final long idleTimeoutMs;
+    public final long connectionLifespanMs;
+    public final long lifespanJitterMs;
+    public final int maxLifespanDisconnectsPerSecond;
+    public final long lifecycleTickMs;
+
+    // --- Pending request table ---
+    public final long requestTimeoutMs;
+    public final long maxRequestTimeoutMs;
+    public final int pendingRequestCapacity;
+    public final PendingRequestTable.OverflowPolicy pendingOverflowPolicy;
+    public final long pendingSweepIntervalMs;
+
+    // --- Command dispatch ---
+    public final int maxBatchCommands;
+    public final int broadcastCapacity;
+
+    // --- Node admission ---
+    public final int nodeMaxInFlight;
+    public final int admissionQueueMax;
+    public final long admissionQueueTimeoutMs;
+    public final long admissionReconnectHoldMs;
+
+    // --- Node health ---
+    public final long healthIntervalMs;
+    public final long healthPingIntervalMs;
+    public final int healthConsecutiveFailures;
+    public final int healthMinSamples;
+    public final int healthMaxFailurePercent;
+    public final int healthOutlierFactor;
+    public final long healthOutlierFloorMs;
+    public final long healthEjectionBaseMs;
+    public final long healthEjectionMaxMs;
+    public final int healthMaxEjectedPercent;
+
+    // --- Client scheduling ---
+    public final Map<String, String> clientPriorities;
+    public final Map<String, String> clientWeights;
+    public final Map<String, String> clientRateLimits;
+    public final String clientDefaultRateLimit;
+
+    // --- Result cache ---
+    public final List<String> idempotentActions;
+    public final long resultCacheTtlMs;
+    public final int resultCacheMaxEntries;
+
+    // --- Batch client sessions ---
+    public final long sessionGraceMs;
+    public final int sessionBufferMaxFrames;
+    public final long sessionBufferMaxBytes;
+    public final String sessionSpillDir;
+    public final int sessionSpillMaxBytes;
+
+    // --- Chunked streams ---
+    public final int streamWindowChunks;
+    public final int streamMaxChunkBytes;
+    public final long streamIdleTimeoutMs;
+
+    // --- Per-connection outbound queues ---
+    public final long outboundHighWaterBytes;
+    public final long outboundLowWaterBytes;
+    public final int outboundHighWaterFrames;
+    public final int outboundLowWaterFrames;
+    public final int outboundSocketWindowFrames;
+    public final long outboundPumpIntervalMs;
+
+    // --- Wire encoding ---
+    public final boolean deflateEnabled;
+    public final int deflateThresholdBytes;
+    public final int deflateLevel;
+
+    private RelayConfig(Function<String, String> env) {
+        this.wsPort = getInt(env, "RELAY_WS_PORT", 8080);
+        this.httpPort = getInt(env, "RELAY_HTTP_PORT", 4567);
+        // Lets a replacement relay bind RELAY_WS_PORT while this one drains (NIO transport only; JAVA_WEBSOCKET refuses to start)
+        this.reusePort = getBoolean(env, "RELAY_REUSE_PORT", false);
+        this.drainTimeoutMs = getLong(env, "RELAY_DRAIN_TIMEOUT_MS", 30 * 1000L);
+        this.drainReconnectDelayMs = getLong(env, "RELAY_DRAIN_RECONNECT_DELAY_MS", 1000L);
+        this.drainReconnectJitterMs = getLong(env, "RELAY_DRAIN_RECONNECT_JITTER_MS", 10 * 1000L);
+        this.testMasterPoolMax = getInt(env, "RELAY_TEST_MASTER_POOL_MAX", 16);
+        this.nodeListingMaxAgeMs = getLong(env, "RELAY_NODE_LISTING_MAX_AGE_MS", 1000L);
+        this.nodeListingMaxPage = getInt(env, "RELAY_NODE_LISTING_MAX_PAGE", 1000);
+        this.nodeEventsMaxSubscribers = getInt(env, "RELAY_NODE_EVENTS_MAX_SUBSCRIBERS", 64);
+        this.nodeEventsMaxBacklog = getInt(env, "RELAY_NODE_EVENTS_MAX_BACKLOG", 256);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.transport = getEnum(env, "RELAY_TRANSPORT", TransportEngine.Kind.JAVA_WEBSOCKET);
+        this.connectionLostTimeoutSec = getInt(env, "RELAY_CONNECTION_LOST_TIMEOUT_S", 100);
+        this.maxFrameBytes = getInt(env, "RELAY_MAX_FRAME_BYTES", 64 * 1024 * 1024);
+        this.nioEventLoops = getInt(env, "RELAY_NIO_EVENT_LOOPS", cores);
+        this.nioBufferBytes = getInt(env, "RELAY_NIO_BUFFER_BYTES", 64 * 1024);
+        this.nioMaxPooledBuffers = getInt(env, "RELAY_NIO_MAX_POOLED_BUFFERS", 1024);
+
+        this.decoderThreads = Math.max(1, getInt(env, "RELAY_DECODER_THREADS", cores));
+        this.workerMode = getEnum(env, "RELAY_WORKER_MODE", InboundDispatcher.Mode.STRIPED);
+        this.workerThreads = getInt(env, "RELAY_WORKER_THREADS", cores);
+        this.workerQueueCapacity = getInt(env, "RELAY_WORKER_QUEUE_CAPACITY", 10_000);
+
+        String id = env.apply("RELAY_ID");
+        this.relayId = id != null && !id.trim().isEmpty() ? id.trim() : "relay-" + wsPort;
+        this.clusterPeers = getList(env, "RELAY_CLUSTER_PEERS");
+        this.clusterReconnectMs = getLong(env, "RELAY_CLUSTER_RECONNECT_MS", 5000L);
+
+        this.idleTimeoutMs = getLong(env, "RELAY_IDLE_TIMEOUT_MS", 30 * 1000L);
+        this.connectionLifespanMs = getLong(env, "RELAY_CONNECTION_LIFESPAN_MS", 30 * 60 * 1000L);
+        this.lifespanJitterMs = getLong(env, "RELAY_LIFESPAN_JITTER_MS", 10 * 60 * 1000L);
+        this.maxLifespanDisconnectsPerSecond = getInt(env, "RELAY_MAX_LIFESPAN_DISCONNECTS_PER_SEC", 20);
+        this.lifecycleTickMs = getLong(env, "RELAY_LIFECYCLE_TICK_MS", 1000L);
+
+        this.requestTimeoutMs = getLong(env, "RELAY_REQUEST_TIMEOUT_MS", 5 * 60 * 1000L);
+        this.maxRequestTimeoutMs = getLong(env, "RELAY_MAX_REQUEST_TIMEOUT_MS", 60 * 60 * 1000L);
+        this.pendingRequestCapacity = getInt(env, "RELAY_PENDING_CAPACITY", 1_000_000);
+        this.pendingOverflowPolicy = getEnum(env, "RELAY_PENDING_OVERFLOW_POLICY", PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        this.pendingSweepIntervalMs = getLong(env, "RELAY_PENDING_SWEEP_MS", 1000L);
+
+        this.maxBatchCommands = getInt(env, "RELAY_MAX_BATCH_COMMANDS", 10_000);
+        this.broadcastCapacity = getInt(env, "RELAY_BROADCAST_CAPACITY", 10_000);
+
+        this.nodeMaxInFlight = getInt(env, "RELAY_NODE_MAX_IN_FLIGHT", 8);
+        this.admissionQueueMax = getInt(env, "RELAY_ADMISSION_QUEUE_MAX", 1000);
+        this.admissionQueueTimeoutMs = getLong(env, "RELAY_ADMISSION_QUEUE_TIMEOUT_MS", 30 * 1000L);
+        this.admissionReconnectHoldMs = getLong(env, "RELAY_ADMISSION_RECONNECT_HOLD_MS", 10 * 1000L);
+
+        this.healthIntervalMs = getLong(env, "RELAY_HEALTH_INTERVAL_MS", 10 * 1000L);
+        this.healthPingIntervalMs = getLong(env, "RELAY_HEALTH_PING_INTERVAL_MS", 5 * 1000L);
+        this.healthConsecutiveFailures = getInt(env, "RELAY_HEALTH_CONSECUTIVE_FAILURES", 5);
+        this.healthMinSamples = getInt(env, "RELAY_HEALTH_MIN_SAMPLES", 20);
+        this.healthMaxFailurePercent = getInt(env, "RELAY_HEALTH_MAX_FAILURE_PERCENT", 50);
+        this.healthOutlierFactor = getInt(env, "RELAY_HEALTH_OUTLIER_FACTOR", 10);
+        this.healthOutlierFloorMs = getLong(env, "RELAY_HEALTH_OUTLIER_FLOOR_MS", 100L);
+        this.healthEjectionBaseMs = getLong(env, "RELAY_HEALTH_EJECTION_BASE_MS", 10 * 1000L);
+        this.healthEjectionMaxMs = getLong(env, "RELAY_HEALTH_EJECTION_MAX_MS", 5 * 60 * 1000L);
+        this.healthMaxEjectedPercent = getInt(env, "RELAY_HEALTH_MAX_EJECTED_PERCENT", 50);
+
+        this.clientPriorities = getMap(env, "RELAY_CLIENT_PRIORITIES");
+        this.clientWeights = getMap(env, "RELAY_CLIENT_WEIGHTS");
+        this.clientRateLimits = getMap(env, "RELAY_CLIENT_RATE_LIMITS");
+        String defaultRateLimit = env.apply("RELAY_CLIENT_DEFAULT_RATE_LIMIT");
+        this.clientDefaultRateLimit = defaultRateLimit != null && !defaultRateLimit.trim().isEmpty() ? defaultRateLimit.trim() : null;
+
+        this.idempotentActions = getList(env, "RELAY_IDEMPOTENT_ACTIONS");
+        this.resultCacheTtlMs = getLong(env, "RELAY_RESULT_CACHE_TTL_MS", 5000L);
+        this.resultCacheMaxEntries = getInt(env, "RELAY_RESULT_CACHE_MAX_ENTRIES", 10_000);
+
+        this.sessionGraceMs = getLong(env, "RELAY_SESSION_GRACE_MS", 60 * 1000L);
+        this.sessionBufferMaxFrames = getInt(env, "RELAY_SESSION_BUFFER_MAX_FRAMES", 1000);
+        this.sessionBufferMaxBytes = getLong(env, "RELAY_SESSION_BUFFER_MAX_BYTES", 8L * 1024 * 1024);
+        String spillDir = env.apply("RELAY_SESSION_SPILL_DIR");
+        this.sessionSpillDir = spillDir != null && !spillDir.trim().isEmpty() ? spillDir.trim() : null;
+        this.sessionSpillMaxBytes = getInt(env, "RELAY_SESSION_SPILL_MAX_BYTES", 256 * 1024 * 1024);
+
+        this.streamWindowChunks = getInt(env, "RELAY_STREAM_WINDOW_CHUNKS", 8);
+        this.streamMaxChunkBytes = getInt(env, "RELAY_STREAM_MAX_CHUNK_BYTES", 1024 * 1024);
+        this.streamIdleTimeoutMs = getLong(env, "RELAY_STREAM_IDLE_TIMEOUT_MS", 60 * 1000L);
+
+        this.outboundHighWaterBytes = getLong(env, "RELAY_OUTBOUND_HIGH_WATER_BYTES", 16L * 1024 * 1024);
+        this.outboundLowWaterBytes = getLong(env, "RELAY_OUTBOUND_LOW_WATER_BYTES", 4L * 1024 * 1024);
+        this.outboundHighWaterFrames = getInt(env, "RELAY_OUTBOUND_HIGH_WATER_FRAMES", 1024);
+        this.outboundLowWaterFrames = getInt(env, "RELAY_OUTBOUND_LOW_WATER_FRAMES", 256);
+        this.outboundSocketWindowFrames = getInt(env, "RELAY_OUTBOUND_SOCKET_WINDOW_FRAMES", 8);
+        this.outboundPumpIntervalMs = getLong(env, "RELAY_OUTBOUND_PUMP_MS", 5L);
+
+        this.deflateEnabled = getBoolean(env, "RELAY_DEFLATE_ENABLED", true);
+        this.deflateThresholdBytes = getInt(env, "RELAY_DEFLATE_THRESHOLD_BYTES", 1024);
+        this.deflateLevel = (int) Math.max(0, Math.min(9, getLong(env, "RELAY_DEFLATE_LEVEL", 6L)));
+    }
+
+    public static RelayConfig load() {
+        return load(Collections.emptyMap());
+    }
+
+    /** Like {@link #load()}, with the given RELAY_* settings taking precedence over the environment and .env. */
+    static RelayConfig load(Map<String, String> overrides) {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().ignoreIfMalformed().load();
+        return new RelayConfig(key -> overrides.containsKey(key) ? overrides.get(key) : dotenv.get(key));
+    }
+
+    private static long getLong(Function<String, String> env, String key, long defaultValue) {
+        String value = env.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("RelayConfig: Invalid value '{}' for {}. Using default {}.", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static int getInt(Function<String, String> env, String key, int defaultValue) {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(env, key, defaultValue));
+    }
+
+    /** Comma-separated values, trimmed, without empty entries. */
+    private static List<String> getList(Function<String, String> env, String key) {
+        String value = env.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> values = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                values.add(part.trim());
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /** Comma-separated key=value pairs, e.g. "batchA=4,batchB=1"; entries without '=' are ignored. */
+    private static Map<String, String> getMap(Function<String, String> env, String key) {
+        Map<String, String> values = new HashMap<>();
+        for (String entry : getList(env, key)) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                logger.warn("RelayConfig: Ignoring entry '{}' of {}; expected key=value.", entry, key);
+                continue;
+            }
+            values.put(entry.substring(0, eq).trim(), entry.substring(eq + 1).trim());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private static boolean getBoolean(Function<String, String> env, String key, boolean defaultValue) {
+        String value = env.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String v = value.trim();
+        if ("true".equalsIgnoreCase(v) || "1".equals(v) || "yes".equalsIgnoreCase(v)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(v) || "0".equals(v) || "no".equalsIgnoreCase(v)) {
+            return false;
+        }
+        logger.warn("RelayConfig: Invalid value '{}' for {}. Using default {}.", value, key, defaultValue);
+        return defaultValue;
+    }
+
+    private static <E extends Enum<E>> E getEnum(Function<String, String> env, String key, E defaultValue) {
+        String value = env.apply(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("RelayConfig: Invalid value '{}' for {}. Using default {}.", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+}
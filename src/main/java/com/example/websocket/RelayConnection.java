@@ -0,0 +1,41 @@
+// src/main/java/com/example/websocket/RelayConnection.java
+package com.example.websocket;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * One WebSocket connection as the routing core sees it, whichever {@link TransportEngine} accepted (or
+ * dialed) it. All methods may be called from any thread. Sends hand the frame to the engine and return
+ * without waiting for the socket; {@link #pendingWrites} tells how many frames are still waiting there.
+ */
+public interface RelayConnection {
+
+    boolean isOpen();
+
+    InetSocketAddress getRemoteSocketAddress();
+
+    /** Starts the closing handshake; the listener's onClose follows once the connection is gone. */
+    void close(int code, String reason);
+
+    /** @return false if the connection is closed and the frame was dropped. */
+    boolean sendText(String text);
+
+    /** A text frame from payload bytes that are already UTF-8. The array is not copied and must not change. */
+    boolean sendText(byte[] utf8);
+
+    /** A binary frame of the buffer's remaining bytes. The buffer's position is left untouched. */
+    boolean sendBinary(ByteBuffer data);
+
+    boolean sendBinary(byte[] data);
+
+    /** Sends a ping control frame; its pong is reported to the listener's onPong. False if the connection is closed. */
+    boolean sendPing();
+
+    /** Frames handed to the engine but not yet written to the socket. */
+    int pendingWrites();
+
+    <T> T getAttachment();
+
+    void setAttachment(Object attachment);
+}
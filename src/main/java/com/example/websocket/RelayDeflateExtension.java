@@ -0,0 +1,34 @@
+// src/main/java/com/example/websocket/RelayDeflateExtension.java
+package com.example.websocket;
+
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+
+import java.util.zip.Deflater;
+
+/**
+ * permessage-deflate with the relay's threshold and compression level. The stock extension forgets both
+ * in copyInstance(), which Java-WebSocket calls once per connection, so they are re-applied there.
+ * Frames smaller than the threshold are sent uncompressed.
+ */
+public class RelayDeflateExtension extends PerMessageDeflateExtension {
+    private final int thresholdBytes;
+    private final int level;
+
+    public RelayDeflateExtension(int thresholdBytes, int level) {
+        this.thresholdBytes = thresholdBytes;
+        this.level = level;
+        setThreshold(thresholdBytes);
+        setDeflater(new Deflater(level, true));
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new RelayDeflateExtension(thresholdBytes, level);
+    }
+
+    @Override
+    public String toString() {
+        return "RelayDeflateExtension{threshold=" + thresholdBytes + ", level=" + level + "}";
+    }
+}
@@ -0,0 +1,232 @@
+// src/main/java/com/example/websocket/RelayMetrics.java
+package com.example.websocket;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.NodeStatus;
+import com.example.websocket.NodeRegistry.Role;
+
+/**
+ * Relay counters and per-action latency histograms, rendered in the Prometheus text format for /metrics.
+ *
+ * Command actions are mapped to small int ids when a command is dispatched; the id travels with the
+ * pending request (its {@link PendingRequestTable} label), so recording a response is an array index and
+ * a {@link LatencyHistogram#record}. At most MAX_ACTIONS distinct actions get their own series; commands
+ * without an action are counted as "none" and any further actions as "other".
+ * Gauges (connections, node states, table sizes, heap and process CPU) are read when the endpoint is scraped.
+ */
+public class RelayMetrics {
+
+    static final int MAX_ACTIONS = 128;
+    static final int ACTION_NONE = 0;
+    static final int ACTION_OTHER = 1;
+
+    private final NodeRegistry nodeRegistry;
+    private final OutboundDispatcher outbound;
+
+    private final ConcurrentHashMap<String, Integer> actionIds = new ConcurrentHashMap<>();
+    private final String[] actionNames = new String[MAX_ACTIONS];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[MAX_ACTIONS];
+    private final AtomicLongArray timeouts = new AtomicLongArray(MAX_ACTIONS);
+    private volatile int actionCount;
+
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    public RelayMetrics(NodeRegistry nodeRegistry, OutboundDispatcher outbound) {
+        this.nodeRegistry = nodeRegistry;
+        this.outbound = outbound;
+        register("none");
+        register("other");
+    }
+
+    /** Counts an inbound frame of the given payload size; see {@link #utf8Length} for text frames. */
+    public void recordReceived(int bytes) {
+        framesReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    /** The UTF-8 encoded size of a text frame's payload, as it goes over the wire, without encoding it. */
+    static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    bytes += 2; // the pair is 4 bytes for 2 chars
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /** The metrics id of a command action, registering it on first use. */
+    public int actionId(String action) {
+        if (action == null) {
+            return ACTION_NONE;
+        }
+        Integer id = actionIds.get(action);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = actionIds.get(action);
+            if (id != null) {
+                return id;
+            }
+            return actionCount < MAX_ACTIONS ? register(action) : ACTION_OTHER;
+        }
+    }
+
+    /** Records the dispatch-to-response latency of a command. */
+    public void recordLatency(int actionId, long nanos) {
+        latencies[actionId].record(nanos);
+    }
+
+    public void recordTimeout(int actionId) {
+        timeouts.incrementAndGet(actionId);
+    }
+
+    // Called with the monitor held (or from the constructor); publishes the histogram before the id
+    private int register(String action) {
+        int id = actionCount;
+        actionNames[id] = action;
+        latencies[id] = new LatencyHistogram();
+        actionCount = id + 1;
+        actionIds.put(action, id);
+        return id;
+    }
+
+    /** All metrics in the Prometheus text exposition format (version 0.0.4). */
+    public String render(CommandOrchestrator orchestrator) {
+        StringBuilder sb = new StringBuilder(16 * 1024);
+
+        Map<Role, Integer> connections = new EnumMap<>(Role.class);
+        Map<NodeStatus, Integer> statuses = new EnumMap<>(NodeStatus.class);
+        for (Role role : Role.values()) {
+            connections.put(role, 0);
+        }
+        for (NodeStatus status : NodeStatus.values()) {
+            statuses.put(status, 0);
+        }
+        for (NodeInfo info : nodeRegistry.getAllConnectionInfo()) {
+            connections.merge(info.role, 1, Integer::sum);
+            if (info.role == Role.CLIENT_NODE) {
+                statuses.merge(info.status, 1, Integer::sum);
+            }
+        }
+
+        header(sb, "relay_connections", "gauge", "Open connections by role.");
+        connections.forEach((role, count) -> sb.append("relay_connections{role=\"").append(role).append("\"} ").append(count).append('\n'));
+        header(sb, "relay_nodes", "gauge", "Connected RPA nodes by status.");
+        statuses.forEach((status, count) -> sb.append("relay_nodes{status=\"").append(status).append("\"} ").append(count).append('\n'));
+
+        counter(sb, "relay_frames_received_total", "Frames received from all connections.", framesReceived.sum());
+        counter(sb, "relay_bytes_received_total", "Payload bytes received from all connections, UTF-8 text or binary, before WebSocket framing.", bytesReceived.sum());
+        counter(sb, "relay_frames_sent_total", "Frames written to all connections.", outbound.getSentFrames());
+        counter(sb, "relay_bytes_sent_total", "Payload bytes written to all connections, UTF-8 text or MessagePack, before WebSocket framing.", outbound.getSentBytes());
+
+        gauge(sb, "relay_draining", "1 while the relay is draining for a restart and refusing new commands.", orchestrator.isDraining() ? 1 : 0);
+        gauge(sb, "relay_pending_requests", "node_command requests awaiting a node_response.", orchestrator.getPendingRequestCount());
+        gauge(sb, "relay_pending_broadcasts", "node_broadcast requests awaiting responses.", orchestrator.getPendingBroadcastCount());
+        gauge(sb, "relay_forwarded_requests", "Requests forwarded to a peer relay and awaiting its response.", orchestrator.getRemoteRequestCount());
+        gauge(sb, "relay_active_streams", "Chunked node responses in progress.", orchestrator.getActiveStreamCount());
+        gauge(sb, "relay_http_awaiting_requests", "HTTP requests holding their response open for a node_response.", orchestrator.getAwaitingHttpRequestCount());
+        gauge(sb, "relay_result_cache_entries", "Cached results of idempotent commands.", orchestrator.getResultCache().size());
+        counter(sb, "relay_result_cache_hits_total", "Idempotent commands answered from the result cache.", orchestrator.getResultCache().getHits());
+        counter(sb, "relay_result_cache_misses_total", "Idempotent commands sent to their node.", orchestrator.getResultCache().getMisses());
+        counter(sb, "relay_duplicate_requests_attached_total", "Commands whose requestId was in flight, attached instead of re-sent.", orchestrator.getDuplicatesAttached());
+        gauge(sb, "relay_admission_queued_commands", "node_commands queued for a free in-flight slot or a reconnecting node.", orchestrator.getAdmission().getQueuedCount());
+        counter(sb, "relay_admission_expired_total", "Queued node_commands that reached their admission deadline.", orchestrator.getAdmission().getExpired());
+        ClientSessions sessions = orchestrator.getClientSessions();
+        gauge(sb, "relay_detached_client_sessions", "Batch client sessions within their grace window after a disconnect.", sessions.getDetachedSessionCount());
+        gauge(sb, "relay_session_buffered_responses", "Responses buffered for disconnected batch clients.", sessions.getBufferedFrames());
+        counter(sb, "relay_session_redelivered_responses_total", "Buffered responses delivered to a batch client that resumed its session.", sessions.getRedelivered());
+        counter(sb, "relay_session_dropped_responses_total", "Responses for disconnected batch clients dropped on a full buffer or an expired session.", sessions.getDropped());
+        gauge(sb, "relay_ejected_nodes", "RPA nodes ejected from dispatch for poor health.", nodeRegistry.getNodeHealth().getEjectedCount());
+        counter(sb, "relay_node_ejections_total", "Health ejections of RPA nodes.", nodeRegistry.getNodeHealth().getEjections());
+        gauge(sb, "relay_outbound_backlogged_connections", "Connections with frames waiting in their relay-side queue.", outbound.getBackloggedCount());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        gauge(sb, "relay_jvm_heap_used_bytes", "JVM heap in use.", heap.getUsed());
+        gauge(sb, "relay_jvm_heap_max_bytes", "Maximum JVM heap, or -1 if undefined.", heap.getMax());
+        gauge(sb, "relay_jvm_threads", "Live JVM threads.", ManagementFactory.getThreadMXBean().getThreadCount());
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long cpuNanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            header(sb, "process_cpu_seconds_total", "counter", "CPU time used by the relay process.");
+            sb.append("process_cpu_seconds_total ").append(cpuNanos / 1e9).append('\n');
+        }
+
+        Collection<ClientShares.Share> shares = orchestrator.getClientShares().all();
+        header(sb, "relay_client_dispatched_total", "counter", "Commands sent to a node, by originating client.");
+        shares.forEach(share -> sb.append("relay_client_dispatched_total{").append(label("client", share.clientId)).append("} ").append(share.getDispatched()).append('\n'));
+        header(sb, "relay_client_queued_total", "counter", "Commands that had to queue for their node, by originating client.");
+        shares.forEach(share -> sb.append("relay_client_queued_total{").append(label("client", share.clientId)).append("} ").append(share.getQueuedTotal()).append('\n'));
+        header(sb, "relay_client_queued_commands", "gauge", "Commands queued for their node now, by originating client.");
+        shares.forEach(share -> sb.append("relay_client_queued_commands{").append(label("client", share.clientId))
+                .append(",priority=\"").append(share.priority).append("\"} ").append(share.getQueued()).append('\n'));
+        header(sb, "relay_client_rate_limited_total", "counter", "Commands refused for exceeding the client's rate limit, by originating client.");
+        shares.forEach(share -> sb.append("relay_client_rate_limited_total{").append(label("client", share.clientId)).append("} ").append(share.getRateLimited()).append('\n'));
+
+        int count = actionCount;
+        header(sb, "relay_command_timeouts_total", "counter", "Commands that got no node_response before their deadline, by action.");
+        for (int id = 0; id < count; id++) {
+            sb.append("relay_command_timeouts_total{").append(actionLabel(id)).append("} ").append(timeouts.get(id)).append('\n');
+        }
+        header(sb, "relay_command_latency_seconds", "histogram", "Time from command dispatch to the node's response, by action.");
+        for (int id = 0; id < count; id++) {
+            latencies[id].appendTo(sb, "relay_command_latency_seconds", actionLabel(id));
+        }
+        return sb.toString();
+    }
+
+    private String actionLabel(int id) {
+        return label("action", actionNames[id]);
+    }
+
+    private static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name.length() + value.length() + 4).append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, "counter", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,134 @@
+// src/main/java/com/example/websocket/ResultCache.java
+package com.example.websocket;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recent 'response' objects of idempotent commands (RELAY_IDEMPOTENT_ACTIONS), keyed by node and the exact
+ * command text, so a repeated read-only query is answered without a node round trip. Entries live for
+ * RELAY_RESULT_CACHE_TTL_MS; beyond RELAY_RESULT_CACHE_MAX_ENTRIES the least recently used one is dropped.
+ * Error responses are not cached.
+ */
+public class ResultCache {
+
+    private static final class Cached {
+        final String nodeId;
+        final String response;
+        final long expiresAt;
+
+        Cached(String nodeId, String response, long expiresAt) {
+            this.nodeId = nodeId;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Set<String> idempotentActions;
+    private final long ttlMs;
+    private final int maxEntries;
+    // Access-ordered, so the eldest entry is the least recently used; guarded by itself
+    private final LinkedHashMap<String, Cached> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResultCache(List<String> idempotentActions, long ttlMs, int maxEntries) {
+        this.idempotentActions = new HashSet<>(idempotentActions);
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return !idempotentActions.isEmpty() && ttlMs > 0 && maxEntries > 0;
+    }
+
+    /** The cache key of a command to nodeId, or null if its action is not idempotent. */
+    public String keyFor(String nodeId, FrameEnvelope envelope) {
+        if (!isEnabled() || nodeId == null || !envelope.hasCommandObject() || !idempotentActions.contains(envelope.commandAction())) {
+            return null;
+        }
+        String command = envelope.frame().substring(envelope.commandStart(), envelope.commandEnd());
+        return new StringBuilder(nodeId.length() + 1 + command.length()).append(nodeId).append('\n').append(command).toString();
+    }
+
+    /** The cached 'response' object for key, or null if there is none or it expired. */
+    public String get(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Cached cached = entries.get(key);
+            if (cached != null && cached.expiresAt > now) {
+                hits.increment();
+                return cached.response;
+            }
+            if (cached != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Caches the 'response' slice of a node_response, unless it reports an error. */
+    public void put(String key, String nodeId, String frame, int start, int end) {
+        if (isErrorResponse(frame, start, end)) {
+            return;
+        }
+        Cached cached = new Cached(nodeId, frame.substring(start, end), System.currentTimeMillis() + ttlMs);
+        synchronized (entries) {
+            entries.put(key, cached);
+        }
+    }
+
+    /** Drops everything cached for a node, e.g. when it disconnects. */
+    public void invalidateNode(String nodeId) {
+        synchronized (entries) {
+            for (Iterator<Cached> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().nodeId.equals(nodeId)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** True if the 'response' object between start and end has "status":"error", or is not an object. */
+    static boolean isErrorResponse(String frame, int start, int end) {
+        try {
+            FrameScanner scanner = new FrameScanner(frame, start, end);
+            scanner.beginObject();
+            while (scanner.nextMember()) {
+                if (scanner.keyIs("status") && scanner.peek() == '"') {
+                    return "error".equalsIgnoreCase(scanner.readString());
+                }
+                scanner.skipValue();
+            }
+            return false;
+        } catch (RuntimeException e) {
+            return true; // not an object; don't cache what we can't judge
+        }
+    }
+}
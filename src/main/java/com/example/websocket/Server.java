@@ -3,51 +3,123 @@ package com.example.websocket;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
-import org.java_websocket.WebSocket;
-import org.java_websocket.handshake.ClientHandshake;
-import org.java_websocket.server.WebSocketServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import com.example.websocket.NodeRegistry.NodeInfo;
 import com.example.websocket.NodeRegistry.Role;
 
-public class Server extends WebSocketServer implements IncomingTestMasterSender {
+public class Server implements TransportListener, IncomingTestMasterSender {
 
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
+    private static final long DRAIN_POLL_MS = 100;
+    // RFC 6455 "Service Restart": the client should reconnect, after a delay
+    private static final int CLOSE_SERVICE_RESTART = 1012;
 
     private final NodeRegistry nodeRegistry;
     private final NodeCommander nodeCommander;
     private final CommandOrchestrator commandOrchestrator;
+    private final OutboundDispatcher outbound;
+    private final RelayCluster cluster;
+    private final RelayMetrics metrics;
+    private final NodeListing nodeListing;
+    private final NodeEventStream nodeEvents;
+    private final InboundDispatcher inbound;
+    private final TransportEngine engine;
+    private final RelayConfig config;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1); // Reduced thread pool size as Upstream client is gone
+    private boolean drained = false; // guarded by this
 
     public Server(int port) {
-        super(new InetSocketAddress(port));
-        logger.info("Server: Initializing WebSocket server on port {}", port);
+        this(port, RelayConfig.load());
+    }
+
+    public Server(int port, RelayConfig config) {
+        this(port, config, config.workerMode);
+    }
 
-        this.nodeRegistry = new NodeRegistry();
-        this.nodeCommander = new NodeCommander(nodeRegistry, this::handleNodeResponse); // Pass handleNodeResponse callback
+    /** With an explicit worker mode; INLINE keeps every event on the calling thread (benchmarks). */
+    Server(int port, RelayConfig config, InboundDispatcher.Mode workerMode) {
+        this.config = config;
+        logger.info("Server: Initializing WebSocket server on port {} with the {} transport.", port, config.transport);
+        this.engine = TransportEngine.create(config.transport, port, config, this);
+
+        this.nodeRegistry = new NodeRegistry(config);
+        this.outbound = new OutboundDispatcher(config, scheduler);
+        this.nodeCommander = new NodeCommander(nodeRegistry, outbound, this::handleNodeResponse); // Pass handleNodeResponse callback
+        this.cluster = new RelayCluster(config, this, nodeRegistry, outbound);
+        this.metrics = new RelayMetrics(nodeRegistry, outbound);
+        this.nodeListing = new NodeListing(nodeRegistry, config);
+        this.nodeEvents = new NodeEventStream(nodeRegistry, outbound, config);
+        this.inbound = new InboundDispatcher(workerMode, config.workerThreads, config.workerQueueCapacity);
 
         // THIS IS THE CORRECTED LINE FOR CommandOrchestrator INSTANTIATION
-        this.commandOrchestrator = new CommandOrchestrator(nodeRegistry, nodeCommander, this);
+        this.commandOrchestrator = new CommandOrchestrator(nodeRegistry, nodeCommander, this, outbound, cluster, metrics, config);
+        scheduler.scheduleAtFixedRate(commandOrchestrator::expirePendingRequests,
+                config.pendingSweepIntervalMs, config.pendingSweepIntervalMs, TimeUnit.MILLISECONDS);
+        NodeHealth health = nodeRegistry.getNodeHealth();
+        if (config.healthIntervalMs > 0) {
+            scheduler.scheduleAtFixedRate(health::evaluate, config.healthIntervalMs, config.healthIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (config.healthPingIntervalMs > 0) {
+            scheduler.scheduleAtFixedRate(health::pingNodes, config.healthPingIntervalMs, config.healthPingIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (commandOrchestrator.getClientSessions().isEnabled()) {
+            scheduler.scheduleAtFixedRate(commandOrchestrator.getClientSessions()::expire,
+                    config.pendingSweepIntervalMs, config.pendingSweepIntervalMs, TimeUnit.MILLISECONDS);
+        }
 
         logger.info("Server: Initialization complete. Waiting for connections...");
     }
 
+    /** Starts accepting connections; onStart follows once the port is bound. */
+    public void start() {
+        engine.start();
+    }
+
+    public int getPort() {
+        return engine.getPort();
+    }
+
+    /*
+     * Connection events are handed to the InboundDispatcher, so parsing, routing and logging run on its
+     * workers rather than the decoder threads, in order per connection. Only a binary frame's byte count is
+     * taken here; a text frame's UTF-8 length takes a pass over the string, so the worker measures it.
+     */
+
     @Override
-    public void onOpen(WebSocket conn, ClientHandshake handshake) {
-        logger.info("Server: New connection opened from {} with resource: {}", conn.getRemoteSocketAddress(), handshake.getResourceDescriptor());
+    public void onOpen(RelayConnection conn, String resourceDescriptor) {
+        outbound.attach(conn);
+        inbound.execute(conn, () -> handleOpen(conn, resourceDescriptor));
+    }
 
-        String resourceDescriptor = handshake.getResourceDescriptor();
+    private void handleOpen(RelayConnection conn, String resourceDescriptor) {
+        logger.info("Server: New connection opened from {} with resource: {}", conn.getRemoteSocketAddress(), resourceDescriptor);
         if ("/ws/incoming_test_master".equals(resourceDescriptor)) {
-            if (!nodeRegistry.registerIncomingTestMaster(conn)) {
-                logger.warn("Server: Rejected incoming test master connection from {} as one is already active.", conn.getRemoteSocketAddress());
+            if (commandOrchestrator.isDraining()) {
+                logger.info("Server: Relay is draining. Turning away incoming test master connection from {}.", conn.getRemoteSocketAddress());
+                closeForRestart(conn, sendDrainNotice(conn));
+            } else if (nodeRegistry.registerIncomingTestMaster(conn) == null) {
+                logger.warn("Server: Rejected incoming test master connection from {} as the pool is full.", conn.getRemoteSocketAddress());
+            }
+        } else if ("/ws/node_events".equals(resourceDescriptor)) {
+            nodeRegistry.registerNodeEventSubscriber(conn);
+            if (!nodeEvents.subscribe(conn)) {
+                conn.close(1013, "Too many node event subscribers. Retry later.");
             }
         } else {
             logger.info("Server: New connection {} awaiting identification message.", conn.getRemoteSocketAddress());
@@ -55,7 +127,14 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
     }
 
     @Override
-    public void onMessage(WebSocket conn, String message) {
+    public void onMessage(RelayConnection conn, String message) {
+        inbound.execute(conn, () -> {
+            metrics.recordReceived(RelayMetrics.utf8Length(message));
+            handleTextMessage(conn, message);
+        });
+    }
+
+    private void handleTextMessage(RelayConnection conn, String message) {
         NodeInfo info = nodeRegistry.getNodeInfoByConnection(conn);
 
         if (info == null || !info.authenticated) {
@@ -65,19 +144,78 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
         }
     }
 
-    private void handleIdentificationMessage(WebSocket conn, String message) {
+    /**
+     * Binary frames from an RPA node may be stream chunks, which are relayed as-is. Every other binary
+     * frame is a MessagePack envelope; it is transcoded to JSON and handled like a text frame.
+     */
+    @Override
+    public void onMessage(RelayConnection conn, ByteBuffer message) {
+        metrics.recordReceived(message.remaining());
+        inbound.execute(conn, () -> handleBinaryMessage(conn, message));
+    }
+
+    private void handleBinaryMessage(RelayConnection conn, ByteBuffer message) {
+        if (ChunkStream.isChunk(message)) {
+            NodeInfo info = nodeRegistry.getNodeInfoByConnection(conn);
+            if (info == null || !info.authenticated || info.role != Role.CLIENT_NODE) {
+                logger.warn("Server: Chunk frame from {} which is not an identified RPA node. Dropped.", conn.getRemoteSocketAddress());
+                sendError(conn, "Chunk frames are only accepted from identified RPA nodes.");
+                return;
+            }
+            nodeRegistry.recordActivity(info);
+            commandOrchestrator.handleStreamChunk(info, message);
+            return;
+        }
+        String json;
+        try {
+            json = MessagePackCodec.toJson(message);
+        } catch (JsonSyntaxException e) {
+            logger.warn("Server: Invalid MessagePack frame from {}: {}", conn.getRemoteSocketAddress(), e.getMessage());
+            sendError(conn, "Invalid binary message. Expected a MessagePack envelope.");
+            return;
+        }
+        handleTextMessage(conn, json);
+    }
+
+    /** Applies the optional "encoding" of an identification message ("json" or "msgpack") to the connection. */
+    private void applyEncoding(RelayConnection conn, JsonObject jsonMessage) {
+        if (!jsonMessage.has("encoding") || !jsonMessage.get("encoding").isJsonPrimitive()) {
+            return;
+        }
+        String requested = jsonMessage.get("encoding").getAsString();
+        if ("msgpack".equalsIgnoreCase(requested)) {
+            outbound.queueFor(conn).setEncoding(OutboundQueue.Encoding.MSGPACK);
+        } else if (!"json".equalsIgnoreCase(requested)) {
+            logger.warn("Server: Connection {} requested unsupported encoding '{}'. Using JSON.", conn.getRemoteSocketAddress(), requested);
+        }
+    }
+
+    private void handleIdentificationMessage(RelayConnection conn, String message) {
         try {
             JsonObject jsonMessage = JsonParser.parseString(message).getAsJsonObject();
             String type = jsonMessage.has("type") ? jsonMessage.get("type").getAsString() : null;
 
+            // A relay that is draining leaves new nodes and clients to its replacement; peers still link up
+            if (commandOrchestrator.isDraining() && !"identify_relay".equals(type)) {
+                logger.info("Server: Relay is draining. Turning away {} from {}.", type, conn.getRemoteSocketAddress());
+                closeForRestart(conn, sendDrainNotice(conn));
+                return;
+            }
+
             if ("identify_rpa_node".equals(type)) {
                 String nodeId = jsonMessage.has("nodeId") ? jsonMessage.get("nodeId").getAsString() : null;
                 if (nodeId != null && !nodeId.trim().isEmpty()) {
-                    NodeInfo registeredNode = nodeRegistry.registerClientNode(nodeId, conn);
+                    // Optional advertised capabilities, e.g. {"os":"windows","apps":["excel"],"screen":"1920x1080"}
+                    JsonObject capabilities = jsonMessage.has("capabilities") && jsonMessage.get("capabilities").isJsonObject()
+                            ? jsonMessage.getAsJsonObject("capabilities") : null;
+                    NodeInfo registeredNode = nodeRegistry.registerClientNode(nodeId, conn, CapabilityIndex.tokensOf(capabilities));
                     if (registeredNode != null) {
                         registeredNode.authenticated = true;
+                        applyEncoding(conn, jsonMessage);
                         logger.info("Server: Identified and registered RPA Node '{}' from {}.", nodeId, conn.getRemoteSocketAddress());
                         sendAcknowledgement(conn, "RPA Node '" + nodeId + "' successfully identified.");
+                        cluster.announceNodeUp(nodeId);
+                        commandOrchestrator.nodeConnected(registeredNode);
                     } else {
                         logger.warn("Server: RPA Node ID '{}' from {} is already registered. Connection replaced if new.", nodeId, conn.getRemoteSocketAddress());
                         sendError(conn, "RPA Node ID '" + nodeId + "' already in use. Connection might be replaced.");
@@ -93,8 +231,11 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
                     NodeInfo registeredClient = nodeRegistry.registerBatchServerClient(clientId, conn);
                     if (registeredClient != null) {
                         registeredClient.authenticated = true;
+                        applyEncoding(conn, jsonMessage);
                         logger.info("Server: Identified and registered Batch Server Client '{}' from {}.", clientId, conn.getRemoteSocketAddress());
                         sendAcknowledgement(conn, "Batch Server Client '" + clientId + "' successfully identified.");
+                        // Responses buffered while a previous connection of this client was away follow the acknowledgement
+                        commandOrchestrator.getClientSessions().attach(clientId, conn);
                     } else {
                         logger.warn("Server: Batch Server Client ID '{}' from {} is already registered. Connection replaced if new.", clientId, conn.getRemoteSocketAddress());
                         sendError(conn, "Batch Server Client ID '" + clientId + "' already in use. Connection might be replaced.");
@@ -104,6 +245,18 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
                     sendError(conn, "Missing or empty 'clientId' for Batch Server Client identification.");
                     conn.close(1008, "Invalid identification message: missing clientId");
                 }
+            } else if ("identify_relay".equals(type)) {
+                String peerRelayId = jsonMessage.has("relayId") ? jsonMessage.get("relayId").getAsString() : null;
+                if (peerRelayId == null || peerRelayId.trim().isEmpty() || peerRelayId.equals(cluster.getRelayId())) {
+                    logger.warn("Server: Rejected relay link from {} with missing or own relayId '{}'.", conn.getRemoteSocketAddress(), peerRelayId);
+                    conn.close(1008, "Invalid relay identification");
+                    return;
+                }
+                nodeRegistry.registerRelayPeer(peerRelayId, conn);
+                if (!cluster.isDialedLink(conn)) {
+                    outbound.send(conn, FrameWriter.identifyRelay(cluster.getRelayId())); // answer a link the peer dialed
+                }
+                cluster.peerIdentified(peerRelayId, conn);
             } else {
                 logger.warn("Server: Unidentified connection {} sent unknown identification message type: {}. Message: {}", conn.getRemoteSocketAddress(), type, message);
                 sendError(conn, "Invalid identification message type. Expected 'identify_rpa_node' or 'identify_batch_client'.");
@@ -122,53 +275,98 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
 
     private void handleAuthenticatedMessage(NodeInfo senderInfo, String message) {
         logger.debug("Server: Received authenticated message from {}({}): {}", senderInfo.role, senderInfo.nodeId, message);
-        senderInfo.updateActivity();
+        nodeRegistry.recordActivity(senderInfo);
 
         try {
-            JsonObject jsonMessage = JsonParser.parseString(message).getAsJsonObject();
-            String type = jsonMessage.has("type") ? jsonMessage.get("type").getAsString() : null;
+            // Decoded once; downstream handlers work off the envelope instead of re-parsing the frame
+            FrameEnvelope envelope = FrameEnvelope.parse(message);
+            String type = envelope.type();
 
             if (senderInfo.role == Role.CLIENT_NODE) {
-                nodeCommander.handleIncomingNodeMessage(senderInfo, message);
+                nodeCommander.handleIncomingNodeMessage(senderInfo, envelope);
 
                 if ("status_update".equals(type)) {
-                    String status = jsonMessage.has("status") ? jsonMessage.get("status").getAsString() : "unknown";
+                    String status = envelope.status() != null ? envelope.status() : "unknown";
                     nodeRegistry.updateNodeStatus(senderInfo.nodeId, status);
                 }
             } else if (senderInfo.role == Role.INCOMING_TEST_MASTER) {
-                commandOrchestrator.handleMasterCommand("INCOMING_TEST", message);
+                commandOrchestrator.handleMasterCommand(senderInfo, envelope);
+            } else if (senderInfo.role == Role.RELAY_PEER) {
+                if ("relay_directory".equals(type) || "relay_node_up".equals(type) || "relay_node_down".equals(type)) {
+                    cluster.handleDirectoryFrame(senderInfo.nodeId, envelope);
+                } else {
+                    commandOrchestrator.handleRelayFrame(senderInfo, envelope);
+                }
             } else if (senderInfo.role == Role.BATCH_SERVER_CLIENT) {
                 if ("node_command".equals(type)) {
-                    String targetNodeId = jsonMessage.has("nodeId") ? jsonMessage.get("nodeId").getAsString() : null;
-                    String requestId = jsonMessage.has("requestId") ? jsonMessage.get("requestId").getAsString() : null;
-                    JsonObject nodeCommand = jsonMessage.has("command") ? jsonMessage.get("command").getAsJsonObject() : null;
+                    String targetNodeId = envelope.nodeId();
+                    String requestId = envelope.requestId();
 
-                    if (targetNodeId == null || requestId == null || nodeCommand == null) {
-                        logger.error("Server: Invalid 'node_command' from Batch Server Client '{}': Missing nodeId, requestId, or command payload. Message: {}", senderInfo.nodeId, message);
-                        sendError(senderInfo.conn, "Invalid 'node_command' format. Missing nodeId, requestId, or command payload.");
+                    if ((targetNodeId == null && !envelope.hasSelectorObject()) || requestId == null || !envelope.hasCommandObject()) {
+                        logger.error("Server: Invalid 'node_command' from Batch Server Client '{}': Missing nodeId/selector, requestId, or command payload. Message: {}", senderInfo.nodeId, envelope);
+                        sendError(senderInfo.conn, "Invalid 'node_command' format. Missing nodeId or selector, requestId, or command payload.");
                         return;
                     }
 
-                    commandOrchestrator.trackPendingRequest(requestId, senderInfo.nodeId, targetNodeId);
+                    if (outbound.isCongested(senderInfo.conn)) {
+                        logger.warn("Server: Batch Server Client '{}' outbound queue congested. Rejecting requestId {}.", senderInfo.nodeId, requestId);
+                        sendError(senderInfo.conn, requestId, "Relay is busy delivering earlier responses to you. Retry later.");
+                        return;
+                    }
 
-                    boolean sent = nodeCommander.sendToNodeWithRequestId(targetNodeId, nodeCommand, requestId);
+                    NodeCommander.DispatchResult result = commandOrchestrator.dispatchNodeCommand(senderInfo.nodeId, envelope);
 
-                    if (!sent) {
-                        logger.warn("Server: Failed to send command for requestId {} to RPA Node {}. Node not connected or idle.", requestId, targetNodeId);
-                        sendError(senderInfo.conn, requestId, "Node " + targetNodeId + " not connected or idle.");
+                    if (result != NodeCommander.DispatchResult.SENT) {
+                        String target = CommandOrchestrator.describeTarget(envelope);
+                        logger.warn("Server: Failed to send command for requestId {} to RPA Node {}: {}.", requestId, target, result);
+                        sendError(senderInfo.conn, requestId, NodeCommander.describeFailure(result, target));
                     } else {
-                        logger.info("Server: Command for requestId {} sent to RPA Node {} from Batch Server Client {}.", requestId, targetNodeId, senderInfo.nodeId);
+                        logger.info("Server: Command for requestId {} sent to RPA Node {} from Batch Server Client {}.", requestId, CommandOrchestrator.describeTarget(envelope), senderInfo.nodeId);
+                    }
+                } else if ("node_command_batch".equals(type)) {
+                    if (!envelope.hasCommandsArray()) {
+                        logger.error("Server: Invalid 'node_command_batch' from Batch Server Client '{}': Missing 'commands' array. Message: {}", senderInfo.nodeId, envelope);
+                        sendError(senderInfo.conn, "Invalid 'node_command_batch' format. Missing 'commands' array.");
+                        return;
+                    }
+
+                    if (outbound.isCongested(senderInfo.conn)) {
+                        logger.warn("Server: Batch Server Client '{}' outbound queue congested. Rejecting batch {}.", senderInfo.nodeId, envelope.batchId());
+                        sendError(senderInfo.conn, "Relay is busy delivering earlier responses to you. Retry later.");
+                        return;
+                    }
+
+                    outbound.send(senderInfo.conn, commandOrchestrator.dispatchNodeCommandBatch(senderInfo.nodeId, envelope));
+                } else if ("node_broadcast".equals(type)) {
+                    String requestId = envelope.requestId();
+                    if (requestId == null || !envelope.hasCommandObject()) {
+                        logger.error("Server: Invalid 'node_broadcast' from Batch Server Client '{}': Missing requestId or command payload. Message: {}", senderInfo.nodeId, envelope);
+                        sendError(senderInfo.conn, requestId, "Invalid 'node_broadcast' format. Missing requestId or command payload.");
+                        return;
+                    }
+
+                    if (outbound.isCongested(senderInfo.conn)) {
+                        logger.warn("Server: Batch Server Client '{}' outbound queue congested. Rejecting broadcast {}.", senderInfo.nodeId, requestId);
+                        sendError(senderInfo.conn, requestId, "Relay is busy delivering earlier responses to you. Retry later.");
+                        return;
+                    }
+
+                    NodeCommander.DispatchResult result = commandOrchestrator.dispatchBroadcast(senderInfo.nodeId, envelope);
+                    if (result != NodeCommander.DispatchResult.SENT) {
+                        sendError(senderInfo.conn, requestId, NodeCommander.describeFailure(result, CommandOrchestrator.describeBroadcastTargets(envelope)));
                     }
                 } else {
-                    logger.warn("Server: Unrecognized message type '{}' from Batch Server Client '{}': {}", type, senderInfo.nodeId, message);
+                    logger.warn("Server: Unrecognized message type '{}' from Batch Server Client '{}': {}", type, senderInfo.nodeId, envelope);
                     sendError(senderInfo.conn, "Unrecognized message type for Batch Server Client.");
                 }
+            } else if (senderInfo.role == Role.NODE_EVENT_SUBSCRIBER) {
+                logger.debug("Server: Ignoring message from node event subscriber {}: {}", senderInfo.nodeId, message);
             } else {
                 logger.warn("Server: Received authenticated message from unknown role {} for node {}: {}", senderInfo.role, senderInfo.nodeId, message);
                 sendError(senderInfo.conn, "Server does not support commands from this role.");
             }
         } catch (JsonSyntaxException e) {
-            logger.warn("Server: Invalid JSON received from {}({}): {}", senderInfo.role, senderInfo.nodeId, message);
+            logger.warn("Server: Invalid JSON received from {}({}): {}", senderInfo.role, senderInfo.nodeId, e.getMessage());
             sendError(senderInfo.conn, "Invalid JSON message format.");
         } catch (Exception e) {
             logger.error("Server: Error processing message from {}({}): {}", senderInfo.role, senderInfo.nodeId, e.getMessage(), e);
@@ -176,13 +374,39 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
         }
     }
 
+    /** Pongs only time the round trip of the node's ping, so they are handled right on the engine's thread. */
+    @Override
+    public void onPong(RelayConnection conn) {
+        NodeInfo info = nodeRegistry.getNodeInfoByConnection(conn);
+        if (info != null && info.role == Role.CLIENT_NODE) {
+            nodeRegistry.getNodeHealth().pongReceived(info);
+        }
+    }
+
     @Override
-    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    public void onClose(RelayConnection conn, int code, String reason, boolean remote) {
+        inbound.execute(conn, () -> handleClose(conn, code, reason, remote));
+    }
+
+    private void handleClose(RelayConnection conn, int code, String reason, boolean remote) {
+        inbound.release(conn);
+        outbound.detach(conn);
         NodeInfo info = nodeRegistry.unregisterConnection(conn);
         if (info != null) {
             logger.info("Server: Connection to {}({}) closed. Code: {}, Reason: {}, Remote: {}", info.role, info.nodeId, code, reason, remote);
             if (info.role == Role.CLIENT_NODE) {
-                // No UpstreamMasterClient to report status to anymore
+                // Unless a newer connection for the same nodeId has already replaced this one
+                if (nodeRegistry.getClientNodeInfo(info.nodeId) == null) {
+                    cluster.announceNodeDown(info.nodeId);
+                    commandOrchestrator.invalidateCachedResults(info.nodeId);
+                    commandOrchestrator.nodeDisconnected(info.nodeId);
+                }
+            } else if (info.role == Role.BATCH_SERVER_CLIENT) {
+                commandOrchestrator.getClientSessions().detach(info.nodeId, conn);
+            } else if (info.role == Role.RELAY_PEER) {
+                cluster.peerClosed(info.nodeId, conn);
+            } else if (info.role == Role.NODE_EVENT_SUBSCRIBER) {
+                nodeEvents.unsubscribe(conn);
             }
         } else {
             logger.info("Server: Unknown connection {} closed. Code: {}, Reason: {}, Remote: {}", conn.getRemoteSocketAddress(), code, reason, remote);
@@ -190,9 +414,13 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
     }
 
     @Override
-    public void onError(WebSocket conn, Exception ex) {
+    public void onError(RelayConnection conn, Exception ex) {
+        if (conn == null) {
+            logger.error("Server: Transport error: {}", ex.getMessage(), ex);
+            return;
+        }
         NodeInfo info = nodeRegistry.getNodeInfoByConnection(conn);
-        String identifier = (info != null) ? info.nodeId + " (" + info.role + ")" : conn.getRemoteSocketAddress().toString();
+        String identifier = (info != null) ? info.nodeId + " (" + info.role + ")" : String.valueOf(conn.getRemoteSocketAddress());
         logger.error("Server: Error on connection {}: {}", identifier, ex.getMessage(), ex);
 
         if (conn != null && conn.isOpen()) {
@@ -203,34 +431,35 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
     @Override
     public void onStart() {
         logger.info("Server: WebSocket server started successfully on port {}", getPort());
-        setConnectionLostTimeout(0); // Disable initial timeout to avoid immediate disconnects
-        setConnectionLostTimeout(100); // Set to 100 seconds
+        cluster.start();
     }
 
-    private void handleNodeResponse(NodeInfo sender, JsonObject responseJson) {
-        commandOrchestrator.handleNodeResponse(sender, responseJson);
+    private void handleNodeResponse(NodeInfo sender, FrameEnvelope envelope) {
+        String type = envelope.type();
+        if ("stream_begin".equals(type)) {
+            commandOrchestrator.handleStreamBegin(sender, envelope);
+        } else if ("stream_end".equals(type)) {
+            commandOrchestrator.handleStreamEnd(sender, envelope);
+        } else {
+            commandOrchestrator.handleNodeResponse(sender, envelope);
+        }
     }
 
     @Override
-    public void forwardResponseToIncomingTestMaster(String nodeId, JsonObject responseJson, String requestId) {
-        WebSocket masterConn = nodeRegistry.getIncomingTestMasterWebSocket();
-        if (masterConn != null && masterConn.isOpen()) {
-            JsonObject fullResponse = new JsonObject();
-            fullResponse.addProperty("type", "node_response");
-            fullResponse.addProperty("requestId", requestId);
-            fullResponse.addProperty("nodeId", nodeId);
-            fullResponse.add("response", responseJson);
-            masterConn.send(fullResponse.toString());
-            logger.info("Server: Forwarded response for requestId {} to INCOMING Test Master.", requestId);
+    public void forwardResponseToIncomingTestMaster(String source, String requestId, String responseFrame) {
+        RelayConnection masterConn = incomingTestMasterFor(source);
+        if (masterConn != null) {
+            outbound.send(masterConn, responseFrame);
+            logger.info("Server: Forwarded response for requestId {} (issued by {}) to INCOMING Test Master at {}.", requestId, source, masterConn.getRemoteSocketAddress());
         } else {
-            logger.warn("Server: INCOMING Test Master not connected. Cannot forward response for requestId {}.", requestId);
+            logger.warn("Server: No INCOMING Test Master connected. Cannot forward response for requestId {}.", requestId);
         }
     }
 
     @Override
-    public void sendErrorToIncomingTestMaster(String requestId, String nodeId, String errorMessage) {
-        WebSocket masterConn = nodeRegistry.getIncomingTestMasterWebSocket();
-        if (masterConn != null && masterConn.isOpen()) {
+    public void sendErrorToIncomingTestMaster(String source, String requestId, String nodeId, String errorMessage) {
+        RelayConnection masterConn = incomingTestMasterFor(source);
+        if (masterConn != null) {
             JsonObject errorResponse = new JsonObject();
             errorResponse.addProperty("type", "node_response");
             errorResponse.addProperty("requestId", requestId);
@@ -239,45 +468,110 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
             response.addProperty("status", "error");
             response.addProperty("message", errorMessage);
             errorResponse.add("response", response);
-            masterConn.send(errorResponse.toString());
+            outbound.send(masterConn, errorResponse.toString());
             logger.info("Server: Sent error to INCOMING Test Master for request {}: {}", requestId, errorMessage);
         } else {
-            logger.warn("Server: INCOMING Test Master not connected. Cannot send error for request {}.", requestId);
+            logger.warn("Server: No INCOMING Test Master connected. Cannot send error for request {}.", requestId);
+        }
+    }
+
+    /**
+     * The pool member that issued a request if it is still connected, otherwise the live member with the
+     * shortest outbound backlog, preferring members that aren't congested.
+     */
+    @Override
+    public RelayConnection incomingTestMasterFor(String source) {
+        RelayConnection issuer = nodeRegistry.getIncomingTestMasterWebSocket(source);
+        if (issuer != null) {
+            return issuer;
+        }
+        RelayConnection best = null;
+        boolean bestCongested = true;
+        int bestQueued = Integer.MAX_VALUE;
+        for (NodeInfo master : nodeRegistry.getIncomingTestMasters()) {
+            if (master.conn == null || !master.conn.isOpen()) {
+                continue;
+            }
+            OutboundQueue queue = outbound.queueFor(master.conn);
+            boolean congested = queue.isCongested();
+            int queued = queue.getQueuedFrames();
+            if (best == null || (bestCongested && !congested) || (bestCongested == congested && queued < bestQueued)) {
+                best = master.conn;
+                bestCongested = congested;
+                bestQueued = queued;
+            }
         }
+        return best;
     }
 
-    private void sendAcknowledgement(WebSocket conn, String message) {
+    private void sendAcknowledgement(RelayConnection conn, String message) {
         JsonObject ack = new JsonObject();
         ack.addProperty("type", "acknowledgement");
         ack.addProperty("message", message);
-        conn.send(ack.toString());
+        outbound.send(conn, ack.toString());
     }
 
-    private void sendError(WebSocket conn, String errorMessage) {
+    private void sendError(RelayConnection conn, String errorMessage) {
         JsonObject error = new JsonObject();
         error.addProperty("type", "error");
         error.addProperty("message", errorMessage);
-        conn.send(error.toString());
+        outbound.send(conn, error.toString());
     }
 
-    private void sendError(WebSocket conn, String requestId, String errorMessage) {
+    private void sendError(RelayConnection conn, String requestId, String errorMessage) {
         JsonObject error = new JsonObject();
         error.addProperty("type", "error");
         if (requestId != null) {
             error.addProperty("requestId", requestId);
         }
         error.addProperty("message", errorMessage);
-        conn.send(error.toString());
+        outbound.send(conn, error.toString());
     }
 
     public Map<String, NodeInfo> getNodes() {
         return nodeRegistry.getAllClientNodeInfo();
     }
 
+    public NodeListing getNodeListing() {
+        return nodeListing;
+    }
+
+    public int getNodeListingMaxPage() {
+        return config.nodeListingMaxPage;
+    }
+
+    /** Outbound queue depth of every registered connection, deepest backlog first. */
+    public List<OutboundQueue.Stats> getOutboundQueueStats() {
+        List<OutboundQueue.Stats> stats = new ArrayList<>();
+        for (NodeInfo info : nodeRegistry.getAllConnectionInfo()) {
+            stats.add(outbound.queueFor(info.conn).snapshot(info.nodeId, info.role.name()));
+        }
+        stats.sort(Comparator.comparingLong((OutboundQueue.Stats s) -> s.queuedBytes).reversed());
+        return stats;
+    }
+
+    /** Every relay metric in the Prometheus text format. */
+    public String renderMetrics() {
+        return metrics.render(commandOrchestrator);
+    }
+
+    /** Health record of every RPA node, ejected and lowest-scoring nodes first. */
+    public List<NodeHealth.Snapshot> getNodeHealth() {
+        return nodeRegistry.getNodeHealth().snapshot();
+    }
+
+    public RelayCluster.Stats getClusterStats() {
+        return cluster.snapshot();
+    }
+
     public NodeCommander getNodeCommander() {
         return nodeCommander;
     }
 
+    public CommandOrchestrator getCommandOrchestrator() {
+        return commandOrchestrator;
+    }
+
     public boolean disconnectNode(String nodeId) {
         NodeInfo nodeInfo = nodeRegistry.getClientNodeInfo(nodeId);
         if (nodeInfo != null && nodeInfo.conn != null && nodeInfo.conn.isOpen()) {
@@ -289,12 +583,122 @@ public class Server extends WebSocketServer implements IncomingTestMasterSender
         return false;
     }
 
+    /**
+     * Drains the relay ahead of a restart, so its replacement can take over without dropping work:
+     * new connections are no longer accepted (with RELAY_REUSE_PORT on the NIO transport, the replacement
+     * already listens on the same port and gets them), new commands are refused with DRAINING, and every
+     * node and client is sent a relay_draining notice with a jittered reconnectInMs. Requests in flight run to
+     * their answer or deadline. Each RPA node is closed with code 1012 as soon as it has nothing in flight, so
+     * the fleet moves over gradually rather than all at once; batch clients and test masters follow once
+     * every request has been answered and their responses are written, or at timeoutMs at the latest.
+     * Relay peer links stay up so forwarded requests can still be answered; {@link #shutdown} closes them.
+     * @return true if nothing was left in flight when the drain ended.
+     */
+    public synchronized boolean drain(long timeoutMs) {
+        if (drained) {
+            return commandOrchestrator.getInFlightCount() == 0;
+        }
+        drained = true;
+        long deadline = System.currentTimeMillis() + Math.max(0, timeoutMs);
+        logger.info("Server: Draining for a restart. {} request(s) in flight; waiting up to {} ms.", commandOrchestrator.getInFlightCount(), timeoutMs);
+        commandOrchestrator.startDraining();
+        engine.stopAccepting();
+
+        Map<RelayConnection, Long> reconnectIn = new HashMap<>();
+        // Closed early; they stay open and registered until their closing handshake completes
+        Set<RelayConnection> closing = new HashSet<>();
+        for (NodeInfo info : nodeRegistry.getAllConnectionInfo()) {
+            if (info.role != Role.RELAY_PEER && info.conn != null && info.conn.isOpen()) {
+                reconnectIn.put(info.conn, sendDrainNotice(info.conn));
+            }
+        }
+
+        boolean finished = false;
+        try {
+            while (true) {
+                // Broadcast targets have no in-flight slot to show they still owe an answer
+                boolean broadcastsPending = commandOrchestrator.getPendingBroadcastCount() > 0;
+                boolean flushed = true;
+                for (Iterator<Map.Entry<RelayConnection, Long>> it = reconnectIn.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<RelayConnection, Long> entry = it.next();
+                    RelayConnection conn = entry.getKey();
+                    NodeInfo info = nodeRegistry.getNodeInfoByConnection(conn);
+                    if (!conn.isOpen() || info == null) {
+                        it.remove();
+                        continue;
+                    }
+                    boolean idle = outbound.queueFor(conn).getQueuedFrames() == 0;
+                    flushed &= idle;
+                    if (idle && info.role == Role.CLIENT_NODE && info.getInFlight() == 0 && !broadcastsPending
+                            && !commandOrchestrator.getAdmission().isHolding(info.nodeId)) {
+                        closeForRestart(conn, entry.getValue());
+                        closing.add(conn);
+                        it.remove();
+                    }
+                }
+                int inFlight = commandOrchestrator.getInFlightCount();
+                if (inFlight == 0 && flushed) {
+                    finished = true;
+                    break;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    logger.warn("Server: Drain timed out with {} request(s) still in flight.", inFlight);
+                    break;
+                }
+                Thread.sleep(DRAIN_POLL_MS);
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Server: Drain interrupted with {} request(s) still in flight.", commandOrchestrator.getInFlightCount());
+            Thread.currentThread().interrupt();
+        }
+
+        // Including anything that identified while the notices went out
+        int closed = 0;
+        for (NodeInfo info : nodeRegistry.getAllConnectionInfo()) {
+            if (info.role != Role.RELAY_PEER && info.conn != null && info.conn.isOpen() && !closing.contains(info.conn)) {
+                Long delay = reconnectIn.get(info.conn);
+                closeForRestart(info.conn, delay != null ? delay : sendDrainNotice(info.conn));
+                closed++;
+            }
+        }
+        logger.info("Server: Drain {}. Closed {} remaining connection(s) for the restart.", finished ? "complete" : "ended early", closed);
+        return finished;
+    }
+
+    /**
+     * Tells a connection the relay is restarting and how long to wait, once it is disconnected, before
+     * reconnecting (and backing off from there). The delay is jittered per connection so the fleet doesn't
+     * reconnect in one wave; it is repeated in the close reason for clients that only look at that.
+     */
+    private long sendDrainNotice(RelayConnection conn) {
+        long reconnectInMs = Math.max(0, config.drainReconnectDelayMs)
+                + (config.drainReconnectJitterMs > 0 ? ThreadLocalRandom.current().nextLong(config.drainReconnectJitterMs + 1) : 0);
+        JsonObject notice = new JsonObject();
+        notice.addProperty("type", "relay_draining");
+        notice.addProperty("reconnectInMs", reconnectInMs);
+        notice.addProperty("message", "Relay is restarting. Once disconnected, wait reconnectInMs, then reconnect with backoff.");
+        outbound.send(conn, notice.toString());
+        return reconnectInMs;
+    }
+
+    private static void closeForRestart(RelayConnection conn, long reconnectInMs) {
+        conn.close(CLOSE_SERVICE_RESTART, "Relay restarting. Reconnect in " + reconnectInMs + " ms.");
+    }
+
+    public boolean isDraining() {
+        return commandOrchestrator.isDraining();
+    }
+
+    /** Drains for up to RELAY_DRAIN_TIMEOUT_MS (see {@link #drain}), then stops the relay. */
     public void shutdown() {
+        drain(config.drainTimeoutMs);
         try {
             logger.info("Server: Shutting down...");
+            cluster.stop();
+            inbound.shutdown();
             scheduler.shutdownNow();
             scheduler.awaitTermination(5, TimeUnit.SECONDS);
-            stop(1000);
+            engine.stop(1000);
             logger.info("Server: WebSocket server stopped.");
         } catch (InterruptedException e) {
             logger.error("Server: Shutdown interrupted.", e);
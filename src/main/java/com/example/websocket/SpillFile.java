@@ -0,0 +1,88 @@
+// src/main/java/com/example/websocket/SpillFile.java
+package com.example.websocket;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only run of text frames in a memory-mapped file: [int length][UTF-8 bytes] records written
+ * after each other and read back once, in order. The file is mapped at its full capacity up front (sparse
+ * where the file system allows), so appending is a copy into the mapping and never a system call.
+ * Not thread-safe; the owning session serializes access.
+ */
+final class SpillFile {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private int readPosition = 0;
+    private int frames = 0;
+
+    private SpillFile(Path path, FileChannel channel, MappedByteBuffer map) {
+        this.path = path;
+        this.channel = channel;
+        this.map = map;
+    }
+
+    static SpillFile create(Path directory, String name, int capacityBytes) throws IOException {
+        Files.createDirectories(directory);
+        Path path = Files.createTempFile(directory, name, ".spill");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new SpillFile(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes));
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /** Appends a frame; false if it doesn't fit in what is left of the file. */
+    boolean append(String frame) {
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+        if (map.remaining() < 4 + bytes.length) {
+            return false;
+        }
+        map.putInt(bytes.length).put(bytes);
+        frames++;
+        return true;
+    }
+
+    /** The oldest frame not yet read, or null once every appended frame has been read. */
+    String next() {
+        if (readPosition >= map.position()) {
+            return null;
+        }
+        int length = map.getInt(readPosition);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = map.get(readPosition + 4 + i);
+        }
+        readPosition += 4 + length;
+        frames--;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int frames() {
+        return frames;
+    }
+
+    /** Closes and deletes the file. A platform that refuses to delete a still-mapped file gets it deleted on exit. */
+    void delete() {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
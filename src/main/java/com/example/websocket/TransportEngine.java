@@ -0,0 +1,36 @@
+// src/main/java/com/example/websocket/TransportEngine.java
+package com.example.websocket;
+
+/**
+ * Accepts WebSocket connections on the relay port and reports their events to a {@link TransportListener}.
+ * The engine is chosen at startup with RELAY_TRANSPORT; the routing core only sees {@link RelayConnection}s.
+ */
+public interface TransportEngine {
+
+    enum Kind {
+        /** Java-WebSocket's selector and decoder threads, with permessage-deflate. */
+        JAVA_WEBSOCKET,
+        /** {@link NioTransportEngine}: several event loops and pooled direct buffers, no extensions. */
+        NIO
+    }
+
+    /** Binds the port and starts accepting; returns once the engine's threads are running. */
+    void start();
+
+    /**
+     * Stops taking new connections while open ones carry on, so a relay that is draining for a restart
+     * leaves new clients to its replacement.
+     */
+    void stopAccepting();
+
+    /** Closes every connection and stops the engine's threads, waiting up to timeoutMs. */
+    void stop(int timeoutMs) throws InterruptedException;
+
+    int getPort();
+
+    static TransportEngine create(Kind kind, int port, RelayConfig config, TransportListener listener) {
+        return kind == Kind.NIO
+                ? new NioTransportEngine(port, config, listener)
+                : new JavaWebSocketEngine(port, config, listener);
+    }
+}
@@ -0,0 +1,29 @@
+// src/main/java/com/example/websocket/TransportListener.java
+package com.example.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Connection events raised by a {@link TransportEngine}. For one connection they arrive in order:
+ * onOpen, any number of onMessage and onPong, then onClose exactly once. Engines call them on their I/O threads.
+ */
+public interface TransportListener {
+
+    void onOpen(RelayConnection conn, String resourceDescriptor);
+
+    void onMessage(RelayConnection conn, String message);
+
+    /** The buffer belongs to the listener; engines do not reuse it. */
+    void onMessage(RelayConnection conn, ByteBuffer message);
+
+    /** A pong control frame arrived, answering a ping of {@link RelayConnection#sendPing} or of the engine's own keep-alive. */
+    void onPong(RelayConnection conn);
+
+    void onClose(RelayConnection conn, int code, String reason, boolean remote);
+
+    /** conn is null for errors of the engine itself, e.g. a failed bind. */
+    void onError(RelayConnection conn, Exception ex);
+
+    /** The engine is bound and accepting connections. */
+    void onStart();
+}
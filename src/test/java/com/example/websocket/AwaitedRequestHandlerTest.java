@@ -0,0 +1,58 @@
+// src/test/java/com/example/websocket/AwaitedRequestHandlerTest.java
+package com.example.websocket;
+
+import com.example.websocket.NodeCommander.DispatchResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AwaitedRequestHandlerTest {
+
+    @Test
+    void decodesTheNodeIdPathSegment() {
+        assertEquals("node-1", AwaitedRequestHandler.nodeIdOf("/api/request/node-1"));
+        assertEquals("lab pc/7", AwaitedRequestHandler.nodeIdOf("/api/request/lab%20pc%2F7"));
+        assertEquals("a+b", AwaitedRequestHandler.nodeIdOf("/api/request/a+b"), "'+' is a plus sign in a path");
+        assertEquals("zürich", AwaitedRequestHandler.nodeIdOf("/api/request/z%C3%BCrich"));
+    }
+
+    @Test
+    void rejectsAnythingButOneNonEmptySegment() {
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/request/"));
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/request/node-1/extra"));
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/request/node-1/"));
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/request/%"));
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/request/%zz"));
+        assertNull(AwaitedRequestHandler.nodeIdOf("/api/nodes"));
+        assertNull(AwaitedRequestHandler.nodeIdOf(null));
+    }
+
+    @Test
+    void mapsDispatchFailuresToStatusCodes() {
+        assertEquals(404, AwaitedRequestHandler.statusFor(DispatchResult.UNAVAILABLE));
+        assertEquals(404, AwaitedRequestHandler.statusFor(DispatchResult.NO_MATCHING_NODE));
+        assertEquals(409, AwaitedRequestHandler.statusFor(DispatchResult.DUPLICATE_REQUEST));
+        assertEquals(429, AwaitedRequestHandler.statusFor(DispatchResult.RATE_LIMITED));
+        assertEquals(503, AwaitedRequestHandler.statusFor(DispatchResult.BUSY));
+        assertEquals(503, AwaitedRequestHandler.statusFor(DispatchResult.RELAY_AT_CAPACITY));
+        assertEquals(503, AwaitedRequestHandler.statusFor(DispatchResult.DRAINING));
+    }
+
+    @Test
+    void mapsAFailedWaitToGatewayTimeoutOrUnavailable() {
+        assertEquals(504, AwaitedRequestHandler.statusFor(new TimeoutException("deadline passed")));
+        assertEquals(503, AwaitedRequestHandler.statusFor(new CancellationException()));
+        assertEquals(503, AwaitedRequestHandler.statusFor(new IllegalStateException("node disconnected")));
+    }
+
+    @Test
+    void explainsEachFailure() {
+        assertEquals("Node n1 is busy. Retry later.", AwaitedRequestHandler.messageFor(DispatchResult.BUSY, "n1"));
+        assertEquals("Node n1 not found or not active.", AwaitedRequestHandler.messageFor(DispatchResult.UNAVAILABLE, "n1"));
+        assertEquals("Request is already pending.", AwaitedRequestHandler.messageFor(DispatchResult.DUPLICATE_REQUEST, "n1"));
+    }
+}
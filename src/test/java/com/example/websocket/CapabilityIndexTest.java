@@ -0,0 +1,157 @@
+// src/test/java/com/example/websocket/CapabilityIndexTest.java
+package com.example.websocket;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.NodeStatus;
+import com.example.websocket.NodeRegistry.Role;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CapabilityIndexTest {
+
+    private final CapabilityIndex index = new CapabilityIndex();
+    private int nextConnection;
+
+    private NodeInfo node(String nodeId, String... tokens) {
+        NodeInfo node = new NodeInfo(nodeId, new TestConnection(nextConnection++), Role.CLIENT_NODE, new HashSet<>(Arrays.asList(tokens)));
+        index.add(node);
+        return node;
+    }
+
+    private static Set<String> selector(String... tokens) {
+        return new HashSet<>(Arrays.asList(tokens));
+    }
+
+    private static List<String> ids(List<NodeInfo> nodes) {
+        List<String> ids = new ArrayList<>();
+        for (NodeInfo node : nodes) {
+            ids.add(node.nodeId);
+        }
+        return ids;
+    }
+
+    @Test
+    void flattensCapabilitiesIntoLowerCaseTokens() {
+        Set<String> tokens = CapabilityIndex.tokensOf(JsonParser.parseString(
+                "{\"OS\":\"Windows\",\"apps\":[\"Excel\",\"Chrome\"],\"screen\":{\"Width\":1920},\"gpu\":true,\"vpn\":false,\"x\":null}")
+                .getAsJsonObject());
+
+        assertEquals(selector("os=windows", "apps=excel", "apps=chrome", "screen.width=1920", "gpu", "vpn=false"), tokens);
+        assertTrue(CapabilityIndex.tokensOf(null).isEmpty());
+    }
+
+    @Test
+    void picksTheLeastLoadedMatchingNode() {
+        NodeInfo a = node("a", "os=windows", "apps=excel");
+        NodeInfo b = node("b", "os=windows");
+        NodeInfo c = node("c", "os=linux", "apps=excel");
+        index.acquire(a);
+        index.acquire(a);
+
+        assertSame(b, index.acquireLeastLoaded(selector("os=windows"), 0));
+        assertSame(b, index.acquireLeastLoaded(selector("os=windows"), 0));
+        assertEquals(2, b.inFlight);
+        assertSame(c, index.acquireLeastLoaded(selector("apps=excel"), 0));
+        assertNull(index.acquireLeastLoaded(selector("os=windows", "apps=chrome"), 0));
+        assertNull(index.acquireLeastLoaded(selector("unknown"), 0));
+    }
+
+    @Test
+    void rotatesBetweenEquallyLoadedNodes() {
+        NodeInfo a = node("a");
+        NodeInfo b = node("b");
+
+        NodeInfo first = index.acquireLeastLoaded(Collections.emptySet(), 0);
+        index.release(first);
+        NodeInfo second = index.acquireLeastLoaded(Collections.emptySet(), 0);
+
+        assertEquals(selector("a", "b"), selector(first.nodeId, second.nodeId));
+        assertEquals(1, a.inFlight + b.inFlight);
+    }
+
+    @Test
+    void respectsThePerNodeLimit() {
+        NodeInfo a = node("a", "os=windows");
+
+        assertSame(a, index.acquireLeastLoaded(selector("os=windows"), 2));
+        assertSame(a, index.acquireLeastLoaded(selector("os=windows"), 2));
+        assertNull(index.acquireLeastLoaded(selector("os=windows"), 2));
+        assertFalse(index.tryAcquire(a, 2));
+
+        index.release(a);
+        assertSame(a, index.acquireLeastLoaded(selector("os=windows"), 2));
+    }
+
+    @Test
+    void listsMatchesLeastLoadedFirst() {
+        NodeInfo a = node("a", "os=windows");
+        node("b", "os=windows");
+        node("c", "os=linux");
+        index.acquire(a);
+
+        assertEquals(Arrays.asList("b", "a"), ids(index.matchAll(selector("os=windows"))));
+        assertEquals(3, index.matchAll(Collections.emptySet()).size());
+        assertEquals(1, a.inFlight, "matchAll does not acquire");
+    }
+
+    @Test
+    void dispatchesToIdleNodesButNotToClosedOnes() {
+        NodeInfo idle = node("idle", "os=windows");
+        idle.status = NodeStatus.IDLE;
+        NodeInfo closed = node("closed", "os=windows");
+        closed.conn.close(1000, "gone");
+
+        assertEquals(Collections.singletonList("idle"), ids(index.matchAll(selector("os=windows"))));
+        assertSame(idle, index.acquireLeastLoaded(selector("os=windows"), 0));
+    }
+
+    @Test
+    void skipsParkedNodesUntilTheirTimeIsUp() throws InterruptedException {
+        NodeInfo ejected = node("ejected", "os=windows");
+        NodeInfo healthy = node("healthy", "os=windows");
+        index.acquire(healthy);
+
+        index.park(ejected, System.currentTimeMillis() + 200);
+        assertEquals(1, index.getParkedCount());
+        assertEquals(Collections.singletonList("healthy"), ids(index.matchAll(selector("os=windows"))));
+        assertSame(healthy, index.acquireLeastLoaded(selector("os=windows"), 0));
+
+        // Load changes while parked are kept and apply once it is back
+        index.acquire(ejected);
+        Thread.sleep(300);
+
+        assertEquals(Arrays.asList("ejected", "healthy"), ids(index.matchAll(selector("os=windows"))));
+        assertEquals(0, index.getParkedCount());
+        assertEquals(1, ejected.inFlight);
+    }
+
+    @Test
+    void removesParkedAndActiveNodes() {
+        NodeInfo a = node("a", "os=windows");
+        NodeInfo b = node("b", "os=windows");
+        index.park(b, System.currentTimeMillis() + 60_000);
+
+        index.remove(a);
+        index.remove(b);
+
+        assertEquals(0, index.getParkedCount());
+        assertTrue(index.matchAll(selector("os=windows")).isEmpty());
+        assertNull(index.acquireLeastLoaded(Collections.emptySet(), 0));
+
+        index.add(a);
+        assertSame(a, index.acquireLeastLoaded(selector("os=windows"), 0));
+    }
+}
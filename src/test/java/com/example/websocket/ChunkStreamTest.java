@@ -0,0 +1,117 @@
+// src/test/java/com/example/websocket/ChunkStreamTest.java
+package com.example.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkStreamTest {
+
+    private static ChunkStream stream(int windowChunks) {
+        return new ChunkStream("r1", "client", null, null, windowChunks);
+    }
+
+    /** 0xC1 | seq | requestId length | requestId | payload, as a node sends it. */
+    private static ByteBuffer chunk(int seq, String requestId, int payloadBytes) {
+        byte[] id = requestId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(1 + 4 + 2 + id.length + payloadBytes);
+        frame.put(ChunkStream.CHUNK_MAGIC).putInt(seq).putShort((short) id.length).put(id);
+        frame.position(frame.limit());
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    void readsTheChunkHeader() {
+        ByteBuffer frame = chunk(7, "req-é", 100);
+
+        assertTrue(ChunkStream.isChunk(frame));
+        assertEquals(7, ChunkStream.seqOf(frame));
+        assertEquals("req-é", ChunkStream.requestIdOf(frame));
+        assertEquals(100, ChunkStream.payloadBytesOf(frame));
+        assertEquals(0, frame.position(), "reading the header must not consume the frame");
+    }
+
+    @Test
+    void readsTheHeaderOfAFrameThatDoesNotStartAtZero() {
+        ByteBuffer chunk = chunk(3, "r9", 5);
+        ByteBuffer frame = ByteBuffer.allocate(chunk.remaining() + 10);
+        frame.position(10);
+        frame.put(chunk).flip().position(10);
+
+        assertTrue(ChunkStream.isChunk(frame));
+        assertEquals(3, ChunkStream.seqOf(frame));
+        assertEquals("r9", ChunkStream.requestIdOf(frame));
+        assertEquals(5, ChunkStream.payloadBytesOf(frame));
+    }
+
+    @Test
+    void rejectsTruncatedHeadersAndEnvelopes() {
+        ByteBuffer truncated = chunk(0, "request", 0);
+        truncated.limit(truncated.limit() - 2);
+
+        assertNull(ChunkStream.requestIdOf(truncated));
+        assertNull(ChunkStream.requestIdOf(ByteBuffer.wrap(new byte[] {ChunkStream.CHUNK_MAGIC, 0, 0})));
+        assertFalse(ChunkStream.isChunk(ByteBuffer.wrap(new byte[] {(byte) 0x82})), "a MessagePack map is not a chunk");
+        assertFalse(ChunkStream.isChunk(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void acceptsChunksInOrderWithinTheWindow() {
+        ChunkStream stream = stream(4);
+
+        for (int seq = 0; seq < 4; seq++) {
+            assertNull(stream.acceptChunk(seq, 10));
+        }
+
+        assertEquals("Chunk 4 sent without credit.", stream.acceptChunk(4, 10));
+        assertEquals(4, stream.getChunks());
+        assertEquals(40, stream.getBytes());
+    }
+
+    @Test
+    void rejectsChunksOutOfOrder() {
+        ChunkStream stream = stream(4);
+        assertNull(stream.acceptChunk(0, 1));
+
+        assertEquals("Chunk 2 out of order; expected 1.", stream.acceptChunk(2, 1));
+        assertEquals("Chunk 0 out of order; expected 1.", stream.acceptChunk(0, 1));
+        assertEquals(1, stream.getChunks());
+    }
+
+    @Test
+    void returnsCreditInHalfWindowsAsChunksAreDelivered() {
+        ChunkStream stream = stream(4);
+        for (int seq = 0; seq < 4; seq++) {
+            stream.acceptChunk(seq, 1);
+        }
+
+        assertEquals(0, stream.chunkDelivered());
+        assertEquals(2, stream.chunkDelivered());
+        assertNull(stream.acceptChunk(4, 1));
+        assertNull(stream.acceptChunk(5, 1));
+        assertEquals("Chunk 6 sent without credit.", stream.acceptChunk(6, 1));
+
+        assertEquals(0, stream.chunkDelivered());
+        assertEquals(2, stream.chunkDelivered());
+        assertNull(stream.acceptChunk(6, 1));
+    }
+
+    @Test
+    void aWindowOfOneGrantsEveryChunk() {
+        ChunkStream stream = stream(0);
+        assertEquals(1, stream.getWindowChunks());
+
+        for (int seq = 0; seq < 3; seq++) {
+            assertNull(stream.acceptChunk(seq, 1));
+            assertEquals("Chunk " + (seq + 1) + " sent without credit.", stream.acceptChunk(seq + 1, 1));
+            assertEquals(1, stream.chunkDelivered());
+        }
+    }
+}
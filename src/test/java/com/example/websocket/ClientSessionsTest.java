@@ -0,0 +1,190 @@
+// src/test/java/com/example/websocket/ClientSessionsTest.java
+package com.example.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientSessionsTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private Path spillDirectory;
+    private OutboundDispatcher outbound;
+    private int nextConnection;
+
+    private ClientSessions sessions(long graceMs, int maxFrames, boolean spill) throws IOException {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_SESSION_GRACE_MS", String.valueOf(graceMs));
+        settings.put("RELAY_SESSION_BUFFER_MAX_FRAMES", String.valueOf(maxFrames));
+        settings.put("RELAY_SESSION_SPILL_MAX_BYTES", "64");
+        if (spill) {
+            spillDirectory = Files.createTempDirectory("sessions");
+            settings.put("RELAY_SESSION_SPILL_DIR", spillDirectory.toString());
+        }
+        RelayConfig config = RelayConfig.load(settings);
+        outbound = new OutboundDispatcher(config, scheduler);
+        return new ClientSessions(outbound, config);
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        scheduler.shutdownNow();
+        if (spillDirectory != null) {
+            try (Stream<Path> files = Files.walk(spillDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private TestConnection connection() {
+        TestConnection conn = new TestConnection(nextConnection++);
+        outbound.attach(conn);
+        return conn;
+    }
+
+    @Test
+    void deliversStraightToAnAttachedClient() throws IOException {
+        ClientSessions sessions = sessions(60_000, 10, false);
+        TestConnection conn = connection();
+        sessions.attach("batch-1", conn);
+
+        assertTrue(sessions.deliver("batch-1", "r1"));
+
+        assertEquals(Arrays.asList("r1"), conn.texts);
+        assertFalse(sessions.deliver("unknown", "r2"), "no session, nowhere to deliver");
+    }
+
+    @Test
+    void redeliversWhatArrivedWhileTheClientWasAwayBeforeAnythingNewer() throws IOException {
+        ClientSessions sessions = sessions(60_000, 10, false);
+        TestConnection first = connection();
+        sessions.attach("batch-1", first);
+        sessions.detach("batch-1", first);
+        first.close(1006, "gone");
+
+        assertTrue(sessions.deliver("batch-1", "r1"));
+        assertTrue(sessions.deliver("batch-1", "r2"));
+        assertEquals(2, sessions.getBufferedFrames());
+        assertEquals(1, sessions.getDetachedSessionCount());
+
+        TestConnection second = connection();
+        sessions.attach("batch-1", second);
+        sessions.deliver("batch-1", "r3");
+
+        assertEquals(Arrays.asList("r1", "r2", "r3"), second.texts);
+        assertEquals(2, sessions.getRedelivered());
+        assertEquals(0, sessions.getBufferedFrames());
+        assertEquals(0, sessions.getDetachedSessionCount());
+    }
+
+    @Test
+    void startsBufferingWhenTheConnectionClosesBeforeItIsDetached() throws IOException {
+        ClientSessions sessions = sessions(60_000, 10, false);
+        TestConnection first = connection();
+        sessions.attach("batch-1", first);
+        first.close(1006, "gone");
+
+        assertTrue(sessions.deliver("batch-1", "r1"));
+
+        TestConnection second = connection();
+        sessions.attach("batch-1", second);
+        assertEquals(Arrays.asList("r1"), second.texts);
+    }
+
+    @Test
+    void ignoresTheDetachOfAConnectionAlreadyReplaced() throws IOException {
+        ClientSessions sessions = sessions(60_000, 10, false);
+        TestConnection first = connection();
+        TestConnection second = connection();
+        sessions.attach("batch-1", first);
+        sessions.attach("batch-1", second);
+
+        sessions.detach("batch-1", first);
+        sessions.deliver("batch-1", "r1");
+
+        assertEquals(Arrays.asList("r1"), second.texts);
+        assertEquals(0, sessions.getDetachedSessionCount());
+    }
+
+    @Test
+    void dropsTheSessionAndItsBufferOnceTheGraceWindowPasses() throws Exception {
+        ClientSessions sessions = sessions(1, 10, false);
+        TestConnection conn = connection();
+        sessions.attach("batch-1", conn);
+        sessions.detach("batch-1", conn);
+        sessions.deliver("batch-1", "r1");
+        Thread.sleep(5);
+
+        sessions.expire();
+
+        assertEquals(1, sessions.getDropped());
+        assertEquals(0, sessions.getBufferedFrames());
+        assertFalse(sessions.deliver("batch-1", "r2"));
+        TestConnection back = connection();
+        sessions.attach("batch-1", back);
+        assertTrue(back.texts.isEmpty());
+    }
+
+    @Test
+    void dropsWhatDoesNotFitInTheBuffer() throws IOException {
+        ClientSessions sessions = sessions(60_000, 2, false);
+        TestConnection conn = connection();
+        sessions.attach("batch-1", conn);
+        sessions.detach("batch-1", conn);
+
+        assertTrue(sessions.deliver("batch-1", "r1"));
+        assertTrue(sessions.deliver("batch-1", "r2"));
+        assertFalse(sessions.deliver("batch-1", "r3"));
+
+        assertEquals(1, sessions.getDropped());
+    }
+
+    @Test
+    void spillsWhatDoesNotFitInMemoryAndKeepsTheOrder() throws IOException {
+        ClientSessions sessions = sessions(60_000, 2, true);
+        TestConnection conn = connection();
+        sessions.attach("batch-1", conn);
+        sessions.detach("batch-1", conn);
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(sessions.deliver("batch-1", "r" + i));
+        }
+        assertEquals(5, sessions.getBufferedFrames());
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(1, files.count());
+        }
+
+        TestConnection back = connection();
+        sessions.attach("batch-1", back);
+
+        assertEquals(Arrays.asList("r1", "r2", "r3", "r4", "r5"), back.texts);
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.count(), "the spill file is deleted once drained");
+        }
+    }
+
+    @Test
+    void withoutAGraceWindowNothingIsBuffered() throws IOException {
+        ClientSessions sessions = sessions(0, 10, false);
+        TestConnection conn = connection();
+        sessions.attach("batch-1", conn);
+        sessions.detach("batch-1", conn);
+
+        assertFalse(sessions.isEnabled());
+        assertFalse(sessions.deliver("batch-1", "r1"));
+    }
+}
@@ -0,0 +1,105 @@
+// src/test/java/com/example/websocket/ClientSharesTest.java
+package com.example.websocket;
+
+import com.example.websocket.ClientShares.Priority;
+import com.example.websocket.ClientShares.Share;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientSharesTest {
+
+    private static ClientShares shares(String... settings) {
+        Map<String, String> overrides = new HashMap<>();
+        overrides.put("RELAY_CLIENT_PRIORITIES", "");
+        overrides.put("RELAY_CLIENT_WEIGHTS", "");
+        overrides.put("RELAY_CLIENT_RATE_LIMITS", "");
+        overrides.put("RELAY_CLIENT_DEFAULT_RATE_LIMIT", "");
+        for (int i = 0; i < settings.length; i += 2) {
+            overrides.put(settings[i], settings[i + 1]);
+        }
+        return new ClientShares(RelayConfig.load(overrides));
+    }
+
+    @Test
+    void groupsSourcesIntoClients() {
+        ClientShares shares = shares();
+
+        assertSame(shares.of("http:req-1"), shares.of("http:req-2"));
+        assertEquals(ClientShares.HTTP_CLIENT, shares.of("http:req-1").clientId);
+        assertSame(shares.of(CommandOrchestrator.MASTER_SOURCE_PREFIX + "1"), shares.of(CommandOrchestrator.MASTER_SOURCE_PREFIX + "2"));
+        assertEquals(ClientShares.MASTER_CLIENT, shares.of(CommandOrchestrator.MASTER_SOURCE_PREFIX + "1").clientId);
+        assertEquals("batch-1", shares.of("batch-1").clientId);
+        assertEquals("relay:b", shares.of("relay:b").clientId);
+        assertEquals(4, shares.all().size());
+    }
+
+    @Test
+    void theMasterAndHttpCallersAreInteractiveAndBatchClientsBulk() {
+        ClientShares shares = shares();
+
+        assertEquals(Priority.INTERACTIVE, shares.of(CommandOrchestrator.MASTER_SOURCE_PREFIX + "1").priority);
+        assertEquals(Priority.INTERACTIVE, shares.of("http:req-1").priority);
+        assertEquals(Priority.BULK, shares.of("batch-1").priority);
+        assertEquals(1, shares.of("batch-1").weight);
+        assertFalse(shares.of("batch-1").isRateLimited());
+    }
+
+    @Test
+    void appliesConfiguredPrioritiesAndWeights() {
+        ClientShares shares = shares(
+                "RELAY_CLIENT_PRIORITIES", "urgent=interactive,http=bulk,odd=sometimes",
+                "RELAY_CLIENT_WEIGHTS", "urgent=4,zero=0,odd=heavy");
+
+        assertEquals(Priority.INTERACTIVE, shares.of("urgent").priority);
+        assertEquals(4, shares.of("urgent").weight);
+        assertEquals(Priority.BULK, shares.of("http:req-1").priority);
+        assertEquals(1, shares.of("zero").weight, "weights are at least 1");
+        assertEquals(Priority.BULK, shares.of("odd").priority, "an invalid priority keeps the default");
+        assertEquals(1, shares.of("odd").weight, "an invalid weight keeps the default");
+    }
+
+    @Test
+    void refusesCommandsOverTheRateOnceTheBurstIsSpent() {
+        Share share = shares("RELAY_CLIENT_RATE_LIMITS", "batch-1=0.001:3").of("batch-1");
+
+        assertTrue(share.isRateLimited());
+        assertTrue(share.tryAcquire());
+        assertTrue(share.tryAcquire());
+        assertTrue(share.tryAcquire());
+        assertFalse(share.tryAcquire());
+        assertFalse(share.tryAcquire());
+        assertEquals(2, share.getRateLimited());
+    }
+
+    @Test
+    void refillsTheBucketAtTheConfiguredRate() throws InterruptedException {
+        Share share = shares("RELAY_CLIENT_RATE_LIMITS", "batch-1=200:1").of("batch-1");
+        assertTrue(share.tryAcquire());
+        assertFalse(share.tryAcquire());
+
+        Thread.sleep(20); // four tokens' worth, capped at the burst of one
+
+        assertTrue(share.tryAcquire());
+        assertFalse(share.tryAcquire());
+    }
+
+    @Test
+    void limitsEveryClientByDefaultExceptForwardedTraffic() {
+        ClientShares shares = shares(
+                "RELAY_CLIENT_DEFAULT_RATE_LIMIT", "1",
+                "RELAY_CLIENT_RATE_LIMITS", "relay:c=5,vip=0");
+
+        assertTrue(shares.of("batch-1").isRateLimited());
+        assertEquals(1.0, shares.of("batch-1").getRatePerSecond());
+        assertFalse(shares.of("relay:b").isRateLimited(), "limited where it entered the cluster");
+        assertEquals(5.0, shares.of("relay:c").getRatePerSecond());
+        assertFalse(shares.of("vip").isRateLimited());
+    }
+}
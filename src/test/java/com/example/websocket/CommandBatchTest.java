@@ -0,0 +1,113 @@
+// src/test/java/com/example/websocket/CommandBatchTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** node_command_batch from a batch client, driven straight into a relay that is not listening. */
+class CommandBatchTest {
+
+    private final List<TestConnection> connections = new ArrayList<>();
+    private Server server;
+
+    private void start(int maxBatchCommands) {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_MAX_BATCH_COMMANDS", String.valueOf(maxBatchCommands));
+        settings.put("RELAY_CLUSTER_PEERS", "");
+        server = new Server(0, RelayConfig.load(settings), InboundDispatcher.Mode.INLINE);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.shutdown();
+    }
+
+    private TestConnection identify(String message) {
+        TestConnection conn = new TestConnection(connections.size());
+        connections.add(conn);
+        server.onMessage(conn, message);
+        assertEquals("acknowledgement", lastFrame(conn).get("type").getAsString());
+        return conn;
+    }
+
+    private static JsonObject lastFrame(TestConnection conn) {
+        assertTrue(!conn.texts.isEmpty(), "nothing sent");
+        return JsonParser.parseString(conn.texts.get(conn.texts.size() - 1)).getAsJsonObject();
+    }
+
+    private static String command(String requestId, String nodeId) {
+        return "{\"requestId\":\"" + requestId + "\",\"nodeId\":\"" + nodeId + "\",\"command\":{\"action\":\"screenshot\"}}";
+    }
+
+    @Test
+    void acksAcceptedAndRejectedEntriesInOneFrame() {
+        start(100);
+        TestConnection node = identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"n1\"}");
+        TestConnection client = identify("{\"type\":\"identify_batch_client\",\"clientId\":\"batch-1\"}");
+        int nodeFrames = node.texts.size();
+
+        server.onMessage(client, "{\"type\":\"node_command_batch\",\"batchId\":\"b1\",\"commands\":["
+                + command("r1", "n1") + ","
+                + "{\"requestId\":\"r2\",\"nodeId\":\"n1\"},"
+                + command("r3", "missing") + ","
+                + "42,"
+                + command("r4", "n1") + "]}");
+
+        JsonObject ack = lastFrame(client);
+        assertEquals("node_command_batch_ack", ack.get("type").getAsString());
+        assertEquals("b1", ack.get("batchId").getAsString());
+        assertEquals(2, ack.get("acceptedCount").getAsInt());
+        assertEquals(3, ack.get("rejectedCount").getAsInt());
+        assertEquals(JsonParser.parseString("[\"r1\",\"r4\"]"), ack.getAsJsonArray("accepted"));
+        JsonArray rejected = ack.getAsJsonArray("rejected");
+        assertEquals(1, rejected.get(0).getAsJsonObject().get("index").getAsInt());
+        assertEquals("r2", rejected.get(0).getAsJsonObject().get("requestId").getAsString());
+        assertEquals(2, rejected.get(1).getAsJsonObject().get("index").getAsInt());
+        assertEquals(3, rejected.get(2).getAsJsonObject().get("index").getAsInt());
+        assertEquals("Entry is not a JSON object.", rejected.get(2).getAsJsonObject().get("reason").getAsString());
+
+        // Accepted entries go out as ordinary commands, one frame each
+        assertEquals(nodeFrames + 2, node.texts.size());
+        JsonObject first = JsonParser.parseString(node.texts.get(nodeFrames)).getAsJsonObject();
+        assertEquals("command", first.get("type").getAsString());
+        assertEquals("r1", first.get("requestId").getAsString());
+        assertEquals("r4", lastFrame(node).get("requestId").getAsString());
+    }
+
+    @Test
+    void rejectsEntriesBeyondTheMaximum() {
+        start(2);
+        identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"n1\"}");
+        TestConnection client = identify("{\"type\":\"identify_batch_client\",\"clientId\":\"batch-1\"}");
+
+        server.onMessage(client, "{\"type\":\"node_command_batch\",\"batchId\":\"b2\",\"commands\":["
+                + command("r1", "n1") + "," + command("r2", "n1") + "," + command("r3", "n1") + "]}");
+
+        JsonObject ack = lastFrame(client);
+        assertEquals(2, ack.get("acceptedCount").getAsInt());
+        JsonObject rejected = ack.getAsJsonArray("rejected").get(0).getAsJsonObject();
+        assertEquals(2, rejected.get("index").getAsInt());
+        assertEquals("Batch exceeds the maximum of 2 commands.", rejected.get("reason").getAsString());
+    }
+
+    @Test
+    void answersABatchWithoutCommandsWithAnError() {
+        start(100);
+        TestConnection client = identify("{\"type\":\"identify_batch_client\",\"clientId\":\"batch-1\"}");
+
+        server.onMessage(client, "{\"type\":\"node_command_batch\",\"batchId\":\"b3\"}");
+
+        assertEquals("error", lastFrame(client).get("type").getAsString());
+    }
+}
@@ -0,0 +1,128 @@
+// src/test/java/com/example/websocket/FrameScannerTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameScannerTest {
+
+    @Test
+    void readsRoutingFieldsAndKeepsPayloadsAsSlices() {
+        String response = "{ \"status\" : \"success\", \"data\": [1, {\"x\": \"}\\\"]\"}], \"n\": null }";
+        String frame = "{\"type\":\"node_response\", \"requestId\":\"r1\",\"nodeId\":\"n1\",\"timeoutMs\":1500,"
+                + "\"response\": " + response + " , \"extra\":[[],{}]}";
+
+        FrameEnvelope envelope = FrameEnvelope.parse(frame);
+
+        assertEquals("node_response", envelope.type());
+        assertEquals("r1", envelope.requestId());
+        assertEquals("n1", envelope.nodeId());
+        assertEquals(1500, envelope.timeoutMs());
+        assertTrue(envelope.hasResponseObject());
+        assertEquals(response, frame.substring(envelope.responseStart(), envelope.responseEnd()));
+        assertFalse(envelope.hasCommandObject());
+        assertFalse(envelope.hasSelectorObject());
+    }
+
+    @Test
+    void readsLiteralsAsTheirTextAndNullAsNull() {
+        FrameEnvelope envelope = FrameEnvelope.parse("{\"type\":\"node_command\",\"requestId\":42,\"nodeId\":null,\"status\":{\"a\":1}}");
+
+        assertEquals("42", envelope.requestId());
+        assertNull(envelope.nodeId());
+        assertNull(envelope.status(), "a non-string status is not a status");
+    }
+
+    @Test
+    void unescapesStringValues() {
+        FrameEnvelope envelope = FrameEnvelope.parse("{\"requestId\":\"a\\\"b\\\\c\\n\\u0041\\/\"}");
+
+        assertEquals("a\"b\\c\nA/", envelope.requestId());
+    }
+
+    @Test
+    void findsTheCommandAction() {
+        String frame = "{\"type\":\"node_command\",\"command\":{\"params\":{\"action\":\"nested\"},\"action\":\"click\"}}";
+        FrameEnvelope envelope = FrameEnvelope.parse(frame);
+
+        assertTrue(envelope.hasCommandObject());
+        assertEquals("click", envelope.commandAction());
+        assertNull(FrameEnvelope.parse("{\"command\":{\"action\":7}}").commandAction());
+    }
+
+    @Test
+    void listsStringNodeIdsOnly() {
+        FrameEnvelope envelope = FrameEnvelope.parse("{\"type\":\"node_broadcast\",\"nodeIds\":[\"n1\",null,{\"n\":2},\"n3\",[],4]}");
+
+        assertEquals(Arrays.asList("n1", "n3", "4"), envelope.nodeIds());
+    }
+
+    @Test
+    void readsBatchEntriesAsSlicesOfTheWholeFrame() {
+        String frame = "{\"type\":\"node_command_batch\",\"batchId\":\"b1\",\"commands\":["
+                + "{\"requestId\":\"r1\",\"nodeId\":\"n1\",\"command\":{\"action\":\"a\"}},"
+                + " {\"requestId\":\"r2\",\"nodeId\":\"n2\",\"command\":{\"action\":\"b\"}} ]}";
+        FrameEnvelope batch = FrameEnvelope.parse(frame);
+        assertEquals("b1", batch.batchId());
+        assertTrue(batch.hasCommandsArray());
+
+        List<String> commands = new ArrayList<>();
+        FrameScanner scanner = batch.commandsScanner();
+        scanner.beginArray();
+        while (scanner.nextElement()) {
+            FrameEnvelope entry = FrameEnvelope.read(scanner);
+            commands.add(entry.requestId() + "@" + entry.nodeId() + ":" + frame.substring(entry.commandStart(), entry.commandEnd()));
+        }
+
+        assertEquals(Arrays.asList("r1@n1:{\"action\":\"a\"}", "r2@n2:{\"action\":\"b\"}"), commands);
+    }
+
+    @Test
+    void walksMembersWithoutAllocatingKeys() {
+        FrameScanner scanner = new FrameScanner(" { \"a\" : \"x\" , \"b\\\"\" : true } ");
+        scanner.beginObject();
+
+        assertTrue(scanner.nextMember());
+        assertTrue(scanner.keyIs("a"));
+        assertEquals('"', scanner.peek());
+        assertEquals("x", scanner.readString());
+        assertTrue(scanner.nextMember());
+        assertFalse(scanner.keyIs("b\""), "escaped names never match");
+        assertEquals("true", scanner.readString());
+        assertFalse(scanner.nextMember());
+        scanner.finish();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "[]",
+            "{",
+            "{\"a\"}",
+            "{\"a\":}",
+            "{\"a\":1,}",
+            "{,\"a\":1}",
+            "{\"a\":1 \"b\":2}",
+            "{\"a\":\"unterminated}",
+            "{\"a\":[1,2}",
+            "{\"a\":{\"b\":[}]}",
+            "{\"a\":#}",
+            "{\"a\":1}}",
+            "{\"a\":1} x"
+    })
+    void rejectsMalformedFrames(String frame) {
+        assertThrows(JsonSyntaxException.class, () -> FrameEnvelope.parse(frame));
+    }
+}
@@ -0,0 +1,126 @@
+// src/test/java/com/example/websocket/IncomingTestMasterPoolTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The /ws/incoming_test_master pool, driven straight into a relay that is not listening. */
+class IncomingTestMasterPoolTest {
+
+    private Server server;
+    private int nextConnection;
+
+    @BeforeEach
+    void startServer() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_TEST_MASTER_POOL_MAX", "2");
+        settings.put("RELAY_CLUSTER_PEERS", "");
+        server = new Server(0, RelayConfig.load(settings), InboundDispatcher.Mode.INLINE);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.shutdown();
+    }
+
+    private TestConnection master() {
+        TestConnection conn = new TestConnection(nextConnection++);
+        server.onOpen(conn, "/ws/incoming_test_master");
+        return conn;
+    }
+
+    private TestConnection node(String nodeId) {
+        TestConnection conn = new TestConnection(nextConnection++);
+        server.onOpen(conn, "/");
+        server.onMessage(conn, "{\"type\":\"identify_rpa_node\",\"nodeId\":\"" + nodeId + "\"}");
+        return conn;
+    }
+
+    private static JsonObject lastFrame(TestConnection conn) {
+        assertTrue(!conn.texts.isEmpty(), "nothing sent");
+        return JsonParser.parseString(conn.texts.get(conn.texts.size() - 1)).getAsJsonObject();
+    }
+
+    private void command(TestConnection master, String requestId) {
+        server.onMessage(master, "{\"type\":\"node_command\",\"requestId\":\"" + requestId
+                + "\",\"nodeId\":\"n1\",\"command\":{\"action\":\"screenshot\"}}");
+    }
+
+    private void respond(TestConnection node, String requestId) {
+        server.onMessage(node, "{\"type\":\"node_response\",\"requestId\":\"" + requestId + "\",\"response\":{\"status\":\"ok\"}}");
+    }
+
+    @Test
+    void holdsUpToThePoolMaximum() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_TEST_MASTER_POOL_MAX", "2");
+        NodeRegistry registry = new NodeRegistry(RelayConfig.load(settings));
+        TestConnection first = new TestConnection(1);
+        TestConnection third = new TestConnection(3);
+
+        assertEquals("INCOMING_TEST:1", registry.registerIncomingTestMaster(first).nodeId);
+        assertEquals("INCOMING_TEST:2", registry.registerIncomingTestMaster(new TestConnection(2)).nodeId);
+        assertNull(registry.registerIncomingTestMaster(third));
+
+        assertEquals(1013, third.closeCode);
+        assertEquals(2, registry.getIncomingTestMasters().size());
+        assertEquals(first, registry.getIncomingTestMasterWebSocket("INCOMING_TEST:1"));
+
+        registry.unregisterConnection(first);
+        assertEquals("INCOMING_TEST:3", registry.registerIncomingTestMaster(new TestConnection(4)).nodeId,
+                "a member that leaves frees its slot; its id is not reused");
+    }
+
+    @Test
+    void turnsAwayConnectionsBeyondThePoolMaximum() {
+        TestConnection first = master();
+        TestConnection second = master();
+        TestConnection third = master();
+
+        assertTrue(first.isOpen());
+        assertTrue(second.isOpen());
+        assertEquals(1013, third.closeCode);
+    }
+
+    @Test
+    void routesEachResponseToTheMemberThatIssuedIt() {
+        TestConnection a = master();
+        TestConnection b = master();
+        TestConnection node = node("n1");
+
+        command(a, "ra");
+        command(b, "rb");
+        respond(node, "rb");
+        respond(node, "ra");
+
+        assertEquals(1, a.texts.size());
+        assertEquals("ra", lastFrame(a).get("requestId").getAsString());
+        assertEquals(1, b.texts.size());
+        assertEquals("rb", lastFrame(b).get("requestId").getAsString());
+    }
+
+    @Test
+    void fallsBackToALiveMemberWhenTheIssuerIsGone() {
+        TestConnection a = master();
+        TestConnection b = master();
+        TestConnection node = node("n1");
+
+        command(a, "ra");
+        a.close(1006, "gone");
+        server.onClose(a, 1006, "gone", true);
+        respond(node, "ra");
+
+        assertEquals(0, a.texts.size());
+        assertEquals("ra", lastFrame(b).get("requestId").getAsString());
+    }
+}
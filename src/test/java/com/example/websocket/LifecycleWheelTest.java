@@ -0,0 +1,119 @@
+// src/test/java/com/example/websocket/LifecycleWheelTest.java
+package com.example.websocket;
+
+import com.example.websocket.LifecycleWheel.Kind;
+import com.example.websocket.LifecycleWheel.Timer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LifecycleWheelTest {
+
+    private static final long TICK_MS = 100;
+
+    private final LifecycleWheel wheel = new LifecycleWheel(TICK_MS, 8, 0);
+
+    private static Timer timer() {
+        return new Timer(null, Kind.IDLE);
+    }
+
+    @Test
+    void firesOnTheFirstTickAtOrAfterTheDeadline() {
+        Timer t = timer();
+        wheel.schedule(t, 250);
+
+        assertTrue(wheel.advance(200).isEmpty());
+        assertEquals(Collections.singletonList(t), wheel.advance(300));
+        assertEquals(0, wheel.size());
+        assertTrue(wheel.advance(400).isEmpty(), "a timer fires once");
+    }
+
+    @Test
+    void neverSchedulesOnATickThatHasPassed() {
+        wheel.advance(1000);
+        Timer t = timer();
+
+        wheel.schedule(t, 0);
+
+        assertTrue(wheel.advance(1000).isEmpty());
+        assertEquals(Collections.singletonList(t), wheel.advance(1100));
+    }
+
+    @Test
+    void reschedulingMovesATimerAndCancellingUnlinksIt() {
+        Timer moved = timer();
+        Timer cancelled = timer();
+        wheel.schedule(moved, 200);
+        wheel.schedule(cancelled, 200);
+        wheel.schedule(moved, 500);
+        wheel.cancel(cancelled);
+        wheel.cancel(cancelled);
+
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.advance(400).isEmpty());
+        assertEquals(Collections.singletonList(moved), wheel.advance(500));
+    }
+
+    @Test
+    void keepsTimersBeyondOneRevolutionUntilTheirOwnTick() {
+        // 8 slots of 100 ms: 1250 ms hangs in the same slot as 450 ms
+        Timer near = timer();
+        Timer far = timer();
+        wheel.schedule(near, 450);
+        wheel.schedule(far, 1250);
+
+        assertEquals(Collections.singletonList(near), wheel.advance(500));
+        assertTrue(wheel.advance(1200).isEmpty());
+        assertEquals(Collections.singletonList(far), wheel.advance(1300));
+    }
+
+    @Test
+    void catchesUpAfterALongPause() {
+        List<Timer> timers = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            Timer t = timer();
+            wheel.schedule(t, i * 150L);
+            timers.add(t);
+        }
+
+        List<Timer> due = wheel.advance(10_000);
+
+        assertEquals(new HashSet<>(timers), new HashSet<>(due));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void firesEveryTimerExactlyOnceAtItsTick() {
+        Random random = new Random(13);
+        List<Timer> timers = new ArrayList<>();
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Timer t = timer();
+            long deadline = random.nextInt(5000);
+            wheel.schedule(t, deadline);
+            timers.add(t);
+            deadlines.add(deadline);
+        }
+
+        Set<Timer> fired = new HashSet<>();
+        for (long now = 0; now <= 5100; now += 1 + random.nextInt(250)) {
+            for (Timer t : wheel.advance(now)) {
+                long deadline = deadlines.get(timers.indexOf(t));
+                assertTrue(deadline <= now, "fired before its deadline");
+                assertTrue(now - deadline < TICK_MS + 250, "fired late");
+                assertTrue(fired.add(t), "fired twice");
+            }
+        }
+        fired.addAll(wheel.advance(5200));
+        assertEquals(500, fired.size());
+        assertEquals(0, wheel.size());
+    }
+}
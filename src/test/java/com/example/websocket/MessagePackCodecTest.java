@@ -0,0 +1,121 @@
+// src/test/java/com/example/websocket/MessagePackCodecTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonSyntaxException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessagePackCodecTest {
+
+    private static String roundTrip(String json) {
+        return MessagePackCodec.toJson(ByteBuffer.wrap(MessagePackCodec.fromJson(json)));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "null",
+            "true",
+            "\"\"",
+            "{}",
+            "[]",
+            "{\"type\":\"node_response\",\"requestId\":\"r1\",\"response\":{\"status\":\"success\",\"data\":[1,2.5,false,null]}}",
+            "[0,127,128,255,256,65535,65536,4294967295,4294967296,9223372036854775807]",
+            "[-1,-32,-33,-128,-129,-32768,-32769,-2147483648,-2147483649,-9223372036854775808]",
+            "[0.5,-1.25,1.0E-5,3.141592653589793]",
+            "\"quote \\\" backslash \\\\ newline \\n tab \\t control \\u0001\"",
+            "\"caf\u00e9 \u65e5\u672c \ud83d\ude00\"",
+            "[[[[{\"a\":[{\"b\":{}}]}]]]]"
+    })
+    void roundTripsJson(String json) {
+        assertEquals(json, roundTrip(json));
+    }
+
+    @Test
+    void roundTripsEveryStringAndContainerSize() {
+        for (int length : new int[] {31, 32, 255, 256, 65535, 65536}) {
+            String json = "\"" + repeat('x', length) + "\"";
+            assertEquals(json, roundTrip(json), "string of " + length);
+        }
+        for (int count : new int[] {15, 16, 65535, 65536}) {
+            StringBuilder array = new StringBuilder("[");
+            StringBuilder object = new StringBuilder("{");
+            for (int i = 0; i < count; i++) {
+                array.append(i > 0 ? "," : "").append(i % 100);
+                object.append(i > 0 ? "," : "").append("\"k").append(i).append("\":").append(i % 2 == 0);
+            }
+            String arrayJson = array.append(']').toString();
+            String objectJson = object.append('}').toString();
+            assertEquals(arrayJson, roundTrip(arrayJson), "array of " + count);
+            assertEquals(objectJson, roundTrip(objectJson), "map of " + count);
+        }
+    }
+
+    @Test
+    void usesTheSmallestEncoding() {
+        assertArrayEquals(bytes(0x01), MessagePackCodec.fromJson("1"));
+        assertArrayEquals(bytes(0xff), MessagePackCodec.fromJson("-1"));
+        assertArrayEquals(bytes(0xcc, 0xc8), MessagePackCodec.fromJson("200"));
+        assertArrayEquals(bytes(0xd0, 0xc0), MessagePackCodec.fromJson("-64"));
+        assertArrayEquals(bytes(0xc0), MessagePackCodec.fromJson("null"));
+        assertArrayEquals(bytes(0x81, 0xa1, 'a', 0x92, 0xc3, 0xa0), MessagePackCodec.fromJson("{\"a\":[true,\"\"]}"));
+        assertArrayEquals(bytes(0xdc, 0x00, 0x10, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0),
+                MessagePackCodec.fromJson("[0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0]"));
+    }
+
+    @Test
+    void decodesBinaryAsBase64AndIntegerKeysAsStrings() {
+        assertEquals("\"AQID\"", MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xc4, 3, 1, 2, 3))));
+        assertEquals("{\"1\":true,\"-2\":\"x\"}", MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0x82, 0x01, 0xc3, 0xfe, 0xa1, 'x'))));
+        assertEquals("0.5", MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xca, 0x3f, 0x00, 0x00, 0x00))));
+        assertEquals("18446744073709551615", MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xcf, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff))));
+    }
+
+    @Test
+    void decodesOnlyTheBufferRemaining() {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(0xc0, 0x91, 0x07, 0xc0));
+        buffer.position(1).limit(3);
+
+        assertEquals("[7]", MessagePackCodec.toJson(buffer));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test
+    void rejectsMessagePackWithoutAJsonForm() {
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0x92, 0x01))));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0x01, 0x02))));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xd4, 0x01, 0x00))));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xcb, 0x7f, 0xf8, 0, 0, 0, 0, 0, 0))));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0x81, 0xc0, 0x01))));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.toJson(ByteBuffer.wrap(bytes(0xdb, 0x7f, 0xff, 0xff, 0xff, 'a'))));
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.fromJson("{\"a\":"));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.fromJson("[1,2]]"));
+        assertThrows(JsonSyntaxException.class, () -> MessagePackCodec.fromJson(repeat('[', 300) + repeat(']', 300)));
+    }
+}
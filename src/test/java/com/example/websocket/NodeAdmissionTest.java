@@ -0,0 +1,225 @@
+// src/test/java/com/example/websocket/NodeAdmissionTest.java
+package com.example.websocket;
+
+import com.example.websocket.ClientShares.Priority;
+import com.example.websocket.ClientShares.Share;
+import com.example.websocket.NodeAdmission.Held;
+import com.example.websocket.NodeCommander.DispatchResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodeAdmissionTest {
+
+    private static final long LATER = Long.MAX_VALUE / 2;
+
+    private final Share bulk = share("batch-1", Priority.BULK, 1);
+
+    private static NodeAdmission admission(int queueMax, long reconnectHoldMs) {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_ADMISSION_QUEUE_MAX", String.valueOf(queueMax));
+        settings.put("RELAY_ADMISSION_QUEUE_TIMEOUT_MS", "60000");
+        settings.put("RELAY_ADMISSION_RECONNECT_HOLD_MS", String.valueOf(reconnectHoldMs));
+        return new NodeAdmission(RelayConfig.load(settings));
+    }
+
+    private static Share share(String clientId, Priority priority, int weight) {
+        return new Share(clientId, priority, weight, 0, 1);
+    }
+
+    private static FrameEnvelope command(String requestId) {
+        return FrameEnvelope.parse("{\"type\":\"node_command\",\"requestId\":\"" + requestId
+                + "\",\"selector\":{\"os\":\"windows\"},\"command\":{\"action\":\"screenshot\"}}");
+    }
+
+    private static DispatchResult hold(NodeAdmission admission, String requestId, String nodeId, Share share, long deadline) {
+        return admission.hold(requestId, share.clientId, nodeId, command(requestId), null, share, deadline);
+    }
+
+    /** Takes everything queued for nodeId, in admission order. */
+    private static List<String> drain(NodeAdmission admission, String nodeId) {
+        List<String> order = new ArrayList<>();
+        for (Held held; (held = admission.next(nodeId)) != null; ) {
+            admission.admitted(held);
+            order.add(held.requestId);
+        }
+        return order;
+    }
+
+    @Test
+    void queuesPerNodeInArrivalOrder() {
+        NodeAdmission admission = admission(10, 0);
+        assertEquals(DispatchResult.SENT, hold(admission, "r1", "n1", bulk, LATER));
+        assertEquals(DispatchResult.SENT, hold(admission, "r2", "n1", bulk, LATER));
+        assertEquals(DispatchResult.SENT, hold(admission, "r3", "n2", bulk, LATER));
+
+        assertTrue(admission.isHolding("n1"));
+        assertFalse(admission.isHolding("n3"));
+        assertEquals(3, admission.getQueuedCount());
+        assertEquals(3, bulk.getQueued());
+        assertEquals(new HashSet<>(Arrays.asList("n1", "n2")), new HashSet<>(admission.getWaitingNodeIds()));
+
+        Held first = admission.next("n1");
+        assertEquals("r1", first.requestId);
+        assertTrue(admission.isQueued("r1"), "findable until admitted");
+        admission.admitted(first);
+        assertFalse(admission.isQueued("r1"));
+        assertEquals(Collections.singletonList("r2"), drain(admission, "n1"));
+        assertFalse(admission.isHolding("n1"));
+        assertNull(admission.next("n1"));
+    }
+
+    @Test
+    void refusesDuplicatesAndCommandsBeyondTheQueueLimit() {
+        NodeAdmission admission = admission(2, 0);
+        hold(admission, "r1", "n1", bulk, LATER);
+
+        assertEquals(DispatchResult.DUPLICATE_REQUEST, hold(admission, "r1", "n1", bulk, LATER));
+        assertEquals(DispatchResult.DUPLICATE_REQUEST, hold(admission, "r1", "n2", bulk, LATER));
+        hold(admission, "r2", "n1", bulk, LATER);
+        assertEquals(DispatchResult.BUSY, hold(admission, "r3", "n1", bulk, LATER));
+        assertEquals(DispatchResult.SENT, hold(admission, "r3", "n2", bulk, LATER), "the limit is per node");
+    }
+
+    @Test
+    void aRequeuedCommandGoesNextAgain() {
+        NodeAdmission admission = admission(10, 0);
+        hold(admission, "r1", "n1", bulk, LATER);
+        hold(admission, "r2", "n1", bulk, LATER);
+
+        Held first = admission.next("n1");
+        admission.requeue(first);
+
+        assertSame(first, admission.find("r1"));
+        assertEquals(Arrays.asList("r1", "r2"), drain(admission, "n1"));
+    }
+
+    @Test
+    void expiresCommandsPastTheirDeadline() {
+        NodeAdmission admission = admission(10, 0);
+        long now = System.currentTimeMillis();
+        hold(admission, "soon", "n1", bulk, now + 10);
+        hold(admission, "later", "n1", bulk, LATER);
+
+        assertTrue(admission.expire(now).isEmpty());
+        List<Held> expired = admission.expire(now + 10);
+
+        assertEquals(1, expired.size());
+        assertEquals("soon", expired.get(0).requestId);
+        assertFalse(admission.isQueued("soon"));
+        assertEquals(1, admission.getExpired());
+        assertEquals(1, bulk.getQueued());
+
+        List<Held> timedOut = admission.expire(System.currentTimeMillis() + 60_001);
+        assertEquals("later", timedOut.get(0).requestId, "RELAY_ADMISSION_QUEUE_TIMEOUT_MS bounds the wait");
+        assertFalse(admission.isHolding("n1"));
+    }
+
+    @Test
+    void holdsTheQueueOfADisconnectedNodeForItsReturn() {
+        NodeAdmission admission = admission(10, 1000);
+        hold(admission, "r1", "n1", bulk, LATER);
+
+        assertTrue(admission.nodeGone("n1").isEmpty());
+        assertTrue(admission.isAwaitingReconnect("n1"));
+        assertTrue(admission.expire(System.currentTimeMillis()).isEmpty());
+
+        admission.nodeBack("n1");
+        assertFalse(admission.isAwaitingReconnect("n1"));
+        assertEquals(Collections.singletonList("r1"), drain(admission, "n1"));
+    }
+
+    @Test
+    void failsTheQueueOfANodeThatDoesNotReturn() {
+        NodeAdmission held = admission(10, 1000);
+        hold(held, "r1", "n1", bulk, LATER);
+        held.nodeGone("n1");
+
+        List<Held> expired = held.expire(System.currentTimeMillis() + 1001);
+        assertEquals("r1", expired.get(0).requestId);
+        assertFalse(held.isAwaitingReconnect("n1"));
+
+        NodeAdmission noHold = admission(10, 0);
+        hold(noHold, "r2", "n1", bulk, LATER);
+        assertEquals("r2", noHold.nodeGone("n1").get(0).requestId);
+        assertFalse(noHold.isQueued("r2"));
+    }
+
+    @Test
+    void queuesSelectorCommandsPerSelector() {
+        NodeAdmission admission = admission(10, 0);
+        Set<String> windows = Collections.singleton("os=windows");
+        Set<String> linux = Collections.singleton("os=linux");
+
+        assertEquals(DispatchResult.SENT, admission.holdForSelector("r1", "batch-1", windows, command("r1"), bulk, LATER));
+        admission.holdForSelector("r2", "batch-1", windows, command("r2"), bulk, LATER);
+        assertEquals(DispatchResult.DUPLICATE_REQUEST, admission.holdForSelector("r1", "batch-1", linux, command("r1"), bulk, LATER));
+
+        assertTrue(admission.isHoldingSelector(windows));
+        assertFalse(admission.isHoldingSelector(linux));
+        assertFalse(admission.isHolding("n1"));
+        assertEquals(Collections.singletonList(windows), admission.getWaitingSelectors());
+
+        Held first = admission.nextForSelector(windows);
+        assertEquals("r1", first.requestId);
+        assertNull(first.nodeId);
+        assertEquals("selector {\"os\":\"windows\"}", first.describeTarget());
+        admission.requeue(first);
+        assertEquals("r1", admission.nextForSelector(windows).requestId);
+        admission.admitted(first);
+        admission.admitted(admission.nextForSelector(windows));
+
+        admission.expire(System.currentTimeMillis());
+        assertTrue(admission.getWaitingSelectors().isEmpty());
+        assertEquals(0, admission.getQueuedCount());
+    }
+
+    @Test
+    void admitsInteractiveCommandsBeforeBulkOnes() {
+        NodeAdmission admission = admission(10, 0);
+        Share interactive = share(ClientShares.HTTP_CLIENT, Priority.INTERACTIVE, 1);
+        hold(admission, "b1", "n1", bulk, LATER);
+        hold(admission, "b2", "n1", bulk, LATER);
+        hold(admission, "i1", "n1", interactive, LATER);
+
+        assertEquals(Arrays.asList("i1", "b1", "b2"), drain(admission, "n1"));
+    }
+
+    @Test
+    void sharesFreedSlotsInProportionToClientWeights() {
+        NodeAdmission admission = admission(100, 0);
+        Share heavy = share("heavy", Priority.BULK, 2);
+        Share light = share("light", Priority.BULK, 1);
+        for (int i = 0; i < 12; i++) {
+            hold(admission, "h" + i, "n1", heavy, LATER);
+        }
+        for (int i = 0; i < 12; i++) {
+            hold(admission, "l" + i, "n1", light, LATER);
+        }
+
+        List<String> order = drain(admission, "n1");
+
+        int heavyFirst = 0;
+        for (String requestId : order.subList(0, 12)) {
+            if (requestId.startsWith("h")) {
+                heavyFirst++;
+            }
+        }
+        assertEquals(8, heavyFirst, "two slots for every one while both wait");
+        assertEquals("l0", order.get(1), "a long queue of one client doesn't delay another's first command");
+        assertEquals(24, order.size());
+    }
+}
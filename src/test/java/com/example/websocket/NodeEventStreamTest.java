@@ -0,0 +1,118 @@
+// src/test/java/com/example/websocket/NodeEventStreamTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodeEventStreamTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final RelayConfig config = config();
+    private final NodeRegistry registry = new NodeRegistry(config);
+    private final OutboundDispatcher outbound = new OutboundDispatcher(config, scheduler);
+    private final NodeEventStream events = new NodeEventStream(registry, outbound, config);
+    private int nextConnection;
+
+    private static RelayConfig config() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_NODE_EVENTS_MAX_SUBSCRIBERS", "2");
+        settings.put("RELAY_NODE_EVENTS_MAX_BACKLOG", "2");
+        settings.put("RELAY_OUTBOUND_SOCKET_WINDOW_FRAMES", "1");
+        settings.put("RELAY_OUTBOUND_PUMP_MS", "3600000");
+        return RelayConfig.load(settings);
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private TestConnection connection() {
+        TestConnection conn = new TestConnection(nextConnection++);
+        outbound.attach(conn);
+        return conn;
+    }
+
+    private static JsonObject frame(TestConnection conn, int index) {
+        return JsonParser.parseString(conn.texts.get(index)).getAsJsonObject();
+    }
+
+    @Test
+    void sendsASnapshotAndThenEveryChangeInSequence() {
+        registry.registerClientNode("n1", connection());
+        TestConnection subscriber = connection();
+
+        assertTrue(events.subscribe(subscriber));
+        TestConnection n2 = connection();
+        registry.registerClientNode("n2", n2);
+        registry.unregisterConnection(n2);
+
+        JsonObject snapshot = frame(subscriber, 0);
+        assertEquals("node_snapshot", snapshot.get("type").getAsString());
+        long seq = snapshot.get("seq").getAsLong();
+        assertEquals(1, snapshot.getAsJsonArray("nodes").size());
+        assertEquals("n1", snapshot.getAsJsonArray("nodes").get(0).getAsJsonObject().get("id").getAsString());
+
+        JsonObject connected = frame(subscriber, 1);
+        assertEquals("node_event", connected.get("type").getAsString());
+        assertEquals(seq + 1, connected.get("seq").getAsLong());
+        assertEquals("connected", connected.get("event").getAsString());
+        assertEquals("n2", connected.getAsJsonObject("node").get("id").getAsString());
+
+        JsonObject disconnected = frame(subscriber, 2);
+        assertEquals(seq + 2, disconnected.get("seq").getAsLong());
+        assertEquals("disconnected", disconnected.get("event").getAsString());
+    }
+
+    @Test
+    void stopsStreamingToAnUnsubscribedConnection() {
+        TestConnection subscriber = connection();
+        events.subscribe(subscriber);
+
+        events.unsubscribe(subscriber);
+        registry.registerClientNode("n1", connection());
+
+        assertEquals(1, subscriber.texts.size());
+        assertEquals(0, events.getSubscriberCount());
+    }
+
+    @Test
+    void refusesSubscribersBeyondTheLimit() {
+        assertTrue(events.subscribe(connection()));
+        assertTrue(events.subscribe(connection()));
+
+        TestConnection third = connection();
+        assertFalse(events.subscribe(third));
+        assertTrue(third.texts.isEmpty());
+        assertEquals(2, events.getSubscriberCount());
+    }
+
+    @Test
+    void disconnectsASubscriberThatFallsTooFarBehind() {
+        TestConnection slow = connection();
+        TestConnection fast = connection();
+        events.subscribe(slow);
+        events.subscribe(fast);
+        slow.setPendingWrites(1);
+
+        for (int i = 0; i < 3; i++) {
+            registry.registerClientNode("n" + i, connection());
+        }
+
+        assertEquals(1013, slow.closeCode);
+        assertEquals(1, events.getSubscriberCount());
+        assertTrue(fast.isOpen());
+        assertEquals(4, fast.texts.size());
+    }
+}
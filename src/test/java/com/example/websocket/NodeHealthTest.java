@@ -0,0 +1,234 @@
+// src/test/java/com/example/websocket/NodeHealthTest.java
+package com.example.websocket;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodeHealthTest {
+
+    private static final long MS = 1_000_000;
+    private static final long BASE_MS = 40;
+
+    private final NodeRegistry registry = new NodeRegistry(config());
+    private final NodeHealth health = registry.getNodeHealth();
+    private final List<NodeInfo> nodes = new ArrayList<>();
+
+    private static RelayConfig config() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_HEALTH_CONSECUTIVE_FAILURES", "3");
+        settings.put("RELAY_HEALTH_MIN_SAMPLES", "5");
+        settings.put("RELAY_HEALTH_MAX_FAILURE_PERCENT", "50");
+        settings.put("RELAY_HEALTH_OUTLIER_FACTOR", "10");
+        settings.put("RELAY_HEALTH_OUTLIER_FLOOR_MS", "100");
+        settings.put("RELAY_HEALTH_EJECTION_BASE_MS", String.valueOf(BASE_MS));
+        settings.put("RELAY_HEALTH_EJECTION_MAX_MS", String.valueOf(4 * BASE_MS));
+        settings.put("RELAY_HEALTH_MAX_EJECTED_PERCENT", "50");
+        return RelayConfig.load(settings);
+    }
+
+    private void connect(int count) {
+        for (int i = nodes.size(); i < count; i++) {
+            nodes.add(registry.registerClientNode("n" + i, new TestConnection(i)));
+        }
+    }
+
+    private void respond(NodeInfo node, int times, long latencyMs, boolean error) {
+        for (int i = 0; i < times; i++) {
+            health.recordResponse(node, latencyMs * MS, error);
+        }
+    }
+
+    private boolean dispatchable(NodeInfo node) {
+        return registry.findDispatchableNodes(Collections.emptySet()).contains(node);
+    }
+
+    private NodeHealth.Snapshot snapshotOf(NodeInfo node) {
+        for (NodeHealth.Snapshot snapshot : health.snapshot()) {
+            if (snapshot.nodeId.equals(node.nodeId)) {
+                return snapshot;
+            }
+        }
+        throw new AssertionError("no health record for " + node.nodeId);
+    }
+
+    /** Waits out the current ejection of node and lets evaluate() put it back on probation. */
+    private void readmit(NodeInfo node) throws InterruptedException {
+        long wait = node.health.getEjectedUntil() - System.currentTimeMillis();
+        if (wait >= 0) {
+            Thread.sleep(wait + 1);
+        }
+        health.evaluate();
+        assertFalse(node.health.isEjected());
+    }
+
+    @Test
+    void ejectsANodeAfterConsecutiveFailures() {
+        connect(4);
+        NodeInfo node = nodes.get(0);
+
+        health.recordTimeout(node);
+        respond(node, 1, 10, true);
+        assertFalse(node.health.isEjected());
+        health.recordTimeout(node);
+
+        assertTrue(node.health.isEjected());
+        assertFalse(dispatchable(node), "ejected nodes are skipped by selectors and broadcasts");
+        assertEquals(1, health.getEjections());
+        NodeHealth.Snapshot snapshot = snapshotOf(node);
+        assertTrue(snapshot.ejected);
+        assertEquals(0, snapshot.score, 0);
+        assertTrue(snapshot.reason.startsWith("3 failures in a row"), snapshot.reason);
+        assertEquals(2, snapshot.timeouts);
+        assertEquals(1, snapshot.errors);
+    }
+
+    @Test
+    void aSuccessResetsTheRunOfFailures() {
+        connect(4);
+        NodeInfo node = nodes.get(0);
+
+        for (int i = 0; i < 3; i++) {
+            health.recordTimeout(node);
+            health.recordTimeout(node);
+            respond(node, 1, 10, false);
+        }
+
+        assertFalse(node.health.isEjected());
+    }
+
+    @Test
+    void ejectsNodesFailingMoreThanTheLimitOnEvaluation() {
+        connect(4);
+        NodeInfo flaky = nodes.get(0);
+        for (int i = 0; i < 4; i++) {
+            respond(flaky, 2, 10, true);
+            respond(flaky, 1, 10, false);
+        }
+        respond(flaky, 2, 10, true);
+        assertFalse(flaky.health.isEjected(), "never three failures in a row");
+
+        health.evaluate();
+
+        assertTrue(flaky.health.isEjected());
+        assertTrue(snapshotOf(flaky).reason.endsWith("of recent commands failed"), snapshotOf(flaky).reason);
+    }
+
+    @Test
+    void ejectsLatencyOutliersAgainstTheMedianOfTheirPeers() {
+        connect(4);
+        for (int i = 0; i < 3; i++) {
+            respond(nodes.get(i), 5, 10 + i, false);
+        }
+        NodeInfo slow = nodes.get(3);
+        respond(slow, 5, 500, false);
+
+        health.evaluate();
+
+        assertTrue(slow.health.isEjected());
+        assertTrue(snapshotOf(slow).reason.startsWith("latency of"), snapshotOf(slow).reason);
+        for (int i = 0; i < 3; i++) {
+            assertFalse(nodes.get(i).health.isEjected());
+            assertEquals(1.0, snapshotOf(nodes.get(i)).score, 0.2);
+        }
+    }
+
+    @Test
+    void needsEnoughSamplesAndPeersToCallAnOutlier() {
+        connect(4);
+        respond(nodes.get(0), 5, 10, false);
+        respond(nodes.get(1), 5, 10, false);
+        NodeInfo slow = nodes.get(2);
+        respond(slow, 4, 5000, false);
+
+        health.evaluate();
+        assertFalse(slow.health.isEjected(), "too few samples to judge, and two peers are too few for a median");
+
+        respond(slow, 1, 5000, false);
+        health.evaluate();
+        assertTrue(slow.health.isEjected());
+    }
+
+    @Test
+    void doublesTheEjectionForEveryRelapseUpToTheMaximum() throws InterruptedException {
+        connect(4);
+        NodeInfo node = nodes.get(0);
+        long[] expected = {BASE_MS, 2 * BASE_MS, 4 * BASE_MS, 4 * BASE_MS};
+
+        for (int streak = 0; streak < expected.length; streak++) {
+            long before;
+            if (streak == 0) {
+                before = System.currentTimeMillis();
+                for (int i = 0; i < 3; i++) {
+                    health.recordTimeout(node);
+                }
+            } else {
+                readmit(node);
+                assertTrue(snapshotOf(node).probation);
+                before = System.currentTimeMillis();
+                health.recordTimeout(node); // one failure on probation is enough
+            }
+            long ejectedFor = node.health.getEjectedUntil() - before;
+            assertTrue(ejectedFor >= expected[streak] && ejectedFor <= expected[streak] + 20,
+                    "ejection " + (streak + 1) + " lasted " + ejectedFor + " ms, expected " + expected[streak]);
+            assertEquals(streak + 1, snapshotOf(node).ejectionStreak);
+        }
+    }
+
+    @Test
+    void endsProbationAfterEnoughCleanOutcomes() throws InterruptedException {
+        connect(4);
+        NodeInfo node = nodes.get(0);
+        for (int i = 0; i < 3; i++) {
+            health.recordTimeout(node);
+        }
+        readmit(node);
+        assertTrue(dispatchable(node));
+
+        respond(node, 5, 10, false);
+
+        NodeHealth.Snapshot snapshot = snapshotOf(node);
+        assertFalse(snapshot.probation);
+        assertEquals(0, snapshot.ejectionStreak);
+        health.recordTimeout(node);
+        assertFalse(node.health.isEjected(), "off probation a single failure is tolerated again");
+    }
+
+    @Test
+    void neverEjectsMoreThanTheConfiguredShareOfNodes() {
+        connect(4);
+        for (NodeInfo node : nodes) {
+            for (int i = 0; i < 3; i++) {
+                health.recordTimeout(node);
+            }
+        }
+
+        assertEquals(2, health.getEjectedCount());
+        assertEquals(2, registry.findDispatchableNodes(Collections.emptySet()).size());
+    }
+
+    @Test
+    void ignoresAnswersToCommandsSentBeforeTheEjection() {
+        connect(4);
+        NodeInfo node = nodes.get(0);
+        for (int i = 0; i < 3; i++) {
+            health.recordTimeout(node);
+        }
+
+        respond(node, 10, 10, false);
+
+        NodeHealth.Snapshot snapshot = snapshotOf(node);
+        assertEquals(0, snapshot.samples);
+        assertEquals(10, snapshot.responses);
+        assertEquals(1, snapshot.ejectionStreak);
+    }
+}
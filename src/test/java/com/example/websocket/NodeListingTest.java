@@ -0,0 +1,108 @@
+// src/test/java/com/example/websocket/NodeListingTest.java
+package com.example.websocket;
+
+import com.example.websocket.NodeRegistry.NodeInfo;
+import com.example.websocket.NodeRegistry.NodeStatus;
+import com.example.websocket.NodeRegistry.Role;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NodeListingTest {
+
+    private final NodeRegistry registry = new NodeRegistry(RelayConfig.load(Collections.emptyMap()));
+    private int nextConnection;
+
+    private NodeListing listing(long maxAgeMs) {
+        return new NodeListing(registry, RelayConfig.load(Collections.singletonMap("RELAY_NODE_LISTING_MAX_AGE_MS", String.valueOf(maxAgeMs))));
+    }
+
+    private NodeInfo node(String nodeId) {
+        return registry.registerClientNode(nodeId, new TestConnection(nextConnection++));
+    }
+
+    private static JsonObject page(NodeListing.Snapshot snapshot, Role role, NodeStatus status, int offset, int limit) {
+        return JsonParser.parseString(snapshot.renderPage(role, status, offset, limit)).getAsJsonObject();
+    }
+
+    @Test
+    void listsNodesSortedByIdOnePageAtATime() {
+        node("c");
+        node("a");
+        node("b");
+        registry.registerBatchServerClient("batch-1", new TestConnection(nextConnection++));
+        NodeListing.Snapshot snapshot = listing(60_000).current();
+
+        JsonObject all = page(snapshot, null, null, 0, 10);
+        assertEquals(4, all.get("total").getAsInt());
+        JsonArray nodes = all.getAsJsonArray("nodes");
+        assertEquals("a", nodes.get(0).getAsJsonObject().get("id").getAsString());
+        assertEquals("batch-1", nodes.get(2).getAsJsonObject().get("id").getAsString());
+        assertEquals("CLIENT_NODE", nodes.get(0).getAsJsonObject().get("role").getAsString());
+        assertEquals(0, nodes.get(0).getAsJsonObject().get("inFlight").getAsInt());
+
+        JsonObject second = page(snapshot, Role.CLIENT_NODE, null, 1, 1);
+        assertEquals(3, second.get("total").getAsInt(), "total counts every match, not just the page");
+        assertEquals(1, second.getAsJsonArray("nodes").size());
+        assertEquals("b", second.getAsJsonArray("nodes").get(0).getAsJsonObject().get("id").getAsString());
+
+        assertEquals(0, page(snapshot, null, NodeStatus.IDLE, 0, 10).get("total").getAsInt());
+        assertEquals(0, page(snapshot, null, null, 10, 10).getAsJsonArray("nodes").size());
+    }
+
+    @Test
+    void servesTheSameSnapshotUntilTheRegistryChanges() {
+        node("a");
+        NodeListing listing = listing(60_000);
+        NodeListing.Snapshot first = listing.current();
+
+        assertSame(first, listing.current());
+
+        NodeInfo b = node("b");
+        NodeListing.Snapshot second = listing.current();
+        assertNotSame(first, second);
+        assertNotEquals(first.etag(), second.etag());
+        assertEquals(2, second.size());
+
+        registry.unregisterConnection(b.conn);
+        NodeListing.Snapshot third = listing.current();
+        assertNotEquals(second.etag(), third.etag());
+        assertEquals(1, third.size());
+    }
+
+    @Test
+    void keepsTheETagWhenARebuildProjectsToTheSameRows() {
+        NodeInfo a = node("a");
+        NodeListing listing = listing(0);
+        NodeListing.Snapshot first = listing.current();
+
+        NodeListing.Snapshot rebuilt = listing.current();
+        assertNotSame(first, rebuilt, "a snapshot past its maximum age is rebuilt");
+        assertEquals(first.etag(), rebuilt.etag());
+
+        a.lastActivity++;
+        assertNotEquals(first.etag(), listing.current().etag());
+    }
+
+    @Test
+    void matchesIfNoneMatchAgainstTheETag() {
+        String etag = listing(60_000).current().etag();
+
+        assertTrue(HTTPServer.matchesETag(etag, etag));
+        assertTrue(HTTPServer.matchesETag("W/" + etag, etag));
+        assertTrue(HTTPServer.matchesETag("\"other\", " + etag, etag));
+        assertTrue(HTTPServer.matchesETag("*", etag));
+        assertFalse(HTTPServer.matchesETag("\"other\"", etag));
+        assertFalse(HTTPServer.matchesETag(null, etag));
+    }
+}
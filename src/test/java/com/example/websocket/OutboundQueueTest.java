@@ -0,0 +1,153 @@
+// src/test/java/com/example/websocket/OutboundQueueTest.java
+package com.example.websocket;
+
+import com.example.websocket.OutboundQueue.SendResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+
+    private static final int SOCKET_WINDOW = 2;
+
+    // The pump is driven by hand; the scheduled one never comes round during a test
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TestConnection conn = new TestConnection(1);
+    private OutboundDispatcher outbound;
+    private OutboundQueue queue;
+
+    @BeforeEach
+    void attach() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_OUTBOUND_HIGH_WATER_FRAMES", "4");
+        settings.put("RELAY_OUTBOUND_LOW_WATER_FRAMES", "1");
+        settings.put("RELAY_OUTBOUND_HIGH_WATER_BYTES", "100");
+        settings.put("RELAY_OUTBOUND_LOW_WATER_BYTES", "10");
+        settings.put("RELAY_OUTBOUND_SOCKET_WINDOW_FRAMES", String.valueOf(SOCKET_WINDOW));
+        settings.put("RELAY_OUTBOUND_PUMP_MS", "3600000");
+        outbound = new OutboundDispatcher(RelayConfig.load(settings), scheduler);
+        queue = outbound.attach(conn);
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void writesStraightThroughWhileTheSocketWindowHasRoom() {
+        assertEquals(SendResult.SENT, queue.send("a"));
+        assertEquals(SendResult.SENT, queue.trySend("b"));
+
+        assertEquals(Arrays.asList("a", "b"), conn.texts);
+        assertEquals(0, queue.getQueuedFrames());
+        assertEquals(2, queue.getSentFrames());
+        assertEquals(0, outbound.getBackloggedCount());
+    }
+
+    @Test
+    void queuesBehindAFullSocketWindowAndPumpsInOrder() {
+        conn.setPendingWrites(SOCKET_WINDOW);
+
+        assertEquals(SendResult.QUEUED, queue.send("a"));
+        assertEquals(SendResult.QUEUED, queue.send("bb"));
+        assertTrue(conn.texts.isEmpty());
+        assertEquals(2, queue.getQueuedFrames());
+        assertEquals(3, queue.getQueuedBytes());
+        assertEquals(1, outbound.getBackloggedCount());
+
+        queue.pump();
+        assertTrue(conn.texts.isEmpty(), "pumped into a full socket window");
+
+        conn.setPendingWrites(0);
+        queue.pump();
+        assertEquals(Arrays.asList("a", "bb"), conn.texts);
+        assertEquals(0, queue.getQueuedFrames());
+        assertEquals(0, queue.getQueuedBytes());
+        assertEquals(0, outbound.getBackloggedCount());
+    }
+
+    @Test
+    void keepsOrderWhileABacklogDrains() {
+        conn.setPendingWrites(SOCKET_WINDOW);
+        queue.send("first");
+        conn.setPendingWrites(0);
+
+        // The socket has room again, but "first" is still queued; "second" must not overtake it
+        assertEquals(SendResult.QUEUED, queue.send("second"));
+        queue.pump();
+
+        assertEquals(Arrays.asList("first", "second"), conn.texts);
+    }
+
+    @Test
+    void refusesNewWorkFromTheHighWaterMarkUntilBelowTheLowWaterMark() {
+        conn.setPendingWrites(SOCKET_WINDOW);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(SendResult.QUEUED, queue.trySend("c" + i));
+        }
+        assertFalse(queue.isCongested());
+
+        assertEquals(SendResult.QUEUED, queue.trySend("c3"));
+        assertTrue(queue.isCongested(), "four frames queued is the high water mark");
+        assertTrue(outbound.isCongested(conn));
+        assertEquals(1, queue.getCongestionEvents());
+
+        assertEquals(SendResult.BUSY, queue.trySend("refused"));
+        assertEquals(1, queue.getRejectedFrames());
+        // Responses and errors are queued whatever the backlog
+        assertEquals(SendResult.QUEUED, queue.send("response"));
+
+        queue.pump();
+        assertTrue(queue.isCongested(), "nothing drained while the socket window is full");
+
+        conn.setPendingWrites(0);
+        queue.pump();
+        assertFalse(queue.isCongested());
+        assertEquals(SendResult.SENT, queue.trySend("accepted"));
+        assertEquals(Arrays.asList("c0", "c1", "c2", "c3", "response", "accepted"), conn.texts);
+        assertEquals(1, queue.getCongestionEvents());
+    }
+
+    @Test
+    void countsQueuedBytesAgainstTheByteWaterMark() {
+        conn.setPendingWrites(SOCKET_WINDOW);
+        char[] big = new char[100];
+        Arrays.fill(big, 'x');
+
+        assertEquals(SendResult.QUEUED, queue.send(new String(big)));
+
+        assertTrue(queue.isCongested());
+        assertEquals(SendResult.BUSY, queue.trySend("x"));
+    }
+
+    @Test
+    void dropsTheBacklogOnceClosed() {
+        conn.setPendingWrites(SOCKET_WINDOW);
+        for (int i = 0; i < 5; i++) {
+            queue.send("f" + i);
+        }
+        assertTrue(queue.isCongested());
+
+        conn.close(1000, "bye");
+        outbound.detach(conn);
+
+        assertEquals(0, queue.getQueuedFrames());
+        assertEquals(0, queue.getQueuedBytes());
+        assertFalse(queue.isCongested());
+        assertEquals(0, outbound.getBackloggedCount());
+        assertEquals(SendResult.CLOSED, queue.send("late"));
+        assertEquals(SendResult.CLOSED, queue.trySend("late"));
+        assertTrue(conn.texts.isEmpty());
+    }
+}
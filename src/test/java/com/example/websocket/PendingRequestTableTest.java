@@ -0,0 +1,181 @@
+// src/test/java/com/example/websocket/PendingRequestTableTest.java
+package com.example.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRequestTableTest {
+
+    private final List<PendingRequestTable.Entry<String>> expired = new ArrayList<>();
+
+    private PendingRequestTable<String> table(int capacity, PendingRequestTable.OverflowPolicy policy) {
+        return new PendingRequestTable<>(capacity, policy, expired::add);
+    }
+
+    @Test
+    void tracksOneRequestPerRequestId() {
+        PendingRequestTable<String> table = table(16, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+
+        assertEquals(PendingRequestTable.Admission.ADMITTED, table.put("r1", "client", "node", 100, 7));
+        assertEquals(PendingRequestTable.Admission.DUPLICATE, table.put("r1", "other", "node2", 50));
+
+        PendingRequestTable.Entry<String> entry = table.get("r1");
+        assertEquals("client", entry.source);
+        assertEquals("node", entry.target);
+        assertEquals(100, entry.deadline);
+        assertEquals(7, entry.label);
+        assertTrue(table.contains("r1"));
+
+        assertEquals("client", table.remove("r1").source);
+        assertNull(table.remove("r1"));
+        assertFalse(table.contains("r1"));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void rejectsNewRequestsWhenFull() {
+        PendingRequestTable<String> table = table(2, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        table.put("r1", "c", "n", 10);
+        table.put("r2", "c", "n", 20);
+
+        assertEquals(PendingRequestTable.Admission.REJECTED_FULL, table.put("r3", "c", "n", 30));
+        assertEquals(2, table.size());
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    void evictsTheEarliestDeadlineWhenFull() {
+        PendingRequestTable<String> table = table(3, PendingRequestTable.OverflowPolicy.EVICT_EARLIEST_DEADLINE);
+        table.put("late", "c", "n", 300);
+        table.put("early", "c", "n", 100);
+        table.put("middle", "c", "n", 200);
+
+        assertEquals(PendingRequestTable.Admission.ADMITTED, table.put("new", "c", "n", 50));
+
+        assertEquals(1, expired.size());
+        assertEquals("early", expired.get(0).requestId);
+        assertFalse(table.contains("early"));
+        assertTrue(table.contains("new"));
+    }
+
+    @Test
+    void expiresInDeadlineOrder() {
+        PendingRequestTable<String> table = table(1000, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        List<Integer> deadlines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            deadlines.add(i);
+        }
+        Collections.shuffle(deadlines, new Random(1));
+        for (int deadline : deadlines) {
+            table.put("r" + deadline, "c", "n", deadline);
+        }
+
+        assertEquals(250, table.expire(249));
+        assertEquals(250, table.size());
+        for (int i = 0; i < expired.size(); i++) {
+            assertEquals("r" + i, expired.get(i).requestId);
+        }
+        assertEquals(0, table.expire(249));
+        assertNotNull(table.get("r250"));
+    }
+
+    @Test
+    void extendingADeadlineReordersExpiry() {
+        PendingRequestTable<String> table = table(16, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        table.put("r1", "c", "n", 10);
+        table.put("r2", "c", "n", 20);
+        table.put("r3", "c", "n", 30);
+
+        assertTrue(table.extend("r1", 40));
+        assertFalse(table.extend("missing", 40));
+        assertEquals(2, table.expire(30));
+
+        assertEquals("r2", expired.get(0).requestId);
+        assertEquals("r3", expired.get(1).requestId);
+        assertTrue(table.contains("r1"));
+    }
+
+    @Test
+    void backwardShiftDeletionKeepsCollidingKeysReachable() {
+        // "Aa" and "BB" have the same hashCode, so every combination of them lands on the same home slot
+        List<String> colliding = new ArrayList<>();
+        for (int bits = 0; bits < 32; bits++) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                key.append((bits >> i & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding.add(key.toString());
+        }
+        PendingRequestTable<String> table = table(64, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        for (String key : colliding) {
+            table.put(key, "c", key, 100);
+        }
+
+        // Remove from the front, the middle and the end of the probe run
+        Set<String> remaining = new HashSet<>(colliding);
+        for (int i : new int[] {0, 15, 31, 1, 16, 30}) {
+            String key = colliding.get(i);
+            assertEquals(key, table.remove(key).target);
+            remaining.remove(key);
+            assertFalse(table.contains(key));
+            for (String other : remaining) {
+                assertEquals(other, table.get(other).target, "lost " + other + " after removing " + key);
+            }
+        }
+        assertEquals(26, table.size());
+
+        // Freed slots are reused and re-inserted keys are found again
+        table.put(colliding.get(15), "c", "again", 100);
+        assertEquals("again", table.get(colliding.get(15)).target);
+    }
+
+    @Test
+    void matchesAMapUnderRandomOperationsAcrossGrowth() {
+        PendingRequestTable<String> table = table(5000, PendingRequestTable.OverflowPolicy.REJECT_NEW);
+        Map<String, Long> model = new HashMap<>();
+        Random random = new Random(42);
+        for (int op = 0; op < 50_000; op++) {
+            String key = "req-" + random.nextInt(6000);
+            long deadline = random.nextInt(1_000_000);
+            if (random.nextInt(3) == 0) {
+                PendingRequestTable.Entry<String> removed = table.remove(key);
+                Long expected = model.remove(key);
+                assertEquals(expected, removed == null ? null : removed.deadline);
+            } else {
+                PendingRequestTable.Admission admission = table.put(key, "c", key, deadline);
+                if (model.containsKey(key)) {
+                    assertEquals(PendingRequestTable.Admission.DUPLICATE, admission);
+                } else if (model.size() == 5000) {
+                    assertEquals(PendingRequestTable.Admission.REJECTED_FULL, admission);
+                } else {
+                    assertEquals(PendingRequestTable.Admission.ADMITTED, admission);
+                    model.put(key, deadline);
+                }
+            }
+            assertEquals(model.size(), table.size());
+        }
+        for (Map.Entry<String, Long> entry : model.entrySet()) {
+            assertEquals(entry.getValue().longValue(), table.get(entry.getKey()).deadline);
+        }
+
+        assertEquals(model.size(), table.expire(Long.MAX_VALUE));
+        for (int i = 1; i < expired.size(); i++) {
+            assertTrue(expired.get(i - 1).deadline <= expired.get(i).deadline, "expired out of deadline order at " + i);
+        }
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,143 @@
+// src/test/java/com/example/websocket/RelayClusterTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RelayClusterTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final RelayConfig config = config();
+    private final NodeRegistry registry = new NodeRegistry(config);
+    private final OutboundDispatcher outbound = new OutboundDispatcher(config, scheduler);
+    private final RelayCluster cluster = new RelayCluster(config, null, registry, outbound);
+    private int nextConnection;
+
+    private static RelayConfig config() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_ID", "relay-a");
+        settings.put("RELAY_CLUSTER_PEERS", "");
+        return RelayConfig.load(settings);
+    }
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    private TestConnection link() {
+        return new TestConnection(nextConnection++);
+    }
+
+    private void receive(String peerRelayId, String frame) {
+        cluster.handleDirectoryFrame(peerRelayId, FrameEnvelope.parse(frame));
+    }
+
+    @Test
+    void sendsItsOwnNodesWhenALinkIsIdentified() {
+        registry.registerClientNode("n1", link());
+        registry.registerClientNode("n2", link());
+        registry.registerBatchServerClient("batch-1", link());
+        TestConnection peer = link();
+
+        cluster.peerIdentified("relay-b", peer);
+
+        JsonObject directory = JsonParser.parseString(peer.texts.get(0)).getAsJsonObject();
+        assertEquals("relay_directory", directory.get("type").getAsString());
+        assertEquals(2, directory.getAsJsonArray("nodeIds").size());
+        assertEquals(Collections.singletonList("relay-b"), cluster.snapshot().connectedPeers);
+    }
+
+    @Test
+    void appliesDirectoriesAndNodeChangesFromPeers() {
+        receive("relay-b", FrameWriter.relayDirectory(Arrays.asList("n1", "n2")));
+        receive("relay-c", FrameWriter.relayDirectory(Collections.singletonList("n3")));
+
+        assertEquals("relay-b", cluster.ownerOf("n1"));
+        assertEquals("relay-c", cluster.ownerOf("n3"));
+        assertNull(cluster.ownerOf("n4"));
+
+        receive("relay-c", FrameWriter.relayNodeChange("n4", true));
+        receive("relay-b", FrameWriter.relayNodeChange("n1", false));
+        assertEquals("relay-c", cluster.ownerOf("n4"));
+        assertNull(cluster.ownerOf("n1"));
+
+        // A node that moved is not dropped by a late relay_node_down from its old relay
+        receive("relay-c", FrameWriter.relayNodeChange("n2", true));
+        receive("relay-b", FrameWriter.relayNodeChange("n2", false));
+        assertEquals("relay-c", cluster.ownerOf("n2"));
+    }
+
+    @Test
+    void aNewDirectoryReplacesWhatThePeerAnnouncedBefore() {
+        receive("relay-b", FrameWriter.relayDirectory(Arrays.asList("n1", "n2")));
+
+        receive("relay-b", FrameWriter.relayDirectory(Collections.singletonList("n3")));
+
+        assertNull(cluster.ownerOf("n1"));
+        assertNull(cluster.ownerOf("n2"));
+        assertEquals("relay-b", cluster.ownerOf("n3"));
+        assertEquals(Collections.singletonMap("relay-b", 1), cluster.snapshot().remoteNodesByRelay);
+    }
+
+    @Test
+    void forgetsAPeersNodesOnlyWhenItsLastLinkCloses() {
+        TestConnection dialed = link();
+        TestConnection accepted = link();
+        cluster.peerIdentified("relay-b", dialed);
+        cluster.peerIdentified("relay-b", accepted);
+        receive("relay-b", FrameWriter.relayDirectory(Arrays.asList("n1", "n2")));
+
+        cluster.peerClosed("relay-b", dialed);
+        assertEquals("relay-b", cluster.ownerOf("n1"));
+
+        cluster.peerClosed("relay-b", accepted);
+        assertNull(cluster.ownerOf("n1"));
+        assertNull(cluster.ownerOf("n2"));
+        assertEquals(Collections.emptyList(), cluster.snapshot().connectedPeers);
+    }
+
+    @Test
+    void announcesLocalNodeChangesToEveryPeer() {
+        TestConnection b = link();
+        TestConnection c = link();
+        cluster.peerIdentified("relay-b", b);
+        cluster.peerIdentified("relay-c", c);
+
+        cluster.announceNodeUp("n1");
+        cluster.announceNodeDown("n1");
+
+        for (TestConnection peer : Arrays.asList(b, c)) {
+            assertEquals(3, peer.texts.size());
+            JsonObject up = JsonParser.parseString(peer.texts.get(1)).getAsJsonObject();
+            assertEquals("relay_node_up", up.get("type").getAsString());
+            assertEquals("n1", up.get("nodeId").getAsString());
+            assertEquals("relay_node_down", JsonParser.parseString(peer.texts.get(2)).getAsJsonObject().get("type").getAsString());
+        }
+    }
+
+    @Test
+    void sendsToAnOpenLinkOfThePeer() {
+        TestConnection closed = link();
+        TestConnection open = link();
+        cluster.peerIdentified("relay-b", closed);
+        cluster.peerIdentified("relay-b", open);
+        closed.close(1006, "gone");
+
+        assertEquals(OutboundQueue.SendResult.SENT, cluster.send("relay-b", "{\"type\":\"x\"}"));
+        assertEquals("{\"type\":\"x\"}", open.texts.get(open.texts.size() - 1));
+        assertEquals(OutboundQueue.SendResult.CLOSED, cluster.send("relay-z", "{\"type\":\"x\"}"));
+    }
+}
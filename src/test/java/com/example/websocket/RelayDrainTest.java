@@ -0,0 +1,160 @@
+// src/test/java/com/example/websocket/RelayDrainTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Server.drain, driven straight into a relay that is not listening. */
+class RelayDrainTest {
+
+    private Server server;
+    private int nextConnection;
+
+    @BeforeEach
+    void startServer() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_DRAIN_RECONNECT_DELAY_MS", "1000");
+        settings.put("RELAY_DRAIN_RECONNECT_JITTER_MS", "500");
+        settings.put("RELAY_CLUSTER_PEERS", "");
+        server = new Server(0, RelayConfig.load(settings), InboundDispatcher.Mode.INLINE);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.shutdown();
+    }
+
+    private TestConnection identify(String message) {
+        TestConnection conn = new TestConnection(nextConnection++);
+        server.onOpen(conn, "/");
+        server.onMessage(conn, message);
+        return conn;
+    }
+
+    private TestConnection node(String nodeId) {
+        return identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"" + nodeId + "\"}");
+    }
+
+    private TestConnection client() {
+        return identify("{\"type\":\"identify_batch_client\",\"clientId\":\"batch-1\"}");
+    }
+
+    private static JsonObject frame(TestConnection conn, int index) {
+        return JsonParser.parseString(conn.texts.get(index)).getAsJsonObject();
+    }
+
+    private static JsonObject lastFrame(TestConnection conn) {
+        assertTrue(!conn.texts.isEmpty(), "nothing sent");
+        return frame(conn, conn.texts.size() - 1);
+    }
+
+    /** The relay_draining notice, checking its reconnectInMs lies within delay + jitter. */
+    private static JsonObject drainNotice(TestConnection conn) {
+        for (int i = conn.texts.size() - 1; i >= 0; i--) {
+            JsonObject frame = frame(conn, i);
+            if ("relay_draining".equals(frame.get("type").getAsString())) {
+                long reconnectInMs = frame.get("reconnectInMs").getAsLong();
+                assertTrue(reconnectInMs >= 1000 && reconnectInMs <= 1500, "reconnectInMs " + reconnectInMs);
+                return frame;
+            }
+        }
+        throw new AssertionError("no relay_draining notice in " + conn.texts);
+    }
+
+    private void command(TestConnection client, String requestId, String nodeId) {
+        server.onMessage(client, "{\"type\":\"node_command\",\"requestId\":\"" + requestId + "\",\"nodeId\":\"" + nodeId
+                + "\",\"command\":{\"action\":\"screenshot\"}}");
+    }
+
+    private void respond(TestConnection node, String requestId) {
+        server.onMessage(node, "{\"type\":\"node_response\",\"requestId\":\"" + requestId + "\",\"response\":{\"status\":\"ok\"}}");
+    }
+
+    @Test
+    void closesEveryoneWithANoticeWhenNothingIsInFlight() {
+        TestConnection node = node("n1");
+        TestConnection client = client();
+
+        assertTrue(server.drain(5000));
+
+        assertTrue(server.isDraining());
+        drainNotice(node);
+        drainNotice(client);
+        assertEquals(1012, node.closeCode);
+        assertEquals(1012, client.closeCode);
+    }
+
+    @Test
+    void letsRequestsInFlightFinishBeforeClosingTheirNode() throws Exception {
+        TestConnection busy = node("n1");
+        TestConnection idle = node("n2");
+        TestConnection client = client();
+        command(client, "r1", "n1");
+
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> server.drain(5000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (idle.isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1012, idle.closeCode, "a node with nothing in flight goes first");
+        assertTrue(busy.isOpen());
+        assertTrue(client.isOpen());
+
+        respond(busy, "r1");
+
+        assertTrue(drained.get(5, TimeUnit.SECONDS));
+        assertEquals(1012, busy.closeCode);
+        assertEquals(1012, client.closeCode);
+        assertTrue(client.texts.stream().anyMatch(text -> text.contains("\"requestId\":\"r1\"")), "the answer reached the client");
+    }
+
+    @Test
+    void endsEarlyWhenRequestsOutliveTheTimeout() {
+        TestConnection node = node("n1");
+        TestConnection client = client();
+        command(client, "r1", "n1");
+
+        assertFalse(server.drain(150));
+
+        assertEquals(1012, node.closeCode);
+        assertEquals(1012, client.closeCode);
+    }
+
+    @Test
+    void turnsAwayNewConnectionsAndCommandsWhileDraining() throws Exception {
+        TestConnection node = node("n1");
+        TestConnection client = client();
+        command(client, "r1", "n1");
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(() -> server.drain(5000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!server.isDraining() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        TestConnection late = node("n2");
+        drainNotice(late);
+        assertEquals(1012, late.closeCode);
+
+        command(client, "r2", "n1");
+        JsonObject refused = lastFrame(client);
+        assertEquals("error", refused.get("type").getAsString());
+        assertEquals("r2", refused.get("requestId").getAsString());
+        assertTrue(refused.get("message").getAsString().contains("restarting"), refused.get("message").getAsString());
+        assertFalse(node.texts.stream().anyMatch(text -> text.contains("\"requestId\":\"r2\"")));
+
+        respond(node, "r1");
+        assertTrue(drained.get(5, TimeUnit.SECONDS));
+    }
+}
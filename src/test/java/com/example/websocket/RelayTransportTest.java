@@ -0,0 +1,291 @@
+// src/test/java/com/example/websocket/RelayTransportTest.java
+package com.example.websocket;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * End-to-end behaviour of a relay on each transport, driven by java.net.http WebSocket clients: the same
+ * frames must give the same answers and close codes whichever engine accepted the connection.
+ */
+@Timeout(60)
+class RelayTransportTest {
+
+    private static final int MAX_FRAME_BYTES = 16 * 1024;
+    private static final long WAIT_SECONDS = 10;
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private Server server;
+
+    private Server start(TransportEngine.Kind transport) throws InterruptedException {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_TRANSPORT", transport.name());
+        settings.put("RELAY_MAX_FRAME_BYTES", String.valueOf(MAX_FRAME_BYTES));
+        settings.put("RELAY_NIO_EVENT_LOOPS", "1");
+        settings.put("RELAY_DECODER_THREADS", "1");
+        settings.put("RELAY_WORKER_THREADS", "2");
+        settings.put("RELAY_HEALTH_INTERVAL_MS", "0");
+        settings.put("RELAY_HEALTH_PING_INTERVAL_MS", "0");
+        settings.put("RELAY_CLUSTER_PEERS", "");
+        settings.put("RELAY_DRAIN_TIMEOUT_MS", "2000");
+        settings.put("RELAY_DRAIN_RECONNECT_JITTER_MS", "0");
+        server = new Server(0, RelayConfig.load(settings));
+        server.start();
+        long deadline = System.currentTimeMillis() + WAIT_SECONDS * 1000;
+        while (server.getPort() <= 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(transport + " transport did not bind a port");
+            }
+            Thread.sleep(20);
+        }
+        return server;
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    private Client connect(String path) throws Exception {
+        Client client = new Client();
+        client.socket = http.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + server.getPort() + path), client)
+                .get(WAIT_SECONDS, TimeUnit.SECONDS);
+        return client;
+    }
+
+    private Client identify(String message) throws Exception {
+        Client client = connect("/");
+        client.send(message);
+        assertEquals("acknowledgement", client.nextFrame().get("type").getAsString());
+        return client;
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void relaysACommandAndItsResponse(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client node = identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"n1\",\"capabilities\":{\"os\":\"windows\"}}");
+        Client batch = identify("{\"type\":\"identify_batch_client\",\"clientId\":\"batch-1\"}");
+        assertTrue(server.getNodes().containsKey("n1"));
+
+        batch.send("{\"type\":\"node_command\",\"requestId\":\"r1\",\"nodeId\":\"n1\",\"command\":{\"action\":\"screenshot\"}}");
+        JsonObject command = node.nextFrame();
+        assertEquals("command", command.get("type").getAsString());
+        assertEquals("r1", command.get("requestId").getAsString());
+        assertEquals("screenshot", command.getAsJsonObject("command").get("action").getAsString());
+
+        node.send("{\"type\":\"node_response\",\"requestId\":\"r1\",\"response\":{\"status\":\"success\",\"data\":\"abc\"}}");
+        JsonObject response = batch.nextFrame();
+        assertEquals("node_response", response.get("type").getAsString());
+        assertEquals("r1", response.get("requestId").getAsString());
+        assertEquals("n1", response.get("nodeId").getAsString());
+        assertEquals("abc", response.getAsJsonObject("response").get("data").getAsString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void reassemblesFragmentedMessages(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client node = connect("/");
+
+        node.sendFragments("{\"type\":\"identify_rpa_", "node\",\"nodeId\"", ":\"n1\"}");
+
+        assertEquals("acknowledgement", node.nextFrame().get("type").getAsString());
+        assertTrue(server.getNodes().containsKey("n1"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void closesWith1009OnAMessageOverTheLimit(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client client = connect("/");
+        StringBuilder message = new StringBuilder("{\"type\":\"identify_rpa_node\",\"nodeId\":\"");
+        while (message.length() <= MAX_FRAME_BYTES) {
+            message.append("xxxxxxxxxxxxxxxx");
+        }
+
+        client.send(message.append("\"}").toString());
+
+        assertEquals("close:1009", client.nextEvent());
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void completesTheClosingHandshake(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client node = identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"n1\"}");
+
+        node.socket.sendClose(WebSocket.NORMAL_CLOSURE, "bye").get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals("close:1000", node.nextEvent());
+        long deadline = System.currentTimeMillis() + WAIT_SECONDS * 1000;
+        while (server.getNodes().containsKey("n1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(server.getNodes().containsKey("n1"), "node still registered after closing");
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void answersPings(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client client = connect("/");
+
+        client.socket.sendPing(ByteBuffer.wrap("are you there".getBytes(StandardCharsets.UTF_8))).get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals("pong:are you there", client.nextEvent());
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void answersAPingBetweenTheFragmentsOfAMessage(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client node = connect("/");
+
+        node.socket.sendText("{\"type\":\"identify_rpa_node\",", false).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        node.socket.sendPing(ByteBuffer.wrap("mid".getBytes(StandardCharsets.UTF_8))).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        node.socket.sendText("\"nodeId\":\"n1\"}", true).get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals("pong:mid", node.nextEvent());
+        assertEquals("acknowledgement", node.nextFrame().get("type").getAsString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void closesWith1007OnInvalidUtf8(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        // java.net.http only sends well-formed text, so this one speaks the protocol over a plain socket
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(WAIT_SECONDS));
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (int matched = 0; matched < 4; ) {
+                int b = in.readUnsignedByte();
+                matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+
+            // FIN text frame, masked with a zero key, carrying a lone continuation byte
+            out.write(new byte[] {(byte) 0x81, (byte) 0x81, 0, 0, 0, 0, (byte) 0x80});
+            out.flush();
+
+            int opcode = in.readUnsignedByte() & 0x0F;
+            int length = in.readUnsignedByte() & 0x7F;
+            assertEquals(0x8, opcode, "expected a close frame");
+            assertTrue(length >= 2, "close frame without a code");
+            assertEquals(1007, in.readUnsignedShort());
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(TransportEngine.Kind.class)
+    void shutsDownWith1012ForIdentifiedClientsAnd1001ForTheRest(TransportEngine.Kind transport) throws Exception {
+        start(transport);
+        Client node = identify("{\"type\":\"identify_rpa_node\",\"nodeId\":\"n1\"}");
+        Client anonymous = connect("/");
+
+        server.shutdown();
+        server = null;
+
+        JsonObject notice = node.nextFrame();
+        assertEquals("relay_draining", notice.get("type").getAsString());
+        assertEquals("close:1012", node.nextEvent());
+        assertEquals("close:1001", anonymous.nextEvent());
+    }
+
+    @Test
+    void refusesToStartJavaWebSocketWithReusePort() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put("RELAY_REUSE_PORT", "true");
+
+        assertThrows(IllegalStateException.class, () -> new JavaWebSocketEngine(0, RelayConfig.load(settings), null));
+    }
+
+    /** Collects what the relay sends: text frames as-is, "pong:" + payload, and "close:" + code. */
+    static final class Client implements WebSocket.Listener {
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private final StringBuilder partial = new StringBuilder();
+        WebSocket socket;
+
+        void send(String text) throws Exception {
+            socket.sendText(text, true).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        void sendFragments(String... fragments) throws Exception {
+            for (int i = 0; i < fragments.length; i++) {
+                socket.sendText(fragments[i], i == fragments.length - 1).get(WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+
+        String nextEvent() throws InterruptedException {
+            String event = events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(event, "nothing received within " + WAIT_SECONDS + " s");
+            return event;
+        }
+
+        JsonObject nextFrame() throws InterruptedException {
+            String event = nextEvent();
+            return JsonParser.parseString(event).getAsJsonObject();
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                events.add(partial.toString());
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            events.add("pong:" + StandardCharsets.UTF_8.decode(message));
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            events.add("close:" + statusCode);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            events.add("error:" + error);
+        }
+    }
+}
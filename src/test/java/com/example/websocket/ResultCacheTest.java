@@ -0,0 +1,103 @@
+// src/test/java/com/example/websocket/ResultCacheTest.java
+package com.example.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCacheTest {
+
+    private final ResultCache cache = new ResultCache(Arrays.asList("read_file", "list_windows"), 60_000, 3);
+
+    private static FrameEnvelope command(String action, String params) {
+        return FrameEnvelope.parse("{\"type\":\"node_command\",\"requestId\":\"r1\",\"nodeId\":\"n1\",\"command\":{\"action\":\""
+                + action + "\",\"params\":" + params + "}}");
+    }
+
+    /** Caches the 'response' object of a node_response frame under key. */
+    private static void put(ResultCache cache, String key, String nodeId, String response) {
+        String frame = "{\"type\":\"node_response\",\"requestId\":\"r1\",\"response\":" + response + "}";
+        int start = frame.indexOf(response);
+        cache.put(key, nodeId, frame, start, start + response.length());
+    }
+
+    @Test
+    void keysIdempotentCommandsByNodeAndCommandText() {
+        String key = cache.keyFor("n1", command("read_file", "{\"path\":\"a.txt\"}"));
+
+        assertEquals(key, cache.keyFor("n1", command("read_file", "{\"path\":\"a.txt\"}")));
+        assertNotEquals(key, cache.keyFor("n2", command("read_file", "{\"path\":\"a.txt\"}")));
+        assertNotEquals(key, cache.keyFor("n1", command("read_file", "{\"path\":\"b.txt\"}")));
+        assertNull(cache.keyFor("n1", command("click", "{}")), "only RELAY_IDEMPOTENT_ACTIONS are cached");
+        assertNull(cache.keyFor(null, command("read_file", "{}")), "selector commands have no node to key by");
+    }
+
+    @Test
+    void answersFromTheCacheUntilTheEntryExpires() throws InterruptedException {
+        String key = cache.keyFor("n1", command("read_file", "{}"));
+        assertNull(cache.get(key));
+
+        put(cache, key, "n1", "{\"status\":\"success\",\"data\":\"abc\"}");
+
+        assertEquals("{\"status\":\"success\",\"data\":\"abc\"}", cache.get(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        ResultCache shortLived = new ResultCache(Collections.singletonList("read_file"), 1, 10);
+        put(shortLived, key, "n1", "{\"status\":\"success\"}");
+        Thread.sleep(5);
+        assertNull(shortLived.get(key));
+        assertEquals(0, shortLived.size());
+    }
+
+    @Test
+    void doesNotCacheErrors() {
+        String key = cache.keyFor("n1", command("read_file", "{}"));
+
+        put(cache, key, "n1", "{\"status\":\"error\",\"message\":\"denied\"}");
+        put(cache, key, "n1", "\"not an object\"");
+
+        assertNull(cache.get(key));
+        assertTrue(ResultCache.isErrorResponse("{\"data\":1,\"status\":\"ERROR\"}", 0, 27));
+        assertFalse(ResultCache.isErrorResponse("{\"status\":\"success\"}", 0, 20));
+    }
+
+    @Test
+    void dropsTheLeastRecentlyUsedEntryBeyondTheLimit() {
+        put(cache, "k1", "n1", "{}");
+        put(cache, "k2", "n1", "{}");
+        put(cache, "k3", "n1", "{}");
+        cache.get("k1");
+
+        put(cache, "k4", "n1", "{}");
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("k2"));
+        assertEquals("{}", cache.get("k1"));
+    }
+
+    @Test
+    void forgetsEverythingOfANodeThatDisconnects() {
+        put(cache, "k1", "n1", "{}");
+        put(cache, "k2", "n2", "{}");
+
+        cache.invalidateNode("n1");
+
+        assertNull(cache.get("k1"));
+        assertEquals("{}", cache.get("k2"));
+    }
+
+    @Test
+    void isDisabledWithoutActionsOrTtl() {
+        assertFalse(new ResultCache(Collections.emptyList(), 1000, 10).isEnabled());
+        assertFalse(new ResultCache(Collections.singletonList("read_file"), 0, 10).isEnabled());
+        assertNull(new ResultCache(Collections.emptyList(), 1000, 10).keyFor("n1", command("read_file", "{}")));
+    }
+}
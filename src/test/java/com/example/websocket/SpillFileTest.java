@@ -0,0 +1,81 @@
+// src/test/java/com/example/websocket/SpillFileTest.java
+package com.example.websocket;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillFileTest {
+
+    private final Path directory = createDirectory();
+    private SpillFile spill;
+
+    private static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("spill");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        if (spill != null) {
+            spill.delete();
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void readsFramesBackInTheOrderTheyWereAppended() throws IOException {
+        spill = SpillFile.create(directory, "test-", 1024);
+
+        assertTrue(spill.append("{\"n\":1}"));
+        assertTrue(spill.append("grüße €"));
+        assertTrue(spill.append(""));
+        assertEquals(3, spill.frames());
+
+        assertEquals("{\"n\":1}", spill.next());
+        assertEquals("grüße €", spill.next());
+        assertTrue(spill.append("late"));
+        assertEquals("", spill.next());
+        assertEquals("late", spill.next());
+        assertNull(spill.next());
+        assertEquals(0, spill.frames());
+    }
+
+    @Test
+    void refusesAFrameThatDoesNotFit() throws IOException {
+        spill = SpillFile.create(directory, "test-", 16);
+
+        assertTrue(spill.append("12345678"));
+        assertFalse(spill.append("1234"), "4 + 8 + 4 + 4 bytes is over 16");
+        assertTrue(spill.append(""));
+
+        assertEquals("12345678", spill.next());
+        assertEquals("", spill.next());
+        assertNull(spill.next());
+    }
+
+    @Test
+    void deletesItsFile() throws IOException {
+        spill = SpillFile.create(directory, "test-", 64);
+        spill.append("frame");
+
+        spill.delete();
+        spill = null;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// src/test/java/com/example/websocket/TestConnection.java
+package com.example.websocket;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** A connection that records every frame written to it and stays open until closed. */
+final class TestConnection implements RelayConnection {
+    private final InetSocketAddress address;
+    private volatile boolean open = true;
+    private Object attachment;
+    private volatile int pendingWrites = 0;
+    final List<String> texts = new CopyOnWriteArrayList<>();
+    final List<ByteBuffer> binaries = new CopyOnWriteArrayList<>();
+    volatile int closeCode = -1;
+
+    TestConnection(int id) {
+        try {
+            this.address = new InetSocketAddress(InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) id}), 40000 + id);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Pretends the transport holds this many frames it has not written to the socket yet. */
+    void setPendingWrites(int frames) {
+        pendingWrites = frames;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress() {
+        return address;
+    }
+
+    @Override
+    public void close(int code, String reason) {
+        if (open) {
+            closeCode = code;
+        }
+        open = false;
+    }
+
+    @Override
+    public boolean sendText(String text) {
+        if (open) {
+            texts.add(text);
+        }
+        return open;
+    }
+
+    @Override
+    public boolean sendText(byte[] utf8) {
+        return sendText(new String(utf8, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean sendBinary(ByteBuffer data) {
+        if (open) {
+            ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+            copy.put(data.duplicate()).flip();
+            binaries.add(copy);
+        }
+        return open;
+    }
+
+    @Override
+    public boolean sendBinary(byte[] data) {
+        return sendBinary(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public boolean sendPing() {
+        return open;
+    }
+
+    @Override
+    public int pendingWrites() {
+        return pendingWrites;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+
+    @Override
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+}